@@ -0,0 +1,206 @@
+/*
+* By downloading the PROGRAM you agree to the following terms of use:
+* 
+* BROAD INSTITUTE
+* SOFTWARE LICENSE AGREEMENT
+* FOR ACADEMIC NON-COMMERCIAL RESEARCH PURPOSES ONLY
+* 
+* This Agreement is made between the Broad Institute, Inc. with a principal address at 415 Main Street, Cambridge, MA 02142 (“BROAD”) and the LICENSEE and is effective at the date the downloading is completed (“EFFECTIVE DATE”).
+* 
+* WHEREAS, LICENSEE desires to license the PROGRAM, as defined hereinafter, and BROAD wishes to have this PROGRAM utilized in the public interest, subject only to the royalty-free, nonexclusive, nontransferable license rights of the United States Government pursuant to 48 CFR 52.227-14; and
+* WHEREAS, LICENSEE desires to license the PROGRAM and BROAD desires to grant a license on the following terms and conditions.
+* NOW, THEREFORE, in consideration of the promises and covenants made herein, the parties hereto agree as follows:
+* 
+* 1. DEFINITIONS
+* 1.1 PROGRAM shall mean copyright in the object code and source code known as GATK3 and related documentation, if any, as they exist on the EFFECTIVE DATE and can be downloaded from http://www.broadinstitute.org/gatk on the EFFECTIVE DATE.
+* 
+* 2. LICENSE
+* 2.1 Grant. Subject to the terms of this Agreement, BROAD hereby grants to LICENSEE, solely for academic non-commercial research purposes, a non-exclusive, non-transferable license to: (a) download, execute and display the PROGRAM and (b) create bug fixes and modify the PROGRAM. LICENSEE hereby automatically grants to BROAD a non-exclusive, royalty-free, irrevocable license to any LICENSEE bug fixes or modifications to the PROGRAM with unlimited rights to sublicense and/or distribute.  LICENSEE agrees to provide any such modifications and bug fixes to BROAD promptly upon their creation.
+* The LICENSEE may apply the PROGRAM in a pipeline to data owned by users other than the LICENSEE and provide these users the results of the PROGRAM provided LICENSEE does so for academic non-commercial purposes only. For clarification purposes, academic sponsored research is not a commercial use under the terms of this Agreement.
+* 2.2 No Sublicensing or Additional Rights. LICENSEE shall not sublicense or distribute the PROGRAM, in whole or in part, without prior written permission from BROAD. LICENSEE shall ensure that all of its users agree to the terms of this Agreement. LICENSEE further agrees that it shall not put the PROGRAM on a network, server, or other similar technology that may be accessed by anyone other than the LICENSEE and its employees and users who have agreed to the terms of this agreement.
+* 2.3 License Limitations. Nothing in this Agreement shall be construed to confer any rights upon LICENSEE by implication, estoppel, or otherwise to any computer software, trademark, intellectual property, or patent rights of BROAD, or of any other entity, except as expressly granted herein. LICENSEE agrees that the PROGRAM, in whole or part, shall not be used for any commercial purpose, including without limitation, as the basis of a commercial software or hardware product or to provide services. LICENSEE further agrees that the PROGRAM shall not be copied or otherwise adapted in order to circumvent the need for obtaining a license for use of the PROGRAM.
+* 
+* 3. PHONE-HOME FEATURE
+* LICENSEE expressly acknowledges that the PROGRAM contains an embedded automatic reporting system (“PHONE-HOME”) which is enabled by default upon download. Unless LICENSEE requests disablement of PHONE-HOME, LICENSEE agrees that BROAD may collect limited information transmitted by PHONE-HOME regarding LICENSEE and its use of the PROGRAM.  Such information shall include LICENSEE’S user identification, version number of the PROGRAM and tools being run, mode of analysis employed, and any error reports generated during run-time.  Collection of such information is used by BROAD solely to monitor usage rates, fulfill reporting requirements to BROAD funding agencies, drive improvements to the PROGRAM, and facilitate adjustments to PROGRAM-related documentation.
+* 
+* 4. OWNERSHIP OF INTELLECTUAL PROPERTY
+* LICENSEE acknowledges that title to the PROGRAM shall remain with BROAD. The PROGRAM is marked with the following BROAD copyright notice and notice of attribution to contributors. LICENSEE shall retain such notice on all copies. LICENSEE agrees to include appropriate attribution if any results obtained from use of the PROGRAM are included in any publication.
+* Copyright 2012-2014 Broad Institute, Inc.
+* Notice of attribution: The GATK3 program was made available through the generosity of Medical and Population Genetics program at the Broad Institute, Inc.
+* LICENSEE shall not use any trademark or trade name of BROAD, or any variation, adaptation, or abbreviation, of such marks or trade names, or any names of officers, faculty, students, employees, or agents of BROAD except as states above for attribution purposes.
+* 
+* 5. INDEMNIFICATION
+* LICENSEE shall indemnify, defend, and hold harmless BROAD, and their respective officers, faculty, students, employees, associated investigators and agents, and their respective successors, heirs and assigns, (Indemnitees), against any liability, damage, loss, or expense (including reasonable attorneys fees and expenses) incurred by or imposed upon any of the Indemnitees in connection with any claims, suits, actions, demands or judgments arising out of any theory of liability (including, without limitation, actions in the form of tort, warranty, or strict liability and regardless of whether such action has any factual basis) pursuant to any right or license granted under this Agreement.
+* 
+* 6. NO REPRESENTATIONS OR WARRANTIES
+* THE PROGRAM IS DELIVERED AS IS. BROAD MAKES NO REPRESENTATIONS OR WARRANTIES OF ANY KIND CONCERNING THE PROGRAM OR THE COPYRIGHT, EXPRESS OR IMPLIED, INCLUDING, WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER OR NOT DISCOVERABLE. BROAD EXTENDS NO WARRANTIES OF ANY KIND AS TO PROGRAM CONFORMITY WITH WHATEVER USER MANUALS OR OTHER LITERATURE MAY BE ISSUED FROM TIME TO TIME.
+* IN NO EVENT SHALL BROAD OR ITS RESPECTIVE DIRECTORS, OFFICERS, EMPLOYEES, AFFILIATED INVESTIGATORS AND AFFILIATES BE LIABLE FOR INCIDENTAL OR CONSEQUENTIAL DAMAGES OF ANY KIND, INCLUDING, WITHOUT LIMITATION, ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER BROAD SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+* 
+* 7. ASSIGNMENT
+* This Agreement is personal to LICENSEE and any rights or obligations assigned by LICENSEE without the prior written consent of BROAD shall be null and void.
+* 
+* 8. MISCELLANEOUS
+* 8.1 Export Control. LICENSEE gives assurance that it will comply with all United States export control laws and regulations controlling the export of the PROGRAM, including, without limitation, all Export Administration Regulations of the United States Department of Commerce. Among other things, these laws and regulations prohibit, or require a license for, the export of certain types of software to specified countries.
+* 8.2 Termination. LICENSEE shall have the right to terminate this Agreement for any reason upon prior written notice to BROAD. If LICENSEE breaches any provision hereunder, and fails to cure such breach within thirty (30) days, BROAD may terminate this Agreement immediately. Upon termination, LICENSEE shall provide BROAD with written assurance that the original and all copies of the PROGRAM have been destroyed, except that, upon prior written authorization from BROAD, LICENSEE may retain a copy for archive purposes.
+* 8.3 Survival. The following provisions shall survive the expiration or termination of this Agreement: Articles 1, 3, 4, 5 and Sections 2.2, 2.3, 7.3, and 7.4.
+* 8.4 Notice. Any notices under this Agreement shall be in writing, shall specifically refer to this Agreement, and shall be sent by hand, recognized national overnight courier, confirmed facsimile transmission, confirmed electronic mail, or registered or certified mail, postage prepaid, return receipt requested. All notices under this Agreement shall be deemed effective upon receipt.
+* 8.5 Amendment and Waiver; Entire Agreement. This Agreement may be amended, supplemented, or otherwise modified only by means of a written instrument signed by all parties. Any waiver of any rights or failure to act in a specific instance shall relate only to such instance and shall not be construed as an agreement to waive any rights or fail to act in any other instance, whether or not similar. This Agreement constitutes the entire agreement among the parties with respect to its subject matter and supersedes prior agreements or understandings between the parties relating to its subject matter.
+* 8.6 Binding Effect; Headings. This Agreement shall be binding upon and inure to the benefit of the parties and their respective permitted successors and assigns. All headings are for convenience only and shall not affect the meaning of any provision of this Agreement.
+* 8.7 Governing Law. This Agreement shall be construed, governed, interpreted and applied in accordance with the internal laws of the Commonwealth of Massachusetts, U.S.A., without regard to conflict of laws principles.
+*/
+
+package org.broadinstitute.gatk.engine.recalibration;
+
+import com.google.java.contract.Ensures;
+import org.broadinstitute.gatk.engine.recalibration.covariates.Covariate;
+import org.broadinstitute.gatk.utils.recalibration.EventType;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Recalibration counts that any number of threads can update concurrently, without locking
+ *
+ * Holds the number of observations and mismatches of the quality score table and of the optional covariate
+ * tables of a RecalibrationTables as primitive counters instead of RecalDatum objects.  The counters of a table
+ * for each read group x quality score pair are a single AtomicLongArray, allocated the first time one of them is
+ * incremented, and indexed by the mixed-radix index of the covariate key and event type.  Every update is an
+ * atomic add, so all of the threads of a multi-threaded BaseRecalibrator can share one instance instead of
+ * each needing its own RecalibrationTables that we then have to merge.
+ *
+ * The read group table isn't kept here, as it's derived from the quality score table after all of the
+ * updates are done.  Use toRecalibrationTables() to get the final counts as RecalibrationTables.
+ */
+public final class AtomicRecalibrationTables {
+    private final Covariate[] covariates;
+    private final int numReadGroups;
+    private final int qualDimension;
+    private final int eventDimension = EventType.values().length;
+
+    /**
+     * For each table, the number of key values of its own covariate (1 for the quality score table, as it has none)
+     */
+    private final int[] covariateDimensions;
+
+    /**
+     * For each table, the counters of each read group x quality score pair, or null for the read group table.
+     *
+     * The counters for covariate key and event are at 2 * (key * eventDimension + event) for the
+     * observations, and at the next index for the raw long bits of the (fractional) number of mismatches
+     */
+    private final ArrayList<AtomicReferenceArray<AtomicLongArray>> counters;
+
+    /**
+     * Create new, empty, tables
+     *
+     * @param covariates the covariates of the tables, order matters.  Must start with the read group and quality
+     *                   score covariates, just like for RecalibrationTables
+     * @param numReadGroups the number of read groups
+     */
+    public AtomicRecalibrationTables(final Covariate[] covariates, final int numReadGroups) {
+        if ( covariates == null ) throw new IllegalArgumentException("Covariates cannot be null");
+        if ( numReadGroups < 1 ) throw new IllegalArgumentException("numReadGroups must be >= 1 but got " + numReadGroups);
+
+        this.covariates = covariates.clone();
+        this.numReadGroups = numReadGroups;
+        this.qualDimension = covariates[RecalibrationTables.TableType.QUALITY_SCORE_TABLE.ordinal()].maximumKeyValue() + 1;
+
+        covariateDimensions = new int[covariates.length];
+        counters = new ArrayList<AtomicReferenceArray<AtomicLongArray>>(covariates.length);
+        for ( int i = 0; i < covariates.length; i++ ) {
+            if ( i == RecalibrationTables.TableType.READ_GROUP_TABLE.ordinal() ) {
+                counters.add(null);
+            } else {
+                covariateDimensions[i] = i == RecalibrationTables.TableType.QUALITY_SCORE_TABLE.ordinal() ? 1 : covariates[i].maximumKeyValue() + 1;
+                counters.add(new AtomicReferenceArray<AtomicLongArray>(numReadGroups * qualDimension));
+            }
+        }
+    }
+
+    /**
+     * Count one observation of an event in the quality score table and in all of the optional covariate tables
+     *
+     * Can be called concurrently by any number of threads.
+     *
+     * @param keys the keys of the observation, one for each covariate.  Optional covariates with a key < 0 are skipped
+     * @param eventIndex the ordinal of the EventType of the observation
+     * @param isError the (possibly fractional) number of errors of this observation
+     */
+    public void increment(final int[] keys, final int eventIndex, final double isError) {
+        final int readGroupAndQual = keys[0] * qualDimension + keys[1];
+
+        increment(RecalibrationTables.TableType.QUALITY_SCORE_TABLE.ordinal(), readGroupAndQual, 0, eventIndex, isError);
+        for ( int i = RecalibrationTables.TableType.OPTIONAL_COVARIATE_TABLES_START.ordinal(); i < counters.size(); i++ ) {
+            if ( keys[i] >= 0 )
+                increment(i, readGroupAndQual, keys[i], eventIndex, isError);
+        }
+    }
+
+    private void increment(final int table, final int readGroupAndQual, final int key, final int eventIndex, final double isError) {
+        final AtomicLongArray tableCounters = getOrCreateCounters(table, readGroupAndQual);
+        final int index = 2 * (key * eventDimension + eventIndex);
+
+        tableCounters.incrementAndGet(index);
+        if ( isError != 0.0 ) {
+            // there's no atomic add for doubles, so we compare and swap their bits until no other thread got in our way
+            while ( true ) {
+                final long current = tableCounters.get(index + 1);
+                if ( tableCounters.compareAndSet(index + 1, current, Double.doubleToRawLongBits(Double.longBitsToDouble(current) + isError)) )
+                    break;
+            }
+        }
+    }
+
+    private AtomicLongArray getOrCreateCounters(final int table, final int readGroupAndQual) {
+        final AtomicReferenceArray<AtomicLongArray> tableCounters = counters.get(table);
+        final AtomicLongArray existing = tableCounters.get(readGroupAndQual);
+        if ( existing != null )
+            return existing;
+
+        // if another thread came along and set the counters first we just use theirs
+        tableCounters.compareAndSet(readGroupAndQual, null, new AtomicLongArray(2 * covariateDimensions[table] * eventDimension));
+        return tableCounters.get(readGroupAndQual);
+    }
+
+    /**
+     * Get the counts in these tables as RecalibrationTables, with a RecalDatum for each of the
+     * combinations of keys that have been observed at least once
+     *
+     * Should only be called once all updates are done.  The read group table of the result is empty.
+     *
+     * @return newly allocated RecalibrationTables
+     */
+    @Ensures("result != null")
+    public RecalibrationTables toRecalibrationTables() {
+        final RecalibrationTables tables = new RecalibrationTables(covariates, numReadGroups);
+
+        for ( int table = RecalibrationTables.TableType.QUALITY_SCORE_TABLE.ordinal(); table < counters.size(); table++ ) {
+            final AtomicReferenceArray<AtomicLongArray> tableCounters = counters.get(table);
+            for ( int readGroupAndQual = 0; readGroupAndQual < tableCounters.length(); readGroupAndQual++ ) {
+                final AtomicLongArray values = tableCounters.get(readGroupAndQual);
+                if ( values == null )
+                    continue;
+
+                final int readGroup = readGroupAndQual / qualDimension;
+                final int qual = readGroupAndQual % qualDimension;
+                for ( int key = 0; key < covariateDimensions[table]; key++ ) {
+                    for ( int eventIndex = 0; eventIndex < eventDimension; eventIndex++ ) {
+                        final int index = 2 * (key * eventDimension + eventIndex);
+                        final long numObservations = values.get(index);
+                        if ( numObservations == 0 )
+                            continue;
+
+                        final RecalDatum datum = new RecalDatum(numObservations, Double.longBitsToDouble(values.get(index + 1)), (byte) qual);
+                        if ( table == RecalibrationTables.TableType.QUALITY_SCORE_TABLE.ordinal() )
+                            tables.getTable(table).put(datum, readGroup, qual, eventIndex);
+                        else
+                            tables.getTable(table).put(datum, readGroup, qual, key, eventIndex);
+                    }
+                }
+            }
+        }
+
+        return tables;
+    }
+}
@@ -78,23 +78,60 @@ public class BQSRGatherer extends Gatherer  {
 
     @Override
     public void gather(final List<File> inputs, final File output) {
-        final PrintStream outputFile;
-        try {
-            outputFile = new PrintStream(output);
-        } catch(FileNotFoundException e) {
-            throw new UserException.MissingArgument("output", MISSING_OUTPUT_FILE);
+        // binary reports are merged as a stream, without loading them; anything else is combined the GATKReport way
+        boolean allBinary = ! inputs.isEmpty();
+        for (final File input : inputs)
+            allBinary &= BinaryRecalibrationReport.isBinaryReport(input);
+        if (allBinary) {
+            logMissingReadGroups(inputs);
+            if (! BinaryRecalibrationReport.merge(inputs, output))
+                throw new ReviewedGATKException(EMPTY_INPUT_LIST);
+        } else {
+            final PrintStream outputFile;
+            try {
+                outputFile = new PrintStream(output);
+            } catch(FileNotFoundException e) {
+                throw new UserException.MissingArgument("output", MISSING_OUTPUT_FILE);
+            }
+            final GATKReport report = gatherReport(inputs);
+            report.print(outputFile);
         }
-        final GATKReport report = gatherReport(inputs);
-        report.print(outputFile);
     }
 
     /**
      * Gathers the input recalibration reports into a single report.
      *
-     * @param inputs Input recalibration GATK reports
+     * @param inputs Input recalibration reports, GATK reports or binary reports
      * @return gathered recalibration GATK report
      */
     public static GATKReport gatherReport(final List<File> inputs) {
+        final SortedSet<String> allReadGroups = logMissingReadGroups(inputs);
+
+        RecalibrationReport generalReport = null;
+        for (File input : inputs) {
+            final RecalibrationReport inputReport = new RecalibrationReport(input, allReadGroups);
+            if( inputReport.isEmpty() ) { continue; }
+
+            if (generalReport == null)
+                generalReport = inputReport;
+            else
+                generalReport.combine(inputReport);
+        }
+        if (generalReport == null)
+            throw new ReviewedGATKException(EMPTY_INPUT_LIST);
+
+        generalReport.calculateQuantizedQualities();
+
+        return generalReport.createGATKReport();
+    }
+
+    /**
+     * Logs the read groups that are missing from each of the input reports.
+     *
+     * @param inputs Input recalibration reports
+     * @return the read groups of all of the input reports
+     */
+    private static SortedSet<String> logMissingReadGroups(final List<File> inputs) {
         final SortedSet<String> allReadGroups = new TreeSet<String>();
         final LinkedHashMap<File, Set<String>> inputReadGroups = new LinkedHashMap<File, Set<String>>();
 
@@ -118,21 +155,6 @@ public class BQSRGatherer extends Gatherer  {
             }
         }
 
-        RecalibrationReport generalReport = null;
-        for (File input : inputs) {
-            final RecalibrationReport inputReport = new RecalibrationReport(input, allReadGroups);
-            if( inputReport.isEmpty() ) { continue; }
-
-            if (generalReport == null)
-                generalReport = inputReport;
-            else
-                generalReport.combine(inputReport);
-        }
-        if (generalReport == null)
-            throw new ReviewedGATKException(EMPTY_INPUT_LIST);
-
-        generalReport.calculateQuantizedQualities();
-
-        return generalReport.createGATKReport();
+        return allReadGroups;
     }
 }
@@ -57,13 +57,13 @@ import htsjdk.samtools.SAMUtils;
 import org.apache.log4j.Logger;
 import org.broadinstitute.gatk.utils.MathUtils;
 import org.broadinstitute.gatk.utils.QualityUtils;
+import org.broadinstitute.gatk.utils.collections.NestedIntegerArray;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
 import org.broadinstitute.gatk.utils.recalibration.EventType;
 import org.broadinstitute.gatk.engine.recalibration.covariates.Covariate;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
 
 import java.io.File;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -77,8 +77,6 @@ public class BaseRecalibration {
     private static Logger logger = Logger.getLogger(BaseRecalibration.class);
     private final static boolean TEST_CACHING = false;
 
-    private final QuantizationInfo quantizationInfo; // histogram containing the map for qual quantization (calculated after recalibration is done)
-    private final RecalibrationTables recalibrationTables;
     private final Covariate[] requestedCovariates; // list of all covariates to be used in this calculation
 
     private final boolean disableIndelQuals;
@@ -86,6 +84,37 @@ public class BaseRecalibration {
     private final double globalQScorePrior;
     private final boolean emitOriginalQuals;
 
+    // The recalibration tables, compiled into primitive arrays so that recalibrating a base doesn't need to look up
+    // or evaluate any RecalDatums.  This works because the hierarchical estimate of a base's quality is the sum of a
+    // read group x reported qual term and a delta for each optional covariate, and the delta of each covariate
+    // depends only on the read group, reported qual, event type and its own key.
+    private final int eventDimension = EventType.values().length;
+    private final int numReadGroups;
+    private final int qualDimension;
+
+    /**
+     * The quantized quality of each recalibrated quality
+     */
+    private final byte[] quantizedQuals;
+
+    /**
+     * Indexed by read group x event type: whether the read group table has data for the read group, and if so
+     * epsilon + globalDeltaQ, the estimate for a base whose reported quality has no data
+     */
+    private final boolean[] hasReadGroupData;
+    private final double[] readGroupEstimates;
+
+    /**
+     * Indexed by read group x reported qual x event type: epsilon + globalDeltaQ + deltaQReported
+     */
+    private final double[] qualityScoreEstimates;
+
+    /**
+     * For each optional covariate table, indexed by read group x reported qual x event type: the deltaQ of each
+     * covariate key up to the last one with data, or null if none of the keys has data
+     */
+    private final double[][][] covariateDeltaQs;
+
     /**
      * Constructor using a GATK Report file
      *
@@ -95,11 +124,27 @@ public class BaseRecalibration {
      * @param preserveQLessThan  preserve quality scores less than this value
      */
     public BaseRecalibration(final File RECAL_FILE, final int quantizationLevels, final boolean disableIndelQuals, final int preserveQLessThan, final boolean emitOriginalQuals, final double globalQScorePrior) {
-        RecalibrationReport recalibrationReport = new RecalibrationReport(RECAL_FILE);
+        this(new RecalibrationReport(RECAL_FILE), quantizationLevels, disableIndelQuals, preserveQLessThan, emitOriginalQuals, globalQScorePrior);
+    }
 
-        recalibrationTables = recalibrationReport.getRecalibrationTables();
-        requestedCovariates = recalibrationReport.getRequestedCovariates();
-        quantizationInfo = recalibrationReport.getQuantizationInfo();
+    private BaseRecalibration(final RecalibrationReport recalibrationReport, final int quantizationLevels, final boolean disableIndelQuals, final int preserveQLessThan, final boolean emitOriginalQuals, final double globalQScorePrior) {
+        this(recalibrationReport.getRecalibrationTables(), recalibrationReport.getRequestedCovariates(), recalibrationReport.getQuantizationInfo(),
+                quantizationLevels, disableIndelQuals, preserveQLessThan, emitOriginalQuals, globalQScorePrior);
+    }
+
+    /**
+     * Constructor using already loaded recalibration information
+     *
+     * @param recalibrationTables the recalibration tables
+     * @param requestedCovariates the covariates used to build the tables
+     * @param quantizationInfo   histogram containing the map for qual quantization (calculated after recalibration is done)
+     * @param quantizationLevels number of bins to quantize the quality scores
+     * @param disableIndelQuals  if true, do not emit base indel qualities
+     * @param preserveQLessThan  preserve quality scores less than this value
+     */
+    protected BaseRecalibration(final RecalibrationTables recalibrationTables, final Covariate[] requestedCovariates, final QuantizationInfo quantizationInfo,
+                                final int quantizationLevels, final boolean disableIndelQuals, final int preserveQLessThan, final boolean emitOriginalQuals, final double globalQScorePrior) {
+        this.requestedCovariates = requestedCovariates;
         if (quantizationLevels == 0) // quantizationLevels == 0 means no quantization, preserve the quality scores
             quantizationInfo.noQuantization();
         else if (quantizationLevels > 0 && quantizationLevels != quantizationInfo.getQuantizationLevels()) // any other positive value means, we want a different quantization than the one pre-calculated in the recalibration report. Negative values mean the user did not provide a quantization argument, and just wants to use what's in the report.
@@ -109,6 +154,69 @@ public class BaseRecalibration {
         this.preserveQLessThan = preserveQLessThan;
         this.globalQScorePrior = globalQScorePrior;
         this.emitOriginalQuals = emitOriginalQuals;
+
+        final List<Byte> quantizedQualsList = quantizationInfo.getQuantizedQuals();
+        quantizedQuals = new byte[quantizedQualsList.size()];
+        for ( int i = 0; i < quantizedQuals.length; i++ )
+            quantizedQuals[i] = quantizedQualsList.get(i);
+
+        numReadGroups = recalibrationTables.getReadGroupTable().getDimensions()[0];
+        qualDimension = recalibrationTables.getQualityScoreTable().getDimensions()[1];
+        hasReadGroupData = new boolean[numReadGroups * eventDimension];
+        readGroupEstimates = new double[numReadGroups * eventDimension];
+        qualityScoreEstimates = new double[numReadGroups * qualDimension * eventDimension];
+        covariateDeltaQs = new double[requestedCovariates.length][][];
+        compileRecalibrationTables(recalibrationTables);
+    }
+
+    /**
+     * Evaluate all of the RecalDatums in recalibrationTables that recalibrating a base could need,
+     * in exactly the same way as hierarchicalBayesianQualityEstimate() does, into our primitive arrays
+     *
+     * @param recalibrationTables the tables to compile
+     */
+    private void compileRecalibrationTables(final RecalibrationTables recalibrationTables) {
+        for ( int i = RecalibrationTables.TableType.OPTIONAL_COVARIATE_TABLES_START.ordinal(); i < requestedCovariates.length; i++ )
+            covariateDeltaQs[i] = new double[numReadGroups * qualDimension * eventDimension][];
+
+        for ( int rgKey = 0; rgKey < numReadGroups; rgKey++ ) {
+            for ( final EventType errorModel : EventType.values() ) {
+                final RecalDatum empiricalQualRG = recalibrationTables.getReadGroupTable().get(rgKey, errorModel.ordinal());
+                if ( empiricalQualRG == null )
+                    continue;
+
+                final double epsilon = ( globalQScorePrior > 0.0 && errorModel.equals(EventType.BASE_SUBSTITUTION) ? globalQScorePrior : empiricalQualRG.getEstimatedQReported() );
+                final double globalDeltaQ = empiricalQualRG.getEmpiricalQuality(epsilon) - epsilon;
+                hasReadGroupData[rgKey * eventDimension + errorModel.ordinal()] = true;
+                readGroupEstimates[rgKey * eventDimension + errorModel.ordinal()] = epsilon + globalDeltaQ;
+
+                for ( int qualKey = 0; qualKey < qualDimension; qualKey++ ) {
+                    final int index = (rgKey * qualDimension + qualKey) * eventDimension + errorModel.ordinal();
+                    final RecalDatum empiricalQualQS = recalibrationTables.getQualityScoreTable().get(rgKey, qualKey, errorModel.ordinal());
+                    final double deltaQReported = ( empiricalQualQS == null ? 0.0 : empiricalQualQS.getEmpiricalQuality(globalDeltaQ + epsilon) - (globalDeltaQ + epsilon) );
+                    qualityScoreEstimates[index] = epsilon + globalDeltaQ + deltaQReported;
+
+                    for ( int i = RecalibrationTables.TableType.OPTIONAL_COVARIATE_TABLES_START.ordinal(); i < requestedCovariates.length; i++ ) {
+                        final NestedIntegerArray<RecalDatum> table = recalibrationTables.getTable(i);
+
+                        // only keep the keys up to the last one with data, as the keys of the covariates are often sparse
+                        int numCovariateKeys = table.getDimensions()[2];
+                        while ( numCovariateKeys > 0 && table.get(rgKey, qualKey, numCovariateKeys - 1, errorModel.ordinal()) == null )
+                            numCovariateKeys--;
+                        if ( numCovariateKeys == 0 )
+                            continue;
+
+                        final double[] deltaQs = new double[numCovariateKeys];
+                        for ( int covariateKey = 0; covariateKey < numCovariateKeys; covariateKey++ ) {
+                            final RecalDatum empiricalQualCov = table.get(rgKey, qualKey, covariateKey, errorModel.ordinal());
+                            if ( empiricalQualCov != null )
+                                deltaQs[covariateKey] = empiricalQualCov.getEmpiricalQuality(deltaQReported + globalDeltaQ + epsilon) - (deltaQReported + globalDeltaQ + epsilon);
+                        }
+                        covariateDeltaQs[i][index] = deltaQs;
+                    }
+                }
+            }
+        }
     }
 
     /**
@@ -155,11 +263,8 @@ public class BaseRecalibration {
 
             // the rg key is constant over the whole read, the global deltaQ is too
             final int rgKey = fullReadKeySet[0][0];
-            final RecalDatum empiricalQualRG = recalibrationTables.getReadGroupTable().get(rgKey, errorModel.ordinal());
-
-            if( empiricalQualRG != null ) {
-                final double epsilon = ( globalQScorePrior > 0.0 && errorModel.equals(EventType.BASE_SUBSTITUTION) ? globalQScorePrior : empiricalQualRG.getEstimatedQReported() );
 
+            if( rgKey < numReadGroups && hasReadGroupData[rgKey * eventDimension + errorModel.ordinal()] ) {
                 for (int offset = 0; offset < readLength; offset++) { // recalibrate all bases in the read
                     final byte origQual = quals[offset];
 
@@ -167,22 +272,28 @@ public class BaseRecalibration {
                     if ( origQual >= preserveQLessThan ) {
                         // get the keyset for this base using the error model
                         final int[] keySet = fullReadKeySet[offset];
-                        final RecalDatum empiricalQualQS = recalibrationTables.getQualityScoreTable().get(keySet[0], keySet[1], errorModel.ordinal());
-                        final List<RecalDatum> empiricalQualCovs = new ArrayList<RecalDatum>();
-                        for (int i = 2; i < requestedCovariates.length; i++) {
-                            if (keySet[i] < 0) {
-                                continue;
+                        final double recalibratedQualDouble;
+                        if ( keySet[1] < qualDimension ) {
+                            // the sum of the deltaQs of the covariates, just like hierarchicalBayesianQualityEstimate() adds them up
+                            final int index = (rgKey * qualDimension + keySet[1]) * eventDimension + errorModel.ordinal();
+                            double deltaQCovariates = 0.0;
+                            for (int i = 2; i < requestedCovariates.length; i++) {
+                                if (keySet[i] < 0) {
+                                    continue;
+                                }
+                                final double[] deltaQs = covariateDeltaQs[i][index];
+                                deltaQCovariates += ( deltaQs == null || keySet[i] >= deltaQs.length ? 0.0 : deltaQs[keySet[i]] );
                             }
-                            empiricalQualCovs.add(recalibrationTables.getTable(i).get(keySet[0], keySet[1], keySet[i], errorModel.ordinal()));
+                            recalibratedQualDouble = qualityScoreEstimates[index] + deltaQCovariates;
+                        } else {
+                            recalibratedQualDouble = readGroupEstimates[rgKey * eventDimension + errorModel.ordinal()];
                         }
 
-                        double recalibratedQualDouble = hierarchicalBayesianQualityEstimate( epsilon, empiricalQualRG, empiricalQualQS, empiricalQualCovs );
-
                         // recalibrated quality is bound between 1 and MAX_QUAL
                         final byte recalibratedQual = QualityUtils.boundQual(MathUtils.fastRound(recalibratedQualDouble), RecalDatum.MAX_RECALIBRATED_Q_SCORE);
 
                         // return the quantized version of the recalibrated quality
-                        final byte recalibratedQualityScore = quantizationInfo.getQuantizedQuals().get(recalibratedQual);
+                        final byte recalibratedQualityScore = quantizedQuals[recalibratedQual];
 
                         quals[offset] = recalibratedQualityScore;
                     }
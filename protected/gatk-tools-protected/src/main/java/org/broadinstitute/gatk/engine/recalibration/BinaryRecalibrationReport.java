@@ -0,0 +1,577 @@
+/*
+* By downloading the PROGRAM you agree to the following terms of use:
+* 
+* BROAD INSTITUTE
+* SOFTWARE LICENSE AGREEMENT
+* FOR ACADEMIC NON-COMMERCIAL RESEARCH PURPOSES ONLY
+* 
+* This Agreement is made between the Broad Institute, Inc. with a principal address at 415 Main Street, Cambridge, MA 02142 (“BROAD”) and the LICENSEE and is effective at the date the downloading is completed (“EFFECTIVE DATE”).
+* 
+* WHEREAS, LICENSEE desires to license the PROGRAM, as defined hereinafter, and BROAD wishes to have this PROGRAM utilized in the public interest, subject only to the royalty-free, nonexclusive, nontransferable license rights of the United States Government pursuant to 48 CFR 52.227-14; and
+* WHEREAS, LICENSEE desires to license the PROGRAM and BROAD desires to grant a license on the following terms and conditions.
+* NOW, THEREFORE, in consideration of the promises and covenants made herein, the parties hereto agree as follows:
+* 
+* 1. DEFINITIONS
+* 1.1 PROGRAM shall mean copyright in the object code and source code known as GATK3 and related documentation, if any, as they exist on the EFFECTIVE DATE and can be downloaded from http://www.broadinstitute.org/gatk on the EFFECTIVE DATE.
+* 
+* 2. LICENSE
+* 2.1 Grant. Subject to the terms of this Agreement, BROAD hereby grants to LICENSEE, solely for academic non-commercial research purposes, a non-exclusive, non-transferable license to: (a) download, execute and display the PROGRAM and (b) create bug fixes and modify the PROGRAM. LICENSEE hereby automatically grants to BROAD a non-exclusive, royalty-free, irrevocable license to any LICENSEE bug fixes or modifications to the PROGRAM with unlimited rights to sublicense and/or distribute.  LICENSEE agrees to provide any such modifications and bug fixes to BROAD promptly upon their creation.
+* The LICENSEE may apply the PROGRAM in a pipeline to data owned by users other than the LICENSEE and provide these users the results of the PROGRAM provided LICENSEE does so for academic non-commercial purposes only. For clarification purposes, academic sponsored research is not a commercial use under the terms of this Agreement.
+* 2.2 No Sublicensing or Additional Rights. LICENSEE shall not sublicense or distribute the PROGRAM, in whole or in part, without prior written permission from BROAD. LICENSEE shall ensure that all of its users agree to the terms of this Agreement. LICENSEE further agrees that it shall not put the PROGRAM on a network, server, or other similar technology that may be accessed by anyone other than the LICENSEE and its employees and users who have agreed to the terms of this agreement.
+* 2.3 License Limitations. Nothing in this Agreement shall be construed to confer any rights upon LICENSEE by implication, estoppel, or otherwise to any computer software, trademark, intellectual property, or patent rights of BROAD, or of any other entity, except as expressly granted herein. LICENSEE agrees that the PROGRAM, in whole or part, shall not be used for any commercial purpose, including without limitation, as the basis of a commercial software or hardware product or to provide services. LICENSEE further agrees that the PROGRAM shall not be copied or otherwise adapted in order to circumvent the need for obtaining a license for use of the PROGRAM.
+* 
+* 3. PHONE-HOME FEATURE
+* LICENSEE expressly acknowledges that the PROGRAM contains an embedded automatic reporting system (“PHONE-HOME”) which is enabled by default upon download. Unless LICENSEE requests disablement of PHONE-HOME, LICENSEE agrees that BROAD may collect limited information transmitted by PHONE-HOME regarding LICENSEE and its use of the PROGRAM.  Such information shall include LICENSEE’S user identification, version number of the PROGRAM and tools being run, mode of analysis employed, and any error reports generated during run-time.  Collection of such information is used by BROAD solely to monitor usage rates, fulfill reporting requirements to BROAD funding agencies, drive improvements to the PROGRAM, and facilitate adjustments to PROGRAM-related documentation.
+* 
+* 4. OWNERSHIP OF INTELLECTUAL PROPERTY
+* LICENSEE acknowledges that title to the PROGRAM shall remain with BROAD. The PROGRAM is marked with the following BROAD copyright notice and notice of attribution to contributors. LICENSEE shall retain such notice on all copies. LICENSEE agrees to include appropriate attribution if any results obtained from use of the PROGRAM are included in any publication.
+* Copyright 2012-2014 Broad Institute, Inc.
+* Notice of attribution: The GATK3 program was made available through the generosity of Medical and Population Genetics program at the Broad Institute, Inc.
+* LICENSEE shall not use any trademark or trade name of BROAD, or any variation, adaptation, or abbreviation, of such marks or trade names, or any names of officers, faculty, students, employees, or agents of BROAD except as states above for attribution purposes.
+* 
+* 5. INDEMNIFICATION
+* LICENSEE shall indemnify, defend, and hold harmless BROAD, and their respective officers, faculty, students, employees, associated investigators and agents, and their respective successors, heirs and assigns, (Indemnitees), against any liability, damage, loss, or expense (including reasonable attorneys fees and expenses) incurred by or imposed upon any of the Indemnitees in connection with any claims, suits, actions, demands or judgments arising out of any theory of liability (including, without limitation, actions in the form of tort, warranty, or strict liability and regardless of whether such action has any factual basis) pursuant to any right or license granted under this Agreement.
+* 
+* 6. NO REPRESENTATIONS OR WARRANTIES
+* THE PROGRAM IS DELIVERED AS IS. BROAD MAKES NO REPRESENTATIONS OR WARRANTIES OF ANY KIND CONCERNING THE PROGRAM OR THE COPYRIGHT, EXPRESS OR IMPLIED, INCLUDING, WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER OR NOT DISCOVERABLE. BROAD EXTENDS NO WARRANTIES OF ANY KIND AS TO PROGRAM CONFORMITY WITH WHATEVER USER MANUALS OR OTHER LITERATURE MAY BE ISSUED FROM TIME TO TIME.
+* IN NO EVENT SHALL BROAD OR ITS RESPECTIVE DIRECTORS, OFFICERS, EMPLOYEES, AFFILIATED INVESTIGATORS AND AFFILIATES BE LIABLE FOR INCIDENTAL OR CONSEQUENTIAL DAMAGES OF ANY KIND, INCLUDING, WITHOUT LIMITATION, ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER BROAD SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+* 
+* 7. ASSIGNMENT
+* This Agreement is personal to LICENSEE and any rights or obligations assigned by LICENSEE without the prior written consent of BROAD shall be null and void.
+* 
+* 8. MISCELLANEOUS
+* 8.1 Export Control. LICENSEE gives assurance that it will comply with all United States export control laws and regulations controlling the export of the PROGRAM, including, without limitation, all Export Administration Regulations of the United States Department of Commerce. Among other things, these laws and regulations prohibit, or require a license for, the export of certain types of software to specified countries.
+* 8.2 Termination. LICENSEE shall have the right to terminate this Agreement for any reason upon prior written notice to BROAD. If LICENSEE breaches any provision hereunder, and fails to cure such breach within thirty (30) days, BROAD may terminate this Agreement immediately. Upon termination, LICENSEE shall provide BROAD with written assurance that the original and all copies of the PROGRAM have been destroyed, except that, upon prior written authorization from BROAD, LICENSEE may retain a copy for archive purposes.
+* 8.3 Survival. The following provisions shall survive the expiration or termination of this Agreement: Articles 1, 3, 4, 5 and Sections 2.2, 2.3, 7.3, and 7.4.
+* 8.4 Notice. Any notices under this Agreement shall be in writing, shall specifically refer to this Agreement, and shall be sent by hand, recognized national overnight courier, confirmed facsimile transmission, confirmed electronic mail, or registered or certified mail, postage prepaid, return receipt requested. All notices under this Agreement shall be deemed effective upon receipt.
+* 8.5 Amendment and Waiver; Entire Agreement. This Agreement may be amended, supplemented, or otherwise modified only by means of a written instrument signed by all parties. Any waiver of any rights or failure to act in a specific instance shall relate only to such instance and shall not be construed as an agreement to waive any rights or fail to act in any other instance, whether or not similar. This Agreement constitutes the entire agreement among the parties with respect to its subject matter and supersedes prior agreements or understandings between the parties relating to its subject matter.
+* 8.6 Binding Effect; Headings. This Agreement shall be binding upon and inure to the benefit of the parties and their respective permitted successors and assigns. All headings are for convenience only and shall not affect the meaning of any provision of this Agreement.
+* 8.7 Governing Law. This Agreement shall be construed, governed, interpreted and applied in accordance with the internal laws of the Commonwealth of Massachusetts, U.S.A., without regard to conflict of laws principles.
+*/
+
+package org.broadinstitute.gatk.engine.recalibration;
+
+import org.broadinstitute.gatk.engine.recalibration.covariates.Covariate;
+import org.broadinstitute.gatk.utils.QualityUtils;
+import org.broadinstitute.gatk.utils.collections.NestedIntegerArray;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.broadinstitute.gatk.utils.io.IOUtils;
+import org.broadinstitute.gatk.utils.report.GATKReport;
+import org.broadinstitute.gatk.utils.report.GATKReportTable;
+import org.broadinstitute.gatk.utils.report.GATKReportVersion;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Reads, writes and merges recalibration reports in a binary format.
+ *
+ * A recalibration report in the GATKReport text format has to be parsed as a whole before its tables can be
+ * combined with anything, so gathering the reports of thousands of scattered BaseRecalibrator runs can take longer
+ * than making them.  In a binary report the records of each recalibration table are sorted by their keys, and the
+ * read group keys are positions in the sorted list of the read groups of the report, so any number of binary reports
+ * can be combined with a k-way merge that holds a single record of each report in memory.
+ *
+ * A binary report holds, in this order:
+ *
+ * - the magic number and the version of the format
+ * - the Arguments table, as the text of a GATKReport
+ * - the number of recalibration tables
+ * - the sorted read groups
+ * - the records of each recalibration table, in table order, each table ending with a read group key of -1.  A record
+ *   is the keys of a datum in the table followed by its number of observations, number of errors and estimated
+ *   reported quality.
+ * - the empirical quality count and quantized quality of each quality score
+ */
+public class BinaryRecalibrationReport {
+    private static final byte[] MAGIC = "BQSR\u0001TBL".getBytes();
+    private static final int FORMAT_VERSION = 1;
+    private static final int END_OF_TABLE = -1;
+
+    /**
+     * The maximum number of reports to merge at once.  Merging more reports than this is done as a tree of merges
+     * through temporary files, so that we never have more than this many files open.
+     */
+    private static final int MAX_MERGE_FAN_IN = 128;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Does file hold a binary recalibration report?
+     *
+     * @param file the recalibration report file
+     * @return true if file starts with the magic number of a binary report, false if it doesn't (e.g. it's a GATKReport)
+     */
+    public static boolean isBinaryReport(final File file) {
+        final byte[] start = new byte[MAGIC.length];
+        try {
+            final DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                in.readFully(start);
+            } catch ( EOFException e ) {
+                return false;
+            } finally {
+                in.close();
+            }
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotReadInputFile(file, e);
+        }
+        return Arrays.equals(start, MAGIC);
+    }
+
+    /**
+     * Writes a recalibration report in the binary format
+     *
+     * @param output              the stream to write the report to.  It's flushed, but not closed.
+     * @param argumentTable       the Arguments table of the report
+     * @param quantizationInfo    the quantization of the report
+     * @param recalibrationTables the recalibration tables
+     * @param requestedCovariates the covariates of the recalibration tables
+     */
+    public static void write(final OutputStream output, final GATKReportTable argumentTable, final QuantizationInfo quantizationInfo,
+                             final RecalibrationTables recalibrationTables, final Covariate[] requestedCovariates) {
+        // find the read groups that have data, and the position of each of them amongst the sorted read groups
+        final Map<Integer, String> readGroupNames = new HashMap<Integer, String>();
+        for ( int tableIndex = 0; tableIndex < recalibrationTables.numTables(); tableIndex++ )
+            for ( final NestedIntegerArray.Leaf<RecalDatum> leaf : recalibrationTables.getTable(tableIndex).getAllLeaves() )
+                if ( ! readGroupNames.containsKey(leaf.keys[0]) )
+                    readGroupNames.put(leaf.keys[0], requestedCovariates[0].formatKey(leaf.keys[0]));
+        final List<String> readGroups = new ArrayList<String>(new TreeSet<String>(readGroupNames.values()));
+        final Map<Integer, Integer> readGroupIndexes = new HashMap<Integer, Integer>();
+        for ( final Map.Entry<Integer, String> readGroup : readGroupNames.entrySet() )
+            readGroupIndexes.put(readGroup.getKey(), Collections.binarySearch(readGroups, readGroup.getValue()));
+
+        try {
+            final Writer writer = new Writer(output, getArgumentTableText(argumentTable), recalibrationTables.numTables(), readGroups);
+            for ( int tableIndex = 0; tableIndex < recalibrationTables.numTables(); tableIndex++ ) {
+                // the leaves come sorted by their keys, so we only have to reorder them by read group with a stable sort
+                final List<NestedIntegerArray.Leaf<RecalDatum>> leaves = recalibrationTables.getTable(tableIndex).getAllLeaves();
+                for ( final NestedIntegerArray.Leaf<RecalDatum> leaf : leaves )
+                    leaf.keys[0] = readGroupIndexes.get(leaf.keys[0]);
+                Collections.sort(leaves, new Comparator<NestedIntegerArray.Leaf<RecalDatum>>() {
+                    @Override
+                    public int compare(final NestedIntegerArray.Leaf<RecalDatum> leaf1, final NestedIntegerArray.Leaf<RecalDatum> leaf2) {
+                        return Integer.compare(leaf1.keys[0], leaf2.keys[0]);
+                    }
+                });
+
+                for ( final NestedIntegerArray.Leaf<RecalDatum> leaf : leaves )
+                    writer.addRecord(leaf.keys, leaf.value);
+                writer.endTable();
+            }
+            writer.finish(quantizationInfo);
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotCreateOutputFile("recalibration report", "an error occurred writing it", e);
+        }
+    }
+
+    /**
+     * Merges binary recalibration reports into a single binary report, adding up the observations and errors of the
+     * datums with the same keys and recalculating the quantization of the merged report.  The merged report has the
+     * Arguments table of the first report with data.
+     *
+     * Only one record of each report is held in memory at a time.  Merging more than MAX_MERGE_FAN_IN reports is done
+     * as a tree of merges through temporary files next to output.
+     *
+     * @param inputs the binary recalibration reports to merge
+     * @param output the file to write the merged report to
+     * @return true if any of the inputs has data, false otherwise
+     */
+    public static boolean merge(final List<File> inputs, final File output) {
+        return merge(inputs, output, MAX_MERGE_FAN_IN);
+    }
+
+    /**
+     * Merges binary recalibration reports, merging at most maxFanIn reports at once
+     *
+     * @param inputs   the binary recalibration reports to merge
+     * @param output   the file to write the merged report to
+     * @param maxFanIn the maximum number of reports to merge at once
+     * @return true if any of the inputs has data, false otherwise
+     */
+    protected static boolean merge(final List<File> inputs, final File output, final int maxFanIn) {
+        if ( inputs.isEmpty() ) throw new IllegalArgumentException("There must be at least one report to merge");
+        if ( maxFanIn < 2 ) throw new IllegalArgumentException("maxFanIn must be at least 2 but got " + maxFanIn);
+
+        if ( inputs.size() <= maxFanIn )
+            return mergeReports(inputs, output);
+
+        final List<File> partialMerges = new ArrayList<File>();
+        try {
+            for ( int start = 0; start < inputs.size(); start += maxFanIn ) {
+                final File partialMerge;
+                try {
+                    partialMerge = File.createTempFile("recal_merge.", ".bin", output.getAbsoluteFile().getParentFile());
+                } catch ( IOException e ) {
+                    throw new UserException.CouldNotCreateOutputFile(output, "a temporary file for merging couldn't be created", e);
+                }
+                partialMerges.add(partialMerge);
+                mergeReports(inputs.subList(start, Math.min(start + maxFanIn, inputs.size())), partialMerge);
+            }
+            return merge(partialMerges, output, maxFanIn);
+        } finally {
+            for ( final File partialMerge : partialMerges )
+                IOUtils.tryDelete(partialMerge);
+        }
+    }
+
+    /**
+     * Merges the inputs into output with a single k-way merge of their records
+     *
+     * @return true if any of the inputs has data, false otherwise
+     */
+    private static boolean mergeReports(final List<File> inputs, final File output) {
+        final List<Reader> readers = new ArrayList<Reader>(inputs.size());
+        try {
+            for ( final File input : inputs )
+                readers.add(new Reader(input, readers.size()));
+
+            // the read groups of all of the reports, and the key of each of them in the merged report
+            final SortedSet<String> allReadGroups = new TreeSet<String>();
+            for ( final Reader reader : readers )
+                allReadGroups.addAll(reader.getReadGroups());
+            final List<String> readGroups = new ArrayList<String>(allReadGroups);
+
+            Reader firstReportWithData = null;
+            for ( final Reader reader : readers ) {
+                if ( reader.getNumTables() != readers.get(0).getNumTables() )
+                    throw new UserException.MalformedFile(reader.getFile(), "it has " + reader.getNumTables() + " recalibration tables, but "
+                            + readers.get(0).getFile() + " has " + readers.get(0).getNumTables() + ", so they were not made with the same covariates");
+                reader.setMergedReadGroups(readGroups);
+                if ( firstReportWithData == null && ! reader.isEmpty() )
+                    firstReportWithData = reader;
+            }
+            final Reader argumentSource = firstReportWithData == null ? readers.get(0) : firstReportWithData;
+            final RecalibrationArgumentCollection RAC = RecalibrationReport.initializeArgumentCollectionTable(argumentSource.getArgumentTable());
+
+            final Writer writer = new Writer(new FileOutputStream(output), argumentSource.getArgumentTableText(), argumentSource.getNumTables(), readGroups);
+            try {
+                final Long[] qualHistogram = QuantizationInfo.makeEmptyQualHistogram();
+                for ( int tableIndex = 0; tableIndex < argumentSource.getNumTables(); tableIndex++ ) {
+                    // the readers with records left in this table, ordered by their next record and then by their order in inputs,
+                    // so that we combine the datums with the same keys in the same order as RecalibrationReport.combine() does
+                    final PriorityQueue<Reader> queue = new PriorityQueue<Reader>(readers.size(), RECORD_ORDER);
+                    for ( final Reader reader : readers )
+                        if ( reader.nextRecord() )
+                            queue.add(reader);
+
+                    while ( ! queue.isEmpty() ) {
+                        final Reader first = queue.poll();
+                        final int[] keys = first.getMergedKeys().clone();
+                        final RecalDatum datum = first.getDatum();
+                        if ( first.nextRecord() )
+                            queue.add(first);
+
+                        while ( ! queue.isEmpty() && Arrays.equals(queue.peek().getMergedKeys(), keys) ) {
+                            final Reader next = queue.poll();
+                            datum.combine(next.getDatum());
+                            if ( next.nextRecord() )
+                                queue.add(next);
+                        }
+
+                        writer.addRecord(keys, datum);
+                        if ( tableIndex == RecalibrationTables.TableType.QUALITY_SCORE_TABLE.ordinal() )
+                            QuantizationInfo.addToQualHistogram(qualHistogram, datum);
+                    }
+                    writer.endTable();
+                }
+                // there is nothing to quantize if none of the reports has data, so just keep the quantization of the first one
+                writer.finish(firstReportWithData == null ? argumentSource.readQuantizationInfo() : new QuantizationInfo(Arrays.asList(qualHistogram), RAC.QUANTIZING_LEVELS));
+            } finally {
+                writer.close();
+            }
+
+            return firstReportWithData != null;
+        } catch ( IOException e ) {
+            throw new UserException.CouldNotCreateOutputFile(output, "an error occurred merging the recalibration reports", e);
+        } finally {
+            for ( final Reader reader : readers )
+                reader.close();
+        }
+    }
+
+    /**
+     * Orders readers by the merged keys of their current record, and then by their index
+     */
+    private static final Comparator<Reader> RECORD_ORDER = new Comparator<Reader>() {
+        @Override
+        public int compare(final Reader reader1, final Reader reader2) {
+            final int[] keys1 = reader1.getMergedKeys(), keys2 = reader2.getMergedKeys();
+            for ( int i = 0; i < keys1.length; i++ ) {
+                if ( keys1[i] != keys2[i] )
+                    return keys1[i] < keys2[i] ? -1 : 1;
+            }
+            return Integer.compare(reader1.getIndex(), reader2.getIndex());
+        }
+    };
+
+    /**
+     * @return the number of keys of the datums in the recalibration table tableIndex
+     */
+    private static int getNumKeys(final int tableIndex) {
+        if ( tableIndex == RecalibrationTables.TableType.READ_GROUP_TABLE.ordinal() )
+            return 2; // read group, event type
+        else if ( tableIndex == RecalibrationTables.TableType.QUALITY_SCORE_TABLE.ordinal() )
+            return 3; // read group, quality score, event type
+        else
+            return 4; // read group, quality score, covariate, event type
+    }
+
+    private static byte[] getArgumentTableText(final GATKReportTable argumentTable) {
+        final ByteArrayOutputStream text = new ByteArrayOutputStream();
+        final PrintStream out = new PrintStream(text);
+        new GATKReport(argumentTable).print(out);
+        out.flush();
+        return text.toByteArray();
+    }
+
+    /**
+     * Writes the parts of a binary report, in order
+     */
+    private static class Writer {
+        private final DataOutputStream out;
+
+        private Writer(final OutputStream output, final byte[] argumentTableText, final int numTables, final List<String> readGroups) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(output, BUFFER_SIZE));
+            out.write(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(argumentTableText.length);
+            out.write(argumentTableText);
+            out.writeInt(numTables);
+            out.writeInt(readGroups.size());
+            for ( final String readGroup : readGroups )
+                out.writeUTF(readGroup);
+        }
+
+        private void addRecord(final int[] keys, final RecalDatum datum) throws IOException {
+            for ( final int key : keys )
+                out.writeInt(key);
+            out.writeLong(datum.getNumObservations());
+            out.writeDouble(datum.getNumMismatches());
+            out.writeDouble(datum.getEstimatedQReported());
+        }
+
+        private void endTable() throws IOException {
+            out.writeInt(END_OF_TABLE);
+        }
+
+        private void finish(final QuantizationInfo quantizationInfo) throws IOException {
+            for ( int qual = 0; qual <= QualityUtils.MAX_SAM_QUAL_SCORE; qual++ ) {
+                out.writeLong(quantizationInfo.getEmpiricalQualCounts().get(qual));
+                out.writeByte(quantizationInfo.getQuantizedQuals().get(qual));
+            }
+            out.flush();
+        }
+
+        private void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a binary report, one record at a time
+     */
+    protected static class Reader {
+        private final File file;
+        private final int index;
+        private final DataInputStream in;
+
+        private final byte[] argumentTableText;
+        private final int numTables;
+        private final List<String> readGroups;
+
+        private int currentTable = 0;
+        private int[] keys = null;
+        private int[] mergedKeys = null;
+        private int[] mergedReadGroupKeys = null;
+        private long numObservations;
+        private double numMismatches;
+        private double estimatedQReported;
+
+        /**
+         * Opens the binary report file, and reads everything up to the records of its first table
+         *
+         * @param file  the binary report
+         * @param index the index of the report amongst the reports being read together
+         */
+        protected Reader(final File file, final int index) {
+            this.file = file;
+            this.index = index;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+            } catch ( FileNotFoundException e ) {
+                throw new UserException.CouldNotReadInputFile(file, e);
+            }
+
+            try {
+                final byte[] magic = new byte[MAGIC.length];
+                in.readFully(magic);
+                if ( ! Arrays.equals(magic, MAGIC) )
+                    throw new UserException.MalformedFile(file, "it isn't a binary recalibration report");
+                final int version = in.readInt();
+                if ( version != FORMAT_VERSION )
+                    throw new UserException.MalformedFile(file, "it's a binary recalibration report of version " + version + ", but only version " + FORMAT_VERSION + " is supported");
+
+                argumentTableText = new byte[in.readInt()];
+                in.readFully(argumentTableText);
+                numTables = in.readInt();
+                final int numReadGroups = in.readInt();
+                readGroups = new ArrayList<String>(numReadGroups);
+                for ( int i = 0; i < numReadGroups; i++ )
+                    readGroups.add(in.readUTF());
+            } catch ( IOException e ) {
+                close();
+                throw new UserException.CouldNotReadInputFile(file, e);
+            }
+        }
+
+        protected File getFile() {
+            return file;
+        }
+
+        protected int getIndex() {
+            return index;
+        }
+
+        protected int getNumTables() {
+            return numTables;
+        }
+
+        /**
+         * @return the sorted read groups of the report
+         */
+        protected List<String> getReadGroups() {
+            return readGroups;
+        }
+
+        /**
+         * @return true if the report has no data
+         */
+        protected boolean isEmpty() {
+            return readGroups.isEmpty();
+        }
+
+        protected byte[] getArgumentTableText() {
+            return argumentTableText;
+        }
+
+        protected GATKReportTable getArgumentTable() {
+            try {
+                final BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(argumentTableText)));
+                final GATKReportVersion version = GATKReportVersion.fromHeader(reader.readLine());
+                return new GATKReportTable(reader, version);
+            } catch ( IOException e ) {
+                throw new UserException.CouldNotReadInputFile(file, e);
+            }
+        }
+
+        /**
+         * Sets the read groups of the report this one is merged into, so that getMergedKeys() can be used
+         *
+         * @param mergedReadGroups all of the read groups of the merged report, sorted
+         */
+        protected void setMergedReadGroups(final List<String> mergedReadGroups) {
+            mergedReadGroupKeys = new int[readGroups.size()];
+            for ( int i = 0; i < readGroups.size(); i++ )
+                mergedReadGroupKeys[i] = Collections.binarySearch(mergedReadGroups, readGroups.get(i));
+        }
+
+        /**
+         * Reads the next record of the current table.  When the table has no more records, moves on to the next table.
+         *
+         * @return true if a record was read, false if the current table has no more records
+         */
+        protected boolean nextRecord() {
+            if ( currentTable >= numTables ) throw new IllegalStateException("All of the tables of " + file + " have been read already");
+
+            try {
+                final int readGroupKey = in.readInt();
+                if ( readGroupKey == END_OF_TABLE ) {
+                    currentTable++;
+                    return false;
+                }
+                if ( readGroupKey < 0 || readGroupKey >= readGroups.size() )
+                    throw new UserException.MalformedFile(file, "it has a record with read group key " + readGroupKey + " but only " + readGroups.size() + " read groups");
+
+                if ( keys == null || keys.length != getNumKeys(currentTable) ) {
+                    keys = new int[getNumKeys(currentTable)];
+                    mergedKeys = new int[keys.length];
+                }
+                keys[0] = readGroupKey;
+                for ( int i = 1; i < keys.length; i++ )
+                    keys[i] = in.readInt();
+                numObservations = in.readLong();
+                numMismatches = in.readDouble();
+                estimatedQReported = in.readDouble();
+
+                if ( mergedReadGroupKeys != null ) {
+                    System.arraycopy(keys, 0, mergedKeys, 0, keys.length);
+                    mergedKeys[0] = mergedReadGroupKeys[readGroupKey];
+                }
+                return true;
+            } catch ( IOException e ) {
+                throw new UserException.CouldNotReadInputFile(file, e);
+            }
+        }
+
+        /**
+         * @return the index of the current table
+         */
+        protected int getCurrentTable() {
+            return currentTable;
+        }
+
+        /**
+         * @return the keys of the current record, with the read group key being the position of the read group in getReadGroups()
+         */
+        protected int[] getKeys() {
+            return keys;
+        }
+
+        /**
+         * @return the keys of the current record, with the read group key being the position of the read group in
+         * the read groups given to setMergedReadGroups()
+         */
+        protected int[] getMergedKeys() {
+            return mergedKeys;
+        }
+
+        /**
+         * @return a new datum with the values of the current record
+         */
+        protected RecalDatum getDatum() {
+            final RecalDatum datum = new RecalDatum(numObservations, numMismatches, (byte)1);
+            datum.setEstimatedQReported(estimatedQReported);
+            return datum;
+        }
+
+        /**
+         * Reads the quantization of the report, which comes after the records of all of the tables
+         *
+         * @return the quantization of the report
+         */
+        protected QuantizationInfo readQuantizationInfo() {
+            if ( currentTable != numTables ) throw new IllegalStateException("The records of all of the tables of " + file + " must be read first");
+
+            final List<Byte> quantizedQuals = new ArrayList<Byte>(QualityUtils.MAX_SAM_QUAL_SCORE + 1);
+            final List<Long> empiricalQualCounts = new ArrayList<Long>(QualityUtils.MAX_SAM_QUAL_SCORE + 1);
+            try {
+                for ( int qual = 0; qual <= QualityUtils.MAX_SAM_QUAL_SCORE; qual++ ) {
+                    empiricalQualCounts.add(in.readLong());
+                    quantizedQuals.add(in.readByte());
+                }
+            } catch ( IOException e ) {
+                throw new UserException.CouldNotReadInputFile(file, e);
+            }
+            return new QuantizationInfo(quantizedQuals, empiricalQualCounts);
+        }
+
+        protected void close() {
+            try {
+                in.close();
+            } catch ( IOException e ) {
+                // nothing we can do about it, and we have read what we needed anyway
+            }
+        }
+    }
+}
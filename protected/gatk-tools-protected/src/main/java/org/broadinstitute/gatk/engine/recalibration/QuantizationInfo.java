@@ -81,23 +81,52 @@ public class QuantizationInfo {
     }
     
     public QuantizationInfo(final RecalibrationTables recalibrationTables, final int quantizationLevels) {
-        final Long [] qualHistogram = new Long[QualityUtils.MAX_SAM_QUAL_SCORE +1]; // create a histogram with the empirical quality distribution
-        for (int i = 0; i < qualHistogram.length; i++)
-            qualHistogram[i] = 0L;
+        final Long [] qualHistogram = makeEmptyQualHistogram(); // create a histogram with the empirical quality distribution
 
         final NestedIntegerArray<RecalDatum> qualTable = recalibrationTables.getQualityScoreTable(); // get the quality score table
 
-        for (final RecalDatum value : qualTable.getAllValues()) {
-            final RecalDatum datum = value;
-            final int empiricalQual = MathUtils.fastRound(datum.getEmpiricalQuality()); // convert the empirical quality to an integer ( it is already capped by MAX_QUAL )
-            qualHistogram[empiricalQual] += (long) datum.getNumObservations(); // add the number of observations for every key
-        }
+        for (final RecalDatum value : qualTable.getAllValues())
+            addToQualHistogram(qualHistogram, value);
         empiricalQualCounts = Arrays.asList(qualHistogram); // histogram with the number of observations of the empirical qualities
         quantizeQualityScores(quantizationLevels);
 
         this.quantizationLevels = quantizationLevels;
     }
 
+    /**
+     * Quantizes the empirical qualities of a histogram made with addToQualHistogram()
+     *
+     * @param empiricalQualCounts the number of observations of each empirical quality
+     * @param quantizationLevels  the number of levels to quantize the qualities to
+     */
+    public QuantizationInfo(final List<Long> empiricalQualCounts, final int quantizationLevels) {
+        this.empiricalQualCounts = empiricalQualCounts;
+        quantizeQualityScores(quantizationLevels);
+
+        this.quantizationLevels = quantizationLevels;
+    }
+
+    /**
+     * @return a histogram of the empirical qualities of the quality score table, with no observations yet
+     */
+    protected static Long[] makeEmptyQualHistogram() {
+        final Long [] qualHistogram = new Long[QualityUtils.MAX_SAM_QUAL_SCORE +1];
+        for (int i = 0; i < qualHistogram.length; i++)
+            qualHistogram[i] = 0L;
+        return qualHistogram;
+    }
+
+    /**
+     * Adds the observations of a datum of the quality score table to a histogram of empirical qualities
+     *
+     * @param qualHistogram the histogram
+     * @param datum         a datum of the quality score table
+     */
+    protected static void addToQualHistogram(final Long[] qualHistogram, final RecalDatum datum) {
+        final int empiricalQual = MathUtils.fastRound(datum.getEmpiricalQuality()); // convert the empirical quality to an integer ( it is already capped by MAX_QUAL )
+        qualHistogram[empiricalQual] += (long) datum.getNumObservations(); // add the number of observations for every key
+    }
+
 
     public void quantizeQualityScores(int nLevels) {
         QualQuantizer quantizer = new QualQuantizer(empiricalQualCounts, nLevels, QualityUtils.MIN_USABLE_Q_SCORE); // quantize the qualities to the desired number of levels
@@ -114,6 +143,10 @@ public class QuantizationInfo {
         return quantizedQuals;
     }
 
+    public List<Long> getEmpiricalQualCounts() {
+        return empiricalQualCounts;
+    }
+
     public int getQuantizationLevels() {
         return quantizationLevels;
     }
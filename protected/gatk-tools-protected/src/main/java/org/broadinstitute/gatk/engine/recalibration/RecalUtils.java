@@ -520,7 +520,7 @@ public class RecalUtils {
     }
 
     /**
-     * Outputs the GATK report to RAC.RECAL_TABLE.
+     * Outputs the GATK report to RAC.RECAL_TABLE, or a binary report if RAC.BINARY_RECAL_TABLE is set.
      *
      * @param RAC The list of shared command line arguments
      * @param quantizationInfo Quantization info
@@ -529,8 +529,12 @@ public class RecalUtils {
      * @param sortByCols True to use GATKReportTable.TableSortingWay.SORT_BY_COLUMN, false to use GATKReportTable.TableSortingWay.DO_NOT_SORT
      */
     public static void outputRecalibrationReport(final RecalibrationArgumentCollection RAC, final QuantizationInfo quantizationInfo, final RecalibrationTables recalibrationTables, final Covariate[] requestedCovariates, boolean sortByCols) {
-        final GATKReport report = createRecalibrationGATKReport(RAC.generateReportTable(covariateNames(requestedCovariates)), quantizationInfo.generateReportTable(sortByCols), generateReportTables(recalibrationTables, requestedCovariates, sortByCols));
-        report.print(RAC.RECAL_TABLE);
+        if ( RAC.BINARY_RECAL_TABLE ) {
+            BinaryRecalibrationReport.write(RAC.RECAL_TABLE, RAC.generateReportTable(covariateNames(requestedCovariates)), quantizationInfo, recalibrationTables, requestedCovariates);
+        } else {
+            final GATKReport report = createRecalibrationGATKReport(RAC.generateReportTable(covariateNames(requestedCovariates)), quantizationInfo.generateReportTable(sortByCols), generateReportTables(recalibrationTables, requestedCovariates, sortByCols));
+            report.print(RAC.RECAL_TABLE);
+        }
     }
 
     /**
@@ -204,6 +204,15 @@ public class RecalibrationArgumentCollection implements Cloneable {
     @Argument(fullName = "sort_by_all_columns", shortName = "sortAllCols", doc = "Sort the rows in the tables of reports", required = false)
     public Boolean SORT_BY_ALL_COLUMNS  = false;
 
+    /**
+     * Write the recalibration table in a binary format rather than as a GATKReport. Binary tables can be used everywhere
+     * GATKReport recalibration tables can, and the tables of a scattered run are gathered much faster, with a streaming
+     * merge. The rows of a binary table are always sorted.
+     */
+    @Advanced
+    @Argument(fullName = "binary_recal_table", shortName = "binaryRecal", doc = "Write the recalibration table in binary format", required = false)
+    public boolean BINARY_RECAL_TABLE = false;
+
     /////////////////////////////
     // Debugging-only Arguments
     /////////////////////////////
@@ -57,6 +57,7 @@ import org.broadinstitute.gatk.utils.QualityUtils;
 import org.broadinstitute.gatk.utils.collections.NestedIntegerArray;
 import org.broadinstitute.gatk.utils.collections.Pair;
 import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
 import org.broadinstitute.gatk.utils.recalibration.EventType;
 import org.broadinstitute.gatk.engine.recalibration.covariates.Covariate;
 
@@ -86,15 +87,19 @@ public class RecalibrationReport {
         this(recalFile, getReadGroups(recalFile));
     }
 
+    /**
+     * Reads a recalibration report, either a GATKReport or a binary report (see BinaryRecalibrationReport)
+     *
+     * @param recalFile     the recalibration report
+     * @param allReadGroups the read groups of this and any other reports this one will be combined with
+     */
     public RecalibrationReport(final File recalFile, final SortedSet<String> allReadGroups) {
-        final GATKReport report = new GATKReport(recalFile);
+        final BinaryRecalibrationReport.Reader binaryReport = BinaryRecalibrationReport.isBinaryReport(recalFile) ? new BinaryRecalibrationReport.Reader(recalFile, 0) : null;
+        final GATKReport report = binaryReport == null ? new GATKReport(recalFile) : null;
 
-        argumentTable = report.getTable(RecalUtils.ARGUMENT_REPORT_TABLE_TITLE);
+        argumentTable = binaryReport == null ? report.getTable(RecalUtils.ARGUMENT_REPORT_TABLE_TITLE) : binaryReport.getArgumentTable();
         RAC = initializeArgumentCollectionTable(argumentTable);
 
-        GATKReportTable quantizedTable = report.getTable(RecalUtils.QUANTIZED_REPORT_TABLE_TITLE);
-        quantizationInfo = initializeQuantizationTable(quantizedTable);
-
         Pair<ArrayList<Covariate>, ArrayList<Covariate>> covariates = RecalUtils.initializeCovariates(RAC); // initialize the required and optional covariates
         ArrayList<Covariate> requiredCovariates = covariates.getFirst();
         ArrayList<Covariate> optionalCovariates = covariates.getSecond();
@@ -117,12 +122,22 @@ public class RecalibrationReport {
 
         initializeReadGroupCovariates(allReadGroups);
 
-        parseReadGroupTable(report.getTable(RecalUtils.READGROUP_REPORT_TABLE_TITLE), recalibrationTables.getReadGroupTable());
+        if ( binaryReport != null ) {
+            try {
+                quantizationInfo = readBinaryReport(binaryReport, recalibrationTables);
+            } finally {
+                binaryReport.close();
+            }
+        } else {
+            GATKReportTable quantizedTable = report.getTable(RecalUtils.QUANTIZED_REPORT_TABLE_TITLE);
+            quantizationInfo = initializeQuantizationTable(quantizedTable);
 
-        parseQualityScoreTable(report.getTable(RecalUtils.QUALITY_SCORE_REPORT_TABLE_TITLE), recalibrationTables.getQualityScoreTable());
+            parseReadGroupTable(report.getTable(RecalUtils.READGROUP_REPORT_TABLE_TITLE), recalibrationTables.getReadGroupTable());
 
-        parseAllCovariatesTable(report.getTable(RecalUtils.ALL_COVARIATES_REPORT_TABLE_TITLE), recalibrationTables);
+            parseQualityScoreTable(report.getTable(RecalUtils.QUALITY_SCORE_REPORT_TABLE_TITLE), recalibrationTables.getQualityScoreTable());
 
+            parseAllCovariatesTable(report.getTable(RecalUtils.ALL_COVARIATES_REPORT_TABLE_TITLE), recalibrationTables);
+        }
     }
 
     /**
@@ -132,6 +147,11 @@ public class RecalibrationReport {
      * @return the unique read groups
      */
     public static SortedSet<String> getReadGroups(final File recalFile) {
+        if ( BinaryRecalibrationReport.isBinaryReport(recalFile) ) {
+            final BinaryRecalibrationReport.Reader binaryReport = new BinaryRecalibrationReport.Reader(recalFile, 0);
+            binaryReport.close();
+            return new TreeSet<String>(binaryReport.getReadGroups());
+        }
         return getReadGroups(new GATKReport(recalFile));
     }
 
@@ -257,6 +277,32 @@ public class RecalibrationReport {
         }
     }
 
+    /**
+     * Reads all of the records of a binary report into the recalibration tables
+     *
+     * @param binaryReport        the binary report, positioned at the records of its first table
+     * @param recalibrationTables the tables to fill in
+     * @return the quantization of the report
+     */
+    private QuantizationInfo readBinaryReport(final BinaryRecalibrationReport.Reader binaryReport, final RecalibrationTables recalibrationTables) {
+        if ( binaryReport.getNumTables() != recalibrationTables.numTables() )
+            throw new UserException.MalformedFile(binaryReport.getFile(), "it has " + binaryReport.getNumTables() + " recalibration tables but its arguments call for " + recalibrationTables.numTables());
+
+        final int[] readGroupKeys = new int[binaryReport.getReadGroups().size()];
+        for ( int i = 0; i < readGroupKeys.length; i++ )
+            readGroupKeys[i] = requestedCovariates[0].keyFromValue(binaryReport.getReadGroups().get(i));
+
+        for ( int tableIndex = 0; tableIndex < recalibrationTables.numTables(); tableIndex++ ) {
+            final NestedIntegerArray<RecalDatum> table = recalibrationTables.getTable(tableIndex);
+            while ( binaryReport.nextRecord() ) {
+                final int[] keys = binaryReport.getKeys();
+                keys[0] = readGroupKeys[keys[0]];
+                table.put(binaryReport.getDatum(), keys);
+            }
+        }
+        return binaryReport.readQuantizationInfo();
+    }
+
     private double asDouble(final Object o) {
         if ( o instanceof Double )
             return (Double)o;
@@ -322,7 +368,7 @@ public class RecalibrationReport {
      * @param table the GATKReportTable containing the arguments and its corresponding values
      * @return a RAC object properly initialized with all the objects in the table
      */
-    private RecalibrationArgumentCollection initializeArgumentCollectionTable(GATKReportTable table) {
+    protected static RecalibrationArgumentCollection initializeArgumentCollectionTable(GATKReportTable table) {
         final RecalibrationArgumentCollection RAC = new RecalibrationArgumentCollection();
 
         for ( int i = 0; i < table.getNumRows(); i++ ) {
@@ -54,15 +54,11 @@ package org.broadinstitute.gatk.engine.recalibration.covariates;
 import org.apache.log4j.Logger;
 import org.broadinstitute.gatk.engine.recalibration.RecalibrationArgumentCollection;
 import org.broadinstitute.gatk.utils.BaseUtils;
-import org.broadinstitute.gatk.utils.clipping.ClippingRepresentation;
-import org.broadinstitute.gatk.utils.clipping.ReadClipper;
 import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
 import org.broadinstitute.gatk.engine.recalibration.ReadCovariates;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
 
-import java.util.ArrayList;
-
 /**
  * Created by IntelliJ IDEA.
  * User: rpoplin
@@ -110,42 +106,58 @@ public class ContextCovariate implements StandardCovariate {
         indelsKeyMask = createMask(indelsContextSize);
     }
 
+    /**
+     * Record the mismatch and indel contexts of all bases of read in values, in a single pass over its bases
+     *
+     * The contexts are 2-bit encoded bases rolled into a key as we go, in the direction the read was sequenced.
+     * Contexts that include a non-ACGT base, or a base of the low quality tails of the read (see LOW_QUAL_TAIL),
+     * get the key -1.  If the whole read is low quality tail all of its keys are 0.
+     */
     @Override
     public void recordValues(final GATKSAMRecord read, final ReadCovariates values) {
-
-        // store the original bases and then write Ns over low quality ones
-        final byte[] originalBases = read.getReadBases().clone();
-        // Write N's over the low quality tail of the reads to avoid adding them into the context
-        final GATKSAMRecord clippedRead = ReadClipper.clipLowQualEnds(read, LOW_QUAL_TAIL, ClippingRepresentation.WRITE_NS);
-        
-        final boolean negativeStrand = clippedRead.getReadNegativeStrandFlag();
-        byte[] bases = clippedRead.getReadBases();
-        if (negativeStrand)
-            bases = BaseUtils.simpleReverseComplement(bases);
-
-        final ArrayList<Integer> mismatchKeys = contextWith(bases, mismatchesContextSize, mismatchesKeyMask);
-        final ArrayList<Integer> indelKeys = contextWith(bases, indelsContextSize, indelsKeyMask);
-
+        final byte[] bases = read.getReadBases();
+        final byte[] quals = read.getBaseQualities();
         final int readLength = bases.length;
 
-        // this is necessary to ensure that we don't keep historical data in the ReadCovariates values
-        // since the context covariate may not span the entire set of values in read covariates
-        // due to the clipping of the low quality bases
-        if ( readLength != originalBases.length ) {
-            // don't both zeroing out if we are going to overwrite the whole array
-            for ( int i = 0; i < originalBases.length; i++ )
-                // this base has been clipped off, so zero out the covariate values here
+        // find the low quality tails of the read, whose bases we treat as Ns
+        int firstGoodBase = 0;
+        int lastGoodBase = readLength - 1;
+        while ( lastGoodBase >= 0 && quals[lastGoodBase] <= LOW_QUAL_TAIL ) lastGoodBase--;
+        while ( firstGoodBase < readLength && quals[firstGoodBase] <= LOW_QUAL_TAIL ) firstGoodBase++;
+
+        if ( firstGoodBase > lastGoodBase ) {
+            // the entire read is low quality tail, so it doesn't have any context at all
+            for ( int i = 0; i < readLength; i++ )
                 values.addCovariate(0, 0, 0, i);
+            return;
         }
 
-        for (int i = 0; i < readLength; i++) {
-            final int readOffset = (negativeStrand ? readLength - i - 1 : i);
-            final int indelKey = indelKeys.get(i);
-            values.addCovariate(mismatchKeys.get(i), indelKey, indelKey, readOffset);
-        }
+        final boolean negativeStrand = read.getReadNegativeStrandFlag();
+        final int mismatchesNewBaseOffset = 2 * (mismatchesContextSize - 1) + LENGTH_BITS;
+        final int indelsNewBaseOffset = 2 * (indelsContextSize - 1) + LENGTH_BITS;
+
+        int mismatchKey = 0;
+        int indelKey = 0;
+        int nGoodBasesInARow = 0;
+        for ( int i = 0; i < readLength; i++ ) {
+            // walk along the bases as they were sequenced, so the reverse complement for negative strand reads
+            final int readOffset = negativeStrand ? readLength - i - 1 : i;
+            int baseIndex = readOffset < firstGoodBase || readOffset > lastGoodBase ? -1 : BaseUtils.simpleBaseToBaseIndex(bases[readOffset]);
+            if ( negativeStrand && baseIndex != -1 )
+                baseIndex = 3 - baseIndex; // the index of the complement of the base
+
+            if ( baseIndex == -1 ) { // ignore non-ACGT bases
+                nGoodBasesInARow = 0;
+            } else {
+                // push this base's contribution onto the keys: shift everything 2 bits, mask out the non-context bits, and add the new base and the length in
+                nGoodBasesInARow++;
+                mismatchKey = ((mismatchKey >> 2) & mismatchesKeyMask) | (baseIndex << mismatchesNewBaseOffset) | mismatchesContextSize;
+                indelKey = ((indelKey >> 2) & indelsKeyMask) | (baseIndex << indelsNewBaseOffset) | indelsContextSize;
+            }
 
-        // put the original bases back in
-        read.setReadBases(originalBases);
+            final int indelContext = nGoodBasesInARow >= indelsContextSize ? indelKey : -1;
+            values.addCovariate(nGoodBasesInARow >= mismatchesContextSize ? mismatchKey : -1, indelContext, indelContext, readOffset);
+        }
     }
 
     // Used to get the covariate's value from input csv file during on-the-fly recalibration
@@ -176,68 +188,6 @@ public class ContextCovariate implements StandardCovariate {
         return mask << LENGTH_BITS;
     }
 
-    /**
-     * calculates the context of a base independent of the covariate mode (mismatch, insertion or deletion)
-     *
-     * @param bases       the bases in the read to build the context from
-     * @param contextSize context size to use building the context
-     * @param mask        mask for pulling out just the context bits
-     */
-    private static ArrayList<Integer> contextWith(final byte[] bases, final int contextSize, final int mask) {
-
-        final int readLength = bases.length;
-        final ArrayList<Integer> keys = new ArrayList<Integer>(readLength);
-
-        // the first contextSize-1 bases will not have enough previous context
-        for (int i = 1; i < contextSize && i <= readLength; i++)
-            keys.add(-1);
-
-        if (readLength < contextSize)
-            return keys;
-
-        final int newBaseOffset = 2 * (contextSize - 1) + LENGTH_BITS;
-
-        // get (and add) the key for the context starting at the first base
-        int currentKey = keyFromContext(bases, 0, contextSize);
-        keys.add(currentKey);
-
-        // if the first key was -1 then there was an N in the context; figure out how many more consecutive contexts it affects
-        int currentNPenalty = 0;
-        if (currentKey == -1) {
-            currentKey = 0;
-            currentNPenalty = contextSize - 1;
-            int offset = newBaseOffset;
-            while (bases[currentNPenalty] != 'N') {
-                final int baseIndex = BaseUtils.simpleBaseToBaseIndex(bases[currentNPenalty]);
-                currentKey |= (baseIndex << offset);
-                offset -= 2;
-                currentNPenalty--;
-            }
-        }
-
-        for (int currentIndex = contextSize; currentIndex < readLength; currentIndex++) {
-            final int baseIndex = BaseUtils.simpleBaseToBaseIndex(bases[currentIndex]);
-            if (baseIndex == -1) { // ignore non-ACGT bases
-                currentNPenalty = contextSize;
-                currentKey = 0; // reset the key
-            } else {
-                // push this base's contribution onto the key: shift everything 2 bits, mask out the non-context bits, and add the new base and the length in
-                currentKey = (currentKey >> 2) & mask;
-                currentKey |= (baseIndex << newBaseOffset);
-                currentKey |= contextSize;
-            }
-
-            if (currentNPenalty == 0) {
-                keys.add(currentKey);
-            } else {
-                currentNPenalty--;
-                keys.add(-1);
-            }
-        }
-
-        return keys;
-    }
-
     public static int keyFromContext(final String dna) {
         return keyFromContext(dna.getBytes(), 0, dna.length());
     }
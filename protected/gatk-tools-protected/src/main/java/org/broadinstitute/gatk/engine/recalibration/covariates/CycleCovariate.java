@@ -101,7 +101,7 @@ public class CycleCovariate implements StandardCovariate {
 
     private int MAXIMUM_CYCLE_VALUE;
     public static final int CUSHION_FOR_INDELS = 4;
-    private String default_platform = null;
+    private NGSPlatform default_platform = null;
 
     // Initialize any member variables using the command-line arguments passed to the walkers
     @Override
@@ -112,35 +112,32 @@ public class CycleCovariate implements StandardCovariate {
             throw new UserException.CommandLineException("The requested default platform (" + RAC.DEFAULT_PLATFORM + ") is not a recognized platform.");
 
         if (RAC.DEFAULT_PLATFORM != null)
-            default_platform = RAC.DEFAULT_PLATFORM;
+            default_platform = NGSPlatform.fromReadGroupPL(RAC.DEFAULT_PLATFORM);
     }
 
     // Used to pick out the covariate's value from attributes of the read
     @Override
     public void recordValues(final GATKSAMRecord read, final ReadCovariates values) {
         final int readLength = read.getReadLength();
-        final NGSPlatform ngsPlatform = default_platform == null ? read.getNGSPlatform() : NGSPlatform.fromReadGroupPL(default_platform);
+        final NGSPlatform ngsPlatform = default_platform == null ? read.getNGSPlatform() : default_platform;
 
         // Discrete cycle platforms
         if (ngsPlatform.getSequencerType() == SequencerFlowClass.DISCRETE) {
             final int readOrderFactor = read.getReadPairedFlag() && read.getSecondOfPairFlag() ? -1 : 1;
-            final int increment;
-            int cycle;
-            if (read.getReadNegativeStrandFlag()) {
-                cycle = readLength * readOrderFactor;
-                increment = -1 * readOrderFactor;
-            }
-            else {
-                cycle = readOrderFactor;
-                increment = readOrderFactor;
-            }
+            final boolean negativeStrand = read.getReadNegativeStrandFlag();
+
+            // The cycles run from 1 up to readLength (or down from readLength on the negative strand), negated for
+            // the second of pair.  They never change sign, so we only check that the largest one fits and then step
+            // the key itself, whose absolute cycle is in all but the lowest (sign) bit.
+            keyFromCycle(readLength * readOrderFactor);
+            int substitutionKey = keyFromCycle((negativeStrand ? readLength : 1) * readOrderFactor);
+            final int keyIncrement = negativeStrand ? -2 : 2;
 
             final int MAX_CYCLE_FOR_INDELS = readLength - CUSHION_FOR_INDELS - 1;
             for (int i = 0; i < readLength; i++) {
-                final int substitutionKey = keyFromCycle(cycle);
                 final int indelKey = (i < CUSHION_FOR_INDELS || i > MAX_CYCLE_FOR_INDELS) ? -1 : substitutionKey;
                 values.addCovariate(substitutionKey, indelKey, indelKey, i);
-                cycle += increment;
+                substitutionKey += keyIncrement;
             }
         }
 
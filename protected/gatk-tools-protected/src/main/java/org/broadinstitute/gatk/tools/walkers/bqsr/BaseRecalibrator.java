@@ -145,12 +145,14 @@ public class BaseRecalibrator extends ReadWalker<Long, Long> implements NanoSche
     private final RecalibrationArgumentCollection RAC = new RecalibrationArgumentCollection();
 
     /**
-     * When you use nct > 1, BQSR uses nct times more memory to compute its recalibration tables, for efficiency
-     * purposes.  If you have many covariates, and therefore are using a lot of memory, you can use this flag
-     * to safely access only one table.  There may be some CPU cost, but as long as the table is really big
+     * By default, all BQSR threads count their observations in one set of lock-free tables.  These keep a dense
+     * block of counters for every read group and quality score seen, covering all the values of each covariate,
+     * so they can use a lot of memory when you have many read groups.  With this flag, all threads instead update
+     * a single sparse table that only holds the covariate values actually seen, at the cost of the threads
+     * contending for its locks.  There may be some CPU cost with nct > 1, but as long as the table is really big
      * the cost should be relatively reasonable.
      */
-    @Argument(fullName = "lowMemoryMode", shortName="lowMemoryMode", doc="Reduce memory usage in multi-threaded code at the expense of threading efficiency", required = false)
+    @Argument(fullName = "lowMemoryMode", shortName="lowMemoryMode", doc="Use one sparse, locked table instead of dense lock-free tables, which can get large with many read groups, at the expense of threading efficiency", required = false)
     public boolean lowMemoryMode = false;
 
     @Advanced
@@ -52,6 +52,7 @@
 package org.broadinstitute.gatk.tools.walkers.bqsr;
 
 import com.google.java.contract.Requires;
+import org.broadinstitute.gatk.engine.recalibration.AtomicRecalibrationTables;
 import org.broadinstitute.gatk.engine.recalibration.ReadCovariates;
 import org.broadinstitute.gatk.engine.recalibration.RecalDatum;
 import org.broadinstitute.gatk.engine.recalibration.RecalUtils;
@@ -81,6 +82,12 @@ public class RecalibrationEngine {
      */
     private RecalibrationTables finalRecalibrationTables = null;
 
+    /**
+     * The counts shared by all threads, or null if we are in low memory mode or logging the table updates,
+     * both of which require updating RecalibrationTables directly
+     */
+    private final AtomicRecalibrationTables sharedTables;
+
     private final List<RecalibrationTables> recalibrationTablesList = new LinkedList<RecalibrationTables>();
 
     private final ThreadLocal<RecalibrationTables> threadLocalTables = new ThreadLocal<RecalibrationTables>() {
@@ -121,9 +128,17 @@ public class RecalibrationEngine {
      *
      * The engine should collect match and mismatch data into the recalibrationTables data.
      *
+     * By default all threads share a single set of lock-free tables.  These hold dense blocks of counters
+     * for each read group and quality score, so they can get large with many read groups.  If
+     * enableLowMemoryMode is true, all threads instead share a single sparse RecalibrationTables, whose
+     * RecalDatums are synchronized, trading contention between threads for memory.  If we are logging the
+     * table updates without enableLowMemoryMode, each thread gets its own RecalibrationTables, which are
+     * merged in finalizeData().
+     *
      * @param covariates an array of the covariates we'll be using in this engine, order matters
      * @param numReadGroups the number of read groups we should use for the recalibration tables
      * @param maybeLogStream an optional print stream for logging calls to the nestedhashmap in the recalibration tables
+     * @param enableLowMemoryMode if true, all threads update a single sparse RecalibrationTables
      */
     public RecalibrationEngine(final Covariate[] covariates, final int numReadGroups, final PrintStream maybeLogStream, final boolean enableLowMemoryMode) {
         if ( covariates == null ) throw new IllegalArgumentException("Covariates cannot be null");
@@ -133,6 +148,7 @@ public class RecalibrationEngine {
         this.numReadGroups = numReadGroups;
         this.maybeLogStream = maybeLogStream;
         this.lowMemoryMode = enableLowMemoryMode;
+        this.sharedTables = maybeLogStream == null && ! enableLowMemoryMode ? new AtomicRecalibrationTables(covariates, numReadGroups) : null;
     }
 
     /**
@@ -141,6 +157,33 @@ public class RecalibrationEngine {
      */
     @Requires("recalInfo != null")
     public void updateDataForRead( final ReadRecalibrationInfo recalInfo ) {
+        if ( sharedTables != null )
+            updateSharedTablesForRead(recalInfo);
+        else
+            updateRecalibrationTablesForRead(recalInfo);
+    }
+
+    /**
+     * Update the lock-free tables shared by all threads using the information in recalInfo
+     * @param recalInfo data structure holding information about the recalibration values for a single read
+     */
+    private void updateSharedTablesForRead( final ReadRecalibrationInfo recalInfo ) {
+        final ReadCovariates readCovariates = recalInfo.getCovariatesValues();
+
+        for( int offset = 0; offset < recalInfo.getRead().getReadBases().length; offset++ ) {
+            if( ! recalInfo.skip(offset) ) {
+                for (final EventType eventType : EventType.values()) {
+                    sharedTables.increment(readCovariates.getKeySet(offset, eventType), eventType.ordinal(), recalInfo.getErrorFraction(eventType, offset));
+                }
+            }
+        }
+    }
+
+    /**
+     * Update the (possibly thread-local) RecalibrationTables using the information in recalInfo
+     * @param recalInfo data structure holding information about the recalibration values for a single read
+     */
+    private void updateRecalibrationTablesForRead( final ReadRecalibrationInfo recalInfo ) {
         final GATKSAMRecord read = recalInfo.getRead();
         final ReadCovariates readCovariates = recalInfo.getCovariatesValues();
         final RecalibrationTables tables = getUpdatableRecalibrationTables();
@@ -180,8 +223,8 @@ public class RecalibrationEngine {
     public void finalizeData() {
         if ( finalized ) throw new IllegalStateException("FinalizeData() has already been called");
 
-        // merge all of the thread-local tables
-        finalRecalibrationTables = mergeThreadLocalRecalibrationTables();
+        // collect the shared tables, or merge all of the thread-local ones
+        finalRecalibrationTables = sharedTables != null ? sharedTables.toRecalibrationTables() : mergeThreadLocalRecalibrationTables();
 
         final NestedIntegerArray<RecalDatum> byReadGroupTable = finalRecalibrationTables.getReadGroupTable();
         final NestedIntegerArray<RecalDatum> byQualTable = finalRecalibrationTables.getQualityScoreTable();
@@ -0,0 +1,227 @@
+/*
+* By downloading the PROGRAM you agree to the following terms of use:
+* 
+* BROAD INSTITUTE
+* SOFTWARE LICENSE AGREEMENT
+* FOR ACADEMIC NON-COMMERCIAL RESEARCH PURPOSES ONLY
+* 
+* This Agreement is made between the Broad Institute, Inc. with a principal address at 415 Main Street, Cambridge, MA 02142 (“BROAD”) and the LICENSEE and is effective at the date the downloading is completed (“EFFECTIVE DATE”).
+* 
+* WHEREAS, LICENSEE desires to license the PROGRAM, as defined hereinafter, and BROAD wishes to have this PROGRAM utilized in the public interest, subject only to the royalty-free, nonexclusive, nontransferable license rights of the United States Government pursuant to 48 CFR 52.227-14; and
+* WHEREAS, LICENSEE desires to license the PROGRAM and BROAD desires to grant a license on the following terms and conditions.
+* NOW, THEREFORE, in consideration of the promises and covenants made herein, the parties hereto agree as follows:
+* 
+* 1. DEFINITIONS
+* 1.1 PROGRAM shall mean copyright in the object code and source code known as GATK3 and related documentation, if any, as they exist on the EFFECTIVE DATE and can be downloaded from http://www.broadinstitute.org/gatk on the EFFECTIVE DATE.
+* 
+* 2. LICENSE
+* 2.1 Grant. Subject to the terms of this Agreement, BROAD hereby grants to LICENSEE, solely for academic non-commercial research purposes, a non-exclusive, non-transferable license to: (a) download, execute and display the PROGRAM and (b) create bug fixes and modify the PROGRAM. LICENSEE hereby automatically grants to BROAD a non-exclusive, royalty-free, irrevocable license to any LICENSEE bug fixes or modifications to the PROGRAM with unlimited rights to sublicense and/or distribute.  LICENSEE agrees to provide any such modifications and bug fixes to BROAD promptly upon their creation.
+* The LICENSEE may apply the PROGRAM in a pipeline to data owned by users other than the LICENSEE and provide these users the results of the PROGRAM provided LICENSEE does so for academic non-commercial purposes only. For clarification purposes, academic sponsored research is not a commercial use under the terms of this Agreement.
+* 2.2 No Sublicensing or Additional Rights. LICENSEE shall not sublicense or distribute the PROGRAM, in whole or in part, without prior written permission from BROAD. LICENSEE shall ensure that all of its users agree to the terms of this Agreement. LICENSEE further agrees that it shall not put the PROGRAM on a network, server, or other similar technology that may be accessed by anyone other than the LICENSEE and its employees and users who have agreed to the terms of this agreement.
+* 2.3 License Limitations. Nothing in this Agreement shall be construed to confer any rights upon LICENSEE by implication, estoppel, or otherwise to any computer software, trademark, intellectual property, or patent rights of BROAD, or of any other entity, except as expressly granted herein. LICENSEE agrees that the PROGRAM, in whole or part, shall not be used for any commercial purpose, including without limitation, as the basis of a commercial software or hardware product or to provide services. LICENSEE further agrees that the PROGRAM shall not be copied or otherwise adapted in order to circumvent the need for obtaining a license for use of the PROGRAM.
+* 
+* 3. PHONE-HOME FEATURE
+* LICENSEE expressly acknowledges that the PROGRAM contains an embedded automatic reporting system (“PHONE-HOME”) which is enabled by default upon download. Unless LICENSEE requests disablement of PHONE-HOME, LICENSEE agrees that BROAD may collect limited information transmitted by PHONE-HOME regarding LICENSEE and its use of the PROGRAM.  Such information shall include LICENSEE’S user identification, version number of the PROGRAM and tools being run, mode of analysis employed, and any error reports generated during run-time.  Collection of such information is used by BROAD solely to monitor usage rates, fulfill reporting requirements to BROAD funding agencies, drive improvements to the PROGRAM, and facilitate adjustments to PROGRAM-related documentation.
+* 
+* 4. OWNERSHIP OF INTELLECTUAL PROPERTY
+* LICENSEE acknowledges that title to the PROGRAM shall remain with BROAD. The PROGRAM is marked with the following BROAD copyright notice and notice of attribution to contributors. LICENSEE shall retain such notice on all copies. LICENSEE agrees to include appropriate attribution if any results obtained from use of the PROGRAM are included in any publication.
+* Copyright 2012-2014 Broad Institute, Inc.
+* Notice of attribution: The GATK3 program was made available through the generosity of Medical and Population Genetics program at the Broad Institute, Inc.
+* LICENSEE shall not use any trademark or trade name of BROAD, or any variation, adaptation, or abbreviation, of such marks or trade names, or any names of officers, faculty, students, employees, or agents of BROAD except as states above for attribution purposes.
+* 
+* 5. INDEMNIFICATION
+* LICENSEE shall indemnify, defend, and hold harmless BROAD, and their respective officers, faculty, students, employees, associated investigators and agents, and their respective successors, heirs and assigns, (Indemnitees), against any liability, damage, loss, or expense (including reasonable attorneys fees and expenses) incurred by or imposed upon any of the Indemnitees in connection with any claims, suits, actions, demands or judgments arising out of any theory of liability (including, without limitation, actions in the form of tort, warranty, or strict liability and regardless of whether such action has any factual basis) pursuant to any right or license granted under this Agreement.
+* 
+* 6. NO REPRESENTATIONS OR WARRANTIES
+* THE PROGRAM IS DELIVERED AS IS. BROAD MAKES NO REPRESENTATIONS OR WARRANTIES OF ANY KIND CONCERNING THE PROGRAM OR THE COPYRIGHT, EXPRESS OR IMPLIED, INCLUDING, WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER OR NOT DISCOVERABLE. BROAD EXTENDS NO WARRANTIES OF ANY KIND AS TO PROGRAM CONFORMITY WITH WHATEVER USER MANUALS OR OTHER LITERATURE MAY BE ISSUED FROM TIME TO TIME.
+* IN NO EVENT SHALL BROAD OR ITS RESPECTIVE DIRECTORS, OFFICERS, EMPLOYEES, AFFILIATED INVESTIGATORS AND AFFILIATES BE LIABLE FOR INCIDENTAL OR CONSEQUENTIAL DAMAGES OF ANY KIND, INCLUDING, WITHOUT LIMITATION, ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER BROAD SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+* 
+* 7. ASSIGNMENT
+* This Agreement is personal to LICENSEE and any rights or obligations assigned by LICENSEE without the prior written consent of BROAD shall be null and void.
+* 
+* 8. MISCELLANEOUS
+* 8.1 Export Control. LICENSEE gives assurance that it will comply with all United States export control laws and regulations controlling the export of the PROGRAM, including, without limitation, all Export Administration Regulations of the United States Department of Commerce. Among other things, these laws and regulations prohibit, or require a license for, the export of certain types of software to specified countries.
+* 8.2 Termination. LICENSEE shall have the right to terminate this Agreement for any reason upon prior written notice to BROAD. If LICENSEE breaches any provision hereunder, and fails to cure such breach within thirty (30) days, BROAD may terminate this Agreement immediately. Upon termination, LICENSEE shall provide BROAD with written assurance that the original and all copies of the PROGRAM have been destroyed, except that, upon prior written authorization from BROAD, LICENSEE may retain a copy for archive purposes.
+* 8.3 Survival. The following provisions shall survive the expiration or termination of this Agreement: Articles 1, 3, 4, 5 and Sections 2.2, 2.3, 7.3, and 7.4.
+* 8.4 Notice. Any notices under this Agreement shall be in writing, shall specifically refer to this Agreement, and shall be sent by hand, recognized national overnight courier, confirmed facsimile transmission, confirmed electronic mail, or registered or certified mail, postage prepaid, return receipt requested. All notices under this Agreement shall be deemed effective upon receipt.
+* 8.5 Amendment and Waiver; Entire Agreement. This Agreement may be amended, supplemented, or otherwise modified only by means of a written instrument signed by all parties. Any waiver of any rights or failure to act in a specific instance shall relate only to such instance and shall not be construed as an agreement to waive any rights or fail to act in any other instance, whether or not similar. This Agreement constitutes the entire agreement among the parties with respect to its subject matter and supersedes prior agreements or understandings between the parties relating to its subject matter.
+* 8.6 Binding Effect; Headings. This Agreement shall be binding upon and inure to the benefit of the parties and their respective permitted successors and assigns. All headings are for convenience only and shall not affect the meaning of any provision of this Agreement.
+* 8.7 Governing Law. This Agreement shall be construed, governed, interpreted and applied in accordance with the internal laws of the Commonwealth of Massachusetts, U.S.A., without regard to conflict of laws principles.
+*/
+
+package org.broadinstitute.gatk.tools.walkers.haplotypecaller;
+
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+import org.broadinstitute.gatk.utils.genotyper.ReadLikelihoods;
+import org.broadinstitute.gatk.utils.genotyper.SampleList;
+import org.broadinstitute.gatk.utils.haplotype.Haplotype;
+import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Likelihood calculation stage that computes the read likelihoods of several active regions as a batch.
+ *
+ * <p>
+ *     Small active regions, typical of exomes, give the likelihood engine very little work at a time. Instead, the
+ *     HaplotypeCaller queues the assembled regions and hands them to this class in batches. The regions of a batch
+ *     are dispatched to a pool of worker threads, largest first so that the batch finishes as evenly as possible, while the
+ *     calling thread goes on to assemble the next regions. Results are then collected in region order for genotyping.
+ * </p>
+ *
+ * <p>
+ *     The likelihood engine must be safe to call from several threads at once, as it already must be when running with -nct.
+ * </p>
+ */
+final class BatchedLikelihoodCalculator {
+
+    private final ReadLikelihoodCalculationEngine engine;
+
+    private final SampleList samples;
+
+    private final ExecutorService threadPool;
+
+    /**
+     * Creates a new batched likelihood calculator.
+     *
+     * @param engine the engine that calculates the likelihoods of each region.
+     * @param samples the samples to calculate likelihoods for.
+     * @param threadPool the pool that runs the regions' calculations, or {@code null} to run them
+     *                   on the calling thread when their results are requested. The calculator takes
+     *                   ownership of the pool and shuts it down in {@link #close()}.
+     */
+    BatchedLikelihoodCalculator(final ReadLikelihoodCalculationEngine engine, final SampleList samples, final ExecutorService threadPool) {
+        if ( engine == null ) throw new IllegalArgumentException("engine cannot be null");
+        if ( samples == null ) throw new IllegalArgumentException("samples cannot be null");
+        this.engine = engine;
+        this.samples = samples;
+        this.threadPool = threadPool;
+    }
+
+    /**
+     * Creates the pool of worker threads for the likelihood calculations.
+     *
+     * @param numThreads the number of worker threads
+     * @return the pool, or {@code null} if numThreads is less than 1
+     */
+    static ExecutorService createThreadPool(final int numThreads) {
+        if ( numThreads < 1 )
+            return null;
+
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        return Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "BatchedLikelihoodCalculator-" + threadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Starts the likelihood calculations for a batch of regions.
+     *
+     * @param assemblyResults the assembly result of each region.
+     * @param perSampleReadLists the reads of each region stratified by sample, in the same order as {@code assemblyResults}.
+     * @return never {@code null}, the pending results in the same order as the input.
+     */
+    List<Future<ReadLikelihoods<Haplotype>>> submit(final List<AssemblyResultSet> assemblyResults,
+                                                    final List<Map<String, List<GATKSAMRecord>>> perSampleReadLists) {
+        if ( assemblyResults == null ) throw new IllegalArgumentException("assemblyResults cannot be null");
+        if ( perSampleReadLists == null ) throw new IllegalArgumentException("perSampleReadLists cannot be null");
+        if ( assemblyResults.size() != perSampleReadLists.size() )
+            throw new IllegalArgumentException("there must be one read list per assembly result: " + assemblyResults.size() + " != " + perSampleReadLists.size());
+
+        final int regionCount = assemblyResults.size();
+        final List<Future<ReadLikelihoods<Haplotype>>> result = new ArrayList<>(regionCount);
+        final List<FutureTask<ReadLikelihoods<Haplotype>>> tasks = new ArrayList<>(regionCount);
+        final long[] costs = new long[regionCount];
+        for ( int i = 0; i < regionCount; i++ ) {
+            final FutureTask<ReadLikelihoods<Haplotype>> task = createTask(assemblyResults.get(i), perSampleReadLists.get(i));
+            tasks.add(task);
+            result.add(task);
+            costs[i] = estimateCost(assemblyResults.get(i), perSampleReadLists.get(i));
+        }
+
+        if ( threadPool != null ) {
+            final Integer[] order = new Integer[regionCount];
+            for ( int i = 0; i < regionCount; i++ )
+                order[i] = i;
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(final Integer a, final Integer b) {
+                    return Long.compare(costs[b], costs[a]);
+                }
+            });
+            for ( final int i : order )
+                threadPool.execute(tasks.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Waits for the result of a region, calculating it on the calling thread if no worker has started it yet.
+     *
+     * @param pending one of the pending results returned by {@link #submit}.
+     * @return never {@code null}.
+     */
+    static ReadLikelihoods<Haplotype> get(final Future<ReadLikelihoods<Haplotype>> pending) {
+        if ( pending instanceof RunnableFuture )
+            ((RunnableFuture<ReadLikelihoods<Haplotype>>) pending).run(); // a no-op if the task has already been started
+        try {
+            return pending.get();
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new ReviewedGATKException("Interrupted while waiting for the read likelihoods of an active region", e);
+        } catch ( ExecutionException e ) {
+            final Throwable cause = e.getCause();
+            if ( cause instanceof RuntimeException ) throw (RuntimeException)cause;
+            if ( cause instanceof Error ) throw (Error)cause;
+            throw new ReviewedGATKException("Failed to calculate the read likelihoods of an active region", cause);
+        }
+    }
+
+    /**
+     * Shuts down the worker threads, waiting for any calculation still running on them to finish.
+     *
+     * <p>Call this before closing the likelihood engine, which closes the PairHMMs the workers have been using.</p>
+     */
+    void close() {
+        if ( threadPool == null )
+            return;
+        threadPool.shutdown();
+        try {
+            while ( ! threadPool.awaitTermination(1, TimeUnit.MINUTES) )
+                ; // keep waiting, the workers will finish the regions they have started
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new ReviewedGATKException("Interrupted while waiting for the likelihood calculation threads to finish", e);
+        }
+    }
+
+    private FutureTask<ReadLikelihoods<Haplotype>> createTask(final AssemblyResultSet assemblyResult, final Map<String, List<GATKSAMRecord>> perSampleReadList) {
+        return new FutureTask<>(new Callable<ReadLikelihoods<Haplotype>>() {
+            @Override
+            public ReadLikelihoods<Haplotype> call() {
+                return engine.computeReadLikelihoods(assemblyResult, samples, perSampleReadList);
+            }
+        });
+    }
+
+    /**
+     * Estimates the work needed to calculate the likelihoods of a region, proportional to the number of PairHMM cells.
+     */
+    private static long estimateCost(final AssemblyResultSet assemblyResult, final Map<String, List<GATKSAMRecord>> perSampleReadList) {
+        long readBases = 0;
+        for ( final List<GATKSAMRecord> reads : perSampleReadList.values() )
+            for ( final GATKSAMRecord read : reads )
+                readBases += read.getReadLength();
+        long haplotypeBases = 0;
+        for ( final Haplotype haplotype : assemblyResult.getHaplotypeList() )
+            haplotypeBases += haplotype.length();
+        return readBases * haplotypeBases;
+    }
+}
@@ -77,6 +77,8 @@ import org.broadinstitute.gatk.engine.walkers.*;
 import org.broadinstitute.gatk.tools.walkers.annotator.VariantAnnotatorEngine;
 import org.broadinstitute.gatk.tools.walkers.annotator.interfaces.AnnotatorCompatible;
 import org.broadinstitute.gatk.tools.walkers.genotyper.*;
+import org.broadinstitute.gatk.tools.walkers.genotyper.afcalc.AFCalculatorProvider;
+import org.broadinstitute.gatk.tools.walkers.genotyper.afcalc.ConcurrentAFCalculatorProvider;
 import org.broadinstitute.gatk.tools.walkers.genotyper.afcalc.FixedAFCalculatorProvider;
 import org.broadinstitute.gatk.tools.walkers.haplotypecaller.readthreading.ReadThreadingAssembler;
 import org.broadinstitute.gatk.utils.GenomeLoc;
@@ -106,6 +108,8 @@ import org.broadinstitute.gatk.utils.variant.*;
 
 import java.io.FileNotFoundException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Call SNPs and indels simultaneously via local re-assembly of haplotypes in an active region
@@ -229,7 +233,7 @@ import java.util.*;
 @ActiveRegionTraversalParameters(extension=100, maxRegion=300)
 @ReadFilters({HCMappingQualityFilter.class})
 @Downsample(by= DownsampleType.BY_SAMPLE, toCoverage=500)
-public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, Integer> implements AnnotatorCompatible, NanoSchedulable {
+public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, Integer> implements AnnotatorCompatible, NanoSchedulable, ThreadSafeIsActive {
     // -----------------------------------------------------------------------------------------------
     // general haplotype caller arguments
     // -----------------------------------------------------------------------------------------------
@@ -455,9 +459,22 @@ public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, In
     // the assembly engine
     private LocalAssemblyEngine assemblyEngine = null;
 
+    // the pool shared by all calls into the assembly engine, or null if graphs are built on the calling thread
+    private ExecutorService assemblyThreadPool = null;
+
     // the likelihoods engine
     private ReadLikelihoodCalculationEngine likelihoodCalculationEngine = null;
 
+    // calculates the likelihoods of batches of active regions, or null if each region is calculated as it comes
+    private BatchedLikelihoodCalculator batchedLikelihoodCalculator = null;
+
+    // regions waiting for their batch to be started, and those of the batch started before, in traversal order
+    private List<PendingRegion> currentLikelihoodBatch = new ArrayList<>();
+    private List<PendingRegion> previousLikelihoodBatch = new ArrayList<>();
+
+    // with batching reduce only sees whole batches, so the number of regions with calls is counted here
+    private int numBatchedCalledRegions = 0;
+
     // the genotyping engine
     private HaplotypeCallerGenotypingEngine genotypingEngine = null;
 
@@ -578,8 +595,16 @@ public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, In
         // UGs engine with ploidy == 1
         simpleUAC.genotypeArgs.samplePloidy = Math.max(2, HCAC.genotypeArgs.samplePloidy);
 
-        activeRegionEvaluationGenotyperEngine = new UnifiedGenotypingEngine(simpleUAC,
-                FixedAFCalculatorProvider.createThreadSafeProvider(getToolkit(),simpleUAC,logger), toolkit);
+        // with activityProfileThreads isActive is called by several threads at once, even without -nct
+        final AFCalculatorProvider isActiveAFCalculatorProvider = activityProfileThreads > 0
+                ? new ConcurrentAFCalculatorProvider() {
+                    @Override
+                    protected AFCalculatorProvider createProvider() {
+                        return new FixedAFCalculatorProvider(simpleUAC,logger,false);
+                    }
+                }
+                : FixedAFCalculatorProvider.createThreadSafeProvider(getToolkit(),simpleUAC,logger);
+        activeRegionEvaluationGenotyperEngine = new UnifiedGenotypingEngine(simpleUAC, isActiveAFCalculatorProvider, toolkit);
         activeRegionEvaluationGenotyperEngine.setLogger(logger);
 
         if( HCAC.CONTAMINATION_FRACTION_FILE != null )
@@ -634,7 +659,8 @@ public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, In
         }
 
         // create and setup the assembler
-        assemblyEngine = new ReadThreadingAssembler(RTAC.maxNumHaplotypesInPopulation, RTAC.kmerSizes, RTAC.dontIncreaseKmerSizesForCycles, RTAC.allowNonUniqueKmersInRef, RTAC.numPruningSamples);
+        final ReadThreadingAssembler readThreadingAssembler = new ReadThreadingAssembler(RTAC.maxNumHaplotypesInPopulation, RTAC.kmerSizes, RTAC.dontIncreaseKmerSizesForCycles, RTAC.allowNonUniqueKmersInRef, RTAC.numPruningSamples);
+        assemblyEngine = readThreadingAssembler;
 
         assemblyEngine.setErrorCorrectKmers(RTAC.errorCorrectKmers);
         assemblyEngine.setPruneFactor(RTAC.MIN_PRUNE_FACTOR);
@@ -649,6 +675,11 @@ public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, In
 
         if ( RTAC.graphWriter != null ) assemblyEngine.setGraphWriter(RTAC.graphWriter);
 
+        if ( RTAC.numAssemblyThreads < 0 )
+            throw new UserException.BadArgumentValue("numAssemblyThreads", "must be 0 or greater, but got " + RTAC.numAssemblyThreads);
+        assemblyThreadPool = ReadThreadingAssembler.createAssemblyThreadPool(RTAC.numAssemblyThreads);
+        readThreadingAssembler.setAssemblyThreadPool(assemblyThreadPool);
+
         // setup the likelihood calculation engine
         if ( LEAC.phredScaledGlobalReadMismappingRate < 0 ) LEAC.phredScaledGlobalReadMismappingRate = -1;
 
@@ -660,10 +691,25 @@ public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, In
             logger.info("Using global mismapping rate of " + LEAC.phredScaledGlobalReadMismappingRate + " => " + log10GlobalReadMismappingRate + " in log10 likelihood units");
         }
 
+        if ( LEAC.pairHMMBandWidth < 0 )
+            throw new UserException.BadArgumentValue("pairHMMBandWidth", "cannot be negative but was " + LEAC.pairHMMBandWidth);
+        if ( Double.isNaN(LEAC.pairHMMPruningThreshold) || LEAC.pairHMMPruningThreshold < 0 )
+            throw new UserException.BadArgumentValue("pairHMMPruningThreshold", "must be 0 or positive but was " + LEAC.pairHMMPruningThreshold);
+        if ( LEAC.likelihoodBatchSize < 1 )
+            throw new UserException.BadArgumentValue("likelihoodBatchSize", "must be at least 1 but was " + LEAC.likelihoodBatchSize);
+        final boolean batchLikelihoods = LEAC.likelihoodBatchSize > 1;
+        if ( batchLikelihoods && getToolkit().getTotalNumberOfThreads() > 1 )
+            throw new UserException.BadArgumentValue("likelihoodBatchSize", "cannot be used together with multiple threads (-nct); use numLikelihoodThreads instead");
+        final int numLikelihoodThreads = ! batchLikelihoods ? 0 : LEAC.numLikelihoodThreads >= 0 ? LEAC.numLikelihoodThreads
+                : Runtime.getRuntime().availableProcessors() - 1;
+
         //static member function - set number of threads
-        PairHMM.setNumberOfThreads(getToolkit().getTotalNumberOfThreads());
+        PairHMM.setNumberOfThreads(getToolkit().getTotalNumberOfThreads() + numLikelihoodThreads);
         // create our likelihood calculation engine
         likelihoodCalculationEngine = createLikelihoodCalculationEngine();
+        if ( batchLikelihoods )
+            batchedLikelihoodCalculator = new BatchedLikelihoodCalculator(likelihoodCalculationEngine, samplesList,
+                    BatchedLikelihoodCalculator.createThreadPool(numLikelihoodThreads));
 
         final MergeVariantsAcrossHaplotypes variantMerger = new MergeVariantsAcrossHaplotypes();
 
@@ -712,7 +758,8 @@ public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, In
     private ReadLikelihoodCalculationEngine createLikelihoodCalculationEngine() {
         switch (likelihoodEngineImplementation) {
             case PairHMM:
-                return new PairHMMLikelihoodCalculationEngine( (byte) LEAC.gcpHMM, LEAC.pairHMM, LEAC.pairHMMSub, LEAC.alwaysLoadVectorLoglessPairHMMLib, log10GlobalReadMismappingRate, LEAC.noFpga, pcrErrorModel );
+                return new PairHMMLikelihoodCalculationEngine( (byte) LEAC.gcpHMM, LEAC.pairHMM, LEAC.pairHMMSub, LEAC.alwaysLoadVectorLoglessPairHMMLib, log10GlobalReadMismappingRate, LEAC.noFpga, pcrErrorModel, LEAC.pairHMMLikelihoodCacheSize,
+                        LEAC.pairHMMBandWidth, LEAC.pairHMMPruningThreshold );
             case GraphBased:
                 return new GraphBasedLikelihoodCalculationEngine( (byte) LEAC.gcpHMM,log10GlobalReadMismappingRate, heterogeneousKmerSizeResolution, HCAC.DEBUG, RTAC.debugGraphTransformations);
             case Random:
@@ -795,16 +842,35 @@ public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, In
     private final static List<VariantContext> NO_CALLS = Collections.emptyList();
     @Override
     public List<VariantContext> map( final ActiveRegion originalActiveRegion, final RefMetaDataTracker metaDataTracker ) {
+        final PendingRegion region = prepareRegion(originalActiveRegion, metaDataTracker);
+        if ( batchedLikelihoodCalculator != null )
+            return addToLikelihoodBatch(region);
+        if ( region.isDone() )
+            return region.calls;
+
+        // Calculate the likelihoods: CPU intensive part.
+        final ReadLikelihoods<Haplotype> readLikelihoods =
+                likelihoodCalculationEngine.computeReadLikelihoods(region.assemblyResult,samplesList,region.reads);
+        return finishRegion(region, readLikelihoods);
+    }
+
+    /**
+     * Assembles an active region and prepares it for the likelihood calculation.
+     *
+     * @return never {@code null}, a region that is already {@link PendingRegion#isDone() done} if
+     *  it can be finished without calculating the read likelihoods.
+     */
+    private PendingRegion prepareRegion( final ActiveRegion originalActiveRegion, final RefMetaDataTracker metaDataTracker ) {
         if ( justDetermineActiveRegions )
             // we're benchmarking ART and/or the active region determination code in the HC, just leave without doing any work
-            return NO_CALLS;
+            return PendingRegion.done(NO_CALLS);
 
         if (sampleNameToUse != null)
             removeReadsFromAllSamplesExcept(sampleNameToUse, originalActiveRegion);
 
         if( !originalActiveRegion.isActive() )
             // Not active so nothing to do!
-            return referenceModelForNoVariation(originalActiveRegion, true);
+            return PendingRegion.done(referenceModelForNoVariation(originalActiveRegion, true));
 
         final List<VariantContext> givenAlleles = new ArrayList<>();
         if( HCAC.genotypingOutputMode == GenotypingOutputMode.GENOTYPE_GIVEN_ALLELES ) {
@@ -814,10 +880,10 @@ public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, In
                 }
             }
             // No alleles found in this region so nothing to do!
-            if ( givenAlleles.isEmpty() ) { return referenceModelForNoVariation(originalActiveRegion, true); }
+            if ( givenAlleles.isEmpty() ) { return PendingRegion.done(referenceModelForNoVariation(originalActiveRegion, true)); }
         } else {
             // No reads here so nothing to do!
-            if( originalActiveRegion.size() == 0 ) { return referenceModelForNoVariation(originalActiveRegion, true); }
+            if( originalActiveRegion.size() == 0 ) { return PendingRegion.done(referenceModelForNoVariation(originalActiveRegion, true)); }
         }
 
         // run the local assembler, getting back a collection of information on how we should proceed
@@ -831,7 +897,7 @@ public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, In
         final ActiveRegionTrimmer.Result trimmingResult = trimmer.trim(originalActiveRegion,allVariationEvents);
 
         if (!trimmingResult.isVariationPresent() && !HCAC.disableOptimizations)
-            return referenceModelForNoVariation(originalActiveRegion,false);
+            return PendingRegion.done(referenceModelForNoVariation(originalActiveRegion,false));
 
         final AssemblyResultSet assemblyResult =
                 trimmingResult.needsTrimming() ? untrimmedAssemblyResult.trimTo(trimmingResult.getCallableRegion()) : untrimmedAssemblyResult;
@@ -849,26 +915,35 @@ public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, In
         // abort early if something is out of the acceptable range
         // TODO is this ever true at this point??? perhaps GGA. Need to check.
         if( ! assemblyResult.isVariationPresent() && ! HCAC.disableOptimizations)
-            return referenceModelForNoVariation(originalActiveRegion, false);
+            return PendingRegion.done(referenceModelForNoVariation(originalActiveRegion, false));
 
         // For sure this is not true if gVCF is on.
-        if (dontGenotype) return NO_CALLS; // user requested we not proceed
+        if (dontGenotype) return PendingRegion.done(NO_CALLS); // user requested we not proceed
 
 
         // TODO is this ever true at this point??? perhaps GGA. Need to check.
         if( regionForGenotyping.size() == 0 && ! HCAC.disableOptimizations) {
             // no reads remain after filtering so nothing else to do!
-            return referenceModelForNoVariation(originalActiveRegion, false);
+            return PendingRegion.done(referenceModelForNoVariation(originalActiveRegion, false));
         }
 
         // evaluate each sample's reads against all haplotypes
         //logger.info("Computing read likelihoods with " + assemblyResult.regionForGenotyping.size() + " reads");
-        final List<Haplotype> haplotypes = assemblyResult.getHaplotypeList();
         final Map<String,List<GATKSAMRecord>> reads = splitReadsBySample( regionForGenotyping.getReads() );
+        return new PendingRegion(originalActiveRegion, metaDataTracker, givenAlleles, trimmingResult, assemblyResult, perSampleFilteredReadList, reads);
+    }
 
-        // Calculate the likelihoods: CPU intensive part.
-        final ReadLikelihoods<Haplotype> readLikelihoods =
-                likelihoodCalculationEngine.computeReadLikelihoods(assemblyResult,samplesList,reads);
+    /**
+     * Genotypes a prepared region given the likelihoods of its reads.
+     *
+     * @return never {@code null}, the calls to emit for the region.
+     */
+    private List<VariantContext> finishRegion( final PendingRegion region, final ReadLikelihoods<Haplotype> readLikelihoods ) {
+        final ActiveRegion originalActiveRegion = region.originalActiveRegion;
+        final AssemblyResultSet assemblyResult = region.assemblyResult;
+        final ActiveRegionTrimmer.Result trimmingResult = region.trimmingResult;
+        final ActiveRegion regionForGenotyping = assemblyResult.getRegionForGenotyping();
+        final List<Haplotype> haplotypes = assemblyResult.getHaplotypeList();
 
         // Realign reads to their best haplotype.
         final Map<GATKSAMRecord,GATKSAMRecord> readRealignments = realignReadsToTheirBestHaplotype(readLikelihoods, assemblyResult.getReferenceHaplotype(), assemblyResult.getPaddedReferenceLoc());
@@ -883,13 +958,13 @@ public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, In
         final HaplotypeCallerGenotypingEngine.CalledHaplotypes calledHaplotypes = genotypingEngine.assignGenotypeLikelihoods(
                 haplotypes,
                 readLikelihoods,
-                perSampleFilteredReadList,
+                region.perSampleFilteredReadList,
                 assemblyResult.getFullReferenceWithPadding(),
                 assemblyResult.getPaddedReferenceLoc(),
                 regionForGenotyping.getLocation(),
                 getToolkit().getGenomeLocParser(),
-                metaDataTracker,
-                (RTAC.consensusMode ? Collections.<VariantContext>emptyList() : givenAlleles),
+                region.metaDataTracker,
+                (RTAC.consensusMode ? Collections.<VariantContext>emptyList() : region.givenAlleles),
                 emitReferenceConfidence());
 
         if ( HCAC.bamWriter != null ) {
@@ -929,6 +1004,117 @@ public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, In
             return calledHaplotypes.getCalls();
     }
 
+    /**
+     * Adds a prepared region to the current likelihood batch.
+     * <p>
+     *     Once the batch is full its likelihood calculations are started, and the previous batch, whose
+     *     likelihoods have been calculated meanwhile, is genotyped. Regions that need no likelihoods, such as
+     *     the reference model blocks of a GVCF, count toward the batch size too, so that they cannot pile up.
+     * </p>
+     *
+     * @return never {@code null}, the calls of the previous batch in region order, or no calls if the current batch is not full yet.
+     */
+    private List<VariantContext> addToLikelihoodBatch( final PendingRegion region ) {
+        currentLikelihoodBatch.add(region);
+        if ( currentLikelihoodBatch.size() < LEAC.likelihoodBatchSize )
+            return NO_CALLS;
+
+        startLikelihoodBatch(currentLikelihoodBatch);
+        final List<VariantContext> calls = finishLikelihoodBatch(previousLikelihoodBatch);
+        previousLikelihoodBatch = currentLikelihoodBatch;
+        currentLikelihoodBatch = new ArrayList<>();
+        return calls;
+    }
+
+    /**
+     * Starts the likelihood calculations of the regions in a batch that are not done yet.
+     */
+    private void startLikelihoodBatch( final List<PendingRegion> batch ) {
+        final List<PendingRegion> jobs = new ArrayList<>(batch.size());
+        final List<AssemblyResultSet> assemblyResults = new ArrayList<>(batch.size());
+        final List<Map<String,List<GATKSAMRecord>>> reads = new ArrayList<>(batch.size());
+        for ( final PendingRegion region : batch ) {
+            if ( region.isDone() ) continue;
+            jobs.add(region);
+            assemblyResults.add(region.assemblyResult);
+            reads.add(region.reads);
+        }
+        final List<Future<ReadLikelihoods<Haplotype>>> pendingLikelihoods = batchedLikelihoodCalculator.submit(assemblyResults, reads);
+        for ( int i = 0; i < jobs.size(); i++ )
+            jobs.get(i).readLikelihoods = pendingLikelihoods.get(i);
+    }
+
+    /**
+     * Genotypes the regions of a started batch in order, waiting for their likelihoods as needed.
+     *
+     * @return never {@code null}, the calls of all the regions in the batch.
+     */
+    private List<VariantContext> finishLikelihoodBatch( final List<PendingRegion> batch ) {
+        final List<VariantContext> calls = new ArrayList<>();
+        for ( final PendingRegion region : batch ) {
+            final List<VariantContext> regionCalls = region.isDone() ? region.calls
+                    : finishRegion(region, BatchedLikelihoodCalculator.get(region.readLikelihoods));
+            if ( ! regionCalls.isEmpty() ) numBatchedCalledRegions++;
+            calls.addAll(regionCalls);
+        }
+        batch.clear();
+        return calls;
+    }
+
+    /**
+     * An active region between assembly and genotyping.
+     * <p>
+     *     Holds either everything needed to genotype the region once its read likelihoods are known, or,
+     *     if the region does not need any likelihoods, its final calls.
+     * </p>
+     */
+    private static final class PendingRegion {
+        private final ActiveRegion originalActiveRegion;
+        private final RefMetaDataTracker metaDataTracker;
+        private final List<VariantContext> givenAlleles;
+        private final ActiveRegionTrimmer.Result trimmingResult;
+        private final AssemblyResultSet assemblyResult;
+        private final Map<String,List<GATKSAMRecord>> perSampleFilteredReadList;
+        private final Map<String,List<GATKSAMRecord>> reads;
+        private final List<VariantContext> calls;
+
+        // the likelihoods being calculated for this region, when batching
+        private Future<ReadLikelihoods<Haplotype>> readLikelihoods;
+
+        private PendingRegion(final ActiveRegion originalActiveRegion, final RefMetaDataTracker metaDataTracker,
+                              final List<VariantContext> givenAlleles, final ActiveRegionTrimmer.Result trimmingResult,
+                              final AssemblyResultSet assemblyResult, final Map<String,List<GATKSAMRecord>> perSampleFilteredReadList,
+                              final Map<String,List<GATKSAMRecord>> reads) {
+            this.originalActiveRegion = originalActiveRegion;
+            this.metaDataTracker = metaDataTracker;
+            this.givenAlleles = givenAlleles;
+            this.trimmingResult = trimmingResult;
+            this.assemblyResult = assemblyResult;
+            this.perSampleFilteredReadList = perSampleFilteredReadList;
+            this.reads = reads;
+            this.calls = null;
+        }
+
+        private PendingRegion(final List<VariantContext> calls) {
+            this.originalActiveRegion = null;
+            this.metaDataTracker = null;
+            this.givenAlleles = null;
+            this.trimmingResult = null;
+            this.assemblyResult = null;
+            this.perSampleFilteredReadList = null;
+            this.reads = null;
+            this.calls = calls;
+        }
+
+        private static PendingRegion done(final List<VariantContext> calls) {
+            return new PendingRegion(calls);
+        }
+
+        private boolean isDone() {
+            return calls != null;
+        }
+    }
+
     /**
      * Returns a map with the original read as a key and the realigned read as the value.
      * <p>
@@ -1075,11 +1261,21 @@ public class HaplotypeCaller extends ActiveRegionWalker<List<VariantContext>, In
 
     @Override
     public void onTraversalDone(Integer result) {
+        if ( batchedLikelihoodCalculator != null ) {
+            // flush the regions still waiting for their likelihoods before the writers are closed
+            startLikelihoodBatch(currentLikelihoodBatch);
+            reduce(finishLikelihoodBatch(previousLikelihoodBatch), result);
+            reduce(finishLikelihoodBatch(currentLikelihoodBatch), result);
+            result = numBatchedCalledRegions;
+            // the workers must be done before the engine closes the PairHMMs they used
+            batchedLikelihoodCalculator.close();
+        }
         if ( HCAC.emitReferenceConfidence == ReferenceConfidenceMode.GVCF ) ((GVCFWriter)vcfWriter).close(false); // GROSS -- engine forces us to close our own VCF writer since we wrapped it
         referenceConfidenceModel.close();
         //TODO remove the need to call close here for debugging, the likelihood output stream should be managed
         //TODO (open & close) at the walker, not the engine.
         likelihoodCalculationEngine.close();
+        if ( assemblyThreadPool != null ) assemblyThreadPool.shutdown();
         logger.info("Ran local assembly on " + result + " active regions");
     }
 
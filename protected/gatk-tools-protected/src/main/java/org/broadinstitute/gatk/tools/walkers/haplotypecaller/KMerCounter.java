@@ -58,6 +58,9 @@ import java.util.*;
  *
  * Basically you add kmers to the counter, and it tells you how many occurrences of each kmer it's seen.
  *
+ * Kmers that can be 2-bit packed are counted in a KmerTable, so adding the kmers of a read through
+ * addKmer(byte[], int, int) doesn't allocate anything.  CountedKmers are only built when asked for.
+ *
  * User: depristo
  * Date: 3/8/13
  * Time: 1:16 PM
@@ -66,11 +69,21 @@ public class KMerCounter {
     //private final static Logger logger = Logger.getLogger(KMerCounter.class);
 
     /**
-     * A map of for each kmer to its num occurrences in addKmers
+     * The num occurrences in addKmers of each packable kmer, or null if kmerLength is too long to pack
+     */
+    private final KmerTable<Void> packedCounts;
+
+    /**
+     * A map of for each kmer that can't be packed to its num occurrences in addKmers
      */
     private final Map<Kmer, CountedKmer> countsByKMer = new HashMap<Kmer, CountedKmer>();
     private final int kmerLength;
 
+    /**
+     * The counted kmers as returned by getCountedKmers(), built on demand and dropped whenever counts change
+     */
+    private List<CountedKmer> countedKmers = null;
+
     /**
      * Create a new kmer counter
      *
@@ -79,6 +92,11 @@ public class KMerCounter {
     public KMerCounter(final int kmerLength) {
         if ( kmerLength < 1 ) throw new IllegalArgumentException("kmerLength must be > 0 but got " + kmerLength);
         this.kmerLength = kmerLength;
+        this.packedCounts = KmerTable.canPack(kmerLength) ? new KmerTable<Void>(kmerLength) : null;
+    }
+
+    private long packedKey(final Kmer kmer) {
+        return packedCounts != null && kmer.length() == kmerLength ? KmerTable.pack(kmer) : KmerTable.NOT_PACKABLE;
     }
 
     /**
@@ -88,6 +106,11 @@ public class KMerCounter {
      */
     public int getKmerCount(final Kmer kmer) {
         if ( kmer == null ) throw new IllegalArgumentException("kmer cannot be null");
+        final long packedKey = packedKey(kmer);
+        if ( packedKey != KmerTable.NOT_PACKABLE ) {
+            final int entry = packedCounts.find(packedKey);
+            return entry == -1 ? 0 : packedCounts.getCount(entry);
+        }
         final CountedKmer counted = countsByKMer.get(kmer);
         return counted == null ? 0 : counted.count;
     }
@@ -97,7 +120,27 @@ public class KMerCounter {
      * @return a non-null collection
      */
     public Collection<CountedKmer> getCountedKmers() {
-        return countsByKMer.values();
+        if ( countedKmers == null ) {
+            countedKmers = new ArrayList<CountedKmer>(size());
+            if ( packedCounts != null ) {
+                for ( int entry = 0; entry < packedCounts.entryLimit(); entry++ ) {
+                    if ( packedCounts.isLive(entry) ) {
+                        final CountedKmer counted = new CountedKmer(packedCounts.getKmer(entry));
+                        counted.count = packedCounts.getCount(entry);
+                        countedKmers.add(counted);
+                    }
+                }
+            }
+            countedKmers.addAll(countsByKMer.values());
+        }
+        return Collections.unmodifiableList(countedKmers);
+    }
+
+    /**
+     * @return the number of distinct kmers in this counter
+     */
+    public int size() {
+        return (packedCounts == null ? 0 : packedCounts.size()) + countsByKMer.size();
     }
 
     /**
@@ -107,7 +150,13 @@ public class KMerCounter {
      */
     public Collection<Kmer> getKmersWithCountsAtLeast(final int minCount) {
         final List<Kmer> result = new LinkedList<Kmer>();
-        for ( final CountedKmer countedKmer : getCountedKmers() ) {
+        if ( packedCounts != null ) {
+            for ( int entry = 0; entry < packedCounts.entryLimit(); entry++ ) {
+                if ( packedCounts.isLive(entry) && packedCounts.getCount(entry) >= minCount )
+                    result.add(packedCounts.getKmer(entry));
+            }
+        }
+        for ( final CountedKmer countedKmer : countsByKMer.values() ) {
             if ( countedKmer.count >= minCount )
                 result.add(countedKmer.kmer);
         }
@@ -118,7 +167,9 @@ public class KMerCounter {
      * Remove all current counts, resetting the counter to an empty state
      */
     public void clear() {
+        if ( packedCounts != null ) packedCounts.clear();
         countsByKMer.clear();
+        countedKmers = null;
     }
 
     /**
@@ -131,18 +182,52 @@ public class KMerCounter {
         if ( kmer.length() != kmerLength ) throw new IllegalArgumentException("bad kmer length " + kmer + " expected size " + kmerLength);
         if ( kmerCount < 0 ) throw new IllegalArgumentException("bad kmerCount " + kmerCount);
 
+        final long packedKey = packedKey(kmer);
+        if ( packedKey != KmerTable.NOT_PACKABLE )
+            addPackedKmer(packedKey, kmerCount);
+        else
+            addUnpackedKmer(kmer, kmerCount);
+    }
+
+    /**
+     * Add the kmer of kmerLength bases starting at bases[start], which occurred kmerCount times
+     *
+     * Doesn't allocate a Kmer unless the kmer can't be packed
+     *
+     * @param bases the bases holding the kmer
+     * @param start the start of the kmer in bases
+     * @param kmerCount the number of occurrences
+     */
+    public void addKmer(final byte[] bases, final int start, final int kmerCount) {
+        if ( start < 0 || start + kmerLength > bases.length ) throw new IllegalArgumentException("bad kmer start " + start + " for " + bases.length + " bases and kmer size " + kmerLength);
+        if ( kmerCount < 0 ) throw new IllegalArgumentException("bad kmerCount " + kmerCount);
+
+        final long packedKey = packedCounts == null ? KmerTable.NOT_PACKABLE : KmerTable.pack(bases, start, kmerLength);
+        if ( packedKey != KmerTable.NOT_PACKABLE )
+            addPackedKmer(packedKey, kmerCount);
+        else
+            addUnpackedKmer(new Kmer(bases, start, kmerLength), kmerCount);
+    }
+
+    private void addPackedKmer(final long packedKey, final int kmerCount) {
+        packedCounts.addCount(packedCounts.add(packedKey), kmerCount);
+        countedKmers = null;
+    }
+
+    private void addUnpackedKmer(final Kmer kmer, final int kmerCount) {
         CountedKmer countFromMap = countsByKMer.get(kmer);
         if ( countFromMap == null ) {
             countFromMap = new CountedKmer(kmer);
             countsByKMer.put(kmer, countFromMap);
         }
         countFromMap.count += kmerCount;
+        countedKmers = null;
     }
 
     @Override
     public String toString() {
         final StringBuilder b = new StringBuilder("KMerCounter{");
-        b.append("counting ").append(countsByKMer.size()).append(" distinct kmers");
+        b.append("counting ").append(size()).append(" distinct kmers");
         b.append("\n}");
         return b.toString();
     }
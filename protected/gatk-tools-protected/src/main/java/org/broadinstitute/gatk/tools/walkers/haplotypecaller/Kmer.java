@@ -257,10 +257,11 @@ public class Kmer {
         int dist = 0;
         if (length == other.length()) {
             final byte[] f2 = other.unsafePeekAtBases();
+            final int otherStart = other.start;
             for (int i=0; i < length; i++)
-                if(bases[start+i] != f2[i]) {
+                if(bases[start+i] != f2[otherStart+i]) {
                     differingIndeces[dist] = i;
-                    differingBases[dist++] = f2[i];
+                    differingBases[dist++] = f2[otherStart+i];
                     if (dist > maxDistance)
                         return -1;
                 }
@@ -0,0 +1,315 @@
+/*
+* By downloading the PROGRAM you agree to the following terms of use:
+* 
+* BROAD INSTITUTE
+* SOFTWARE LICENSE AGREEMENT
+* FOR ACADEMIC NON-COMMERCIAL RESEARCH PURPOSES ONLY
+* 
+* This Agreement is made between the Broad Institute, Inc. with a principal address at 415 Main Street, Cambridge, MA 02142 (“BROAD”) and the LICENSEE and is effective at the date the downloading is completed (“EFFECTIVE DATE”).
+* 
+* WHEREAS, LICENSEE desires to license the PROGRAM, as defined hereinafter, and BROAD wishes to have this PROGRAM utilized in the public interest, subject only to the royalty-free, nonexclusive, nontransferable license rights of the United States Government pursuant to 48 CFR 52.227-14; and
+* WHEREAS, LICENSEE desires to license the PROGRAM and BROAD desires to grant a license on the following terms and conditions.
+* NOW, THEREFORE, in consideration of the promises and covenants made herein, the parties hereto agree as follows:
+* 
+* 1. DEFINITIONS
+* 1.1 PROGRAM shall mean copyright in the object code and source code known as GATK3 and related documentation, if any, as they exist on the EFFECTIVE DATE and can be downloaded from http://www.broadinstitute.org/gatk on the EFFECTIVE DATE.
+* 
+* 2. LICENSE
+* 2.1 Grant. Subject to the terms of this Agreement, BROAD hereby grants to LICENSEE, solely for academic non-commercial research purposes, a non-exclusive, non-transferable license to: (a) download, execute and display the PROGRAM and (b) create bug fixes and modify the PROGRAM. LICENSEE hereby automatically grants to BROAD a non-exclusive, royalty-free, irrevocable license to any LICENSEE bug fixes or modifications to the PROGRAM with unlimited rights to sublicense and/or distribute.  LICENSEE agrees to provide any such modifications and bug fixes to BROAD promptly upon their creation.
+* The LICENSEE may apply the PROGRAM in a pipeline to data owned by users other than the LICENSEE and provide these users the results of the PROGRAM provided LICENSEE does so for academic non-commercial purposes only. For clarification purposes, academic sponsored research is not a commercial use under the terms of this Agreement.
+* 2.2 No Sublicensing or Additional Rights. LICENSEE shall not sublicense or distribute the PROGRAM, in whole or in part, without prior written permission from BROAD. LICENSEE shall ensure that all of its users agree to the terms of this Agreement. LICENSEE further agrees that it shall not put the PROGRAM on a network, server, or other similar technology that may be accessed by anyone other than the LICENSEE and its employees and users who have agreed to the terms of this agreement.
+* 2.3 License Limitations. Nothing in this Agreement shall be construed to confer any rights upon LICENSEE by implication, estoppel, or otherwise to any computer software, trademark, intellectual property, or patent rights of BROAD, or of any other entity, except as expressly granted herein. LICENSEE agrees that the PROGRAM, in whole or part, shall not be used for any commercial purpose, including without limitation, as the basis of a commercial software or hardware product or to provide services. LICENSEE further agrees that the PROGRAM shall not be copied or otherwise adapted in order to circumvent the need for obtaining a license for use of the PROGRAM.
+* 
+* 3. PHONE-HOME FEATURE
+* LICENSEE expressly acknowledges that the PROGRAM contains an embedded automatic reporting system (“PHONE-HOME”) which is enabled by default upon download. Unless LICENSEE requests disablement of PHONE-HOME, LICENSEE agrees that BROAD may collect limited information transmitted by PHONE-HOME regarding LICENSEE and its use of the PROGRAM.  Such information shall include LICENSEE’S user identification, version number of the PROGRAM and tools being run, mode of analysis employed, and any error reports generated during run-time.  Collection of such information is used by BROAD solely to monitor usage rates, fulfill reporting requirements to BROAD funding agencies, drive improvements to the PROGRAM, and facilitate adjustments to PROGRAM-related documentation.
+* 
+* 4. OWNERSHIP OF INTELLECTUAL PROPERTY
+* LICENSEE acknowledges that title to the PROGRAM shall remain with BROAD. The PROGRAM is marked with the following BROAD copyright notice and notice of attribution to contributors. LICENSEE shall retain such notice on all copies. LICENSEE agrees to include appropriate attribution if any results obtained from use of the PROGRAM are included in any publication.
+* Copyright 2012-2014 Broad Institute, Inc.
+* Notice of attribution: The GATK3 program was made available through the generosity of Medical and Population Genetics program at the Broad Institute, Inc.
+* LICENSEE shall not use any trademark or trade name of BROAD, or any variation, adaptation, or abbreviation, of such marks or trade names, or any names of officers, faculty, students, employees, or agents of BROAD except as states above for attribution purposes.
+* 
+* 5. INDEMNIFICATION
+* LICENSEE shall indemnify, defend, and hold harmless BROAD, and their respective officers, faculty, students, employees, associated investigators and agents, and their respective successors, heirs and assigns, (Indemnitees), against any liability, damage, loss, or expense (including reasonable attorneys fees and expenses) incurred by or imposed upon any of the Indemnitees in connection with any claims, suits, actions, demands or judgments arising out of any theory of liability (including, without limitation, actions in the form of tort, warranty, or strict liability and regardless of whether such action has any factual basis) pursuant to any right or license granted under this Agreement.
+* 
+* 6. NO REPRESENTATIONS OR WARRANTIES
+* THE PROGRAM IS DELIVERED AS IS. BROAD MAKES NO REPRESENTATIONS OR WARRANTIES OF ANY KIND CONCERNING THE PROGRAM OR THE COPYRIGHT, EXPRESS OR IMPLIED, INCLUDING, WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER OR NOT DISCOVERABLE. BROAD EXTENDS NO WARRANTIES OF ANY KIND AS TO PROGRAM CONFORMITY WITH WHATEVER USER MANUALS OR OTHER LITERATURE MAY BE ISSUED FROM TIME TO TIME.
+* IN NO EVENT SHALL BROAD OR ITS RESPECTIVE DIRECTORS, OFFICERS, EMPLOYEES, AFFILIATED INVESTIGATORS AND AFFILIATES BE LIABLE FOR INCIDENTAL OR CONSEQUENTIAL DAMAGES OF ANY KIND, INCLUDING, WITHOUT LIMITATION, ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER BROAD SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+* 
+* 7. ASSIGNMENT
+* This Agreement is personal to LICENSEE and any rights or obligations assigned by LICENSEE without the prior written consent of BROAD shall be null and void.
+* 
+* 8. MISCELLANEOUS
+* 8.1 Export Control. LICENSEE gives assurance that it will comply with all United States export control laws and regulations controlling the export of the PROGRAM, including, without limitation, all Export Administration Regulations of the United States Department of Commerce. Among other things, these laws and regulations prohibit, or require a license for, the export of certain types of software to specified countries.
+* 8.2 Termination. LICENSEE shall have the right to terminate this Agreement for any reason upon prior written notice to BROAD. If LICENSEE breaches any provision hereunder, and fails to cure such breach within thirty (30) days, BROAD may terminate this Agreement immediately. Upon termination, LICENSEE shall provide BROAD with written assurance that the original and all copies of the PROGRAM have been destroyed, except that, upon prior written authorization from BROAD, LICENSEE may retain a copy for archive purposes.
+* 8.3 Survival. The following provisions shall survive the expiration or termination of this Agreement: Articles 1, 3, 4, 5 and Sections 2.2, 2.3, 7.3, and 7.4.
+* 8.4 Notice. Any notices under this Agreement shall be in writing, shall specifically refer to this Agreement, and shall be sent by hand, recognized national overnight courier, confirmed facsimile transmission, confirmed electronic mail, or registered or certified mail, postage prepaid, return receipt requested. All notices under this Agreement shall be deemed effective upon receipt.
+* 8.5 Amendment and Waiver; Entire Agreement. This Agreement may be amended, supplemented, or otherwise modified only by means of a written instrument signed by all parties. Any waiver of any rights or failure to act in a specific instance shall relate only to such instance and shall not be construed as an agreement to waive any rights or fail to act in any other instance, whether or not similar. This Agreement constitutes the entire agreement among the parties with respect to its subject matter and supersedes prior agreements or understandings between the parties relating to its subject matter.
+* 8.6 Binding Effect; Headings. This Agreement shall be binding upon and inure to the benefit of the parties and their respective permitted successors and assigns. All headings are for convenience only and shall not affect the meaning of any provision of this Agreement.
+* 8.7 Governing Law. This Agreement shall be construed, governed, interpreted and applied in accordance with the internal laws of the Commonwealth of Massachusetts, U.S.A., without regard to conflict of laws principles.
+*/
+
+package org.broadinstitute.gatk.tools.walkers.haplotypecaller;
+
+import java.util.*;
+
+/**
+ * Map from Kmers of a fixed size to values, keyed on packed kmers where possible
+ *
+ * Kmers of kmerSize bases that KmerTable can pack are stored in a KmerTable, so lookups of kmers in a larger
+ * byte[] through get(byte[], int) and containsKey(byte[], int) don't allocate.  Everything else (kmers with
+ * Ns or lower case bases, kmers of another size, kmerSize > KmerTable.MAX_KMER_SIZE) falls back to a regular
+ * HashMap, so this is a drop-in Map<Kmer, V>.  Kmer keys of the packed entries are only built when asked for
+ * through entrySet() or keySet().
+ *
+ * Iteration visits the packed kmers in insertion order, followed by the others.
+ *
+ * @param <V> the type of the values
+ */
+public class KmerMap<V> extends AbstractMap<Kmer, V> {
+    private final int kmerSize;
+    private final KmerTable<V> packed;
+    private final Map<Kmer, V> unpacked = new HashMap<>();
+
+    /**
+     * Create a new empty map for kmers of kmerSize bases
+     * @param kmerSize the kmer size, must be >= 1
+     */
+    public KmerMap(final int kmerSize) {
+        if ( kmerSize < 1 ) throw new IllegalArgumentException("kmerSize must be >= 1 but got " + kmerSize);
+        this.kmerSize = kmerSize;
+        this.packed = KmerTable.canPack(kmerSize) ? new KmerTable<V>(kmerSize) : null;
+    }
+
+    /**
+     * @return the size of the kmers this map is optimized for
+     */
+    public int getKmerSize() {
+        return kmerSize;
+    }
+
+    private long packedKey(final Object o) {
+        if ( packed == null || ! (o instanceof Kmer) ) return KmerTable.NOT_PACKABLE;
+        final Kmer kmer = (Kmer)o;
+        return kmer.length() == kmerSize ? KmerTable.pack(kmer) : KmerTable.NOT_PACKABLE;
+    }
+
+    private long packedKey(final byte[] bases, final int start) {
+        return packed == null ? KmerTable.NOT_PACKABLE : KmerTable.pack(bases, start, kmerSize);
+    }
+
+    @Override
+    public int size() {
+        return (packed == null ? 0 : packed.size()) + unpacked.size();
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        final long packedKey = packedKey(key);
+        return packedKey != KmerTable.NOT_PACKABLE ? packed.find(packedKey) != -1 : unpacked.containsKey(key);
+    }
+
+    /**
+     * Does this map contain the kmer of kmerSize bases starting at bases[start]?
+     *
+     * @param bases the bases holding the kmer
+     * @param start the start of the kmer in bases
+     * @return true if this map has an entry for the kmer
+     */
+    public boolean containsKey(final byte[] bases, final int start) {
+        final long packedKey = packedKey(bases, start);
+        if ( packedKey != KmerTable.NOT_PACKABLE )
+            return packed.find(packedKey) != -1;
+        return ! unpacked.isEmpty() && unpacked.containsKey(new Kmer(bases, start, kmerSize));
+    }
+
+    @Override
+    public V get(final Object key) {
+        final long packedKey = packedKey(key);
+        if ( packedKey != KmerTable.NOT_PACKABLE ) {
+            final int entry = packed.find(packedKey);
+            return entry == -1 ? null : packed.getValue(entry);
+        }
+        return unpacked.get(key);
+    }
+
+    /**
+     * Get the value for the kmer of kmerSize bases starting at bases[start]
+     *
+     * @param bases the bases holding the kmer
+     * @param start the start of the kmer in bases
+     * @return the value for the kmer, or null if there's none
+     */
+    public V get(final byte[] bases, final int start) {
+        final long packedKey = packedKey(bases, start);
+        if ( packedKey != KmerTable.NOT_PACKABLE ) {
+            final int entry = packed.find(packedKey);
+            return entry == -1 ? null : packed.getValue(entry);
+        }
+        return unpacked.isEmpty() ? null : unpacked.get(new Kmer(bases, start, kmerSize));
+    }
+
+    @Override
+    public V put(final Kmer key, final V value) {
+        if ( key == null ) throw new IllegalArgumentException("key cannot be null");
+        final long packedKey = packedKey(key);
+        if ( packedKey != KmerTable.NOT_PACKABLE )
+            return packed.setValue(packed.add(packedKey), value);
+        return unpacked.put(key, value);
+    }
+
+    @Override
+    public void putAll(final Map<? extends Kmer, ? extends V> m) {
+        if ( m instanceof KmerMap && ((KmerMap<?>) m).kmerSize == kmerSize && packed != null ) {
+            // copy the packed entries without going through Kmer objects
+            @SuppressWarnings("unchecked")
+            final KmerMap<? extends V> other = (KmerMap<? extends V>)m;
+            for ( int entry = 0; entry < other.packed.entryLimit(); entry++ ) {
+                if ( other.packed.isLive(entry) )
+                    packed.setValue(packed.add(other.packed.getKey(entry)), other.packed.getValue(entry));
+            }
+            unpacked.putAll(other.unpacked);
+        } else {
+            super.putAll(m);
+        }
+    }
+
+    @Override
+    public V remove(final Object key) {
+        final long packedKey = packedKey(key);
+        if ( packedKey != KmerTable.NOT_PACKABLE ) {
+            final int entry = packed.find(packedKey);
+            if ( entry == -1 ) return null;
+            final V previous = packed.getValue(entry);
+            packed.remove(packedKey);
+            return previous;
+        }
+        return unpacked.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        if ( packed != null ) packed.clear();
+        unpacked.clear();
+    }
+
+    @Override
+    public Set<Entry<Kmer, V>> entrySet() {
+        return new AbstractSet<Entry<Kmer, V>>() {
+            @Override
+            public int size() {
+                return KmerMap.this.size();
+            }
+
+            @Override
+            public void clear() {
+                KmerMap.this.clear();
+            }
+
+            @Override
+            public Iterator<Entry<Kmer, V>> iterator() {
+                return new EntryIterator();
+            }
+        };
+    }
+
+    /**
+     * Iterates over the live packed entries, then over the unpacked map
+     */
+    private class EntryIterator implements Iterator<Entry<Kmer, V>> {
+        private int nextEntry = -1;
+        private int lastEntry = -1;
+        private Iterator<Entry<Kmer, V>> unpackedIterator = null;
+
+        private EntryIterator() {
+            advance();
+        }
+
+        private void advance() {
+            if ( packed == null ) return;
+            do {
+                nextEntry++;
+            } while ( nextEntry < packed.entryLimit() && ! packed.isLive(nextEntry) );
+        }
+
+        private boolean hasNextPacked() {
+            return packed != null && nextEntry < packed.entryLimit();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if ( hasNextPacked() ) return true;
+            if ( unpackedIterator == null ) unpackedIterator = unpacked.entrySet().iterator();
+            return unpackedIterator.hasNext();
+        }
+
+        @Override
+        public Entry<Kmer, V> next() {
+            if ( ! hasNext() ) throw new NoSuchElementException();
+            if ( unpackedIterator != null ) {
+                lastEntry = -1;
+                return unpackedIterator.next();
+            }
+            lastEntry = nextEntry;
+            advance();
+            return new PackedEntry(lastEntry);
+        }
+
+        @Override
+        public void remove() {
+            if ( lastEntry != -1 ) {
+                packed.remove(packed.getKey(lastEntry));
+                lastEntry = -1;
+            } else if ( unpackedIterator != null ) {
+                unpackedIterator.remove();
+            } else {
+                throw new IllegalStateException("next() has not been called");
+            }
+        }
+    }
+
+    /**
+     * Map entry backed by a packed table entry, that only builds its Kmer when asked for it
+     */
+    private class PackedEntry implements Entry<Kmer, V> {
+        private final int entry;
+        private Kmer kmer = null;
+
+        private PackedEntry(final int entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public Kmer getKey() {
+            if ( kmer == null ) kmer = packed.getKmer(entry);
+            return kmer;
+        }
+
+        @Override
+        public V getValue() {
+            return packed.getValue(entry);
+        }
+
+        @Override
+        public V setValue(final V value) {
+            return packed.setValue(entry, value);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if ( ! (o instanceof Entry) ) return false;
+            final Entry<?, ?> other = (Entry<?, ?>)o;
+            return getKey().equals(other.getKey()) && (getValue() == null ? other.getValue() == null : getValue().equals(other.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            return getKey().hashCode() ^ (getValue() == null ? 0 : getValue().hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
@@ -0,0 +1,376 @@
+/*
+* By downloading the PROGRAM you agree to the following terms of use:
+* 
+* BROAD INSTITUTE
+* SOFTWARE LICENSE AGREEMENT
+* FOR ACADEMIC NON-COMMERCIAL RESEARCH PURPOSES ONLY
+* 
+* This Agreement is made between the Broad Institute, Inc. with a principal address at 415 Main Street, Cambridge, MA 02142 (“BROAD”) and the LICENSEE and is effective at the date the downloading is completed (“EFFECTIVE DATE”).
+* 
+* WHEREAS, LICENSEE desires to license the PROGRAM, as defined hereinafter, and BROAD wishes to have this PROGRAM utilized in the public interest, subject only to the royalty-free, nonexclusive, nontransferable license rights of the United States Government pursuant to 48 CFR 52.227-14; and
+* WHEREAS, LICENSEE desires to license the PROGRAM and BROAD desires to grant a license on the following terms and conditions.
+* NOW, THEREFORE, in consideration of the promises and covenants made herein, the parties hereto agree as follows:
+* 
+* 1. DEFINITIONS
+* 1.1 PROGRAM shall mean copyright in the object code and source code known as GATK3 and related documentation, if any, as they exist on the EFFECTIVE DATE and can be downloaded from http://www.broadinstitute.org/gatk on the EFFECTIVE DATE.
+* 
+* 2. LICENSE
+* 2.1 Grant. Subject to the terms of this Agreement, BROAD hereby grants to LICENSEE, solely for academic non-commercial research purposes, a non-exclusive, non-transferable license to: (a) download, execute and display the PROGRAM and (b) create bug fixes and modify the PROGRAM. LICENSEE hereby automatically grants to BROAD a non-exclusive, royalty-free, irrevocable license to any LICENSEE bug fixes or modifications to the PROGRAM with unlimited rights to sublicense and/or distribute.  LICENSEE agrees to provide any such modifications and bug fixes to BROAD promptly upon their creation.
+* The LICENSEE may apply the PROGRAM in a pipeline to data owned by users other than the LICENSEE and provide these users the results of the PROGRAM provided LICENSEE does so for academic non-commercial purposes only. For clarification purposes, academic sponsored research is not a commercial use under the terms of this Agreement.
+* 2.2 No Sublicensing or Additional Rights. LICENSEE shall not sublicense or distribute the PROGRAM, in whole or in part, without prior written permission from BROAD. LICENSEE shall ensure that all of its users agree to the terms of this Agreement. LICENSEE further agrees that it shall not put the PROGRAM on a network, server, or other similar technology that may be accessed by anyone other than the LICENSEE and its employees and users who have agreed to the terms of this agreement.
+* 2.3 License Limitations. Nothing in this Agreement shall be construed to confer any rights upon LICENSEE by implication, estoppel, or otherwise to any computer software, trademark, intellectual property, or patent rights of BROAD, or of any other entity, except as expressly granted herein. LICENSEE agrees that the PROGRAM, in whole or part, shall not be used for any commercial purpose, including without limitation, as the basis of a commercial software or hardware product or to provide services. LICENSEE further agrees that the PROGRAM shall not be copied or otherwise adapted in order to circumvent the need for obtaining a license for use of the PROGRAM.
+* 
+* 3. PHONE-HOME FEATURE
+* LICENSEE expressly acknowledges that the PROGRAM contains an embedded automatic reporting system (“PHONE-HOME”) which is enabled by default upon download. Unless LICENSEE requests disablement of PHONE-HOME, LICENSEE agrees that BROAD may collect limited information transmitted by PHONE-HOME regarding LICENSEE and its use of the PROGRAM.  Such information shall include LICENSEE’S user identification, version number of the PROGRAM and tools being run, mode of analysis employed, and any error reports generated during run-time.  Collection of such information is used by BROAD solely to monitor usage rates, fulfill reporting requirements to BROAD funding agencies, drive improvements to the PROGRAM, and facilitate adjustments to PROGRAM-related documentation.
+* 
+* 4. OWNERSHIP OF INTELLECTUAL PROPERTY
+* LICENSEE acknowledges that title to the PROGRAM shall remain with BROAD. The PROGRAM is marked with the following BROAD copyright notice and notice of attribution to contributors. LICENSEE shall retain such notice on all copies. LICENSEE agrees to include appropriate attribution if any results obtained from use of the PROGRAM are included in any publication.
+* Copyright 2012-2014 Broad Institute, Inc.
+* Notice of attribution: The GATK3 program was made available through the generosity of Medical and Population Genetics program at the Broad Institute, Inc.
+* LICENSEE shall not use any trademark or trade name of BROAD, or any variation, adaptation, or abbreviation, of such marks or trade names, or any names of officers, faculty, students, employees, or agents of BROAD except as states above for attribution purposes.
+* 
+* 5. INDEMNIFICATION
+* LICENSEE shall indemnify, defend, and hold harmless BROAD, and their respective officers, faculty, students, employees, associated investigators and agents, and their respective successors, heirs and assigns, (Indemnitees), against any liability, damage, loss, or expense (including reasonable attorneys fees and expenses) incurred by or imposed upon any of the Indemnitees in connection with any claims, suits, actions, demands or judgments arising out of any theory of liability (including, without limitation, actions in the form of tort, warranty, or strict liability and regardless of whether such action has any factual basis) pursuant to any right or license granted under this Agreement.
+* 
+* 6. NO REPRESENTATIONS OR WARRANTIES
+* THE PROGRAM IS DELIVERED AS IS. BROAD MAKES NO REPRESENTATIONS OR WARRANTIES OF ANY KIND CONCERNING THE PROGRAM OR THE COPYRIGHT, EXPRESS OR IMPLIED, INCLUDING, WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER OR NOT DISCOVERABLE. BROAD EXTENDS NO WARRANTIES OF ANY KIND AS TO PROGRAM CONFORMITY WITH WHATEVER USER MANUALS OR OTHER LITERATURE MAY BE ISSUED FROM TIME TO TIME.
+* IN NO EVENT SHALL BROAD OR ITS RESPECTIVE DIRECTORS, OFFICERS, EMPLOYEES, AFFILIATED INVESTIGATORS AND AFFILIATES BE LIABLE FOR INCIDENTAL OR CONSEQUENTIAL DAMAGES OF ANY KIND, INCLUDING, WITHOUT LIMITATION, ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER BROAD SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+* 
+* 7. ASSIGNMENT
+* This Agreement is personal to LICENSEE and any rights or obligations assigned by LICENSEE without the prior written consent of BROAD shall be null and void.
+* 
+* 8. MISCELLANEOUS
+* 8.1 Export Control. LICENSEE gives assurance that it will comply with all United States export control laws and regulations controlling the export of the PROGRAM, including, without limitation, all Export Administration Regulations of the United States Department of Commerce. Among other things, these laws and regulations prohibit, or require a license for, the export of certain types of software to specified countries.
+* 8.2 Termination. LICENSEE shall have the right to terminate this Agreement for any reason upon prior written notice to BROAD. If LICENSEE breaches any provision hereunder, and fails to cure such breach within thirty (30) days, BROAD may terminate this Agreement immediately. Upon termination, LICENSEE shall provide BROAD with written assurance that the original and all copies of the PROGRAM have been destroyed, except that, upon prior written authorization from BROAD, LICENSEE may retain a copy for archive purposes.
+* 8.3 Survival. The following provisions shall survive the expiration or termination of this Agreement: Articles 1, 3, 4, 5 and Sections 2.2, 2.3, 7.3, and 7.4.
+* 8.4 Notice. Any notices under this Agreement shall be in writing, shall specifically refer to this Agreement, and shall be sent by hand, recognized national overnight courier, confirmed facsimile transmission, confirmed electronic mail, or registered or certified mail, postage prepaid, return receipt requested. All notices under this Agreement shall be deemed effective upon receipt.
+* 8.5 Amendment and Waiver; Entire Agreement. This Agreement may be amended, supplemented, or otherwise modified only by means of a written instrument signed by all parties. Any waiver of any rights or failure to act in a specific instance shall relate only to such instance and shall not be construed as an agreement to waive any rights or fail to act in any other instance, whether or not similar. This Agreement constitutes the entire agreement among the parties with respect to its subject matter and supersedes prior agreements or understandings between the parties relating to its subject matter.
+* 8.6 Binding Effect; Headings. This Agreement shall be binding upon and inure to the benefit of the parties and their respective permitted successors and assigns. All headings are for convenience only and shall not affect the meaning of any provision of this Agreement.
+* 8.7 Governing Law. This Agreement shall be construed, governed, interpreted and applied in accordance with the internal laws of the Commonwealth of Massachusetts, U.S.A., without regard to conflict of laws principles.
+*/
+
+package org.broadinstitute.gatk.tools.walkers.haplotypecaller;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash table keyed on 2-bit packed kmers
+ *
+ * Kmers of up to MAX_KMER_SIZE bases made only of upper case A, C, G and T are packed into a single long,
+ * two bits per base, so that they can be hashed and compared without allocating a Kmer or touching the
+ * underlying byte[].  Each distinct key gets an entry holding an int count and an optional object value,
+ * which lets the same structure serve kmer counting (KMerCounter), kmer -> vertex lookups (KmerMap) and
+ * kmer sets (KmerSet).  Kmers that cannot be packed are the caller's business, see pack().
+ *
+ * Entries are kept in insertion order in dense parallel arrays, and a separate linear probing index maps
+ * hash slots onto entry numbers.  Iterating over entries 0 until entryLimit() skipping the ones that are
+ * not live therefore visits the keys in the order they were added.  Entry numbers are stable across
+ * lookups and removals, but may be renumbered by add() when removed entries are compacted away.
+ *
+ * @param <V> the type of the values associated with each kmer
+ */
+public final class KmerTable<V> {
+    /**
+     * The longest kmer that can be packed in a long, 2 bits per base, keeping the sign bit clear
+     */
+    public static final int MAX_KMER_SIZE = 31;
+
+    /**
+     * Returned by pack() for kmers that cannot be packed
+     */
+    public static final long NOT_PACKABLE = -1L;
+
+    private static final int DEFAULT_CAPACITY = 64;
+    private static final byte[] BASE_CODES = new byte[256];
+    private static final byte[] CODE_BASES = {'A', 'C', 'G', 'T'};
+
+    static {
+        Arrays.fill(BASE_CODES, (byte)-1);
+        for ( byte code = 0; code < CODE_BASES.length; code++ )
+            BASE_CODES[CODE_BASES[code]] = code;
+    }
+
+    private final int kmerSize;
+
+    // linear probing index over the entries; holds entry + 1, or 0 for an empty slot
+    private int[] index;
+    private int mask;
+
+    // the entries, in insertion order.  Removed entries have key NOT_PACKABLE
+    private long[] keys;
+    private int[] counts;
+    private Object[] values;
+    private int nEntries = 0;
+    private int size = 0;
+
+    /**
+     * Create a new table for kmers of kmerSize bases
+     * @param kmerSize the size of the kmers, must be between 1 and MAX_KMER_SIZE
+     */
+    public KmerTable(final int kmerSize) {
+        this(kmerSize, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a new table for kmers of kmerSize bases sized for about expectedSize kmers
+     * @param kmerSize the size of the kmers, must be between 1 and MAX_KMER_SIZE
+     * @param expectedSize the expected number of distinct kmers, must be >= 0
+     */
+    public KmerTable(final int kmerSize, final int expectedSize) {
+        if ( kmerSize < 1 || kmerSize > MAX_KMER_SIZE ) throw new IllegalArgumentException("kmerSize must be between 1 and " + MAX_KMER_SIZE + " but got " + kmerSize);
+        if ( expectedSize < 0 ) throw new IllegalArgumentException("expectedSize must be >= 0 but got " + expectedSize);
+        this.kmerSize = kmerSize;
+        allocate(Math.max(Integer.highestOneBit(Math.max(expectedSize, 1) * 2 - 1), 16));
+    }
+
+    /**
+     * Can kmers of kmerSize bases be packed at all?
+     * @param kmerSize the kmer size
+     * @return true if kmerSize is between 1 and MAX_KMER_SIZE
+     */
+    public static boolean canPack(final int kmerSize) {
+        return kmerSize >= 1 && kmerSize <= MAX_KMER_SIZE;
+    }
+
+    /**
+     * Pack the kmer in bases[start] to bases[start + length] into a long
+     *
+     * @param bases the bases
+     * @param start the start of the kmer in bases
+     * @param length the length of the kmer
+     * @return the packed kmer, a value >= 0, or NOT_PACKABLE if the kmer is too long or has bases other than A, C, G or T
+     */
+    public static long pack(final byte[] bases, final int start, final int length) {
+        if ( length > MAX_KMER_SIZE ) return NOT_PACKABLE;
+
+        long packed = 0;
+        for ( int i = start; i < start + length; i++ ) {
+            final int code = BASE_CODES[bases[i] & 0xFF];
+            if ( code < 0 ) return NOT_PACKABLE;
+            packed = (packed << 2) | code;
+        }
+        return packed;
+    }
+
+    /**
+     * Pack kmer into a long
+     *
+     * @param kmer a non-null kmer
+     * @return the packed kmer, or NOT_PACKABLE, see pack(byte[], int, int)
+     */
+    public static long pack(final Kmer kmer) {
+        if ( kmer.length() > MAX_KMER_SIZE ) return NOT_PACKABLE;
+
+        long packed = 0;
+        for ( int i = 0; i < kmer.length(); i++ ) {
+            final int code = BASE_CODES[kmer.base(i) & 0xFF];
+            if ( code < 0 ) return NOT_PACKABLE;
+            packed = (packed << 2) | code;
+        }
+        return packed;
+    }
+
+    /**
+     * Unpack a kmer packed by pack()
+     *
+     * @param packed the packed kmer, must be >= 0
+     * @param length the length of the packed kmer
+     * @return a newly allocated byte[] with the length bases of the packed kmer
+     */
+    public static byte[] unpack(long packed, final int length) {
+        if ( packed < 0 ) throw new IllegalArgumentException("Cannot unpack " + packed);
+        final byte[] bases = new byte[length];
+        for ( int i = length - 1; i >= 0; i-- ) {
+            bases[i] = CODE_BASES[(int)(packed & 3)];
+            packed >>>= 2;
+        }
+        return bases;
+    }
+
+    /**
+     * @return the size of the kmers in this table
+     */
+    public int getKmerSize() {
+        return kmerSize;
+    }
+
+    /**
+     * @return the number of kmers in this table
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Find the entry for a packed kmer
+     *
+     * @param key a packed kmer
+     * @return the entry for key, or -1 if key isn't in this table
+     */
+    public int find(final long key) {
+        if ( key < 0 ) return -1;
+        for ( int slot = slot(key); ; slot = (slot + 1) & mask ) {
+            final int entry = index[slot] - 1;
+            if ( entry < 0 ) return -1;
+            if ( keys[entry] == key ) return entry;
+        }
+    }
+
+    /**
+     * Find the entry for a packed kmer, adding a new entry with count 0 and a null value if it isn't present
+     *
+     * May renumber existing entries, so don't hold on to entry numbers across calls to add()
+     *
+     * @param key a packed kmer, must be >= 0
+     * @return the entry for key
+     */
+    public int add(final long key) {
+        if ( key < 0 ) throw new IllegalArgumentException("Cannot add unpackable kmer " + key);
+
+        int slot = slot(key);
+        for ( ; index[slot] != 0; slot = (slot + 1) & mask ) {
+            if ( keys[index[slot] - 1] == key ) return index[slot] - 1;
+        }
+
+        if ( nEntries == keys.length ) {
+            // out of entries: either squeeze out the removed ones or grow, then find our slot again
+            rehash(size < keys.length / 2 ? keys.length : keys.length * 2);
+            for ( slot = slot(key); index[slot] != 0; slot = (slot + 1) & mask ) ;
+        }
+
+        final int entry = nEntries++;
+        keys[entry] = key;
+        index[slot] = entry + 1;
+        size++;
+        return entry;
+    }
+
+    /**
+     * Remove a packed kmer from this table
+     *
+     * @param key a packed kmer
+     * @return true if key was in the table
+     */
+    public boolean remove(final long key) {
+        if ( key < 0 ) return false;
+
+        int hole = slot(key);
+        for ( ; ; hole = (hole + 1) & mask ) {
+            if ( index[hole] == 0 ) return false;
+            if ( keys[index[hole] - 1] == key ) break;
+        }
+
+        final int entry = index[hole] - 1;
+        keys[entry] = NOT_PACKABLE;
+        counts[entry] = 0;
+        values[entry] = null;
+        index[hole] = 0;
+        size--;
+
+        // shift back the following entries of the probe run that can no longer be reached across the hole
+        for ( int slot = (hole + 1) & mask; index[slot] != 0; slot = (slot + 1) & mask ) {
+            final int home = slot(keys[index[slot] - 1]);
+            if ( ((slot - home) & mask) >= ((slot - hole) & mask) ) {
+                index[hole] = index[slot];
+                index[slot] = 0;
+                hole = slot;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remove all kmers from this table, keeping its capacity
+     */
+    public void clear() {
+        Arrays.fill(index, 0);
+        Arrays.fill(values, 0, nEntries, null);
+        Arrays.fill(counts, 0, nEntries, 0);
+        nEntries = 0;
+        size = 0;
+    }
+
+    /**
+     * @return one more than the largest entry number in use; entries below this may or may not be live
+     */
+    public int entryLimit() {
+        return nEntries;
+    }
+
+    /**
+     * @param entry an entry number below entryLimit()
+     * @return true if entry holds a kmer, false if it has been removed
+     */
+    public boolean isLive(final int entry) {
+        return keys[entry] != NOT_PACKABLE;
+    }
+
+    public long getKey(final int entry) {
+        return keys[entry];
+    }
+
+    /**
+     * Build a Kmer object for entry.  Allocates, so only use when a Kmer is really required
+     * @param entry a live entry
+     * @return a newly allocated Kmer
+     */
+    public Kmer getKmer(final int entry) {
+        return new Kmer(unpack(keys[entry], kmerSize));
+    }
+
+    public int getCount(final int entry) {
+        return counts[entry];
+    }
+
+    public void addCount(final int entry, final int count) {
+        counts[entry] += count;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V getValue(final int entry) {
+        return (V)values[entry];
+    }
+
+    public V setValue(final int entry, final V value) {
+        final V previous = getValue(entry);
+        values[entry] = value;
+        return previous;
+    }
+
+    private int slot(final long key) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32)) & mask;
+    }
+
+    private void allocate(final int capacity) {
+        keys = new long[capacity];
+        counts = new int[capacity];
+        values = new Object[capacity];
+        index = new int[capacity * 2];
+        mask = index.length - 1;
+    }
+
+    /**
+     * Compact the live entries, preserving their order, into entry arrays of newCapacity and rebuild the index
+     */
+    private void rehash(final int newCapacity) {
+        final long[] oldKeys = keys;
+        final int[] oldCounts = counts;
+        final Object[] oldValues = values;
+        final int oldNEntries = nEntries;
+
+        allocate(newCapacity);
+        nEntries = 0;
+        for ( int i = 0; i < oldNEntries; i++ ) {
+            if ( oldKeys[i] == NOT_PACKABLE ) continue;
+            final int entry = nEntries++;
+            keys[entry] = oldKeys[i];
+            counts[entry] = oldCounts[i];
+            values[entry] = oldValues[i];
+
+            int slot = slot(oldKeys[i]);
+            while ( index[slot] != 0 ) slot = (slot + 1) & mask;
+            index[slot] = entry + 1;
+        }
+    }
+}
@@ -114,6 +114,57 @@ public class LikelihoodEngineArgumentCollection {
     @Argument(fullName="noFpga", shortName="noFpga", doc="Disable the use of the FPGA HMM implementation", required = false)
     public boolean noFpga = false;
 
+    /**
+     * Maximum number of read/haplotype likelihoods remembered across active regions. Overlapping and adjacent active
+     * regions often score the same reads against identical haplotypes; cached likelihoods are reused instead of being
+     * recalculated by the PairHMM. Entries are keyed on read bases, qualities and gap penalties together with the
+     * haplotype bases, and the least recently used ones are evicted first. The cache is off by default (0), because
+     * its entries keep the read and haplotype content they were computed from, which can take a lot of memory.
+     */
+    @Advanced
+    @Argument(fullName="pairHMMLikelihoodCacheSize", shortName="pairHMMCacheSize", doc="Maximum number of read/haplotype likelihoods cached across active regions; 0 disables the cache", required = false)
+    public int pairHMMLikelihoodCacheSize = 0;
+
+    /**
+     * Restricts the PairHMM to the alignments of each read within this many bases of where the read maps in the
+     * haplotype, as given by the read's position and the haplotype's alignment to the reference. Most reads only align
+     * well at one offset, so this avoids filling the whole read by haplotype matrix. Reads whose band does not fit in
+     * the haplotype are computed in full. Banded likelihoods can be slightly lower than full ones; the band should be
+     * wider than the largest indel expected. Only supported by the LOGLESS_CACHING PairHMM; 0 disables banding.
+     */
+    @Advanced
+    @Argument(fullName="pairHMMBandWidth", shortName="pairHMMBandWidth", doc="Number of diagonals on each side of a read's expected alignment computed by the PairHMM; 0 computes the full matrix", required = false)
+    public int pairHMMBandWidth = 0;
+
+    /**
+     * Stops the PairHMM computation of a read against a haplotype as soon as its likelihood is known to end up this many
+     * log10 units below the read's best haplotype so far; the pair gets an upper bound of its likelihood instead.
+     * Since read likelihoods are capped at the global mismapping rate below the best haplotype, a threshold of at
+     * least phredScaledGlobalReadMismappingRate / 10 does not change the results. Only supported by the
+     * LOGLESS_CACHING PairHMM; 0 disables pruning.
+     */
+    @Advanced
+    @Argument(fullName="pairHMMPruningThreshold", shortName="pairHMMPruningThreshold", doc="Log10 distance below the best haplotype of a read at which PairHMM computations are abandoned; 0 disables pruning", required = false)
+    public double pairHMMPruningThreshold = 0.0;
+
+    /**
+     * Number of active regions whose read likelihoods are calculated together. Each batch is handed to a pool of worker
+     * threads, largest regions first, while the following regions are being assembled; the regions are then genotyped
+     * in their original order. This mostly helps with many small active regions, as in exomes. A value of 1 calculates
+     * the likelihoods of each region as soon as it has been assembled. Cannot be combined with -nct.
+     */
+    @Advanced
+    @Argument(fullName="likelihoodBatchSize", shortName="likelihoodBatchSize", doc="Number of active regions whose read likelihoods are calculated as a batch; 1 disables batching", required = false)
+    public int likelihoodBatchSize = 1;
+
+    /**
+     * Number of worker threads calculating the read likelihoods of a batch of active regions (see likelihoodBatchSize).
+     * By default one fewer than the number of available processors is used. Setting this to 0 calculates the
+     * likelihoods of each batch on the calling thread.
+     */
+    @Advanced
+    @Argument(fullName="numLikelihoodThreads", shortName="numLikelihoodThreads", doc="Number of worker threads used to calculate the read likelihoods of batched active regions", required = false)
+    public int numLikelihoodThreads = -1;
 
 
 }
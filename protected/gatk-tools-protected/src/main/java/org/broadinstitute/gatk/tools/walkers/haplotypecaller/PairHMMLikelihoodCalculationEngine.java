@@ -53,6 +53,8 @@ package org.broadinstitute.gatk.tools.walkers.haplotypecaller;
 
 import com.google.java.contract.Ensures;
 import com.google.java.contract.Requires;
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.CigarOperator;
 import htsjdk.samtools.SAMUtils;
 import htsjdk.variant.variantcontext.Allele;
 import org.apache.log4j.Logger;
@@ -74,6 +76,8 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.PrintStream;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class PairHMMLikelihoodCalculationEngine implements ReadLikelihoodCalculationEngine {
     private final static Logger logger = Logger.getLogger(PairHMMLikelihoodCalculationEngine.class);
@@ -87,9 +91,39 @@ public class PairHMMLikelihoodCalculationEngine implements ReadLikelihoodCalcula
     private final boolean alwaysLoadVectorLoglessPairHMMLib;
     private final boolean noFpga;
 
+    /**
+     * Cache of read likelihoods shared across active regions; {@code null} if caching is disabled.
+     */
+    private final PairHMMLikelihoodCache likelihoodCache;
+
+    /**
+     * Band width and pruning threshold given to each PairHMM; 0 disables either.
+     */
+    private final int pairHMMBandWidth;
+    private final double pairHMMPruningThreshold;
+
+    /**
+     * Number of read/haplotype pairs pruned by the PairHMMs of all threads.
+     */
+    private final AtomicLong prunedLikelihoodCount = new AtomicLong(0);
+
+    /**
+     * Every PairHMM created by {@link #pairHMMThreadLocal}, one per thread that used this engine, so that
+     * {@link #close()} can close them all and not only the one of the calling thread.
+     */
+    private final Queue<PairHMM> pairHMMs = new ConcurrentLinkedQueue<>();
+
     private final ThreadLocal<PairHMM> pairHMMThreadLocal = new ThreadLocal<PairHMM>() {
         @Override
         protected PairHMM initialValue() {
+            final PairHMM pairHMM = createPairHMM();
+            pairHMM.setBandWidth(pairHMMBandWidth);
+            pairHMM.setPruningThreshold(pairHMMPruningThreshold);
+            pairHMMs.add(pairHMM);
+            return pairHMM;
+        }
+
+        private PairHMM createPairHMM() {
             switch (hmmType) {
                 case EXACT: return new Log10PairHMM(true);
                 case ORIGINAL: return new Log10PairHMM(false);
@@ -105,8 +139,8 @@ public class PairHMMLikelihoodCalculationEngine implements ReadLikelihoodCalcula
                     }
                     catch(UnsatisfiedLinkError ule)
                     {
-                        logger.warn("Failed to load native library for VectorLoglessPairHMM - using Java implementation of LOGLESS_CACHING");
-                        return new LoglessPairHMM();
+                        logger.warn("Failed to load native library for VectorLoglessPairHMM - using Java implementation JAVA_VECTOR_LOGLESS");
+                        return new JavaVectorLoglessPairHMM();
                     }
                 case DEBUG_VECTOR_LOGLESS_CACHING:
                     return new DebugJNILoglessPairHMM(PairHMM.HMM_IMPLEMENTATION.VECTOR_LOGLESS_CACHING, hmmSubType, alwaysLoadVectorLoglessPairHMMLib);
@@ -115,8 +149,10 @@ public class PairHMMLikelihoodCalculationEngine implements ReadLikelihoodCalcula
                         return new ArrayLoglessPairHMM();
                     else
                         return new CnyPairHMM();
+                case JAVA_VECTOR_LOGLESS:
+                    return new JavaVectorLoglessPairHMM();
                 default:
-                    throw new UserException.BadArgumentValue("pairHMM", "Specified pairHMM implementation is unrecognized or incompatible with the HaplotypeCaller. Acceptable options are ORIGINAL, EXACT, CACHING, LOGLESS_CACHING, and ARRAY_LOGLESS.");
+                    throw new UserException.BadArgumentValue("pairHMM", "Specified pairHMM implementation is unrecognized or incompatible with the HaplotypeCaller. Acceptable options are ORIGINAL, EXACT, CACHING, LOGLESS_CACHING, ARRAY_LOGLESS, and JAVA_VECTOR_LOGLESS.");
             }
         }
     };
@@ -176,6 +212,44 @@ public class PairHMMLikelihoodCalculationEngine implements ReadLikelihoodCalcula
      */
     public PairHMMLikelihoodCalculationEngine( final byte constantGCP, final PairHMM.HMM_IMPLEMENTATION hmmType, final PairHMM.HMM_SUB_IMPLEMENTATION hmmSubType,
                                                final boolean alwaysLoadVectorLoglessPairHMMLib, final double log10globalReadMismappingRate, final boolean noFpga, final PCR_ERROR_MODEL pcrErrorModel ) {
+        this(constantGCP, hmmType, hmmSubType, alwaysLoadVectorLoglessPairHMMLib, log10globalReadMismappingRate, noFpga, pcrErrorModel, 0);
+    }
+
+    /**
+     * Create a new PairHMMLikelihoodCalculationEngine that caches read likelihoods across active regions.
+     *
+     * <p>
+     *     See {@link #PairHMMLikelihoodCalculationEngine(byte, PairHMM.HMM_IMPLEMENTATION, PairHMM.HMM_SUB_IMPLEMENTATION, boolean, double, boolean, PCR_ERROR_MODEL, int, int, double)}
+     *     for the parameters.
+     * </p>
+     */
+    public PairHMMLikelihoodCalculationEngine( final byte constantGCP, final PairHMM.HMM_IMPLEMENTATION hmmType, final PairHMM.HMM_SUB_IMPLEMENTATION hmmSubType,
+                                               final boolean alwaysLoadVectorLoglessPairHMMLib, final double log10globalReadMismappingRate, final boolean noFpga, final PCR_ERROR_MODEL pcrErrorModel,
+                                               final int likelihoodCacheSize ) {
+        this(constantGCP, hmmType, hmmSubType, alwaysLoadVectorLoglessPairHMMLib, log10globalReadMismappingRate, noFpga, pcrErrorModel, likelihoodCacheSize, 0, 0.0);
+    }
+
+    /**
+     * Create a new PairHMMLikelihoodCalculationEngine that caches read likelihoods across active regions and may
+     * band and prune the PairHMM computations.
+     *
+     * <p>
+     *     See {@link #PairHMMLikelihoodCalculationEngine(byte, PairHMM.HMM_IMPLEMENTATION, PairHMM.HMM_SUB_IMPLEMENTATION, boolean, double, boolean, PCR_ERROR_MODEL)}
+     *     for the rest of the parameters. Banding and pruning are only supported by {@link PairHMM.HMM_IMPLEMENTATION#LOGLESS_CACHING};
+     *     other implementations ignore them.
+     * </p>
+     *
+     * @param likelihoodCacheSize maximum number of read/haplotype likelihoods to keep in the cache; 0 or less to disable caching.
+     * @param pairHMMBandWidth number of diagonals on each side of the read's expected alignment that are computed; 0 computes all.
+     * @param pairHMMPruningThreshold log10 distance below the best haplotype of a read at which the computation of
+     *                                another haplotype stops; 0 disables pruning.
+     * @throws IllegalArgumentException if {@code pairHMMBandWidth} or {@code pairHMMPruningThreshold} is negative.
+     */
+    public PairHMMLikelihoodCalculationEngine( final byte constantGCP, final PairHMM.HMM_IMPLEMENTATION hmmType, final PairHMM.HMM_SUB_IMPLEMENTATION hmmSubType,
+                                               final boolean alwaysLoadVectorLoglessPairHMMLib, final double log10globalReadMismappingRate, final boolean noFpga, final PCR_ERROR_MODEL pcrErrorModel,
+                                               final int likelihoodCacheSize, final int pairHMMBandWidth, final double pairHMMPruningThreshold ) {
+        if ( pairHMMBandWidth < 0 ) throw new IllegalArgumentException("the PairHMM band width cannot be negative: " + pairHMMBandWidth);
+        if ( Double.isNaN(pairHMMPruningThreshold) || pairHMMPruningThreshold < 0 ) throw new IllegalArgumentException("the PairHMM pruning threshold must be 0 or positive: " + pairHMMPruningThreshold);
         this.hmmType = hmmType;
         this.hmmSubType = hmmSubType;
         this.alwaysLoadVectorLoglessPairHMMLib = alwaysLoadVectorLoglessPairHMMLib;
@@ -183,6 +257,11 @@ public class PairHMMLikelihoodCalculationEngine implements ReadLikelihoodCalcula
         this.log10globalReadMismappingRate = log10globalReadMismappingRate;
         this.noFpga = noFpga;
         this.pcrErrorModel = pcrErrorModel;
+        this.likelihoodCache = likelihoodCacheSize > 0 ? new PairHMMLikelihoodCache(likelihoodCacheSize) : null;
+        this.pairHMMBandWidth = pairHMMBandWidth;
+        this.pairHMMPruningThreshold = pairHMMPruningThreshold;
+        if ( (pairHMMBandWidth > 0 || pairHMMPruningThreshold > 0) && hmmType != PairHMM.HMM_IMPLEMENTATION.LOGLESS_CACHING )
+            logger.warn("PairHMM banding and pruning are only supported by the LOGLESS_CACHING implementation; " + hmmType + " will compute all likelihoods in full");
 
         initializePCRErrorModel();
 
@@ -197,10 +276,27 @@ public class PairHMMLikelihoodCalculationEngine implements ReadLikelihoodCalcula
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Closes the PairHMM of every thread that used this engine, so no thread may still be computing likelihoods.</p>
+     */
     @Override
     public void close() {
         if ( likelihoodsStream != null ) likelihoodsStream.close();
-        pairHMMThreadLocal.get().close();
+        if ( likelihoodCache != null ) logger.info("PairHMM likelihood cache: " + likelihoodCache);
+        if ( pairHMMPruningThreshold > 0 ) logger.info("PairHMM pruned " + prunedLikelihoodCount.get() + " read/haplotype likelihoods");
+        for ( final PairHMM pairHMM : pairHMMs )
+            pairHMM.close();
+        pairHMMs.clear();
+    }
+
+    /**
+     * Returns the cache of read likelihoods used by this engine.
+     * @return {@code null} if caching is disabled.
+     */
+    protected PairHMMLikelihoodCache getLikelihoodCache() {
+        return likelihoodCache;
     }
 
     private void capMinimumReadQualities(GATKSAMRecord read, byte[] readQuals, byte[] readInsQuals, byte[] readDelQuals) {
@@ -302,13 +398,234 @@ public class PairHMMLikelihoodCalculationEngine implements ReadLikelihoodCalcula
         final List<GATKSAMRecord> processedReads = modifyReadQualities(likelihoods.reads());
 
         final Map<GATKSAMRecord,byte[]> gapContinuationPenalties = buildGapContinuationPenalties(processedReads,constantGCP);
+        // the processed reads have no alignment, so the band seeds come from the original ones
+        final int[][] readStarts = pairHMMBandWidth > 0 ? findReadStartsInHaplotypes(likelihoods.alleles(), likelihoods.reads()) : null;
         // Run the PairHMM to calculate the log10 likelihood of each (processed) reads' arising from each haplotype
-        pairHMMThreadLocal.get().computeLikelihoods(likelihoods,processedReads,gapContinuationPenalties);
+        final PairHMM pairHMM = pairHMMThreadLocal.get();
+        final long previousPrunedCount = pairHMM.getPrunedLikelihoodCount();
+        if (likelihoodCache == null)
+            pairHMM.computeLikelihoods(likelihoods,processedReads,gapContinuationPenalties,readStarts);
+        else
+            computeCachedReadLikelihoods(likelihoods,processedReads,gapContinuationPenalties,readStarts);
+        prunedLikelihoodCount.addAndGet(pairHMM.getPrunedLikelihoodCount() - previousPrunedCount);
 
         if (WRITE_LIKELIHOODS_TO_FILE)
             writeDebugLikelihoods(likelihoods);
     }
 
+    /**
+     * Fills in the likelihoods of the reads found in the cache and runs the PairHMM only on the rest.
+     *
+     * <p>Newly calculated likelihoods are added to the cache. Banded likelihoods are cached together with the
+     * read's band seeds, since they depend on them.</p>
+     *
+     * @param likelihoods where to store the likelihoods.
+     * @param processedReads the processed reads in the same order as in {@code likelihoods}.
+     * @param gcp gap continuation penalties for the processed reads.
+     * @param readStarts band seeds of the reads in {@code likelihoods}, or {@code null}.
+     */
+    private void computeCachedReadLikelihoods(final ReadLikelihoods.Matrix<Haplotype> likelihoods,
+                                              final List<GATKSAMRecord> processedReads,
+                                              final Map<GATKSAMRecord,byte[]> gcp,
+                                              final int[][] readStarts) {
+        final int alleleCount = likelihoods.alleleCount();
+        final PairHMMLikelihoodCache.HaplotypeContent[] haplotypeContents = new PairHMMLikelihoodCache.HaplotypeContent[alleleCount];
+        for (int a = 0; a < alleleCount; a++)
+            haplotypeContents[a] = new PairHMMLikelihoodCache.HaplotypeContent(likelihoods.alleleAt(a).getBases());
+
+        final int readCount = processedReads.size();
+        final PairHMMLikelihoodCache.ReadContent[] readContents = new PairHMMLikelihoodCache.ReadContent[readCount];
+        final List<GATKSAMRecord> missedReads = new ArrayList<>(readCount);
+        final int[] missedReadIndices = new int[readCount];
+        final double[] values = new double[alleleCount];
+        final int[] starts = readStarts == null ? null : new int[alleleCount];
+        for (int r = 0; r < readCount; r++) {
+            final GATKSAMRecord read = processedReads.get(r);
+            readContents[r] = new PairHMMLikelihoodCache.ReadContent(read.getReadBases(), read.getBaseQualities(),
+                    read.getBaseInsertionQualities(), read.getBaseDeletionQualities(), gcp.get(read));
+            if (likelihoodCache.get(readContents[r], haplotypeContents, readStartsOf(readStarts, r, starts), values)) {
+                for (int a = 0; a < alleleCount; a++)
+                    likelihoods.set(a, r, values[a]);
+            } else {
+                missedReadIndices[missedReads.size()] = r;
+                missedReads.add(read);
+            }
+        }
+
+        if (missedReads.isEmpty())
+            return;
+
+        final int missedReadCount = missedReads.size();
+        final int[][] missedReadStarts = readStarts == null ? null : new int[alleleCount][missedReadCount];
+        if (missedReadStarts != null)
+            for (int a = 0; a < alleleCount; a++)
+                for (int m = 0; m < missedReadCount; m++)
+                    missedReadStarts[a][m] = readStarts[a][missedReadIndices[m]];
+
+        final ReadLikelihoods.Matrix<Haplotype> missedLikelihoods = new ReadSubsetMatrix(likelihoods, missedReads, missedReadIndices);
+        final PairHMM pairHMM = pairHMMThreadLocal.get();
+        pairHMM.computeLikelihoods(missedLikelihoods, missedReads, gcp, missedReadStarts);
+
+        for (int m = 0; m < missedReadCount; m++) {
+            // pruned likelihoods are only bounds relative to the other haplotypes of this region
+            if (pairHMM.hasPrunedLikelihoods(m))
+                continue;
+            final int r = missedReadIndices[m];
+            for (int a = 0; a < alleleCount; a++)
+                values[a] = likelihoods.get(a, r);
+            likelihoodCache.put(readContents[r], haplotypeContents, readStartsOf(readStarts, r, starts), values);
+        }
+    }
+
+    /**
+     * Copies the band seeds of a read in every haplotype into a buffer.
+     *
+     * @param readStarts band seeds indexed by haplotype and read, or {@code null}.
+     * @param r index of the read.
+     * @param dest where to copy the seeds of the read, {@code null} iff {@code readStarts} is.
+     * @return {@code dest}.
+     */
+    private static int[] readStartsOf(final int[][] readStarts, final int r, final int[] dest) {
+        if (readStarts != null)
+            for (int a = 0; a < dest.length; a++)
+                dest[a] = readStarts[a][r];
+        return dest;
+    }
+
+    /**
+     * Finds where each read is expected to start in each haplotype, to seed the PairHMM band.
+     *
+     * @return never {@code null}, position [a][r] holds the start of {@code reads[r]} in {@code haplotypes[a]}.
+     */
+    private static int[][] findReadStartsInHaplotypes(final List<Haplotype> haplotypes, final List<GATKSAMRecord> reads) {
+        final int[][] result = new int[haplotypes.size()][reads.size()];
+        for (int a = 0; a < result.length; a++)
+            for (int r = 0; r < result[a].length; r++)
+                result[a][r] = findReadStartInHaplotype(haplotypes.get(a), reads.get(r));
+        return result;
+    }
+
+    /**
+     * Finds the 0-based offset in a haplotype where a read is expected to start.
+     *
+     * <p>
+     *     The reference position of the first base of the read, soft-clips included, is translated into haplotype
+     *     coordinates following the haplotype's alignment to the reference. A start within a deletion of the haplotype
+     *     maps to the base that follows it.
+     * </p>
+     *
+     * @return the offset, negative if the read starts before the haplotype, or {@link PairHMM#UNKNOWN_READ_START}
+     *         if either the read or the haplotype has no alignment.
+     */
+    static int findReadStartInHaplotype(final Haplotype haplotype, final GATKSAMRecord read) {
+        if ( haplotype.getGenomeLocation() == null || haplotype.getCigar() == null || read.getReadUnmappedFlag() )
+            return PairHMM.UNKNOWN_READ_START;
+
+        final int referenceOffset = read.getSoftStart() - (int) haplotype.getStartPosition();
+        if ( referenceOffset < 0 )
+            return referenceOffset;
+
+        int referencePosition = 0;
+        int haplotypePosition = 0;
+        for ( final CigarElement element : haplotype.getCigar().getCigarElements() ) {
+            final CigarOperator operator = element.getOperator();
+            final int length = element.getLength();
+            if ( operator.consumesReferenceBases() && referencePosition + length > referenceOffset )
+                return operator.consumesReadBases() ? haplotypePosition + referenceOffset - referencePosition : haplotypePosition;
+            if ( operator.consumesReferenceBases() ) referencePosition += length;
+            if ( operator.consumesReadBases() ) haplotypePosition += length;
+        }
+        return haplotypePosition + referenceOffset - referencePosition;
+    }
+
+    /**
+     * View of a subset of the reads of a likelihood matrix.
+     *
+     * <p>Read indices in this view map to the original matrix through an index array, so that
+     * a {@link PairHMM} can fill in likelihoods for only those reads.</p>
+     */
+    private static final class ReadSubsetMatrix implements ReadLikelihoods.Matrix<Haplotype> {
+
+        private final ReadLikelihoods.Matrix<Haplotype> matrix;
+        private final List<GATKSAMRecord> reads;
+        private final int[] readIndices;
+
+        private ReadSubsetMatrix(final ReadLikelihoods.Matrix<Haplotype> matrix, final List<GATKSAMRecord> reads, final int[] readIndices) {
+            this.matrix = matrix;
+            this.reads = Collections.unmodifiableList(reads);
+            this.readIndices = readIndices;
+        }
+
+        @Override
+        public List<GATKSAMRecord> reads() {
+            return reads;
+        }
+
+        @Override
+        public List<Haplotype> alleles() {
+            return matrix.alleles();
+        }
+
+        @Override
+        public void set(final int alleleIndex, final int readIndex, final double value) {
+            matrix.set(alleleIndex, originalReadIndex(readIndex), value);
+        }
+
+        @Override
+        public double get(final int alleleIndex, final int readIndex) {
+            return matrix.get(alleleIndex, originalReadIndex(readIndex));
+        }
+
+        @Override
+        public int alleleIndex(final Haplotype allele) {
+            return matrix.alleleIndex(allele);
+        }
+
+        @Override
+        public int readIndex(final GATKSAMRecord read) {
+            if (read == null)
+                throw new IllegalArgumentException("the read cannot be null");
+            return reads.indexOf(read);
+        }
+
+        @Override
+        public int alleleCount() {
+            return matrix.alleleCount();
+        }
+
+        @Override
+        public int readCount() {
+            return reads.size();
+        }
+
+        @Override
+        public Haplotype alleleAt(final int alleleIndex) {
+            return matrix.alleleAt(alleleIndex);
+        }
+
+        @Override
+        public GATKSAMRecord readAt(final int readIndex) {
+            return reads.get(checkReadIndex(readIndex));
+        }
+
+        @Override
+        public void copyAlleleLikelihoods(final int alleleIndex, final double[] dest, final int offset) {
+            final int readCount = reads.size();
+            for (int r = 0; r < readCount; r++)
+                dest[offset + r] = matrix.get(alleleIndex, readIndices[r]);
+        }
+
+        private int originalReadIndex(final int readIndex) {
+            return readIndices[checkReadIndex(readIndex)];
+        }
+
+        private int checkReadIndex(final int readIndex) {
+            if (readIndex < 0 || readIndex >= reads.size())
+                throw new IllegalArgumentException("invalid read index: " + readIndex);
+            return readIndex;
+        }
+    }
+
     private Map<GATKSAMRecord, byte[]> buildGapContinuationPenalties(final List<GATKSAMRecord> processedReads, final byte gcp) {
         final Map<GATKSAMRecord,byte[]> result = new HashMap<>(processedReads.size());
         for (final GATKSAMRecord read : processedReads) {
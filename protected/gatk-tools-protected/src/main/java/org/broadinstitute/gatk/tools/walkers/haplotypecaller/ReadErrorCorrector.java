@@ -110,8 +110,8 @@ public class ReadErrorCorrector {
      */
     KMerCounter countsByKMer;
 
-    Map<Kmer,Kmer> kmerCorrectionMap = new HashMap<>();
-    Map<Kmer,Pair<int[],byte[]>> kmerDifferingBases = new HashMap<>();
+    final KmerMap<Kmer> kmerCorrectionMap;
+    final KmerMap<Pair<int[],byte[]>> kmerDifferingBases;
     private final int kmerLength;
     private final boolean debug;
     private final boolean trimLowQualityBases;
@@ -157,6 +157,8 @@ public class ReadErrorCorrector {
             throw new IllegalArgumentException("qualityOfCorrectedBases must be >= 2 and <= MAX_REASONABLE_Q_SCORE but got " + qualityOfCorrectedBases);
 
         countsByKMer = new KMerCounter(kmerLength);
+        kmerCorrectionMap = new KmerMap<>(kmerLength);
+        kmerDifferingBases = new KmerMap<>(kmerLength);
         this.kmerLength = kmerLength;
         this.maxMismatchesToCorrect = maxMismatchesToCorrect;
         this.qualityOfCorrectedBases = qualityOfCorrectedBases;
@@ -192,7 +194,7 @@ public class ReadErrorCorrector {
 
         final byte[] readBases = read.getReadBases();
         for (int offset = 0; offset <= readBases.length-kmerLength; offset++ )  {
-            countsByKMer.addKmer(new Kmer(readBases,offset,kmerLength),1);
+            countsByKMer.addKmer(readBases,offset,1);
 
         }
     }
@@ -298,10 +300,10 @@ public class ReadErrorCorrector {
         final CorrectionSet correctionSet = new CorrectionSet(correctedBases.length);
 
         for (int offset = 0; offset <= correctedBases.length-kmerLength; offset++ )  {
-            final Kmer kmer = new Kmer(correctedBases,offset,kmerLength);
-            final Kmer newKmer = kmerCorrectionMap.get(kmer);
-            if (newKmer != null && !newKmer.equals(kmer)){
-                final Pair<int[],byte[]> differingPositions = kmerDifferingBases.get(kmer);
+            // solid kmers map to themselves with no differing positions, so there's no need to build the kmer to skip them
+            final Kmer newKmer = kmerCorrectionMap.get(correctedBases,offset);
+            if (newKmer != null){
+                final Pair<int[],byte[]> differingPositions = kmerDifferingBases.get(correctedBases,offset);
                 final int[] differingIndeces = differingPositions.first;
                 final byte[] differingBases = differingPositions.second;
 
@@ -101,6 +101,16 @@ public class ReadThreadingAssemblerArgumentCollection {
     @Argument(fullName="numPruningSamples", shortName="numPruningSamples", doc="Number of samples that must pass the minPruning threshold", required = false)
     public int numPruningSamples = 1;
 
+    /**
+     * The graphs for the different kmer sizes are independent, so they can be built concurrently on a pool of worker
+     * threads shared by the whole run, including all -nct threads.  These workers are in addition to the threads
+     * requested with -nct, and the thread running each active region keeps building graphs too, so one worker per
+     * additional kmer size is enough.  By default (0) all the graphs are built on the calling thread, one after another.
+     */
+    @Advanced
+    @Argument(fullName="numAssemblyThreads", shortName="numAssemblyThreads", doc="Number of extra worker threads used to build the assembly graphs for different kmer sizes concurrently", required = false)
+    public int numAssemblyThreads = 0;
+
     /**
      * As of version 3.3, this argument is no longer needed because dangling end recovery is now the default behavior. See GATK 3.3 release notes for more details.
      */
@@ -67,6 +67,10 @@ public class BaseEdge {
     private int multiplicity;
     private boolean isRef;
 
+    /** slot of this edge in the {@link CompactDirectedGraph} identified by graphToken, see {@link CompactDirectedGraph#edgeSlotOf} */
+    Object graphToken = null;
+    int graphSlot = -1;
+
     /**
      * Create a new BaseEdge with weight multiplicity and, if isRef == true, indicates a path through the reference
      *
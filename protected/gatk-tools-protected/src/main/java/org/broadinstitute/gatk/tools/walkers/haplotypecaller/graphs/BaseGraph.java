@@ -57,8 +57,6 @@ import com.google.java.contract.Requires;
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.log4j.Logger;
 import org.jgrapht.EdgeFactory;
-import org.jgrapht.alg.CycleDetector;
-import org.jgrapht.graph.DefaultDirectedGraph;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -72,7 +70,7 @@ import java.util.*;
  * Date: 2/6/13
  */
 @Invariant("!this.isAllowingMultipleEdges()")
-public class BaseGraph<V extends BaseVertex, E extends BaseEdge> extends DefaultDirectedGraph<V, E> {
+public class BaseGraph<V extends BaseVertex, E extends BaseEdge> extends CompactDirectedGraph<V, E> {
     protected final static Logger logger = Logger.getLogger(BaseGraph.class);
     protected final int kmerSize;
 
@@ -102,7 +100,10 @@ public class BaseGraph<V extends BaseVertex, E extends BaseEdge> extends Default
     public boolean isReferenceNode( final V v ) {
         if( v == null ) { throw new IllegalArgumentException("Attempting to test a null vertex."); }
 
-        for ( final BaseEdge e : edgesOf(v) ) {
+        for ( final BaseEdge e : incomingEdgesOf(v) ) {
+            if ( e.isRef() ) { return true; }
+        }
+        for ( final BaseEdge e : outgoingEdgesOf(v) ) {
             if ( e.isRef() ) { return true; }
         }
 
@@ -782,6 +783,6 @@ public class BaseGraph<V extends BaseVertex, E extends BaseEdge> extends Default
      * @return {@code true} if the graph has cycles, {@code false} otherwise.
      */
     public boolean hasCycles() {
-        return new CycleDetector<>(this).detectCycles();
+        return containsCycle();
     }
 }
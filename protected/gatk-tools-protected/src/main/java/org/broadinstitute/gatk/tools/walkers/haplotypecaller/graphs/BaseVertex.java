@@ -70,6 +70,10 @@ public class BaseVertex {
     private final static int UNASSIGNED_HASHCODE = -1;
     int cachedHashCode = UNASSIGNED_HASHCODE;
 
+    /** slot of this vertex in the {@link CompactDirectedGraph} identified by graphToken, see {@link CompactDirectedGraph#vertexSlotOf} */
+    Object graphToken = null;
+    int graphSlot = -1;
+
     /**
      * Create a new sequence vertex with sequence
      *
@@ -0,0 +1,781 @@
+/*
+* By downloading the PROGRAM you agree to the following terms of use:
+* 
+* BROAD INSTITUTE
+* SOFTWARE LICENSE AGREEMENT
+* FOR ACADEMIC NON-COMMERCIAL RESEARCH PURPOSES ONLY
+* 
+* This Agreement is made between the Broad Institute, Inc. with a principal address at 415 Main Street, Cambridge, MA 02142 (“BROAD”) and the LICENSEE and is effective at the date the downloading is completed (“EFFECTIVE DATE”).
+* 
+* WHEREAS, LICENSEE desires to license the PROGRAM, as defined hereinafter, and BROAD wishes to have this PROGRAM utilized in the public interest, subject only to the royalty-free, nonexclusive, nontransferable license rights of the United States Government pursuant to 48 CFR 52.227-14; and
+* WHEREAS, LICENSEE desires to license the PROGRAM and BROAD desires to grant a license on the following terms and conditions.
+* NOW, THEREFORE, in consideration of the promises and covenants made herein, the parties hereto agree as follows:
+* 
+* 1. DEFINITIONS
+* 1.1 PROGRAM shall mean copyright in the object code and source code known as GATK3 and related documentation, if any, as they exist on the EFFECTIVE DATE and can be downloaded from http://www.broadinstitute.org/gatk on the EFFECTIVE DATE.
+* 
+* 2. LICENSE
+* 2.1 Grant. Subject to the terms of this Agreement, BROAD hereby grants to LICENSEE, solely for academic non-commercial research purposes, a non-exclusive, non-transferable license to: (a) download, execute and display the PROGRAM and (b) create bug fixes and modify the PROGRAM. LICENSEE hereby automatically grants to BROAD a non-exclusive, royalty-free, irrevocable license to any LICENSEE bug fixes or modifications to the PROGRAM with unlimited rights to sublicense and/or distribute.  LICENSEE agrees to provide any such modifications and bug fixes to BROAD promptly upon their creation.
+* The LICENSEE may apply the PROGRAM in a pipeline to data owned by users other than the LICENSEE and provide these users the results of the PROGRAM provided LICENSEE does so for academic non-commercial purposes only. For clarification purposes, academic sponsored research is not a commercial use under the terms of this Agreement.
+* 2.2 No Sublicensing or Additional Rights. LICENSEE shall not sublicense or distribute the PROGRAM, in whole or in part, without prior written permission from BROAD. LICENSEE shall ensure that all of its users agree to the terms of this Agreement. LICENSEE further agrees that it shall not put the PROGRAM on a network, server, or other similar technology that may be accessed by anyone other than the LICENSEE and its employees and users who have agreed to the terms of this agreement.
+* 2.3 License Limitations. Nothing in this Agreement shall be construed to confer any rights upon LICENSEE by implication, estoppel, or otherwise to any computer software, trademark, intellectual property, or patent rights of BROAD, or of any other entity, except as expressly granted herein. LICENSEE agrees that the PROGRAM, in whole or part, shall not be used for any commercial purpose, including without limitation, as the basis of a commercial software or hardware product or to provide services. LICENSEE further agrees that the PROGRAM shall not be copied or otherwise adapted in order to circumvent the need for obtaining a license for use of the PROGRAM.
+* 
+* 3. PHONE-HOME FEATURE
+* LICENSEE expressly acknowledges that the PROGRAM contains an embedded automatic reporting system (“PHONE-HOME”) which is enabled by default upon download. Unless LICENSEE requests disablement of PHONE-HOME, LICENSEE agrees that BROAD may collect limited information transmitted by PHONE-HOME regarding LICENSEE and its use of the PROGRAM.  Such information shall include LICENSEE’S user identification, version number of the PROGRAM and tools being run, mode of analysis employed, and any error reports generated during run-time.  Collection of such information is used by BROAD solely to monitor usage rates, fulfill reporting requirements to BROAD funding agencies, drive improvements to the PROGRAM, and facilitate adjustments to PROGRAM-related documentation.
+* 
+* 4. OWNERSHIP OF INTELLECTUAL PROPERTY
+* LICENSEE acknowledges that title to the PROGRAM shall remain with BROAD. The PROGRAM is marked with the following BROAD copyright notice and notice of attribution to contributors. LICENSEE shall retain such notice on all copies. LICENSEE agrees to include appropriate attribution if any results obtained from use of the PROGRAM are included in any publication.
+* Copyright 2012-2014 Broad Institute, Inc.
+* Notice of attribution: The GATK3 program was made available through the generosity of Medical and Population Genetics program at the Broad Institute, Inc.
+* LICENSEE shall not use any trademark or trade name of BROAD, or any variation, adaptation, or abbreviation, of such marks or trade names, or any names of officers, faculty, students, employees, or agents of BROAD except as states above for attribution purposes.
+* 
+* 5. INDEMNIFICATION
+* LICENSEE shall indemnify, defend, and hold harmless BROAD, and their respective officers, faculty, students, employees, associated investigators and agents, and their respective successors, heirs and assigns, (Indemnitees), against any liability, damage, loss, or expense (including reasonable attorneys fees and expenses) incurred by or imposed upon any of the Indemnitees in connection with any claims, suits, actions, demands or judgments arising out of any theory of liability (including, without limitation, actions in the form of tort, warranty, or strict liability and regardless of whether such action has any factual basis) pursuant to any right or license granted under this Agreement.
+* 
+* 6. NO REPRESENTATIONS OR WARRANTIES
+* THE PROGRAM IS DELIVERED AS IS. BROAD MAKES NO REPRESENTATIONS OR WARRANTIES OF ANY KIND CONCERNING THE PROGRAM OR THE COPYRIGHT, EXPRESS OR IMPLIED, INCLUDING, WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER OR NOT DISCOVERABLE. BROAD EXTENDS NO WARRANTIES OF ANY KIND AS TO PROGRAM CONFORMITY WITH WHATEVER USER MANUALS OR OTHER LITERATURE MAY BE ISSUED FROM TIME TO TIME.
+* IN NO EVENT SHALL BROAD OR ITS RESPECTIVE DIRECTORS, OFFICERS, EMPLOYEES, AFFILIATED INVESTIGATORS AND AFFILIATES BE LIABLE FOR INCIDENTAL OR CONSEQUENTIAL DAMAGES OF ANY KIND, INCLUDING, WITHOUT LIMITATION, ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER BROAD SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+* 
+* 7. ASSIGNMENT
+* This Agreement is personal to LICENSEE and any rights or obligations assigned by LICENSEE without the prior written consent of BROAD shall be null and void.
+* 
+* 8. MISCELLANEOUS
+* 8.1 Export Control. LICENSEE gives assurance that it will comply with all United States export control laws and regulations controlling the export of the PROGRAM, including, without limitation, all Export Administration Regulations of the United States Department of Commerce. Among other things, these laws and regulations prohibit, or require a license for, the export of certain types of software to specified countries.
+* 8.2 Termination. LICENSEE shall have the right to terminate this Agreement for any reason upon prior written notice to BROAD. If LICENSEE breaches any provision hereunder, and fails to cure such breach within thirty (30) days, BROAD may terminate this Agreement immediately. Upon termination, LICENSEE shall provide BROAD with written assurance that the original and all copies of the PROGRAM have been destroyed, except that, upon prior written authorization from BROAD, LICENSEE may retain a copy for archive purposes.
+* 8.3 Survival. The following provisions shall survive the expiration or termination of this Agreement: Articles 1, 3, 4, 5 and Sections 2.2, 2.3, 7.3, and 7.4.
+* 8.4 Notice. Any notices under this Agreement shall be in writing, shall specifically refer to this Agreement, and shall be sent by hand, recognized national overnight courier, confirmed facsimile transmission, confirmed electronic mail, or registered or certified mail, postage prepaid, return receipt requested. All notices under this Agreement shall be deemed effective upon receipt.
+* 8.5 Amendment and Waiver; Entire Agreement. This Agreement may be amended, supplemented, or otherwise modified only by means of a written instrument signed by all parties. Any waiver of any rights or failure to act in a specific instance shall relate only to such instance and shall not be construed as an agreement to waive any rights or fail to act in any other instance, whether or not similar. This Agreement constitutes the entire agreement among the parties with respect to its subject matter and supersedes prior agreements or understandings between the parties relating to its subject matter.
+* 8.6 Binding Effect; Headings. This Agreement shall be binding upon and inure to the benefit of the parties and their respective permitted successors and assigns. All headings are for convenience only and shall not affect the meaning of any provision of this Agreement.
+* 8.7 Governing Law. This Agreement shall be construed, governed, interpreted and applied in accordance with the internal laws of the Commonwealth of Massachusetts, U.S.A., without regard to conflict of laws principles.
+*/
+
+package org.broadinstitute.gatk.tools.walkers.haplotypecaller.graphs;
+
+import org.jgrapht.DirectedGraph;
+import org.jgrapht.EdgeFactory;
+import org.jgrapht.util.ArrayUnenforcedSet;
+
+import java.util.*;
+
+/**
+ * Directed graph backend for the assembly graphs, storing the structure in int-indexed arrays
+ *
+ * <p>
+ *     Every vertex and edge occupies a slot.  The edge slots of each vertex are kept in per-vertex in and out
+ *     adjacency arrays, and the source and target of each edge in two int arrays, so walking the graph never touches a
+ *     hash based container.  Vertices and edges remember the slot they were given in their graphToken/graphSlot fields,
+ *     so finding the slot of a vertex or edge that was added to this graph doesn't need a hash lookup either.  Objects
+ *     shared with another graph (for example after a {@link #clone()}) fall back on a map lookup.
+ * </p>
+ *
+ * <p>
+ *     Removing an element leaves a hole behind that is reclaimed by renumbering all the slots once holes outnumber
+ *     live elements.  Renumbering preserves the order of the elements, which is always their insertion order just as
+ *     with JGraphT's DefaultDirectedGraph, and the views returned by {@link #vertexSet()}, {@link #outgoingEdgesOf}, etc.
+ *     survive it.  Like DefaultDirectedGraph, the graph allows self loops but not multiple edges between two vertices.
+ * </p>
+ *
+ * @param <V> the type of the vertices
+ * @param <E> the type of the edges
+ */
+public abstract class CompactDirectedGraph<V extends BaseVertex, E extends BaseEdge> implements DirectedGraph<V, E>, Cloneable {
+    private final static int INITIAL_CAPACITY = 16;
+    private final static int[] NO_EDGES = new int[0];
+
+    private final EdgeFactory<V, E> edgeFactory;
+
+    /** identifies this graph in the graphToken field of its vertices and edges */
+    private Object token = new Object();
+
+    private Object[] vertices = new Object[INITIAL_CAPACITY];
+    private int[][] outEdges = new int[INITIAL_CAPACITY][];
+    private int[][] inEdges = new int[INITIAL_CAPACITY][];
+    private int[] outDegrees = new int[INITIAL_CAPACITY];
+    private int[] inDegrees = new int[INITIAL_CAPACITY];
+    private int vertexSlots = 0;
+    private int vertexCount = 0;
+    private HashMap<V, Integer> vertexSlotMap = new HashMap<>();
+
+    private Object[] edges = new Object[INITIAL_CAPACITY];
+    private int[] edgeSources = new int[INITIAL_CAPACITY];
+    private int[] edgeTargets = new int[INITIAL_CAPACITY];
+    private int edgeSlots = 0;
+    private int edgeCount = 0;
+    /** slots of the edges whose graphToken belongs to another graph; edges have identity semantics so no other map is needed */
+    private HashMap<E, Integer> edgeSlotMap = new HashMap<>();
+
+    /** incremented every time slots are renumbered, so that views can find their position again */
+    private int renumberings = 0;
+
+    protected CompactDirectedGraph(final EdgeFactory<V, E> edgeFactory) {
+        if ( edgeFactory == null ) throw new NullPointerException("edgeFactory cannot be null");
+        this.edgeFactory = edgeFactory;
+    }
+
+    // --------------------------------------------------------------------------------
+    //
+    // slot management
+    //
+    // --------------------------------------------------------------------------------
+
+    /**
+     * Get the slot of a vertex
+     * @param v a vertex, can be null
+     * @return the slot of v, or -1 if v isn't in this graph
+     */
+    protected final int vertexSlotOf(final Object v) {
+        if ( v instanceof BaseVertex ) {
+            final BaseVertex bv = (BaseVertex)v;
+            final int slot = bv.graphSlot;
+            if ( bv.graphToken == token && slot < vertexSlots && vertices[slot] == v )
+                return slot;
+        }
+        final Integer slot = vertexSlotMap.get(v);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Get the slot of an edge
+     * @param e an edge, can be null
+     * @return the slot of e, or -1 if e isn't in this graph
+     */
+    protected final int edgeSlotOf(final Object e) {
+        if ( e instanceof BaseEdge ) {
+            final BaseEdge be = (BaseEdge)e;
+            final int slot = be.graphSlot;
+            if ( be.graphToken == token && slot < edgeSlots && edges[slot] == e )
+                return slot;
+        }
+        if ( edgeSlotMap.isEmpty() ) return -1;
+        final Integer slot = edgeSlotMap.get(e);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Get the slot of a vertex that must be in the graph
+     * @param v a vertex
+     * @return the slot of v
+     * @throws NullPointerException if v is null
+     * @throws IllegalArgumentException if v isn't in the graph
+     */
+    private int existingVertexSlot(final V v) {
+        final int slot = vertexSlotOf(v);
+        if ( slot >= 0 ) return slot;
+        if ( v == null ) throw new NullPointerException();
+        throw new IllegalArgumentException("no such vertex in graph: " + v.toString());
+    }
+
+    @SuppressWarnings("unchecked")
+    private V vertexAt(final int slot) {
+        return (V)vertices[slot];
+    }
+
+    @SuppressWarnings("unchecked")
+    private E edgeAt(final int slot) {
+        return (E)edges[slot];
+    }
+
+    private int newVertexSlot() {
+        if ( vertexSlots == vertices.length ) {
+            if ( vertexSlots - vertexCount >= vertexSlots / 2 ) {
+                renumberVertices();
+            } else {
+                final int capacity = vertexSlots * 2;
+                vertices = Arrays.copyOf(vertices, capacity);
+                outEdges = Arrays.copyOf(outEdges, capacity);
+                inEdges = Arrays.copyOf(inEdges, capacity);
+                outDegrees = Arrays.copyOf(outDegrees, capacity);
+                inDegrees = Arrays.copyOf(inDegrees, capacity);
+            }
+        }
+        return vertexSlots++;
+    }
+
+    private int newEdgeSlot() {
+        if ( edgeSlots == edges.length ) {
+            if ( edgeSlots - edgeCount >= edgeSlots / 2 ) {
+                renumberEdges();
+            } else {
+                final int capacity = edgeSlots * 2;
+                edges = Arrays.copyOf(edges, capacity);
+                edgeSources = Arrays.copyOf(edgeSources, capacity);
+                edgeTargets = Arrays.copyOf(edgeTargets, capacity);
+            }
+        }
+        return edgeSlots++;
+    }
+
+    /**
+     * Renumbers the vertex or edge slots if most of them are holes
+     */
+    private void renumberIfSparse() {
+        if ( vertexSlots > INITIAL_CAPACITY && vertexSlots - vertexCount > 3 * vertexCount )
+            renumberVertices();
+        if ( edgeSlots > INITIAL_CAPACITY && edgeSlots - edgeCount > 3 * edgeCount )
+            renumberEdges();
+    }
+
+    /**
+     * Closes the holes left by removed vertices, preserving the order of the slots
+     */
+    private void renumberVertices() {
+        final int[] newSlots = new int[vertexSlots];
+        int n = 0;
+        for ( int slot = 0; slot < vertexSlots; slot++ ) {
+            if ( vertices[slot] == null ) continue;
+            newSlots[slot] = n;
+            vertices[n] = vertices[slot];
+            outEdges[n] = outEdges[slot];
+            inEdges[n] = inEdges[slot];
+            outDegrees[n] = outDegrees[slot];
+            inDegrees[n] = inDegrees[slot];
+            assignSlot(vertexAt(n), n);
+            n++;
+        }
+        Arrays.fill(vertices, n, vertexSlots, null);
+        Arrays.fill(outEdges, n, vertexSlots, null);
+        Arrays.fill(inEdges, n, vertexSlots, null);
+        vertexSlots = n;
+
+        for ( int slot = 0; slot < edgeSlots; slot++ ) {
+            if ( edges[slot] == null ) continue;
+            edgeSources[slot] = newSlots[edgeSources[slot]];
+            edgeTargets[slot] = newSlots[edgeTargets[slot]];
+        }
+        renumberings++;
+    }
+
+    /**
+     * Closes the holes left by removed edges, preserving the order of the slots
+     */
+    private void renumberEdges() {
+        final int[] newSlots = new int[edgeSlots];
+        int n = 0;
+        for ( int slot = 0; slot < edgeSlots; slot++ ) {
+            if ( edges[slot] == null ) continue;
+            newSlots[slot] = n;
+            edges[n] = edges[slot];
+            edgeSources[n] = edgeSources[slot];
+            edgeTargets[n] = edgeTargets[slot];
+            assignSlot(edgeAt(n), n);
+            n++;
+        }
+        Arrays.fill(edges, n, edgeSlots, null);
+        edgeSlots = n;
+
+        for ( int slot = 0; slot < vertexSlots; slot++ ) {
+            if ( vertices[slot] == null ) continue;
+            for ( int i = 0; i < outDegrees[slot]; i++ ) outEdges[slot][i] = newSlots[outEdges[slot][i]];
+            for ( int i = 0; i < inDegrees[slot]; i++ ) inEdges[slot][i] = newSlots[inEdges[slot][i]];
+        }
+        renumberings++;
+    }
+
+    private void assignSlot(final V v, final int slot) {
+        if ( v.graphToken == null || v.graphToken == token ) {
+            v.graphToken = token;
+            v.graphSlot = slot;
+        }
+        vertexSlotMap.put(v, slot);
+    }
+
+    private void assignSlot(final E e, final int slot) {
+        if ( e.graphToken == null || e.graphToken == token ) {
+            e.graphToken = token;
+            e.graphSlot = slot;
+            if ( ! edgeSlotMap.isEmpty() ) edgeSlotMap.remove(e);
+        } else {
+            edgeSlotMap.put(e, slot);
+        }
+    }
+
+    private static int[] append(final int[] array, final int size, final int value) {
+        final int[] result = size < array.length ? array : Arrays.copyOf(array, Math.max(4, size * 2));
+        result[size] = value;
+        return result;
+    }
+
+    /**
+     * Removes value from the first size elements of array, keeping the order of the others
+     * @return the new size
+     */
+    private static int remove(final int[] array, final int size, final int value) {
+        for ( int i = 0; i < size; i++ ) {
+            if ( array[i] == value ) {
+                System.arraycopy(array, i + 1, array, i, size - i - 1);
+                return size - 1;
+            }
+        }
+        return size;
+    }
+
+    // --------------------------------------------------------------------------------
+    //
+    // graph structure
+    //
+    // --------------------------------------------------------------------------------
+
+    @Override
+    public EdgeFactory<V, E> getEdgeFactory() {
+        return edgeFactory;
+    }
+
+    /**
+     * @return false, as there can only be one edge from a vertex to another
+     */
+    public boolean isAllowingMultipleEdges() {
+        return false;
+    }
+
+    @Override
+    public boolean addVertex(final V v) {
+        if ( v == null ) throw new NullPointerException();
+        if ( vertexSlotOf(v) >= 0 ) return false;
+
+        final int slot = newVertexSlot();
+        vertices[slot] = v;
+        outEdges[slot] = NO_EDGES;
+        inEdges[slot] = NO_EDGES;
+        outDegrees[slot] = 0;
+        inDegrees[slot] = 0;
+        vertexCount++;
+        assignSlot(v, slot);
+        return true;
+    }
+
+    @Override
+    public boolean containsVertex(final V v) {
+        return vertexSlotOf(v) >= 0;
+    }
+
+    @Override
+    public boolean removeVertex(final V v) {
+        final int slot = vertexSlotOf(v);
+        if ( slot < 0 ) return false;
+
+        while ( outDegrees[slot] > 0 ) removeEdgeAt(outEdges[slot][outDegrees[slot] - 1]);
+        while ( inDegrees[slot] > 0 ) removeEdgeAt(inEdges[slot][inDegrees[slot] - 1]);
+
+        final V removed = vertexAt(slot);
+        vertexSlotMap.remove(removed);
+        if ( removed.graphToken == token ) removed.graphToken = null;
+        vertices[slot] = null;
+        outEdges[slot] = null;
+        inEdges[slot] = null;
+        vertexCount--;
+        renumberIfSparse();
+        return true;
+    }
+
+    @Override
+    public boolean removeAllVertices(final Collection<? extends V> vertices) {
+        boolean modified = false;
+        for ( final Object v : vertices.toArray() )
+            modified |= removeVertex(vertexClass(v));
+        return modified;
+    }
+
+    @Override
+    public E addEdge(final V sourceVertex, final V targetVertex) {
+        final int source = existingVertexSlot(sourceVertex);
+        final int target = existingVertexSlot(targetVertex);
+        if ( edgeSlotBetween(source, target) >= 0 ) return null;
+
+        final E e = edgeFactory.createEdge(sourceVertex, targetVertex);
+        if ( edgeSlotOf(e) >= 0 ) return null;
+        addEdgeAt(source, target, e);
+        return e;
+    }
+
+    @Override
+    public boolean addEdge(final V sourceVertex, final V targetVertex, final E e) {
+        if ( e == null ) throw new NullPointerException();
+        if ( edgeSlotOf(e) >= 0 ) return false;
+
+        final int source = existingVertexSlot(sourceVertex);
+        final int target = existingVertexSlot(targetVertex);
+        if ( edgeSlotBetween(source, target) >= 0 ) return false;
+        addEdgeAt(source, target, e);
+        return true;
+    }
+
+    private void addEdgeAt(final int source, final int target, final E e) {
+        final int slot = newEdgeSlot();
+        edges[slot] = e;
+        edgeSources[slot] = source;
+        edgeTargets[slot] = target;
+        edgeCount++;
+        assignSlot(e, slot);
+
+        outEdges[source] = append(outEdges[source], outDegrees[source]++, slot);
+        inEdges[target] = append(inEdges[target], inDegrees[target]++, slot);
+    }
+
+    @Override
+    public boolean containsEdge(final E e) {
+        return edgeSlotOf(e) >= 0;
+    }
+
+    @Override
+    public boolean containsEdge(final V sourceVertex, final V targetVertex) {
+        return getEdge(sourceVertex, targetVertex) != null;
+    }
+
+    /**
+     * @return the slot of the edge source -> target, or -1 if there is none
+     */
+    private int edgeSlotBetween(final int source, final int target) {
+        final int[] out = outEdges[source];
+        for ( int i = 0; i < outDegrees[source]; i++ )
+            if ( edgeTargets[out[i]] == target )
+                return out[i];
+        return -1;
+    }
+
+    @Override
+    public E getEdge(final V sourceVertex, final V targetVertex) {
+        final int source = vertexSlotOf(sourceVertex);
+        final int target = vertexSlotOf(targetVertex);
+        if ( source < 0 || target < 0 ) return null;
+        final int slot = edgeSlotBetween(source, target);
+        return slot < 0 ? null : edgeAt(slot);
+    }
+
+    @Override
+    public Set<E> getAllEdges(final V sourceVertex, final V targetVertex) {
+        if ( vertexSlotOf(sourceVertex) < 0 || vertexSlotOf(targetVertex) < 0 ) return null;
+        final Set<E> result = new ArrayUnenforcedSet<>();
+        final E e = getEdge(sourceVertex, targetVertex);
+        if ( e != null ) result.add(e);
+        return result;
+    }
+
+    @Override
+    public boolean removeEdge(final E e) {
+        final int slot = edgeSlotOf(e);
+        if ( slot < 0 ) return false;
+        removeEdgeAt(slot);
+        renumberIfSparse();
+        return true;
+    }
+
+    @Override
+    public E removeEdge(final V sourceVertex, final V targetVertex) {
+        final E e = getEdge(sourceVertex, targetVertex);
+        if ( e != null ) removeEdge(e);
+        return e;
+    }
+
+    private void removeEdgeAt(final int slot) {
+        final int source = edgeSources[slot];
+        final int target = edgeTargets[slot];
+        outDegrees[source] = remove(outEdges[source], outDegrees[source], slot);
+        inDegrees[target] = remove(inEdges[target], inDegrees[target], slot);
+
+        final E removed = edgeAt(slot);
+        if ( removed.graphToken == token ) removed.graphToken = null;
+        else edgeSlotMap.remove(removed);
+        edges[slot] = null;
+        edgeCount--;
+    }
+
+    @Override
+    public boolean removeAllEdges(final Collection<? extends E> edges) {
+        boolean modified = false;
+        for ( final Object e : edges.toArray() )
+            modified |= removeEdge(edgeClass(e));
+        return modified;
+    }
+
+    @Override
+    public Set<E> removeAllEdges(final V sourceVertex, final V targetVertex) {
+        final Set<E> removed = getAllEdges(sourceVertex, targetVertex);
+        if ( removed != null ) removeAllEdges(removed);
+        return removed;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V vertexClass(final Object v) {
+        return (V)v;
+    }
+
+    @SuppressWarnings("unchecked")
+    private E edgeClass(final Object e) {
+        return (E)e;
+    }
+
+    @Override
+    public V getEdgeSource(final E e) {
+        final int slot = edgeSlotOf(e);
+        if ( slot < 0 ) throw new IllegalArgumentException("no such edge in graph: " + e);
+        return vertexAt(edgeSources[slot]);
+    }
+
+    @Override
+    public V getEdgeTarget(final E e) {
+        final int slot = edgeSlotOf(e);
+        if ( slot < 0 ) throw new IllegalArgumentException("no such edge in graph: " + e);
+        return vertexAt(edgeTargets[slot]);
+    }
+
+    @Override
+    public double getEdgeWeight(final E e) {
+        return 1.0;
+    }
+
+    @Override
+    public int inDegreeOf(final V v) {
+        return inDegrees[existingVertexSlot(v)];
+    }
+
+    @Override
+    public int outDegreeOf(final V v) {
+        return outDegrees[existingVertexSlot(v)];
+    }
+
+    @Override
+    public Set<E> incomingEdgesOf(final V v) {
+        return new AdjacentEdges(v, existingVertexSlot(v), false);
+    }
+
+    @Override
+    public Set<E> outgoingEdgesOf(final V v) {
+        return new AdjacentEdges(v, existingVertexSlot(v), true);
+    }
+
+    /**
+     * Get all the edges touching v, incoming edges first.  A self loop is only listed once.
+     *
+     * @param v a vertex in the graph
+     * @return a new unmodifiable set
+     */
+    @Override
+    public Set<E> edgesOf(final V v) {
+        final int slot = existingVertexSlot(v);
+        final ArrayUnenforcedSet<E> result = new ArrayUnenforcedSet<>(inDegrees[slot] + outDegrees[slot]);
+        for ( int i = 0; i < inDegrees[slot]; i++ )
+            if ( edgeSources[inEdges[slot][i]] != slot )
+                result.add(edgeAt(inEdges[slot][i]));
+        for ( int i = 0; i < outDegrees[slot]; i++ )
+            result.add(edgeAt(outEdges[slot][i]));
+        return Collections.unmodifiableSet(result);
+    }
+
+    @Override
+    public Set<V> vertexSet() {
+        return new SlotSet<V>(true);
+    }
+
+    @Override
+    public Set<E> edgeSet() {
+        return new SlotSet<E>(false);
+    }
+
+    /**
+     * Checks for directed cycles, walking the slot arrays directly
+     *
+     * @return true if the graph contains a cycle, self loops included
+     */
+    protected boolean containsCycle() {
+        // 0 = unvisited, 1 = on the current path, 2 = finished
+        final byte[] state = new byte[vertexSlots];
+        final int[] stack = new int[vertexSlots];
+        final int[] position = new int[vertexSlots];
+
+        for ( int root = 0; root < vertexSlots; root++ ) {
+            if ( vertices[root] == null || state[root] != 0 ) continue;
+            int depth = 0;
+            stack[0] = root;
+            position[0] = 0;
+            state[root] = 1;
+            while ( depth >= 0 ) {
+                final int v = stack[depth];
+                if ( position[depth] < outDegrees[v] ) {
+                    final int w = edgeTargets[outEdges[v][position[depth]++]];
+                    if ( state[w] == 1 ) return true;
+                    if ( state[w] == 0 ) {
+                        state[w] = 1;
+                        stack[++depth] = w;
+                        position[depth] = 0;
+                    }
+                } else {
+                    state[v] = 2;
+                    depth--;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Makes a shallow copy of this graph: the copy shares its vertex and edge objects with this graph
+     * @return a new graph of the same class as this graph
+     */
+    @Override
+    public Object clone() {
+        try {
+            @SuppressWarnings("unchecked")
+            final CompactDirectedGraph<V, E> copy = (CompactDirectedGraph<V, E>)super.clone();
+            copy.token = new Object();
+            copy.vertices = vertices.clone();
+            copy.outEdges = new int[outEdges.length][];
+            copy.inEdges = new int[inEdges.length][];
+            for ( int slot = 0; slot < vertexSlots; slot++ ) {
+                if ( vertices[slot] == null ) continue;
+                copy.outEdges[slot] = outDegrees[slot] == 0 ? NO_EDGES : Arrays.copyOf(outEdges[slot], outDegrees[slot]);
+                copy.inEdges[slot] = inDegrees[slot] == 0 ? NO_EDGES : Arrays.copyOf(inEdges[slot], inDegrees[slot]);
+            }
+            copy.outDegrees = outDegrees.clone();
+            copy.inDegrees = inDegrees.clone();
+            copy.vertexSlotMap = new HashMap<>(vertexSlotMap);
+            copy.edges = edges.clone();
+            copy.edgeSources = edgeSources.clone();
+            copy.edgeTargets = edgeTargets.clone();
+            copy.edgeSlotMap = new HashMap<>(edgeSlotMap);
+            for ( int slot = 0; slot < edgeSlots; slot++ ) {
+                if ( edges[slot] != null && edgeAt(slot).graphToken == token )
+                    copy.edgeSlotMap.put(edgeAt(slot), slot);
+            }
+            copy.renumberings = 0;
+            return copy;
+        } catch ( CloneNotSupportedException e ) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // --------------------------------------------------------------------------------
+    //
+    // views
+    //
+    // --------------------------------------------------------------------------------
+
+    /**
+     * Live, unmodifiable view of the vertices or edges of the graph, in slot order
+     */
+    private final class SlotSet<T> extends AbstractSet<T> {
+        private final boolean ofVertices;
+
+        private SlotSet(final boolean ofVertices) {
+            this.ofVertices = ofVertices;
+        }
+
+        @Override
+        public int size() {
+            return ofVertices ? vertexCount : edgeCount;
+        }
+
+        @Override
+        public boolean contains(final Object o) {
+            return (ofVertices ? vertexSlotOf(o) : edgeSlotOf(o)) >= 0;
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return new Iterator<T>() {
+                private int next = 0;
+                private T last = null;
+                private int seenRenumberings = renumberings;
+
+                @SuppressWarnings("unchecked")
+                private Object[] elements() {
+                    if ( seenRenumberings != renumberings ) {
+                        seenRenumberings = renumberings;
+                        if ( last != null ) {
+                            final int lastSlot = ofVertices ? vertexSlotOf(last) : edgeSlotOf(last);
+                            if ( lastSlot < 0 ) throw new ConcurrentModificationException();
+                            next = lastSlot + 1;
+                        }
+                    }
+                    return ofVertices ? vertices : edges;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    final Object[] elements = elements();
+                    final int slots = ofVertices ? vertexSlots : edgeSlots;
+                    while ( next < slots && elements[next] == null ) next++;
+                    return next < slots;
+                }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public T next() {
+                    if ( ! hasNext() ) throw new NoSuchElementException();
+                    last = (T)elements()[next++];
+                    return last;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
+    /**
+     * Live, unmodifiable view of the incoming or outgoing edges of a vertex, in the order they were added
+     */
+    private final class AdjacentEdges extends AbstractSet<E> {
+        private final V vertex;
+        private final boolean outgoing;
+        private int slot;
+        private int seenRenumberings = renumberings;
+
+        private AdjacentEdges(final V vertex, final int slot, final boolean outgoing) {
+            this.vertex = vertex;
+            this.slot = slot;
+            this.outgoing = outgoing;
+        }
+
+        /**
+         * @return the current slot of the vertex, or -1 if it has been removed from the graph
+         */
+        private int slot() {
+            if ( seenRenumberings != renumberings ) {
+                seenRenumberings = renumberings;
+                slot = vertexSlotOf(vertex);
+            } else if ( slot >= 0 && vertices[slot] == null ) {
+                slot = -1;
+            }
+            return slot;
+        }
+
+        @Override
+        public int size() {
+            final int slot = slot();
+            return slot < 0 ? 0 : (outgoing ? outDegrees[slot] : inDegrees[slot]);
+        }
+
+        @Override
+        public boolean contains(final Object o) {
+            final int slot = slot();
+            final int edge = edgeSlotOf(o);
+            return slot >= 0 && edge >= 0 && (outgoing ? edgeSources[edge] : edgeTargets[edge]) == slot;
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return new Iterator<E>() {
+                private int next = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return next < size();
+                }
+
+                @Override
+                public E next() {
+                    if ( ! hasNext() ) throw new NoSuchElementException();
+                    final int slot = slot();
+                    return edgeAt((outgoing ? outEdges[slot] : inEdges[slot])[next++]);
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+}
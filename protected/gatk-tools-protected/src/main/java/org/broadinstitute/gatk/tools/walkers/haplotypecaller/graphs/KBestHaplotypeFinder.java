@@ -53,7 +53,6 @@ package org.broadinstitute.gatk.tools.walkers.haplotypecaller.graphs;
 
 import org.broadinstitute.gatk.utils.collections.Pair;
 import org.broadinstitute.gatk.utils.haplotype.Haplotype;
-import org.jgrapht.alg.CycleDetector;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -135,7 +134,7 @@ public class KBestHaplotypeFinder extends AbstractList<KBestHaplotype> implement
         //TODO Once that is solve, the if-else below should be substituted by a throw if there is any cycles,
         //TODO just the line commented out below if you want to trade early-bug-fail for speed.
         //this.graph = graph;
-        this.graph = new CycleDetector<>(graph).detectCycles() ? removeCycles(graph,sources,sinks) : graph;
+        this.graph = graph.hasCycles() ? removeCycles(graph,sources,sinks) : graph;
 
         finderByVertex = new HashMap<>(this.graph.vertexSet().size());
         this.sinks = sinks;
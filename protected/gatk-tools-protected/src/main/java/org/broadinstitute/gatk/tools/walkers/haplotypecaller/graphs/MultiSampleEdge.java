@@ -51,8 +51,6 @@
 
 package org.broadinstitute.gatk.tools.walkers.haplotypecaller.graphs;
 
-import java.util.PriorityQueue;
-
 /**
  * Edge class for connecting nodes in the graph that tracks some per-sample information.
  * <p>
@@ -76,7 +74,10 @@ import java.util.PriorityQueue;
 public class MultiSampleEdge extends BaseEdge {
     private int currentSingleSampleMultiplicity;
     private final int singleSampleCapacity;
-    private final PriorityQueue<Integer> singleSampleMultiplicities;
+
+    /** the largest single sample multiplicities seen so far, in increasing order */
+    private final int[] singleSampleMultiplicities;
+    private int numSingleSampleMultiplicities;
 
     /**
      * Create a new MultiSampleEdge with weight multiplicity and, if isRef == true, indicates a path through the reference
@@ -89,8 +90,9 @@ public class MultiSampleEdge extends BaseEdge {
         super(isRef, multiplicity);
 
         if( singleSampleCapacity <= 0 ) { throw new IllegalArgumentException("singleSampleCapacity must be > 0 but found: " + singleSampleCapacity); }
-        singleSampleMultiplicities = new PriorityQueue<>(singleSampleCapacity);
-        singleSampleMultiplicities.add(multiplicity);
+        singleSampleMultiplicities = new int[singleSampleCapacity];
+        singleSampleMultiplicities[0] = multiplicity;
+        numSingleSampleMultiplicities = 1;
         currentSingleSampleMultiplicity = multiplicity;
         this.singleSampleCapacity = singleSampleCapacity;
     }
@@ -105,13 +107,28 @@ public class MultiSampleEdge extends BaseEdge {
      * reset the current single sample multiplicity to 0.
      */
     public void flushSingleSampleMultiplicity() {
-        singleSampleMultiplicities.add(currentSingleSampleMultiplicity);
-        if( singleSampleMultiplicities.size() == singleSampleCapacity + 1 ) {
-            singleSampleMultiplicities.poll(); // remove the lowest multiplicity from the list
-        } else if( singleSampleMultiplicities.size() > singleSampleCapacity + 1 ) {
-            throw new IllegalStateException("Somehow the per sample multiplicity list has grown too big: " + singleSampleMultiplicities);
-        }
+        final int value = currentSingleSampleMultiplicity;
         currentSingleSampleMultiplicity = 0;
+
+        int i;
+        if ( numSingleSampleMultiplicities < singleSampleCapacity ) {
+            i = numSingleSampleMultiplicities++;
+        } else if ( value > singleSampleMultiplicities[0] ) {
+            i = 0; // drop the lowest multiplicity from the list
+        } else {
+            return;
+        }
+
+        // insertion sort step, keeping the list in increasing order
+        while ( i > 0 && singleSampleMultiplicities[i - 1] > value ) {
+            singleSampleMultiplicities[i] = singleSampleMultiplicities[i - 1];
+            i--;
+        }
+        while ( i + 1 < numSingleSampleMultiplicities && singleSampleMultiplicities[i + 1] < value ) {
+            singleSampleMultiplicities[i] = singleSampleMultiplicities[i + 1];
+            i++;
+        }
+        singleSampleMultiplicities[i] = value;
     }
 
     @Override
@@ -122,7 +139,7 @@ public class MultiSampleEdge extends BaseEdge {
 
     @Override
     public int getPruningMultiplicity() {
-        return singleSampleMultiplicities.peek();
+        return singleSampleMultiplicities[0];
     }
 
     @Override
@@ -56,13 +56,17 @@ import org.broadinstitute.gatk.tools.walkers.haplotypecaller.AssemblyResult;
 import org.broadinstitute.gatk.tools.walkers.haplotypecaller.LocalAssemblyEngine;
 import org.broadinstitute.gatk.tools.walkers.haplotypecaller.graphs.*;
 import org.broadinstitute.gatk.utils.MathUtils;
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
 import org.broadinstitute.gatk.utils.haplotype.Haplotype;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ReadThreadingAssembler extends LocalAssemblyEngine {
     private final static Logger logger = Logger.getLogger(ReadThreadingAssembler.class);
@@ -81,6 +85,12 @@ public class ReadThreadingAssembler extends LocalAssemblyEngine {
     protected boolean removePathsNotConnectedToRef = true;
     private boolean justReturnRawGraph = false;
 
+    /**
+     * Pool used to build the graphs for the different requested kmer sizes concurrently, or null to build them one
+     * after another on the calling thread.  The larger kmer sizes retried after cycles are always tried one at a time.  The pool may be shared by all threads calling {@link #assemble}.
+     */
+    private ExecutorService assemblyThreadPool = null;
+
     /** for testing only */
     public ReadThreadingAssembler() {
         this(DEFAULT_NUM_PATHS_PER_GRAPH, Arrays.asList(25));
@@ -103,6 +113,41 @@ public class ReadThreadingAssembler extends LocalAssemblyEngine {
         this.justReturnRawGraph = justReturnRawGraph;
     }
 
+    /**
+     * Sets the pool used to build the graphs for the different requested kmer sizes concurrently
+     *
+     * <p>The calling thread always takes part in the assembly, running any graph the pool hasn't started yet,
+     * so a pool of any size (or one shared by several -nct threads) can never deadlock {@link #assemble}.</p>
+     *
+     * @param assemblyThreadPool the pool to use, or null to build all graphs on the calling thread
+     */
+    public void setAssemblyThreadPool(final ExecutorService assemblyThreadPool) {
+        this.assemblyThreadPool = assemblyThreadPool;
+    }
+
+    /**
+     * Creates a pool suitable for {@link #setAssemblyThreadPool}
+     *
+     * <p>The threads are daemons, so an engine that is never shut down doesn't keep the JVM alive.</p>
+     *
+     * @param numThreads the number of worker threads
+     * @return a new pool, or null if numThreads is less than 1
+     */
+    public static ExecutorService createAssemblyThreadPool(final int numThreads) {
+        if ( numThreads < 1 )
+            return null;
+
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        return Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "ReadThreadingAssembler-" + threadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
     private void addResult(final List<AssemblyResult> results, final AssemblyResult maybeNullResult) {
         if ( maybeNullResult != null )
             results.add(maybeNullResult);
@@ -113,11 +158,14 @@ public class ReadThreadingAssembler extends LocalAssemblyEngine {
         final List<AssemblyResult> results = new LinkedList<>();
 
         // first, try using the requested kmer sizes
-        for ( final int kmerSize : kmerSizes ) {
-            addResult(results, createGraph(reads, refHaplotype, kmerSize, givenHaplotypes, dontIncreaseKmerSizesForCycles, allowNonUniqueKmersInRef));
-        }
+        final List<FutureTask<AssemblyResult>> tasks = new ArrayList<>(kmerSizes.size());
+        for ( final int kmerSize : kmerSizes )
+            tasks.add(createGraphTask(reads, refHaplotype, kmerSize, givenHaplotypes, dontIncreaseKmerSizesForCycles, allowNonUniqueKmersInRef));
+        for ( final FutureTask<AssemblyResult> task : startTasks(tasks) )
+            addResult(results, runAndGet(task));
 
         // if none of those worked, iterate over larger sizes if allowed to do so
+        // each retry is only worth running if the previous one failed, so these stay on the calling thread
         if ( results.isEmpty() && !dontIncreaseKmerSizesForCycles ) {
             int kmerSize = MathUtils.arrayMaxInt(kmerSizes) + KMER_SIZE_ITERATION_INCREASE;
             int numIterations = 1;
@@ -133,6 +181,60 @@ public class ReadThreadingAssembler extends LocalAssemblyEngine {
         return results;
     }
 
+    /**
+     * Wraps a call to {@link #createGraph} in a task that can be run either by the pool or by the calling thread
+     */
+    private FutureTask<AssemblyResult> createGraphTask(final List<GATKSAMRecord> reads,
+                                                       final Haplotype refHaplotype,
+                                                       final int kmerSize,
+                                                       final List<Haplotype> activeAlleleHaplotypes,
+                                                       final boolean allowLowComplexityGraphs,
+                                                       final boolean allowNonUniqueKmersInRef) {
+        return new FutureTask<>(new Callable<AssemblyResult>() {
+            @Override
+            public AssemblyResult call() {
+                return createGraph(reads, refHaplotype, kmerSize, activeAlleleHaplotypes, allowLowComplexityGraphs, allowNonUniqueKmersInRef);
+            }
+        });
+    }
+
+    /**
+     * Hands all but the first task over to the assembly pool, if there is one
+     *
+     * <p>The first task is left for the calling thread, which would otherwise just sit waiting on the pool.</p>
+     *
+     * @param tasks the tasks to start, in the order their results should be collected
+     * @return tasks
+     */
+    private List<FutureTask<AssemblyResult>> startTasks(final List<FutureTask<AssemblyResult>> tasks) {
+        if ( assemblyThreadPool != null ) {
+            for ( int i = 1; i < tasks.size(); i++ )
+                assemblyThreadPool.execute(tasks.get(i));
+        }
+        return tasks;
+    }
+
+    /**
+     * Runs the task on the calling thread unless the pool has already started it, and waits for its result
+     *
+     * @param task the task
+     * @return the result of createGraph for the task, may be null
+     */
+    private AssemblyResult runAndGet(final FutureTask<AssemblyResult> task) {
+        task.run(); // a no-op if the task has already been started by the pool
+        try {
+            return task.get();
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new ReviewedGATKException("Interrupted while waiting for the assembly of a graph", e);
+        } catch ( ExecutionException e ) {
+            final Throwable cause = e.getCause();
+            if ( cause instanceof RuntimeException ) throw (RuntimeException)cause;
+            if ( cause instanceof Error ) throw (Error)cause;
+            throw new ReviewedGATKException("Failed to assemble a graph", cause);
+        }
+    }
+
     /**
      * Creates the sequence graph for the given kmerSize
      *
@@ -54,6 +54,8 @@ package org.broadinstitute.gatk.tools.walkers.haplotypecaller.readthreading;
 import org.apache.log4j.Logger;
 import org.broadinstitute.gatk.tools.walkers.haplotypecaller.KMerCounter;
 import org.broadinstitute.gatk.tools.walkers.haplotypecaller.Kmer;
+import org.broadinstitute.gatk.tools.walkers.haplotypecaller.KmerMap;
+import org.broadinstitute.gatk.tools.walkers.haplotypecaller.KmerSet;
 import org.broadinstitute.gatk.tools.walkers.haplotypecaller.graphs.*;
 import org.broadinstitute.gatk.utils.BaseUtils;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
@@ -84,12 +86,12 @@ public class ReadThreadingGraph extends DanglingChainMergingGraph implements Kme
     /**
      * A set of non-unique kmers that cannot be used as merge points in the graph
      */
-    protected Set<Kmer> nonUniqueKmers;
+    protected KmerSet nonUniqueKmers;
 
     /**
      * A map from kmers -> their corresponding vertex in the graph
      */
-    protected Map<Kmer, MultiDeBruijnVertex> uniqueKmers = new LinkedHashMap<>();
+    protected KmerMap<MultiDeBruijnVertex> uniqueKmers = new KmerMap<>(kmerSize);
 
     /**
      *
@@ -258,8 +260,7 @@ public class ReadThreadingGraph extends DanglingChainMergingGraph implements Kme
             return 0;
 
         for ( int i = seqForKmers.start; i < seqForKmers.stop - kmerSize; i++ ) {
-            final Kmer kmer1 = new Kmer(seqForKmers.sequence, i, kmerSize);
-            if ( isThreadingStart(kmer1) )
+            if ( isThreadingStart(seqForKmers.sequence, i) )
                 return i;
         }
 
@@ -281,6 +282,17 @@ public class ReadThreadingGraph extends DanglingChainMergingGraph implements Kme
         return startThreadingOnlyAtExistingVertex ? uniqueKmers.containsKey(kmer) : !nonUniqueKmers.contains(kmer);
     }
 
+    /**
+     * Same as {@link #isThreadingStart(Kmer)} for the kmer starting at sequence[start], without building a Kmer
+     *
+     * @param sequence the sequence holding the kmer
+     * @param start the start of the kmer in sequence
+     * @return {@code true} if we can start thread the sequence at this kmer, {@code false} otherwise.
+     */
+    private boolean isThreadingStart(final byte[] sequence, final int start) {
+        return startThreadingOnlyAtExistingVertex ? uniqueKmers.containsKey(sequence, start) : !nonUniqueKmers.contains(sequence, start);
+    }
+
     /**
      * Changes the threading start location policy.
      *
@@ -371,10 +383,10 @@ public class ReadThreadingGraph extends DanglingChainMergingGraph implements Kme
 
     /** structure that keeps track of the non-unique kmers for a given kmer size */
     private static class NonUniqueResult {
-        final Set<Kmer> nonUniques;
+        final KmerSet nonUniques;
         final int kmerSize;
 
-        private NonUniqueResult(Set<Kmer> nonUniques, int kmerSize) {
+        private NonUniqueResult(KmerSet nonUniques, int kmerSize) {
             this.nonUniques = nonUniques;
             this.kmerSize = kmerSize;
         }
@@ -391,13 +403,13 @@ public class ReadThreadingGraph extends DanglingChainMergingGraph implements Kme
      */
     protected NonUniqueResult determineKmerSizeAndNonUniques(final int minKmerSize, final int maxKmerSize) {
         final Collection<SequenceForKmers> withNonUniques = getAllPendingSequences();
-        final Set<Kmer> nonUniqueKmers = new HashSet<>();
+        KmerSet nonUniqueKmers = new KmerSet(minKmerSize);
 
         // go through the sequences and determine which kmers aren't unique within each read
         int kmerSize = minKmerSize;
         for ( ; kmerSize <= maxKmerSize; kmerSize++) {
-            // clear out set of non-unique kmers
-            nonUniqueKmers.clear();
+            // start a new set of non-unique kmers for this kmer size
+            nonUniqueKmers = new KmerSet(kmerSize);
 
             // loop over all sequences that have non-unique kmers in them from the previous iterator
             final Iterator<SequenceForKmers> it = withNonUniques.iterator();
@@ -444,10 +456,8 @@ public class ReadThreadingGraph extends DanglingChainMergingGraph implements Kme
         // count up occurrences of kmers within each read
         final KMerCounter counter = new KMerCounter(kmerSize);
         final int stopPosition = seqForKmers.stop - kmerSize;
-        for ( int i = 0; i <= stopPosition; i++ ) {
-            final Kmer kmer = new Kmer(seqForKmers.sequence, i, kmerSize);
-            counter.addKmer(kmer, 1);
-        }
+        for ( int i = 0; i <= stopPosition; i++ )
+            counter.addKmer(seqForKmers.sequence, i, 1);
 
         return counter.getKmersWithCountsAtLeast(2);
     }
@@ -484,21 +494,24 @@ public class ReadThreadingGraph extends DanglingChainMergingGraph implements Kme
      * @return a non-null vertex
      */
     private MultiDeBruijnVertex getOrCreateKmerVertex(final byte[] sequence, final int start) {
-        final Kmer kmer = new Kmer(sequence, start, kmerSize);
-        final MultiDeBruijnVertex vertex = getUniqueKmerVertex(kmer, true);
-        return ( vertex != null ) ? vertex : createVertex(kmer);
+        final MultiDeBruijnVertex vertex = getUniqueKmerVertex(sequence, start, true);
+        return ( vertex != null ) ? vertex : createVertex(new Kmer(sequence, start, kmerSize));
     }
 
     /**
-     * Get the unique vertex for kmer, or null if not possible.
+     * Get the unique vertex for the kmer starting at sequence[start], or null if not possible.
      *
      * @param allowRefSource if true, we will allow kmer to match the reference source vertex
      * @return a vertex for kmer, or null if it's not unique
      */
-    private MultiDeBruijnVertex getUniqueKmerVertex(final Kmer kmer, final boolean allowRefSource) {
-        if ( ! allowRefSource && kmer.equals(refSource) ) return null;
+    private MultiDeBruijnVertex getUniqueKmerVertex(final byte[] sequence, final int start, final boolean allowRefSource) {
+        final MultiDeBruijnVertex vertex = uniqueKmers.get(sequence, start);
+        if ( vertex == null || allowRefSource || refSource == null ) return vertex;
 
-        return uniqueKmers.get(kmer);
+        // only compare against the reference source when there's a hit, which is rare
+        for ( int i = 0; i < kmerSize; i++ )
+            if ( refSource.base(i) != sequence[start + i] ) return vertex;
+        return null;
     }
 
 
@@ -550,14 +563,13 @@ public class ReadThreadingGraph extends DanglingChainMergingGraph implements Kme
         }
 
         // none of our outgoing edges had our unique suffix base, so we check for an opportunity to merge back in
-        final Kmer kmer = new Kmer(sequence, kmerStart, kmerSize);
-        final MultiDeBruijnVertex uniqueMergeVertex = getUniqueKmerVertex(kmer, false);
+        final MultiDeBruijnVertex uniqueMergeVertex = getUniqueKmerVertex(sequence, kmerStart, false);
 
         if ( isRef && uniqueMergeVertex != null )
             throw new IllegalStateException("Found a unique vertex to merge into the reference graph " + prevVertex + " -> " + uniqueMergeVertex);
 
         // either use our unique merge vertex, or create a new one in the chain
-        final MultiDeBruijnVertex nextVertex = uniqueMergeVertex == null ? createVertex(kmer) : uniqueMergeVertex;
+        final MultiDeBruijnVertex nextVertex = uniqueMergeVertex == null ? createVertex(new Kmer(sequence, kmerStart, kmerSize)) : uniqueMergeVertex;
         addEdge(prevVertex, nextVertex, ((MyEdgeFactory)getEdgeFactory()).createEdge(isRef, count));
         return nextVertex;
     }
@@ -0,0 +1,357 @@
+/*
+* By downloading the PROGRAM you agree to the following terms of use:
+* 
+* BROAD INSTITUTE
+* SOFTWARE LICENSE AGREEMENT
+* FOR ACADEMIC NON-COMMERCIAL RESEARCH PURPOSES ONLY
+* 
+* This Agreement is made between the Broad Institute, Inc. with a principal address at 415 Main Street, Cambridge, MA 02142 (“BROAD”) and the LICENSEE and is effective at the date the downloading is completed (“EFFECTIVE DATE”).
+* 
+* WHEREAS, LICENSEE desires to license the PROGRAM, as defined hereinafter, and BROAD wishes to have this PROGRAM utilized in the public interest, subject only to the royalty-free, nonexclusive, nontransferable license rights of the United States Government pursuant to 48 CFR 52.227-14; and
+* WHEREAS, LICENSEE desires to license the PROGRAM and BROAD desires to grant a license on the following terms and conditions.
+* NOW, THEREFORE, in consideration of the promises and covenants made herein, the parties hereto agree as follows:
+* 
+* 1. DEFINITIONS
+* 1.1 PROGRAM shall mean copyright in the object code and source code known as GATK3 and related documentation, if any, as they exist on the EFFECTIVE DATE and can be downloaded from http://www.broadinstitute.org/gatk on the EFFECTIVE DATE.
+* 
+* 2. LICENSE
+* 2.1 Grant. Subject to the terms of this Agreement, BROAD hereby grants to LICENSEE, solely for academic non-commercial research purposes, a non-exclusive, non-transferable license to: (a) download, execute and display the PROGRAM and (b) create bug fixes and modify the PROGRAM. LICENSEE hereby automatically grants to BROAD a non-exclusive, royalty-free, irrevocable license to any LICENSEE bug fixes or modifications to the PROGRAM with unlimited rights to sublicense and/or distribute.  LICENSEE agrees to provide any such modifications and bug fixes to BROAD promptly upon their creation.
+* The LICENSEE may apply the PROGRAM in a pipeline to data owned by users other than the LICENSEE and provide these users the results of the PROGRAM provided LICENSEE does so for academic non-commercial purposes only. For clarification purposes, academic sponsored research is not a commercial use under the terms of this Agreement.
+* 2.2 No Sublicensing or Additional Rights. LICENSEE shall not sublicense or distribute the PROGRAM, in whole or in part, without prior written permission from BROAD. LICENSEE shall ensure that all of its users agree to the terms of this Agreement. LICENSEE further agrees that it shall not put the PROGRAM on a network, server, or other similar technology that may be accessed by anyone other than the LICENSEE and its employees and users who have agreed to the terms of this agreement.
+* 2.3 License Limitations. Nothing in this Agreement shall be construed to confer any rights upon LICENSEE by implication, estoppel, or otherwise to any computer software, trademark, intellectual property, or patent rights of BROAD, or of any other entity, except as expressly granted herein. LICENSEE agrees that the PROGRAM, in whole or part, shall not be used for any commercial purpose, including without limitation, as the basis of a commercial software or hardware product or to provide services. LICENSEE further agrees that the PROGRAM shall not be copied or otherwise adapted in order to circumvent the need for obtaining a license for use of the PROGRAM.
+* 
+* 3. PHONE-HOME FEATURE
+* LICENSEE expressly acknowledges that the PROGRAM contains an embedded automatic reporting system (“PHONE-HOME”) which is enabled by default upon download. Unless LICENSEE requests disablement of PHONE-HOME, LICENSEE agrees that BROAD may collect limited information transmitted by PHONE-HOME regarding LICENSEE and its use of the PROGRAM.  Such information shall include LICENSEE’S user identification, version number of the PROGRAM and tools being run, mode of analysis employed, and any error reports generated during run-time.  Collection of such information is used by BROAD solely to monitor usage rates, fulfill reporting requirements to BROAD funding agencies, drive improvements to the PROGRAM, and facilitate adjustments to PROGRAM-related documentation.
+* 
+* 4. OWNERSHIP OF INTELLECTUAL PROPERTY
+* LICENSEE acknowledges that title to the PROGRAM shall remain with BROAD. The PROGRAM is marked with the following BROAD copyright notice and notice of attribution to contributors. LICENSEE shall retain such notice on all copies. LICENSEE agrees to include appropriate attribution if any results obtained from use of the PROGRAM are included in any publication.
+* Copyright 2012-2014 Broad Institute, Inc.
+* Notice of attribution: The GATK3 program was made available through the generosity of Medical and Population Genetics program at the Broad Institute, Inc.
+* LICENSEE shall not use any trademark or trade name of BROAD, or any variation, adaptation, or abbreviation, of such marks or trade names, or any names of officers, faculty, students, employees, or agents of BROAD except as states above for attribution purposes.
+* 
+* 5. INDEMNIFICATION
+* LICENSEE shall indemnify, defend, and hold harmless BROAD, and their respective officers, faculty, students, employees, associated investigators and agents, and their respective successors, heirs and assigns, (Indemnitees), against any liability, damage, loss, or expense (including reasonable attorneys fees and expenses) incurred by or imposed upon any of the Indemnitees in connection with any claims, suits, actions, demands or judgments arising out of any theory of liability (including, without limitation, actions in the form of tort, warranty, or strict liability and regardless of whether such action has any factual basis) pursuant to any right or license granted under this Agreement.
+* 
+* 6. NO REPRESENTATIONS OR WARRANTIES
+* THE PROGRAM IS DELIVERED AS IS. BROAD MAKES NO REPRESENTATIONS OR WARRANTIES OF ANY KIND CONCERNING THE PROGRAM OR THE COPYRIGHT, EXPRESS OR IMPLIED, INCLUDING, WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER OR NOT DISCOVERABLE. BROAD EXTENDS NO WARRANTIES OF ANY KIND AS TO PROGRAM CONFORMITY WITH WHATEVER USER MANUALS OR OTHER LITERATURE MAY BE ISSUED FROM TIME TO TIME.
+* IN NO EVENT SHALL BROAD OR ITS RESPECTIVE DIRECTORS, OFFICERS, EMPLOYEES, AFFILIATED INVESTIGATORS AND AFFILIATES BE LIABLE FOR INCIDENTAL OR CONSEQUENTIAL DAMAGES OF ANY KIND, INCLUDING, WITHOUT LIMITATION, ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER BROAD SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+* 
+* 7. ASSIGNMENT
+* This Agreement is personal to LICENSEE and any rights or obligations assigned by LICENSEE without the prior written consent of BROAD shall be null and void.
+* 
+* 8. MISCELLANEOUS
+* 8.1 Export Control. LICENSEE gives assurance that it will comply with all United States export control laws and regulations controlling the export of the PROGRAM, including, without limitation, all Export Administration Regulations of the United States Department of Commerce. Among other things, these laws and regulations prohibit, or require a license for, the export of certain types of software to specified countries.
+* 8.2 Termination. LICENSEE shall have the right to terminate this Agreement for any reason upon prior written notice to BROAD. If LICENSEE breaches any provision hereunder, and fails to cure such breach within thirty (30) days, BROAD may terminate this Agreement immediately. Upon termination, LICENSEE shall provide BROAD with written assurance that the original and all copies of the PROGRAM have been destroyed, except that, upon prior written authorization from BROAD, LICENSEE may retain a copy for archive purposes.
+* 8.3 Survival. The following provisions shall survive the expiration or termination of this Agreement: Articles 1, 3, 4, 5 and Sections 2.2, 2.3, 7.3, and 7.4.
+* 8.4 Notice. Any notices under this Agreement shall be in writing, shall specifically refer to this Agreement, and shall be sent by hand, recognized national overnight courier, confirmed facsimile transmission, confirmed electronic mail, or registered or certified mail, postage prepaid, return receipt requested. All notices under this Agreement shall be deemed effective upon receipt.
+* 8.5 Amendment and Waiver; Entire Agreement. This Agreement may be amended, supplemented, or otherwise modified only by means of a written instrument signed by all parties. Any waiver of any rights or failure to act in a specific instance shall relate only to such instance and shall not be construed as an agreement to waive any rights or fail to act in any other instance, whether or not similar. This Agreement constitutes the entire agreement among the parties with respect to its subject matter and supersedes prior agreements or understandings between the parties relating to its subject matter.
+* 8.6 Binding Effect; Headings. This Agreement shall be binding upon and inure to the benefit of the parties and their respective permitted successors and assigns. All headings are for convenience only and shall not affect the meaning of any provision of this Agreement.
+* 8.7 Governing Law. This Agreement shall be construed, governed, interpreted and applied in accordance with the internal laws of the Commonwealth of Massachusetts, U.S.A., without regard to conflict of laws principles.
+*/
+
+package org.broadinstitute.gatk.utils.pairhmm;
+
+import org.broadinstitute.gatk.utils.QualityUtils;
+
+import java.util.Arrays;
+
+import static org.broadinstitute.gatk.utils.pairhmm.PairHMMModel.*;
+
+/**
+ * Pure Java logless PairHMM laid out so that the JIT can vectorize its inner loop.
+ *
+ * <p>
+ *     Cells on the same anti-diagonal of the (read x haplotype) matrix do not depend on each other, so this
+ *     implementation sweeps the matrix one anti-diagonal at a time. Each state (match, insertion and deletion)
+ *     keeps three arrays indexed by read position, one for the current anti-diagonal and one for each of the two
+ *     previous ones, and the haplotype is stored reversed so that every array in the inner loop is accessed with
+ *     unit stride. That leaves the recurrence as straight-line floating point arithmetic with no loop-carried
+ *     dependencies, which HotSpot's superword optimization turns into SIMD instructions. No native library is required.
+ * </p>
+ *
+ * <p>
+ *     Base priors are looked up without branching: for every read, the prior of each read position against each
+ *     of the bases A, C, G, T and N is precomputed, and the haplotype bases are translated into offsets into that
+ *     table. Reads or haplotypes with any other base fall back to comparing the bases directly.
+ * </p>
+ *
+ * <p>
+ *     Every cell is calculated with the same operations, in the same order, as {@link LoglessPairHMM}, so the
+ *     likelihoods are the same as LOGLESS_CACHING. Unlike that implementation it does not reuse the columns of a
+ *     common haplotype prefix; only the per-read values are cached between haplotypes.
+ * </p>
+ */
+public class JavaVectorLoglessPairHMM extends PairHMM {
+
+    protected static final double INITIAL_CONDITION = Math.pow(2, 1020);
+    protected static final double INITIAL_CONDITION_LOG10 = Math.log10(INITIAL_CONDITION);
+
+    // we divide e by 3 because the observed base could have come from any of the non-observed alleles
+    protected static final double TRISTATE_CORRECTION = 3.0;
+
+    private static final byte N = (byte) 'N';
+
+    /**
+     * Bases with a row in the prior table; N must be the last one.
+     */
+    private static final byte[] TABLE_BASES = { 'A', 'C', 'G', 'T', N };
+
+    /**
+     * Maps a base to its row in the prior table, or -1 if it does not have one.
+     */
+    private static final int[] BASE_TO_TABLE_ROW = new int[256];
+
+    static {
+        Arrays.fill(BASE_TO_TABLE_ROW, -1);
+        for (int row = 0; row < TABLE_BASES.length; row++)
+            BASE_TO_TABLE_ROW[TABLE_BASES[row] & 0xff] = row;
+    }
+
+    // Per read position transition probabilities, indexed like the rows of the matrix (1-based).
+    private double[] matchToMatchProb;
+    private double[] indelToMatchProb;
+    private double[] matchToInsertionProb;
+    private double[] insertionToInsertionProb;
+    private double[] matchToDeletionProb;
+    private double[] deletionToDeletionProb;
+
+    // Per read position prior of a base match and mismatch.
+    private double[] matchPrior;
+    private double[] mismatchPrior;
+
+    // Prior of each read position (1-based) given each of the TABLE_BASES; row r starts at r * paddedMaxReadLength.
+    private double[] priorTable;
+
+    // Whether all the bases of the current read have a row in the prior table.
+    private boolean readHasTableBases;
+
+    // Read bases (1-based), reversed haplotype bases and their offsets into the prior table.
+    private byte[] paddedReadBases;
+    private byte[] reversedHaplotypeBases;
+    private int[] reversedHaplotypeTableOffsets;
+
+    // Priors of the cells in the current anti-diagonal.
+    private double[] diagonalPrior;
+
+    // State arrays for the current anti-diagonal and the two previous ones.
+    private double[] match, insertion, deletion;
+    private double[] parentMatch, parentInsertion, parentDeletion;
+    private double[] grandparentMatch, grandparentInsertion, grandparentDeletion;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void initialize(final int readMaxLength, final int haplotypeMaxLength) {
+        super.initialize(readMaxLength, haplotypeMaxLength);
+
+        matchToMatchProb = new double[paddedMaxReadLength];
+        indelToMatchProb = new double[paddedMaxReadLength];
+        matchToInsertionProb = new double[paddedMaxReadLength];
+        insertionToInsertionProb = new double[paddedMaxReadLength];
+        matchToDeletionProb = new double[paddedMaxReadLength];
+        deletionToDeletionProb = new double[paddedMaxReadLength];
+
+        matchPrior = new double[paddedMaxReadLength];
+        mismatchPrior = new double[paddedMaxReadLength];
+        priorTable = new double[TABLE_BASES.length * paddedMaxReadLength];
+
+        paddedReadBases = new byte[paddedMaxReadLength];
+        reversedHaplotypeBases = new byte[paddedMaxHaplotypeLength];
+        reversedHaplotypeTableOffsets = new int[paddedMaxHaplotypeLength];
+
+        diagonalPrior = new double[paddedMaxReadLength];
+
+        match = new double[paddedMaxReadLength];
+        insertion = new double[paddedMaxReadLength];
+        deletion = new double[paddedMaxReadLength];
+        parentMatch = new double[paddedMaxReadLength];
+        parentInsertion = new double[paddedMaxReadLength];
+        parentDeletion = new double[paddedMaxReadLength];
+        grandparentMatch = new double[paddedMaxReadLength];
+        grandparentInsertion = new double[paddedMaxReadLength];
+        grandparentDeletion = new double[paddedMaxReadLength];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected double subComputeReadLikelihoodGivenHaplotypeLog10(final byte[] haplotypeBases,
+                                                                 final byte[] readBases,
+                                                                 final byte[] readQuals,
+                                                                 final byte[] insertionGOP,
+                                                                 final byte[] deletionGOP,
+                                                                 final byte[] overallGCP,
+                                                                 final int hapStartIndex,
+                                                                 final boolean recacheReadValues,
+                                                                 final int nextHapStartIndex) {
+        final int readLength = readBases.length;
+        final int haplotypeLength = haplotypeBases.length;
+
+        if (! constantsAreInitialized || recacheReadValues) {
+            initializeReadValues(readBases, readQuals, insertionGOP, deletionGOP, overallGCP);
+            constantsAreInitialized = true;
+        }
+
+        final boolean useTable = initializeHaplotypeValues(haplotypeBases) && readHasTableBases;
+
+        final double initialValue = INITIAL_CONDITION / haplotypeLength;
+
+        // anti-diagonal 0 is just the top-left corner; anti-diagonal 1 covers cells (0,1) and (1,0).
+        grandparentMatch[0] = 0.0;
+        grandparentInsertion[0] = 0.0;
+        grandparentDeletion[0] = initialValue;
+        parentMatch[0] = 0.0;
+        parentInsertion[0] = 0.0;
+        parentDeletion[0] = initialValue;
+        parentMatch[1] = 0.0;
+        parentInsertion[1] = 0.0;
+        parentDeletion[1] = 0.0;
+
+        double finalSumProbabilities = 0.0;
+        final int lastDiagonal = readLength + haplotypeLength;
+        for (int d = 2; d <= lastDiagonal; d++) {
+            final int fromRow = Math.max(1, d - haplotypeLength);
+            final int toRow = Math.min(readLength, d - 1);
+
+            // the haplotype base of row i on this anti-diagonal is at index (haplotypeLength - d + i) once reversed.
+            if (useTable)
+                updatePriorsFromTable(haplotypeLength - d, fromRow, toRow);
+            else
+                updatePriorsFromBases(haplotypeLength - d, fromRow, toRow);
+            updateDiagonal(fromRow, toRow);
+
+            // first row (free deletions at the start of the haplotype) and first column (nothing consumed from the haplotype).
+            match[0] = 0.0;
+            insertion[0] = 0.0;
+            deletion[0] = initialValue;
+            if (d <= readLength) {
+                match[d] = 0.0;
+                insertion[d] = 0.0;
+                deletion[d] = 0.0;
+            }
+
+            // the answer is the sum of the match and insertion states along the last row.
+            if (toRow == readLength)
+                finalSumProbabilities += match[readLength] + insertion[readLength];
+
+            rotateDiagonals();
+        }
+
+        return Math.log10(finalSumProbabilities) - INITIAL_CONDITION_LOG10;
+    }
+
+    /**
+     * Caches the values that only depend on the read.
+     */
+    private void initializeReadValues(final byte[] readBases, final byte[] readQuals, final byte[] insertionGOP,
+                                      final byte[] deletionGOP, final byte[] overallGCP) {
+        final double[] transition = new double[TRANS_PROB_ARRAY_LENGTH];
+        final double mismatchDenominator = doNotUseTristateCorrection ? 1.0 : TRISTATE_CORRECTION;
+        readHasTableBases = true;
+        for (int i = 0; i < readBases.length; i++) {
+            PairHMMModel.qualToTransProbs(transition, insertionGOP[i], deletionGOP[i], overallGCP[i]);
+            matchToMatchProb[i + 1] = transition[matchToMatch];
+            indelToMatchProb[i + 1] = transition[indelToMatch];
+            matchToInsertionProb[i + 1] = transition[matchToInsertion];
+            insertionToInsertionProb[i + 1] = transition[insertionToInsertion];
+            matchToDeletionProb[i + 1] = transition[matchToDeletion];
+            deletionToDeletionProb[i + 1] = transition[deletionToDeletion];
+
+            final byte x = readBases[i];
+            final double matchProb = QualityUtils.qualToProb(readQuals[i]);
+            final double mismatchProb = QualityUtils.qualToErrorProb(readQuals[i]) / mismatchDenominator;
+            matchPrior[i + 1] = matchProb;
+            mismatchPrior[i + 1] = mismatchProb;
+            paddedReadBases[i + 1] = x;
+
+            for (int row = 0; row < TABLE_BASES.length; row++) {
+                final byte y = TABLE_BASES[row];
+                priorTable[row * paddedMaxReadLength + i + 1] = x == y || x == N || y == N ? matchProb : mismatchProb;
+            }
+            readHasTableBases &= BASE_TO_TABLE_ROW[x & 0xff] >= 0;
+        }
+    }
+
+    /**
+     * Reverses the haplotype bases and translates them into offsets into the prior table.
+     *
+     * @return whether all the haplotype bases have a row in the prior table.
+     */
+    private boolean initializeHaplotypeValues(final byte[] haplotypeBases) {
+        final int haplotypeLength = haplotypeBases.length;
+        boolean result = true;
+        for (int k = 0; k < haplotypeLength; k++) {
+            final byte y = haplotypeBases[haplotypeLength - 1 - k];
+            final int row = BASE_TO_TABLE_ROW[y & 0xff];
+            reversedHaplotypeBases[k] = y;
+            reversedHaplotypeTableOffsets[k] = row * paddedMaxReadLength;
+            result &= row >= 0;
+        }
+        return result;
+    }
+
+    /**
+     * Computes the prior of every cell in the current anti-diagonal using the prior table.
+     *
+     * @param haplotypeOffset offset to add to the row to get the index of its haplotype base.
+     */
+    private void updatePriorsFromTable(final int haplotypeOffset, final int fromRow, final int toRow) {
+        final int[] tableOffsets = reversedHaplotypeTableOffsets;
+        final double[] table = priorTable;
+        final double[] prior = diagonalPrior;
+        for (int i = fromRow; i <= toRow; i++)
+            prior[i] = table[tableOffsets[haplotypeOffset + i] + i];
+    }
+
+    /**
+     * Computes the prior of every cell in the current anti-diagonal comparing the bases directly.
+     *
+     * @param haplotypeOffset offset to add to the row to get the index of its haplotype base.
+     */
+    private void updatePriorsFromBases(final int haplotypeOffset, final int fromRow, final int toRow) {
+        final byte[] read = paddedReadBases;
+        final byte[] haplotype = reversedHaplotypeBases;
+        final double[] prior = diagonalPrior;
+        for (int i = fromRow; i <= toRow; i++) {
+            final byte x = read[i];
+            final byte y = haplotype[haplotypeOffset + i];
+            prior[i] = x == y || x == N || y == N ? matchPrior[i] : mismatchPrior[i];
+        }
+    }
+
+    /**
+     * Fills in the match, insertion and deletion states of the current anti-diagonal.
+     */
+    private void updateDiagonal(final int fromRow, final int toRow) {
+        final double[] m = match, x = insertion, y = deletion;
+        final double[] pm = parentMatch, px = parentInsertion, py = parentDeletion;
+        final double[] gm = grandparentMatch, gx = grandparentInsertion, gy = grandparentDeletion;
+        final double[] prior = diagonalPrior;
+        final double[] mm = matchToMatchProb, im = indelToMatchProb;
+        final double[] mi = matchToInsertionProb, ii = insertionToInsertionProb;
+        final double[] md = matchToDeletionProb, dd = deletionToDeletionProb;
+        for (int i = fromRow; i <= toRow; i++) {
+            m[i] = prior[i] * (gm[i - 1] * mm[i] + gx[i - 1] * im[i] + gy[i - 1] * im[i]);
+            x[i] = pm[i - 1] * mi[i] + px[i - 1] * ii[i];
+            y[i] = pm[i] * md[i] + py[i] * dd[i];
+        }
+    }
+
+    /**
+     * Makes the current anti-diagonal the parent and the parent the grandparent, recycling the grandparent arrays.
+     */
+    private void rotateDiagonals() {
+        final double[] m = grandparentMatch, x = grandparentInsertion, y = grandparentDeletion;
+        grandparentMatch = parentMatch;
+        grandparentInsertion = parentInsertion;
+        grandparentDeletion = parentDeletion;
+        parentMatch = match;
+        parentInsertion = insertion;
+        parentDeletion = deletion;
+        match = m;
+        insertion = x;
+        deletion = y;
+    }
+}
@@ -70,8 +70,25 @@ public class LoglessPairHMM extends N2MemoryPairHMM {
     // we divide e by 3 because the observed base could have come from any of the non-observed alleles
     protected static final double TRISTATE_CORRECTION = 3.0;
 
+    // number of rows filled between two checks of whether the current computation can be pruned
+    private static final int PRUNING_CHECK_INTERVAL = 8;
+
+    // log10 of how much the probability mass in each row may at most grow until the last row, see initializeRowGrowthBounds
+    protected double[] log10RowGrowthBounds = null;
+
+    // whether the last computation left the matrices partially filled, so that nothing can be reused from them
+    private boolean matricesArePartial = false;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void initialize( final int readMaxLength, final int haplotypeMaxLength ) {
+        super.initialize(readMaxLength, haplotypeMaxLength);
+        log10RowGrowthBounds = new double[paddedMaxReadLength];
+        matricesArePartial = false;
+    }
 
-    
     /**
      * {@inheritDoc}
      */
@@ -96,16 +113,30 @@ public class LoglessPairHMM extends N2MemoryPairHMM {
 
         if ( ! constantsAreInitialized || recacheReadValues ) {
             initializeProbabilities(transition, insertionGOP, deletionGOP, overallGCP);
+            initializeRowGrowthBounds(readBases.length);
 
             // note that we initialized the constants
             constantsAreInitialized = true;
         }
 
-        initializePriors(haplotypeBases, readBases, readQuals, hapStartIndex);
+        final int readLength = readBases.length;
+        final int haplotypeLength = haplotypeBases.length;
+        if ( bandWidth > 0 && readStartInHaplotype != UNKNOWN_READ_START
+                && readStartInHaplotype + bandWidth >= 0 && readStartInHaplotype - bandWidth + readLength <= haplotypeLength ) {
+            matricesArePartial = true;
+            return computeBandedLikelihood(haplotypeBases, readBases, readQuals, readStartInHaplotype);
+        }
+
+        // nothing can be reused from a banded or pruned computation
+        final int startIndex = matricesArePartial ? 0 : hapStartIndex;
+        matricesArePartial = false;
 
+        initializePriors(haplotypeBases, readBases, readQuals, startIndex);
+
+        final boolean pruning = pruningLimitLog10 != Double.NEGATIVE_INFINITY;
         for (int i = 1; i < paddedReadLength; i++) {
             // +1 here is because hapStartIndex is 0-based, but our matrices are 1 based
-            for (int j = hapStartIndex+1; j < paddedHaplotypeLength; j++) {
+            for (int j = startIndex+1; j < paddedHaplotypeLength; j++) {
                 //Inlined the code from updateCell - helps JIT to detect hotspots and produce good native code
                 matchMatrix[i][j] = prior[i][j] * ( matchMatrix[i - 1][j - 1] * transition[i][matchToMatch] +
                         insertionMatrix[i - 1][j - 1] * transition[i][indelToMatch] +
@@ -113,6 +144,14 @@ public class LoglessPairHMM extends N2MemoryPairHMM {
                 insertionMatrix[i][j] = matchMatrix[i - 1][j] * transition[i][matchToInsertion] + insertionMatrix[i - 1][j] * transition[i][insertionToInsertion];
                 deletionMatrix[i][j] = matchMatrix[i][j - 1] * transition[i][matchToDeletion] + deletionMatrix[i][j - 1] * transition[i][deletionToDeletion];
             }
+            if ( pruning && i % PRUNING_CHECK_INTERVAL == 0 && i < readLength ) {
+                final double bound = likelihoodUpperBound(i, haplotypeLength);
+                if ( bound < pruningLimitLog10 ) {
+                    lastLikelihoodWasPruned = true;
+                    matricesArePartial = true;
+                    return bound;
+                }
+            }
         }
 
         // final probability is the log10 sum of the last element in the Match and Insertion state arrays
@@ -126,6 +165,106 @@ public class LoglessPairHMM extends N2MemoryPairHMM {
         return Math.log10(finalSumProbabilities) - INITIAL_CONDITION_LOG10;
     }
 
+    /**
+     * Computes the likelihood of a read considering only the alignments within a band of diagonals.
+     *
+     * <p>
+     *     Row {@code i} is only filled between columns {@code i + readStart - bandWidth} and {@code i + readStart + bandWidth};
+     *     the cells just outside the band are zeroed so that the recurrences see nothing from previous computations.
+     *     The caller must make sure that the band overlaps every row.
+     * </p>
+     *
+     * @param readStart 0-based offset in the haplotype where the read is expected to start.
+     */
+    private double computeBandedLikelihood(final byte[] haplotypeBases, final byte[] readBases, final byte[] readQuals, final int readStart) {
+        final int readLength = readBases.length;
+        final int haplotypeLength = haplotypeBases.length;
+        final boolean pruning = pruningLimitLog10 != Double.NEGATIVE_INFINITY;
+
+        double rowSum = 0.0;
+        for (int i = 1; i <= readLength; i++) {
+            final int jStart = Math.max(1, i + readStart - bandWidth);
+            final int jEnd = Math.min(haplotypeLength, i + readStart + bandWidth);
+            matchMatrix[i][jStart - 1] = insertionMatrix[i][jStart - 1] = deletionMatrix[i][jStart - 1] = 0.0;
+            if ( jEnd < haplotypeLength )
+                matchMatrix[i][jEnd + 1] = insertionMatrix[i][jEnd + 1] = deletionMatrix[i][jEnd + 1] = 0.0;
+
+            final byte x = readBases[i - 1];
+            final byte qual = readQuals[i - 1];
+            final double matchPrior = QualityUtils.qualToProb(qual);
+            final double mismatchPrior = QualityUtils.qualToErrorProb(qual) / (doNotUseTristateCorrection ? 1.0 : TRISTATE_CORRECTION);
+            final double[] rowTransition = transition[i];
+
+            rowSum = 0.0;
+            for (int j = jStart; j <= jEnd; j++) {
+                final byte y = haplotypeBases[j - 1];
+                final double p = x == y || x == (byte) 'N' || y == (byte) 'N' ? matchPrior : mismatchPrior;
+                matchMatrix[i][j] = p * ( matchMatrix[i - 1][j - 1] * rowTransition[matchToMatch] +
+                        insertionMatrix[i - 1][j - 1] * rowTransition[indelToMatch] +
+                        deletionMatrix[i - 1][j - 1] * rowTransition[indelToMatch] );
+                insertionMatrix[i][j] = matchMatrix[i - 1][j] * rowTransition[matchToInsertion] + insertionMatrix[i - 1][j] * rowTransition[insertionToInsertion];
+                deletionMatrix[i][j] = matchMatrix[i][j - 1] * rowTransition[matchToDeletion] + deletionMatrix[i][j - 1] * rowTransition[deletionToDeletion];
+                rowSum += matchMatrix[i][j] + insertionMatrix[i][j];
+            }
+
+            if ( pruning && i % PRUNING_CHECK_INTERVAL == 0 && i < readLength ) {
+                final double bound = Math.log10(rowSum) + log10RowGrowthBounds[i] - INITIAL_CONDITION_LOG10;
+                if ( bound < pruningLimitLog10 ) {
+                    lastLikelihoodWasPruned = true;
+                    return bound;
+                }
+            }
+        }
+
+        // as in the full computation, the likelihood is the sum of the match and insertion states of the last row
+        return Math.log10(rowSum) - INITIAL_CONDITION_LOG10;
+    }
+
+    /**
+     * Computes, for each row, the log10 of the largest factor by which the match and insertion probability mass of
+     * that row can grow until the last row.
+     *
+     * <p>
+     *     The mass entering row {@code i} comes from the match and insertion states of row {@code i - 1}, directly or
+     *     through the deletion states of that row. Since priors are at most 1 and deletions within a row form a
+     *     geometric series, it is at most the mass of row {@code i - 1} times
+     *     {@code max(1, mm(i) + mi(i) + md(i-1) * dm(i) / (1 - dd(i-1)), im(i) + ii(i))}, which is 1 for constant
+     *     gap penalties. Multiplying these factors gives an upper bound of the final likelihood from any row,
+     *     used to prune hopeless computations.
+     * </p>
+     *
+     * @param readLength the length of the read whose transition probabilities are in {@link #transition}.
+     */
+    private void initializeRowGrowthBounds(final int readLength) {
+        if ( log10RowGrowthBounds == null || log10RowGrowthBounds.length <= readLength )
+            log10RowGrowthBounds = new double[readLength + 1];
+        log10RowGrowthBounds[readLength] = 0.0;
+        for (int i = readLength; i > 1; i--) {
+            final double[] next = transition[i];
+            final double[] previous = transition[i - 1];
+            final double fromDeletions = previous[matchToDeletion] * next[indelToMatch] / (1.0 - previous[deletionToDeletion]);
+            final double fromMatch = next[matchToMatch] + next[matchToInsertion] + fromDeletions;
+            final double fromInsertion = next[indelToMatch] + next[insertionToInsertion];
+            final double growth = Math.max(1.0, Math.max(fromMatch, fromInsertion));
+            log10RowGrowthBounds[i - 1] = log10RowGrowthBounds[i] + Math.log10(growth);
+        }
+    }
+
+    /**
+     * Returns an upper bound of the log10 likelihood of the current computation given a filled row.
+     *
+     * @param row the last filled row.
+     * @param haplotypeLength the length of the haplotype, i.e. the last column of the row.
+     */
+    private double likelihoodUpperBound(final int row, final int haplotypeLength) {
+        final double[] matchRow = matchMatrix[row];
+        final double[] insertionRow = insertionMatrix[row];
+        double rowSum = 0.0;
+        for (int j = 1; j <= haplotypeLength; j++)
+            rowSum += matchRow[j] + insertionRow[j];
+        return Math.log10(rowSum) + log10RowGrowthBounds[row] - INITIAL_CONDITION_LOG10;
+    }
+
     /**
      * Initializes the matrix that holds all the constants related to the editing
      * distance between the read and the haplotype.
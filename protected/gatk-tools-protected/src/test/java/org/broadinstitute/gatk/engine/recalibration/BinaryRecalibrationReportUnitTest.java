@@ -0,0 +1,287 @@
+/*
+* By downloading the PROGRAM you agree to the following terms of use:
+* 
+* BROAD INSTITUTE
+* SOFTWARE LICENSE AGREEMENT
+* FOR ACADEMIC NON-COMMERCIAL RESEARCH PURPOSES ONLY
+* 
+* This Agreement is made between the Broad Institute, Inc. with a principal address at 415 Main Street, Cambridge, MA 02142 (“BROAD”) and the LICENSEE and is effective at the date the downloading is completed (“EFFECTIVE DATE”).
+* 
+* WHEREAS, LICENSEE desires to license the PROGRAM, as defined hereinafter, and BROAD wishes to have this PROGRAM utilized in the public interest, subject only to the royalty-free, nonexclusive, nontransferable license rights of the United States Government pursuant to 48 CFR 52.227-14; and
+* WHEREAS, LICENSEE desires to license the PROGRAM and BROAD desires to grant a license on the following terms and conditions.
+* NOW, THEREFORE, in consideration of the promises and covenants made herein, the parties hereto agree as follows:
+* 
+* 1. DEFINITIONS
+* 1.1 PROGRAM shall mean copyright in the object code and source code known as GATK3 and related documentation, if any, as they exist on the EFFECTIVE DATE and can be downloaded from http://www.broadinstitute.org/gatk on the EFFECTIVE DATE.
+* 
+* 2. LICENSE
+* 2.1 Grant. Subject to the terms of this Agreement, BROAD hereby grants to LICENSEE, solely for academic non-commercial research purposes, a non-exclusive, non-transferable license to: (a) download, execute and display the PROGRAM and (b) create bug fixes and modify the PROGRAM. LICENSEE hereby automatically grants to BROAD a non-exclusive, royalty-free, irrevocable license to any LICENSEE bug fixes or modifications to the PROGRAM with unlimited rights to sublicense and/or distribute.  LICENSEE agrees to provide any such modifications and bug fixes to BROAD promptly upon their creation.
+* The LICENSEE may apply the PROGRAM in a pipeline to data owned by users other than the LICENSEE and provide these users the results of the PROGRAM provided LICENSEE does so for academic non-commercial purposes only. For clarification purposes, academic sponsored research is not a commercial use under the terms of this Agreement.
+* 2.2 No Sublicensing or Additional Rights. LICENSEE shall not sublicense or distribute the PROGRAM, in whole or in part, without prior written permission from BROAD. LICENSEE shall ensure that all of its users agree to the terms of this Agreement. LICENSEE further agrees that it shall not put the PROGRAM on a network, server, or other similar technology that may be accessed by anyone other than the LICENSEE and its employees and users who have agreed to the terms of this agreement.
+* 2.3 License Limitations. Nothing in this Agreement shall be construed to confer any rights upon LICENSEE by implication, estoppel, or otherwise to any computer software, trademark, intellectual property, or patent rights of BROAD, or of any other entity, except as expressly granted herein. LICENSEE agrees that the PROGRAM, in whole or part, shall not be used for any commercial purpose, including without limitation, as the basis of a commercial software or hardware product or to provide services. LICENSEE further agrees that the PROGRAM shall not be copied or otherwise adapted in order to circumvent the need for obtaining a license for use of the PROGRAM.
+* 
+* 3. PHONE-HOME FEATURE
+* LICENSEE expressly acknowledges that the PROGRAM contains an embedded automatic reporting system (“PHONE-HOME”) which is enabled by default upon download. Unless LICENSEE requests disablement of PHONE-HOME, LICENSEE agrees that BROAD may collect limited information transmitted by PHONE-HOME regarding LICENSEE and its use of the PROGRAM.  Such information shall include LICENSEE’S user identification, version number of the PROGRAM and tools being run, mode of analysis employed, and any error reports generated during run-time.  Collection of such information is used by BROAD solely to monitor usage rates, fulfill reporting requirements to BROAD funding agencies, drive improvements to the PROGRAM, and facilitate adjustments to PROGRAM-related documentation.
+* 
+* 4. OWNERSHIP OF INTELLECTUAL PROPERTY
+* LICENSEE acknowledges that title to the PROGRAM shall remain with BROAD. The PROGRAM is marked with the following BROAD copyright notice and notice of attribution to contributors. LICENSEE shall retain such notice on all copies. LICENSEE agrees to include appropriate attribution if any results obtained from use of the PROGRAM are included in any publication.
+* Copyright 2012-2014 Broad Institute, Inc.
+* Notice of attribution: The GATK3 program was made available through the generosity of Medical and Population Genetics program at the Broad Institute, Inc.
+* LICENSEE shall not use any trademark or trade name of BROAD, or any variation, adaptation, or abbreviation, of such marks or trade names, or any names of officers, faculty, students, employees, or agents of BROAD except as states above for attribution purposes.
+* 
+* 5. INDEMNIFICATION
+* LICENSEE shall indemnify, defend, and hold harmless BROAD, and their respective officers, faculty, students, employees, associated investigators and agents, and their respective successors, heirs and assigns, (Indemnitees), against any liability, damage, loss, or expense (including reasonable attorneys fees and expenses) incurred by or imposed upon any of the Indemnitees in connection with any claims, suits, actions, demands or judgments arising out of any theory of liability (including, without limitation, actions in the form of tort, warranty, or strict liability and regardless of whether such action has any factual basis) pursuant to any right or license granted under this Agreement.
+* 
+* 6. NO REPRESENTATIONS OR WARRANTIES
+* THE PROGRAM IS DELIVERED AS IS. BROAD MAKES NO REPRESENTATIONS OR WARRANTIES OF ANY KIND CONCERNING THE PROGRAM OR THE COPYRIGHT, EXPRESS OR IMPLIED, INCLUDING, WITHOUT LIMITATION, WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NONINFRINGEMENT, OR THE ABSENCE OF LATENT OR OTHER DEFECTS, WHETHER OR NOT DISCOVERABLE. BROAD EXTENDS NO WARRANTIES OF ANY KIND AS TO PROGRAM CONFORMITY WITH WHATEVER USER MANUALS OR OTHER LITERATURE MAY BE ISSUED FROM TIME TO TIME.
+* IN NO EVENT SHALL BROAD OR ITS RESPECTIVE DIRECTORS, OFFICERS, EMPLOYEES, AFFILIATED INVESTIGATORS AND AFFILIATES BE LIABLE FOR INCIDENTAL OR CONSEQUENTIAL DAMAGES OF ANY KIND, INCLUDING, WITHOUT LIMITATION, ECONOMIC DAMAGES OR INJURY TO PROPERTY AND LOST PROFITS, REGARDLESS OF WHETHER BROAD SHALL BE ADVISED, SHALL HAVE OTHER REASON TO KNOW, OR IN FACT SHALL KNOW OF THE POSSIBILITY OF THE FOREGOING.
+* 
+* 7. ASSIGNMENT
+* This Agreement is personal to LICENSEE and any rights or obligations assigned by LICENSEE without the prior written consent of BROAD shall be null and void.
+* 
+* 8. MISCELLANEOUS
+* 8.1 Export Control. LICENSEE gives assurance that it will comply with all United States export control laws and regulations controlling the export of the PROGRAM, including, without limitation, all Export Administration Regulations of the United States Department of Commerce. Among other things, these laws and regulations prohibit, or require a license for, the export of certain types of software to specified countries.
+* 8.2 Termination. LICENSEE shall have the right to terminate this Agreement for any reason upon prior written notice to BROAD. If LICENSEE breaches any provision hereunder, and fails to cure such breach within thirty (30) days, BROAD may terminate this Agreement immediately. Upon termination, LICENSEE shall provide BROAD with written assurance that the original and all copies of the PROGRAM have been destroyed, except that, upon prior written authorization from BROAD, LICENSEE may retain a copy for archive purposes.
+* 8.3 Survival. The following provisions shall survive the expiration or termination of this Agreement: Articles 1, 3, 4, 5 and Sections 2.2, 2.3, 7.3, and 7.4.
+* 8.4 Notice. Any notices under this Agreement shall be in writing, shall specifically refer to this Agreement, and shall be sent by hand, recognized national overnight courier, confirmed facsimile transmission, confirmed electronic mail, or registered or certified mail, postage prepaid, return receipt requested. All notices under this Agreement shall be deemed effective upon receipt.
+* 8.5 Amendment and Waiver; Entire Agreement. This Agreement may be amended, supplemented, or otherwise modified only by means of a written instrument signed by all parties. Any waiver of any rights or failure to act in a specific instance shall relate only to such instance and shall not be construed as an agreement to waive any rights or fail to act in any other instance, whether or not similar. This Agreement constitutes the entire agreement among the parties with respect to its subject matter and supersedes prior agreements or understandings between the parties relating to its subject matter.
+* 8.6 Binding Effect; Headings. This Agreement shall be binding upon and inure to the benefit of the parties and their respective permitted successors and assigns. All headings are for convenience only and shall not affect the meaning of any provision of this Agreement.
+* 8.7 Governing Law. This Agreement shall be construed, governed, interpreted and applied in accordance with the internal laws of the Commonwealth of Massachusetts, U.S.A., without regard to conflict of laws principles.
+*/
+
+package org.broadinstitute.gatk.engine.recalibration;
+
+import org.broadinstitute.gatk.engine.recalibration.covariates.Covariate;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.collections.NestedIntegerArray;
+import org.broadinstitute.gatk.utils.recalibration.EventType;
+import org.broadinstitute.gatk.utils.report.GATKReport;
+import org.broadinstitute.gatk.utils.sam.GATKSAMReadGroupRecord;
+import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
+import org.broadinstitute.gatk.utils.sam.ReadUtils;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.*;
+import java.util.*;
+
+public class BinaryRecalibrationReportUnitTest extends BaseTest {
+    private static final int READ_LENGTH = 50;
+
+    @BeforeMethod
+    public void init() {
+        ReadCovariates.clearKeysCache();
+    }
+
+    /**
+     * The recalibration tables of one BaseRecalibrator run, with the covariates that made them
+     */
+    private static class Shard {
+        final Covariate[] covariates = RecalibrationTestUtils.makeInitializedStandardCovariates();
+        final RecalibrationTables tables;
+
+        /**
+         * Makes the tables of a run over nReads random reads of each of readGroups
+         */
+        Shard(final Random random, final List<String> readGroups, final int nReads) {
+            final List<GATKSAMRecord> reads = new ArrayList<GATKSAMRecord>();
+            for ( final String readGroupId : readGroups ) {
+                final GATKSAMReadGroupRecord readGroup = new GATKSAMReadGroupRecord(readGroupId);
+                readGroup.setPlatform("illumina");
+                for ( int i = 0; i < nReads; i++ ) {
+                    final GATKSAMRecord read = ReadUtils.createRandomRead(READ_LENGTH, false);
+                    read.setReadGroup(readGroup);
+                    read.setReadNegativeStrandFlag(random.nextBoolean());
+                    final byte[] quals = new byte[READ_LENGTH];
+                    for ( int j = 0; j < READ_LENGTH; j++ )
+                        quals[j] = (byte)(5 + random.nextInt(36));
+                    read.setBaseQualities(quals);
+                    reads.add(read);
+                }
+            }
+            // shuffle the reads, so that the shards see their read groups, and so give them keys, in different orders
+            Collections.shuffle(reads, random);
+
+            // the read group covariate has to know all of the read groups before the tables are sized, and the
+            // keys of a ReadCovariates are shared by every read of the same length, so they're computed twice
+            for ( final GATKSAMRecord read : reads )
+                RecalUtils.computeCovariates(read, covariates);
+            tables = new RecalibrationTables(covariates);
+
+            for ( final GATKSAMRecord read : reads ) {
+                final ReadCovariates readCovariates = RecalUtils.computeCovariates(read, covariates);
+                for ( final EventType errorModel : EventType.values() ) {
+                    final byte[] quals = read.getBaseQualities(errorModel);
+                    for ( int offset = 0; offset < READ_LENGTH; offset++ ) {
+                        final int[] keys = readCovariates.getKeySet(offset, errorModel);
+                        final double isError = random.nextInt(20) == 0 ? 1.0 : 0.0;
+                        final RecalDatum readGroupDatum = tables.getReadGroupTable().get(keys[0], errorModel.ordinal());
+                        if ( readGroupDatum == null )
+                            tables.getReadGroupTable().put(new RecalDatum(1, isError, quals[offset]), keys[0], errorModel.ordinal());
+                        else
+                            readGroupDatum.combine(new RecalDatum(1, isError, quals[offset]));
+                        RecalUtils.incrementDatumOrPutIfNecessary(tables.getQualityScoreTable(), quals[offset], isError, keys[0], keys[1], errorModel.ordinal());
+                        for ( int i = RecalibrationTables.TableType.OPTIONAL_COVARIATE_TABLES_START.ordinal(); i < covariates.length; i++ )
+                            if ( keys[i] >= 0 )
+                                RecalUtils.incrementDatumOrPutIfNecessary(tables.getTable(i), quals[offset], isError, keys[0], keys[1], keys[i], errorModel.ordinal());
+                    }
+                }
+            }
+        }
+
+        File writeBinaryReport() throws IOException {
+            final File file = createTempFile("binaryRecalReport", ".bin");
+            final OutputStream out = new FileOutputStream(file);
+            final RecalibrationArgumentCollection RAC = new RecalibrationArgumentCollection();
+            BinaryRecalibrationReport.write(out, RAC.generateReportTable(RecalUtils.covariateNames(covariates)),
+                    new QuantizationInfo(tables, RAC.QUANTIZING_LEVELS), tables, covariates);
+            out.close();
+            return file;
+        }
+    }
+
+    /**
+     * Checks that two sets of recalibration tables have the same datums for the same read groups and keys
+     */
+    private static void assertEqualTables(final RecalibrationTables actual, final Covariate actualReadGroups,
+                                          final RecalibrationTables expected, final Covariate expectedReadGroups, final double tolerance) {
+        Assert.assertEquals(actual.numTables(), expected.numTables());
+        for ( int tableIndex = 0; tableIndex < expected.numTables(); tableIndex++ ) {
+            final List<NestedIntegerArray.Leaf<RecalDatum>> expectedLeaves = expected.getTable(tableIndex).getAllLeaves();
+            Assert.assertEquals(actual.getTable(tableIndex).getAllLeaves().size(), expectedLeaves.size(), "Wrong number of datums in table " + tableIndex);
+            for ( final NestedIntegerArray.Leaf<RecalDatum> leaf : expectedLeaves ) {
+                final int[] keys = leaf.keys.clone();
+                keys[0] = actualReadGroups.keyFromValue(expectedReadGroups.formatKey(leaf.keys[0]));
+                final RecalDatum datum = actual.getTable(tableIndex).get(keys);
+                Assert.assertNotNull(datum, "Missing datum " + Arrays.toString(leaf.keys) + " in table " + tableIndex);
+                Assert.assertEquals(datum.getNumObservations(), leaf.value.getNumObservations());
+                Assert.assertEquals(datum.getNumMismatches(), leaf.value.getNumMismatches(), tolerance);
+                Assert.assertEquals(datum.getEstimatedQReported(), leaf.value.getEstimatedQReported(), tolerance);
+            }
+        }
+    }
+
+    private static long sum(final List<Long> counts) {
+        long sum = 0;
+        for ( final long count : counts )
+            sum += count;
+        return sum;
+    }
+
+    private static String printReport(final GATKReport report) {
+        final ByteArrayOutputStream text = new ByteArrayOutputStream();
+        final PrintStream out = new PrintStream(text);
+        report.print(out);
+        out.close();
+        return text.toString();
+    }
+
+    /**
+     * Makes nShards shards, each with a few of the read groups rg0 .. rg4, the first of them without data
+     */
+    private static List<File> makeBinaryReports(final Random random, final int nShards) throws IOException {
+        final List<File> reports = new ArrayList<File>();
+        reports.add(new Shard(random, Collections.<String>emptyList(), 0).writeBinaryReport());
+        for ( int i = 1; i < nShards; i++ ) {
+            final List<String> readGroups = new ArrayList<String>();
+            for ( int rg = 0; rg < 5; rg++ )
+                if ( random.nextInt(3) == 0 )
+                    readGroups.add("rg" + rg);
+            if ( readGroups.isEmpty() )
+                readGroups.add("rg" + random.nextInt(5));
+            reports.add(new Shard(random, readGroups, 1 + random.nextInt(5)).writeBinaryReport());
+        }
+        return reports;
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        final Shard shard = new Shard(new Random(1), Arrays.asList("rgB", "rgC", "rgA"), 10);
+        final File file = shard.writeBinaryReport();
+        Assert.assertTrue(BinaryRecalibrationReport.isBinaryReport(file));
+        Assert.assertEquals(RecalibrationReport.getReadGroups(file), new TreeSet<String>(Arrays.asList("rgA", "rgB", "rgC")));
+
+        final RecalibrationReport report = new RecalibrationReport(file);
+        Assert.assertFalse(report.isEmpty());
+        assertEqualTables(report.getRecalibrationTables(), report.getRequestedCovariates()[0], shard.tables, shard.covariates[0], 0.0);
+        Assert.assertEquals(report.getQuantizationInfo().getQuantizedQuals(), new QuantizationInfo(shard.tables, report.getRAC().QUANTIZING_LEVELS).getQuantizedQuals());
+        Assert.assertEquals(RecalUtils.covariateNames(report.getRequestedCovariates()), RecalUtils.covariateNames(shard.covariates));
+    }
+
+    @Test
+    public void testGATKReportIsNotBinary() throws IOException {
+        final File file = createTempFile("textRecalReport", ".table");
+        final PrintStream out = new PrintStream(file);
+        new GATKReport(new RecalibrationArgumentCollection().generateReportTable("ReadGroupCovariate")).print(out);
+        out.close();
+        Assert.assertFalse(BinaryRecalibrationReport.isBinaryReport(file));
+    }
+
+    @DataProvider(name = "MergeData")
+    public Object[][] makeMergeData() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        for ( final int nShards : Arrays.asList(1, 2, 7, 20) )
+            for ( final int maxFanIn : Arrays.asList(2, 3, 128) )
+                tests.add(new Object[]{nShards, maxFanIn});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "MergeData")
+    public void testMerge(final int nShards, final int maxFanIn) throws IOException {
+        final List<File> inputs = makeBinaryReports(new Random(nShards * 31 + maxFanIn), nShards);
+
+        // combine the reports the way the GATKReport reports have always been gathered
+        final SortedSet<String> allReadGroups = new TreeSet<String>();
+        for ( final File input : inputs )
+            allReadGroups.addAll(RecalibrationReport.getReadGroups(input));
+        RecalibrationReport expected = null;
+        for ( final File input : inputs ) {
+            final RecalibrationReport report = new RecalibrationReport(input, allReadGroups);
+            if ( report.isEmpty() )
+                continue;
+            if ( expected == null )
+                expected = report;
+            else
+                expected.combine(report);
+        }
+
+        final File output = createTempFile("mergedRecalReport", ".bin");
+        Assert.assertEquals(BinaryRecalibrationReport.merge(inputs, output, maxFanIn), expected != null);
+        if ( expected == null )
+            return;
+        expected.calculateQuantizedQualities();
+
+        // merging as a tree adds up the errors in a different order
+        final double tolerance = maxFanIn >= nShards ? 0.0 : 1e-8;
+        final RecalibrationReport merged = new RecalibrationReport(output);
+        assertEqualTables(merged.getRecalibrationTables(), merged.getRequestedCovariates()[0], expected.getRecalibrationTables(), expected.getRequestedCovariates()[0], tolerance);
+        if ( tolerance == 0.0 ) {
+            Assert.assertEquals(merged.getQuantizationInfo().getQuantizedQuals(), expected.getQuantizationInfo().getQuantizedQuals());
+            Assert.assertEquals(merged.getQuantizationInfo().getEmpiricalQualCounts(), expected.getQuantizationInfo().getEmpiricalQualCounts());
+        } else {
+            // the empirical quality is the most likely integer Q, so the last bit of a tie can move a datum to a neighbouring bin
+            Assert.assertEquals(sum(merged.getQuantizationInfo().getEmpiricalQualCounts()), sum(expected.getQuantizationInfo().getEmpiricalQualCounts()));
+        }
+    }
+
+    @Test
+    public void testMergeEmptyReports() throws IOException {
+        final List<File> inputs = Arrays.asList(new Shard(new Random(2), Collections.<String>emptyList(), 0).writeBinaryReport(),
+                new Shard(new Random(3), Collections.<String>emptyList(), 0).writeBinaryReport());
+        final File output = createTempFile("mergedRecalReport", ".bin");
+        Assert.assertFalse(BinaryRecalibrationReport.merge(inputs, output, 2));
+        Assert.assertTrue(new RecalibrationReport(output).isEmpty());
+    }
+
+    @Test
+    public void testGatherBinaryReports() throws IOException {
+        final List<File> inputs = makeBinaryReports(new Random(4), 6);
+        final File output = createTempFile("gatheredRecalReport", ".bin");
+        new BQSRGatherer().gather(inputs, output);
+
+        Assert.assertTrue(BinaryRecalibrationReport.isBinaryReport(output));
+        Assert.assertEquals(printReport(new RecalibrationReport(output).createGATKReport()), printReport(BQSRGatherer.gatherReport(inputs)));
+    }
+}
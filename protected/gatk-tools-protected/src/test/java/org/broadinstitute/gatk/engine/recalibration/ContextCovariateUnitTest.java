@@ -53,6 +53,7 @@ package org.broadinstitute.gatk.engine.recalibration;
 
 import org.broadinstitute.gatk.engine.recalibration.covariates.ContextCovariate;
 import org.broadinstitute.gatk.engine.recalibration.covariates.Covariate;
+import org.broadinstitute.gatk.utils.BaseUtils;
 import org.broadinstitute.gatk.utils.clipping.ClippingRepresentation;
 import org.broadinstitute.gatk.utils.clipping.ReadClipper;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
@@ -60,8 +61,13 @@ import org.broadinstitute.gatk.utils.sam.ReadUtils;
 import org.testng.Assert;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
 /**
  * @author Mauricio Carneiro
  * @since 3/1/12
@@ -94,6 +100,78 @@ public class ContextCovariateUnitTest {
         verifyCovariateArray(readCovariates.getDeletionsKeySet(),  RAC.INDELS_CONTEXT_SIZE,  clippedRead, covariate);
     }
 
+    @DataProvider(name = "StrandedContextsTest")
+    public Object[][] makeStrandedContextsTest() {
+        final List<Object[]> tests = new LinkedList<Object[]>();
+
+        for ( final int readLength : Arrays.asList(1, 2, 3, 4, 10, 100) ) {
+            for ( final boolean negativeStrand : Arrays.asList(false, true) ) {
+                for ( final boolean allowNs : Arrays.asList(false, true) ) {
+                    for ( final int lowQualTailLength : Arrays.asList(0, 1, 5, readLength) ) {
+                        tests.add(new Object[]{readLength, negativeStrand, allowNs, lowQualTailLength});
+                    }
+                }
+            }
+        }
+
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "StrandedContextsTest")
+    public void testStrandedContexts(final int readLength, final boolean negativeStrand, final boolean allowNs, final int lowQualTailLength) {
+        final GATKSAMRecord read = ReadUtils.createRandomRead(readLength, allowNs);
+        read.setReadNegativeStrandFlag(negativeStrand);
+        final byte[] quals = read.getBaseQualities();
+        for ( int i = 0; i < quals.length; i++ ) {
+            // make sure no qual is low by chance, then put low quals on both tails of the read
+            quals[i] = i < lowQualTailLength || i >= readLength - lowQualTailLength / 2 ? RAC.LOW_QUAL_TAIL : (byte)(RAC.LOW_QUAL_TAIL + 10);
+        }
+        read.setBaseQualities(quals);
+        final String originalBases = read.getReadString();
+
+        final ReadCovariates readCovariates = new ReadCovariates(read.getReadLength(), 1);
+        covariate.recordValues(read, readCovariates);
+
+        Assert.assertEquals(read.getReadString(), originalBases, "Computing the contexts shouldn't change the read");
+        Assert.assertEquals(readCovariates.getMismatchesKeySet(), expectedKeys(read, RAC.MISMATCHES_CONTEXT_SIZE));
+        Assert.assertEquals(readCovariates.getInsertionsKeySet(), expectedKeys(read, RAC.INDELS_CONTEXT_SIZE));
+        Assert.assertEquals(readCovariates.getDeletionsKeySet(), expectedKeys(read, RAC.INDELS_CONTEXT_SIZE));
+    }
+
+    /**
+     * Computes the context keys of read the slow way, for the sequenced strand of the read and its low qual tails as Ns
+     */
+    private int[][] expectedKeys(final GATKSAMRecord read, final int contextSize) {
+        final int readLength = read.getReadLength();
+        final int[][] keys = new int[readLength][1];
+
+        final byte[] bases = read.getReadBases().clone();
+        final byte[] quals = read.getBaseQualities();
+        int firstGoodBase = 0;
+        while ( firstGoodBase < readLength && quals[firstGoodBase] <= RAC.LOW_QUAL_TAIL ) firstGoodBase++;
+        if ( firstGoodBase == readLength )
+            return keys; // the whole read is low quality tail, so all of its keys are 0
+        int lastGoodBase = readLength - 1;
+        while ( quals[lastGoodBase] <= RAC.LOW_QUAL_TAIL ) lastGoodBase--;
+        for ( int i = 0; i < readLength; i++ ) {
+            if ( i < firstGoodBase || i > lastGoodBase )
+                bases[i] = 'N';
+        }
+
+        final String strandedBases = stringFrom(read.getReadNegativeStrandFlag() ? BaseUtils.simpleReverseComplement(bases) : bases);
+        for ( int i = 0; i < readLength; i++ ) {
+            final int readOffset = read.getReadNegativeStrandFlag() ? readLength - i - 1 : i;
+            keys[readOffset][0] = -1;
+            if ( i - contextSize + 1 >= 0 ) {
+                final String context = strandedBases.substring(i - contextSize + 1, i + 1);
+                if ( ! context.contains("N") )
+                    keys[readOffset][0] = ContextCovariate.keyFromContext(context);
+            }
+        }
+
+        return keys;
+    }
+
     public static void verifyCovariateArray(int[][] values, int contextSize, GATKSAMRecord read, Covariate contextCovariate) {
         for (int i = 0; i < values.length; i++)
             Assert.assertEquals(contextCovariate.formatKey(values[i][0]), expectedContext(read, i, contextSize));
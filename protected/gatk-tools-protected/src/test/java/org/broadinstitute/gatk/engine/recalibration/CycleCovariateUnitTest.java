@@ -59,8 +59,13 @@ import org.broadinstitute.gatk.utils.sam.ReadUtils;
 import org.testng.Assert;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
 /**
  * @author Mauricio Carneiro
  * @since 3/1/12
@@ -106,6 +111,52 @@ public class CycleCovariateUnitTest {
         verifyCovariateArray(readCovariates.getMismatchesKeySet(), -1, -1);
     }
 
+    @DataProvider(name = "DiscreteCyclesTest")
+    public Object[][] makeDiscreteCyclesTest() {
+        final List<Object[]> tests = new LinkedList<Object[]>();
+
+        for ( final int readLength : Arrays.asList(1, 4, 5, 8, 9, 10, 100) ) {
+            for ( final boolean negativeStrand : Arrays.asList(false, true) ) {
+                for ( final boolean secondOfPair : Arrays.asList(false, true) ) {
+                    for ( final boolean useDefaultPlatform : Arrays.asList(false, true) ) {
+                        tests.add(new Object[]{readLength, negativeStrand, secondOfPair, useDefaultPlatform});
+                    }
+                }
+            }
+        }
+
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "DiscreteCyclesTest")
+    public void testDiscreteCycles(final int readLength, final boolean negativeStrand, final boolean secondOfPair, final boolean useDefaultPlatform) {
+        final GATKSAMRecord read = ReadUtils.createRandomRead(readLength);
+        read.setReadPairedFlag(true);
+        read.setReadNegativeStrandFlag(negativeStrand);
+        read.setSecondOfPairFlag(secondOfPair);
+        read.setReadGroup(new GATKSAMReadGroupRecord("MY.ID"));
+
+        final CycleCovariate cycleCovariate = new CycleCovariate();
+        final RecalibrationArgumentCollection cycleRAC = new RecalibrationArgumentCollection();
+        if ( useDefaultPlatform )
+            cycleRAC.DEFAULT_PLATFORM = "illumina";
+        else
+            read.getReadGroup().setPlatform("illumina");
+        cycleCovariate.initialize(cycleRAC);
+
+        final ReadCovariates readCovariates = new ReadCovariates(readLength, 1);
+        cycleCovariate.recordValues(read, readCovariates);
+
+        for ( int i = 0; i < readLength; i++ ) {
+            final int cycle = (negativeStrand ? readLength - i : i + 1) * (secondOfPair ? -1 : 1);
+            final int substitutionKey = cycleCovariate.keyFromValue(cycle);
+            final int indelKey = i < CycleCovariate.CUSHION_FOR_INDELS || i >= readLength - CycleCovariate.CUSHION_FOR_INDELS ? -1 : substitutionKey;
+            Assert.assertEquals(readCovariates.getMismatchesKeySet(i)[0], substitutionKey, "mismatch key at offset " + i);
+            Assert.assertEquals(readCovariates.getInsertionsKeySet(i)[0], indelKey, "insertion key at offset " + i);
+            Assert.assertEquals(readCovariates.getDeletionsKeySet(i)[0], indelKey, "deletion key at offset " + i);
+        }
+    }
+
     private void verifyCovariateArray(int[][] values, int init, int increment) {
         for (short i = 0; i < values.length; i++) {
             short actual = Short.decode(covariate.formatKey(values[i][0]));
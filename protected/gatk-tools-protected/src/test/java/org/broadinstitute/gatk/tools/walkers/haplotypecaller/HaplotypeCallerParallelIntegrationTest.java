@@ -84,4 +84,26 @@ public class HaplotypeCallerParallelIntegrationTest extends WalkerTest {
                 Arrays.asList(md5));
         executeTest("HC test parallel HC with NCT with nct " + nct, spec);
     }
+
+    @DataProvider(name = "LikelihoodBatchDataProvider")
+    public Object[][] makeLikelihoodBatchDataProvider() {
+        List<Object[]> tests = new ArrayList<>();
+
+        // batched likelihoods must give the same calls as the unbatched run of the NCT tests
+        for ( final int numLikelihoodThreads : Arrays.asList(0, 2) ) {
+            tests.add(new Object[]{numLikelihoodThreads, "8bcf149228e8845915733d6fd889a141"});
+        }
+
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "LikelihoodBatchDataProvider")
+    public void testHCLikelihoodBatch(final int numLikelihoodThreads, final String md5) {
+        WalkerTestSpec spec = new WalkerTestSpec(
+                "-T HaplotypeCaller --pcr_indel_model NONE -pairHMMSub " + HMM_SUB_IMPLEMENTATION + " " + ALWAYS_LOAD_VECTOR_HMM + " -R " + b37KGReference + " --no_cmdline_in_header -I "
+                        + privateTestDir + "PCRFree.2x250.Illumina.20_10_11.bam -o %s " +
+                        " -L 20:10,000,000-10,100,000 -G none -A none -contamination 0.0 -likelihoodBatchSize 4 -numLikelihoodThreads " + numLikelihoodThreads, 1,
+                Arrays.asList(md5));
+        executeTest("HC test batched likelihoods with numLikelihoodThreads " + numLikelihoodThreads, spec);
+    }
 }
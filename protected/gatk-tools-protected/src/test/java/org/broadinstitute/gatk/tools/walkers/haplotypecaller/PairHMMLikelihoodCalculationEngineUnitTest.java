@@ -58,11 +58,21 @@ package org.broadinstitute.gatk.tools.walkers.haplotypecaller;
  */
 
 import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.GenomeLocParser;
 import org.broadinstitute.gatk.utils.MathUtils;
 import org.broadinstitute.gatk.utils.Utils;
+import org.broadinstitute.gatk.utils.genotyper.ReadLikelihoods;
+import org.broadinstitute.gatk.utils.genotyper.SampleListUtils;
+import org.broadinstitute.gatk.utils.haplotype.Haplotype;
 import org.broadinstitute.gatk.utils.pairhmm.PairHMM;
+import org.broadinstitute.gatk.utils.pairhmm.PairHMMLikelihoodCache;
+import org.broadinstitute.gatk.utils.sam.ArtificialSAMUtils;
+import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
 import org.broadinstitute.gatk.engine.recalibration.covariates.RepeatCovariate;
 import org.broadinstitute.gatk.engine.recalibration.covariates.RepeatLengthCovariate;
+import htsjdk.samtools.Cigar;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.TextCigarCodec;
 import htsjdk.variant.variantcontext.*;
 import org.testng.Assert;
 import org.testng.annotations.BeforeSuite;
@@ -162,6 +172,190 @@ public class PairHMMLikelihoodCalculationEngineUnitTest extends BaseTest {
         }
     }
 
+    @DataProvider(name = "LikelihoodCacheTestProvider")
+    public Object[][] createLikelihoodCacheTestData() {
+        final List<Object[]> tests = new ArrayList<>();
+        for ( final PairHMM.HMM_IMPLEMENTATION hmmType : Arrays.asList(PairHMM.HMM_IMPLEMENTATION.ORIGINAL,
+                PairHMM.HMM_IMPLEMENTATION.LOGLESS_CACHING, PairHMM.HMM_IMPLEMENTATION.ARRAY_LOGLESS,
+                PairHMM.HMM_IMPLEMENTATION.JAVA_VECTOR_LOGLESS) )
+            for ( final String variation : Arrays.asList("*1T*", "*3Iacg*", "*1T*3D*") )
+                tests.add(new Object[]{hmmType, variation});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "LikelihoodCacheTestProvider")
+    public void testLikelihoodCacheMatchesUncachedLikelihoods(final PairHMM.HMM_IMPLEMENTATION hmmType, final String variation) {
+        final ActiveRegionTestDataSet dataSet = ActiveRegionTestDataSetUnitTest.createActiveRegionTestDataSet(10, 50, variation, 40, 100, (byte) 20, (byte) 35, (byte) 35);
+        dataSet.introduceErrors(new Random(13));
+        final List<GATKSAMRecord> reads = dataSet.readList();
+        final Map<String, List<GATKSAMRecord>> perSampleReads = Collections.singletonMap("anonymous", reads);
+
+        final PairHMMLikelihoodCalculationEngine uncachedEngine = new PairHMMLikelihoodCalculationEngine((byte) 10,
+                hmmType, PairHMM.HMM_SUB_IMPLEMENTATION.UNVECTORIZED, false, -3, true, PairHMMLikelihoodCalculationEngine.PCR_ERROR_MODEL.NONE);
+        final PairHMMLikelihoodCalculationEngine cachedEngine = new PairHMMLikelihoodCalculationEngine((byte) 10,
+                hmmType, PairHMM.HMM_SUB_IMPLEMENTATION.UNVECTORIZED, false, -3, true, PairHMMLikelihoodCalculationEngine.PCR_ERROR_MODEL.NONE, 100000);
+        Assert.assertNull(uncachedEngine.getLikelihoodCache());
+        final PairHMMLikelihoodCache cache = cachedEngine.getLikelihoodCache();
+
+        final ReadLikelihoods<Haplotype> expected = uncachedEngine.computeReadLikelihoods(dataSet.assemblyResultSet(), SampleListUtils.singletonList("anonymous"), perSampleReads);
+
+        // the first half of the reads go first, so that the second pass mixes cached and non-cached reads.
+        final List<GATKSAMRecord> firstHalf = reads.subList(0, reads.size() / 2);
+        cachedEngine.computeReadLikelihoods(dataSet.assemblyResultSet(), SampleListUtils.singletonList("anonymous"), Collections.singletonMap("anonymous", firstHalf));
+        Assert.assertEquals(cache.getHitCount(), 0);
+
+        final ReadLikelihoods<Haplotype> actual = cachedEngine.computeReadLikelihoods(dataSet.assemblyResultSet(), SampleListUtils.singletonList("anonymous"), perSampleReads);
+        Assert.assertTrue(cache.getHitCount() >= firstHalf.size(), "expected the reads of the first pass to be served from the cache: " + cache);
+        assertEqualLikelihoods(actual, expected);
+
+        final long hitCount = cache.getHitCount();
+        final ReadLikelihoods<Haplotype> allCached = cachedEngine.computeReadLikelihoods(dataSet.assemblyResultSet(), SampleListUtils.singletonList("anonymous"), perSampleReads);
+        Assert.assertEquals(cache.getHitCount() - hitCount, reads.size());
+        assertEqualLikelihoods(allCached, expected);
+    }
+
+    @DataProvider(name = "BandingAndPruningTestProvider")
+    public Object[][] createBandingAndPruningTestData() {
+        final List<Object[]> tests = new ArrayList<>();
+        for ( final String variation : Arrays.asList("*1T*", "*3Iacg*", "*1T*3D*", "*2D*5T*") )
+            tests.add(new Object[]{variation});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "BandingAndPruningTestProvider")
+    public void testPruningDoesNotChangeCappedLikelihoods(final String variation) {
+        final ActiveRegionTestDataSet dataSet = ActiveRegionTestDataSetUnitTest.createActiveRegionTestDataSet(10, 100, variation, 60, 300, (byte) 20, (byte) 35, (byte) 35);
+        dataSet.introduceErrors(new Random(13));
+        final Map<String, List<GATKSAMRecord>> perSampleReads = Collections.singletonMap("anonymous", dataSet.readList());
+
+        // pruned haplotypes end further below the best one than the mismapping rate cap, so they get capped all the same
+        final PairHMMLikelihoodCalculationEngine fullEngine = new PairHMMLikelihoodCalculationEngine((byte) 10,
+                PairHMM.HMM_IMPLEMENTATION.LOGLESS_CACHING, PairHMM.HMM_SUB_IMPLEMENTATION.UNVECTORIZED, false, -4.5, true, PairHMMLikelihoodCalculationEngine.PCR_ERROR_MODEL.NONE);
+        final PairHMMLikelihoodCalculationEngine prunedEngine = new PairHMMLikelihoodCalculationEngine((byte) 10,
+                PairHMM.HMM_IMPLEMENTATION.LOGLESS_CACHING, PairHMM.HMM_SUB_IMPLEMENTATION.UNVECTORIZED, false, -4.5, true, PairHMMLikelihoodCalculationEngine.PCR_ERROR_MODEL.NONE, 0, 0, 4.5);
+
+        final ReadLikelihoods<Haplotype> expected = fullEngine.computeReadLikelihoods(dataSet.assemblyResultSet(), SampleListUtils.singletonList("anonymous"), perSampleReads);
+        final ReadLikelihoods<Haplotype> actual = prunedEngine.computeReadLikelihoods(dataSet.assemblyResultSet(), SampleListUtils.singletonList("anonymous"), perSampleReads);
+        assertEqualLikelihoods(actual, expected);
+    }
+
+    @Test(dataProvider = "BandingAndPruningTestProvider")
+    public void testBandedLikelihoodsConcordance(final String variation) {
+        final ActiveRegionTestDataSet dataSet = ActiveRegionTestDataSetUnitTest.createActiveRegionTestDataSet(10, 100, variation, 60, 300, (byte) 20, (byte) 35, (byte) 35);
+        dataSet.introduceErrors(new Random(17));
+        final Map<String, List<GATKSAMRecord>> perSampleReads = Collections.singletonMap("anonymous", dataSet.readList());
+
+        final PairHMMLikelihoodCalculationEngine fullEngine = new PairHMMLikelihoodCalculationEngine((byte) 10,
+                PairHMM.HMM_IMPLEMENTATION.LOGLESS_CACHING, PairHMM.HMM_SUB_IMPLEMENTATION.UNVECTORIZED, false, -4.5, true, PairHMMLikelihoodCalculationEngine.PCR_ERROR_MODEL.NONE);
+        final PairHMMLikelihoodCalculationEngine bandedEngine = new PairHMMLikelihoodCalculationEngine((byte) 10,
+                PairHMM.HMM_IMPLEMENTATION.LOGLESS_CACHING, PairHMM.HMM_SUB_IMPLEMENTATION.UNVECTORIZED, false, -4.5, true, PairHMMLikelihoodCalculationEngine.PCR_ERROR_MODEL.NONE, 0, 20, 4.5);
+
+        final ReadLikelihoods<Haplotype> expected = fullEngine.computeReadLikelihoods(dataSet.assemblyResultSet(), SampleListUtils.singletonList("anonymous"), perSampleReads);
+        final ReadLikelihoods<Haplotype> actual = bandedEngine.computeReadLikelihoods(dataSet.assemblyResultSet(), SampleListUtils.singletonList("anonymous"), perSampleReads);
+
+        Assert.assertEquals(actual.alleles(), expected.alleles());
+        Assert.assertEquals(actual.sampleReads(0), expected.sampleReads(0));
+        final ReadLikelihoods.Matrix<Haplotype> actualMatrix = actual.sampleMatrix(0);
+        final ReadLikelihoods.Matrix<Haplotype> expectedMatrix = expected.sampleMatrix(0);
+        for ( int r = 0; r < expectedMatrix.readCount(); r++ ) {
+            int expectedBest = 0;
+            int actualBest = 0;
+            for ( int a = 0; a < expectedMatrix.alleleCount(); a++ ) {
+                Assert.assertEquals(actualMatrix.get(a, r), expectedMatrix.get(a, r), 1e-2, "read " + r + " haplotype " + a);
+                if ( expectedMatrix.get(a, r) > expectedMatrix.get(expectedBest, r) ) expectedBest = a;
+                if ( actualMatrix.get(a, r) > actualMatrix.get(actualBest, r) ) actualBest = a;
+            }
+            // ties aside, the best haplotype of each read must not change
+            Assert.assertEquals(expectedMatrix.get(actualBest, r), expectedMatrix.get(expectedBest, r), 1e-6, "read " + r + " has a different best haplotype with banding");
+        }
+    }
+
+    @Test
+    public void testLikelihoodCacheKeepsBandedReadStartsApart() {
+        // the unit the reads are copied from, followed 40 bases later by a copy with one mismatch
+        final String unit = "GCTAAAGACAATTACATAACATACACGTCAGCACGAAACTTGTTGGCCCAGTGTGAATCG";
+        final String mismatchedUnit = "GCTAAAGACAATTACATAACATACACGTCATCACGAAACTTGTTGGCCCAGTGTGAATCG";
+        final String haplotypeBases = "CTTAAGGGTTAAGTAAGTGT" + unit
+                + "GATGCATACGCCTTTACTTGCTGTGTCCACCCCATCGGAC" + mismatchedUnit + "TGGCATTTTTATTACACTCA";
+        final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(1, 1, 1000);
+        final GenomeLocParser genomeLocParser = new GenomeLocParser(header.getSequenceDictionary());
+        final Haplotype haplotype = new Haplotype(haplotypeBases.getBytes(), true);
+        haplotype.setCigar(TextCigarCodec.decode(haplotypeBases.length() + "M"));
+        haplotype.setGenomeLocation(genomeLocParser.createGenomeLoc("chr1", 11, 10 + haplotypeBases.length()));
+        final AssemblyResultSet assemblyResultSet = new AssemblyResultSet();
+        assemblyResultSet.add(haplotype);
+
+        // identical reads, one aligned to the unit and the other to its mismatched copy
+        final byte[] quals = Utils.dupBytes((byte) 20, unit.length());
+        final GATKSAMRecord unitRead = ArtificialSAMUtils.createArtificialRead(header, "unitRead", 0, 31, unit.getBytes(), quals, unit.length() + "M");
+        final GATKSAMRecord mismatchedRead = ArtificialSAMUtils.createArtificialRead(header, "mismatchedRead", 0, 131, unit.getBytes(), quals, unit.length() + "M");
+        final List<GATKSAMRecord> reads = Arrays.asList(unitRead, mismatchedRead);
+        for ( final GATKSAMRecord read : reads )
+            read.setMappingQuality(60);
+
+        final PairHMMLikelihoodCalculationEngine uncachedEngine = new PairHMMLikelihoodCalculationEngine((byte) 10,
+                PairHMM.HMM_IMPLEMENTATION.LOGLESS_CACHING, PairHMM.HMM_SUB_IMPLEMENTATION.UNVECTORIZED, false, -4.5, true, PairHMMLikelihoodCalculationEngine.PCR_ERROR_MODEL.NONE, 0, 5, 0.0);
+        final PairHMMLikelihoodCalculationEngine cachedEngine = new PairHMMLikelihoodCalculationEngine((byte) 10,
+                PairHMM.HMM_IMPLEMENTATION.LOGLESS_CACHING, PairHMM.HMM_SUB_IMPLEMENTATION.UNVECTORIZED, false, -4.5, true, PairHMMLikelihoodCalculationEngine.PCR_ERROR_MODEL.NONE, 100000, 5, 0.0);
+        final PairHMMLikelihoodCache cache = cachedEngine.getLikelihoodCache();
+
+        final ReadLikelihoods<Haplotype> expected = uncachedEngine.computeReadLikelihoods(assemblyResultSet, SampleListUtils.singletonList("anonymous"), Collections.singletonMap("anonymous", reads));
+        Assert.assertEquals(expected.sampleReadCount(0), 2);
+        Assert.assertNotEquals(expected.sampleMatrix(0).get(0, 0), expected.sampleMatrix(0).get(0, 1), "the band seeds should change the likelihoods");
+
+        // cache the read aligned to the unit first, so that the mismatched one would hit it if the seeds were ignored
+        cachedEngine.computeReadLikelihoods(assemblyResultSet, SampleListUtils.singletonList("anonymous"), Collections.singletonMap("anonymous", Collections.singletonList(unitRead)));
+        final ReadLikelihoods<Haplotype> actual = cachedEngine.computeReadLikelihoods(assemblyResultSet, SampleListUtils.singletonList("anonymous"), Collections.singletonMap("anonymous", reads));
+        Assert.assertEquals(cache.getHitCount(), 1, "only the read aligned to the unit should be served from the cache: " + cache);
+        assertEqualLikelihoods(actual, expected);
+    }
+
+    @DataProvider(name = "ReadStartInHaplotypeProvider")
+    public Object[][] createReadStartInHaplotypeData() {
+        return new Object[][] {
+                // haplotype cigar, read cigar, read alignment start, expected start; the haplotype starts at 11
+                {"10M3D10M", "10M", 11, 0},
+                {"10M3D10M", "10M", 15, 4},
+                {"10M3D10M", "2S8M", 15, 2},
+                {"10M3D10M", "10M", 9, -2},
+                {"10M3D10M", "10M", 21, 10},
+                {"10M3D10M", "10M", 24, 10},
+                {"10M3D10M", "10M", 26, 12},
+                {"5M2I10M", "10M", 18, 9},
+                {"5M2I10M", "10M", 28, 19},
+        };
+    }
+
+    @Test(dataProvider = "ReadStartInHaplotypeProvider")
+    public void testFindReadStartInHaplotype(final String haplotypeCigar, final String readCigar, final int readStart, final int expected) {
+        final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(1, 1, 1000);
+        final GenomeLocParser genomeLocParser = new GenomeLocParser(header.getSequenceDictionary());
+        final Cigar cigar = TextCigarCodec.decode(haplotypeCigar);
+        final Haplotype haplotype = new Haplotype(Utils.dupBytes((byte) 'A', cigar.getReadLength()), true);
+        haplotype.setCigar(cigar);
+        haplotype.setGenomeLocation(genomeLocParser.createGenomeLoc("chr1", 11, 10 + cigar.getReferenceLength()));
+
+        final GATKSAMRecord read = ArtificialSAMUtils.createArtificialRead(header, "read", 0, readStart, 10);
+        read.setCigarString(readCigar);
+        Assert.assertEquals(PairHMMLikelihoodCalculationEngine.findReadStartInHaplotype(haplotype, read), expected);
+
+        read.setReadUnmappedFlag(true);
+        Assert.assertEquals(PairHMMLikelihoodCalculationEngine.findReadStartInHaplotype(haplotype, read), PairHMM.UNKNOWN_READ_START);
+    }
+
+    /**
+     * Checks that two single-sample likelihood collections have the same alleles, reads and likelihood values.
+     */
+    static void assertEqualLikelihoods(final ReadLikelihoods<Haplotype> actual, final ReadLikelihoods<Haplotype> expected) {
+        Assert.assertEquals(actual.alleles(), expected.alleles());
+        Assert.assertEquals(actual.sampleReads(0), expected.sampleReads(0));
+        final ReadLikelihoods.Matrix<Haplotype> actualMatrix = actual.sampleMatrix(0);
+        final ReadLikelihoods.Matrix<Haplotype> expectedMatrix = expected.sampleMatrix(0);
+        for ( int a = 0; a < expectedMatrix.alleleCount(); a++ )
+            for ( int r = 0; r < expectedMatrix.readCount(); r++ )
+                Assert.assertEquals(actualMatrix.get(a, r), expectedMatrix.get(a, r), "allele " + a + " read " + r);
+    }
+
     /*
     private class BasicLikelihoodTestProvider extends TestDataProvider {
         public Double readLikelihoodForHaplotype1;
@@ -51,6 +51,7 @@
 
 package org.broadinstitute.gatk.tools.walkers.haplotypecaller.readthreading;
 
+import org.broadinstitute.gatk.tools.walkers.haplotypecaller.AssemblyResult;
 import org.broadinstitute.gatk.utils.BaseTest;
 import org.broadinstitute.gatk.tools.walkers.haplotypecaller.graphs.*;
 import org.broadinstitute.gatk.utils.Utils;
@@ -58,10 +59,12 @@ import org.broadinstitute.gatk.utils.haplotype.Haplotype;
 import org.broadinstitute.gatk.utils.sam.ArtificialSAMUtils;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
 import org.testng.Assert;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 
 public class ReadThreadingAssemblerUnitTest extends BaseTest {
 
@@ -239,4 +242,84 @@ public class ReadThreadingAssemblerUnitTest extends BaseTest {
         Assert.assertEquals(refPath, ReadThreadingGraphUnitTest.getBytes(ref));
         Assert.assertEquals(altPath, ReadThreadingGraphUnitTest.getBytes(read1));
     }
+
+    @DataProvider(name = "AssemblyThreadPoolData")
+    public Object[][] makeAssemblyThreadPoolData() {
+        final String ref = "GTTTTTCCTAGGCAAATGGTTTCTATAAAATTATGTGTGTGTGTCTCTCTCTGTGTGTGTGTGTGTGTGTGTGTGTATACCTAATCTCACACTCTTTTTTCTGG";
+        final String alt = "GTTTTTCCTAGGCAAATGGTTTCTATAAAATTATGTGTGTGTGTCTCTCTCTGTGTGTGTGTGTGTGTGTGTGTGTATACCTAATCTCAGACTCTTTTTTCTGG";
+        final List<Object[]> tests = new ArrayList<>();
+        for ( final int nThreads : Arrays.asList(1, 2, 4) ) {
+            // one graph per requested kmer size
+            tests.add(new Object[]{ref, alt, Arrays.asList(10, 15, 20, 25), nThreads});
+            // every requested kmer size has a cycle in the repeat, so the larger kmer sizes are retried
+            tests.add(new Object[]{ref, alt, Arrays.asList(4), nThreads});
+        }
+        return tests.toArray(new Object[][]{});
+    }
+
+    /**
+     * Records the kmer sizes for which it was asked to build a graph
+     */
+    private static class AttemptRecordingAssembler extends ReadThreadingAssembler {
+        private final List<Integer> attemptedKmerSizes = Collections.synchronizedList(new ArrayList<Integer>());
+
+        private AttemptRecordingAssembler(final List<Integer> kmerSizes) {
+            super(128, kmerSizes, false, true, 1);
+        }
+
+        @Override
+        protected AssemblyResult createGraph(final List<GATKSAMRecord> reads, final Haplotype refHaplotype, final int kmerSize,
+                                             final List<Haplotype> activeAlleleHaplotypes, final boolean allowLowComplexityGraphs,
+                                             final boolean allowNonUniqueKmersInRef) {
+            attemptedKmerSizes.add(kmerSize);
+            return super.createGraph(reads, refHaplotype, kmerSize, activeAlleleHaplotypes, allowLowComplexityGraphs, allowNonUniqueKmersInRef);
+        }
+    }
+
+    /**
+     * @return the haplotypes of the graph of result, with their scores, in the order the haplotype finder ranks them
+     */
+    private List<String> haplotypes(final AssemblyResult result) {
+        final SeqGraph graph = result.getGraph();
+        final List<String> haplotypes = new ArrayList<>();
+        for ( final KBestHaplotype path : new KBestHaplotypeFinder(graph) )
+            haplotypes.add(new String(path.bases()) + " " + path.score());
+        return haplotypes;
+    }
+
+    @Test(enabled = ! DEBUG, dataProvider = "AssemblyThreadPoolData")
+    public void testAssemblyThreadPoolMatchesSerialAssembly(final String ref, final String alt, final List<Integer> kmerSizes, final int nThreads) {
+        final Haplotype refHaplotype = new Haplotype(ref.getBytes(), true);
+        final List<GATKSAMRecord> reads = new LinkedList<>();
+        for ( int i = 0; i < 10; i++ ) {
+            final byte[] bases = (i % 2 == 0 ? ref : alt).getBytes();
+            reads.add(ArtificialSAMUtils.createArtificialRead(bases, Utils.dupBytes((byte) 30, bases.length), bases.length + "M"));
+        }
+
+        final AttemptRecordingAssembler serial = new AttemptRecordingAssembler(kmerSizes);
+        final List<AssemblyResult> expected = serial.assemble(reads, refHaplotype, Collections.<Haplotype>emptyList());
+        Assert.assertFalse(expected.isEmpty());
+
+        final ExecutorService pool = ReadThreadingAssembler.createAssemblyThreadPool(nThreads);
+        try {
+            for ( int iteration = 0; iteration < 3; iteration++ ) {
+                final AttemptRecordingAssembler pooled = new AttemptRecordingAssembler(kmerSizes);
+                pooled.setAssemblyThreadPool(pool);
+                final List<AssemblyResult> actual = pooled.assemble(reads, refHaplotype, Collections.<Haplotype>emptyList());
+                Assert.assertEquals(actual.size(), expected.size());
+                for ( int i = 0; i < expected.size(); i++ ) {
+                    Assert.assertEquals(actual.get(i).getStatus(), expected.get(i).getStatus());
+                    Assert.assertEquals(actual.get(i).getKmerSize(), expected.get(i).getKmerSize());
+                    Assert.assertEquals(haplotypes(actual.get(i)), haplotypes(expected.get(i)));
+                }
+
+                // no larger kmer size is tried beyond the first one that works
+                final List<Integer> attempted = new ArrayList<>(pooled.attemptedKmerSizes);
+                Collections.sort(attempted);
+                Assert.assertEquals(attempted, serial.attemptedKmerSizes);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
 }
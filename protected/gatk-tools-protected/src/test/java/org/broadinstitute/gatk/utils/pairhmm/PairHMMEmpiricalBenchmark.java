@@ -64,7 +64,7 @@ import java.lang.Math;
  * Caliper microbenchmark for empirical test data for PairHMM
  */
 public class PairHMMEmpiricalBenchmark extends SimpleBenchmark {
-    @Param ({"array_logless", "logless"})
+    @Param ({"java_vector_logless", "array_logless", "logless", "original"})
     String algorithm;
 
     @Param({"likelihoods_NA12878_HiSeqWGS_chr20_1mb.txt"})
@@ -96,6 +96,8 @@ public class PairHMMEmpiricalBenchmark extends SimpleBenchmark {
         switch (algorithm) {
             case "logless": return new LoglessPairHMM();
             case "array_logless": return new ArrayLoglessPairHMM();
+            case "java_vector_logless": return new JavaVectorLoglessPairHMM();
+            case "original": return new Log10PairHMM(false);
             default: throw new IllegalStateException("Unexpected algorithm " + algorithm);
         }
     }
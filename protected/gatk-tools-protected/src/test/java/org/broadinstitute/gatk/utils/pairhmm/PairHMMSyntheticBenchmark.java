@@ -65,7 +65,7 @@ import java.util.*;
  * Caliper microbenchmark for synthetic test data for PairHMM
  */
 public class PairHMMSyntheticBenchmark extends SimpleBenchmark {
-    @Param ({"array_logless", "logless"})
+    @Param ({"java_vector_logless", "array_logless", "logless", "original"})
 //    @Param({"logless", "array_logless"})
 //    @Param({"logless", "banded_w5_mle10", "banded_w5_mle20"})
 //    @Param({"logless", "banded_w10_mle20", "banded_w5_mle20", "banded_w5_mle10"})
@@ -99,6 +99,8 @@ public class PairHMMSyntheticBenchmark extends SimpleBenchmark {
         switch (algorithm) {
             case "logless": return new LoglessPairHMM();
             case "array_logless": return new ArrayLoglessPairHMM();
+            case "java_vector_logless": return new JavaVectorLoglessPairHMM();
+            case "original": return new Log10PairHMM(false);
 //            case "banded_w10_mle20": return new BandedLoglessPairHMM(10, 1e-20);
 //            case "banded_w5_mle20":  return new BandedLoglessPairHMM(5, 1e-20);
 //            case "banded_w5_mle10":  return new BandedLoglessPairHMM(5, 1e-10);
@@ -78,6 +78,7 @@ public class PairHMMUnitTest extends BaseTest {
     final N2MemoryPairHMM loglessHMM = new LoglessPairHMM();
     final PairHMM arrayHMM = new ArrayLoglessPairHMM();
     final N2MemoryPairHMM fastloglessHMM = new FastLoglessPairHMM((byte) 10);
+    final PairHMM javaVectorHMM = new JavaVectorLoglessPairHMM();
 
     @BeforeClass
     public void initialize() {
@@ -86,10 +87,11 @@ public class PairHMMUnitTest extends BaseTest {
         loglessHMM.doNotUseTristateCorrection();
         arrayHMM.doNotUseTristateCorrection();
         fastloglessHMM.doNotUseTristateCorrection();
+        javaVectorHMM.doNotUseTristateCorrection();
     }
 
-    private List<N2MemoryPairHMM> getHMMs() {
-        return Arrays.asList(exactHMM, originalHMM, loglessHMM, fastloglessHMM);
+    private List<PairHMM> getHMMs() {
+        return Arrays.asList(exactHMM, originalHMM, loglessHMM, fastloglessHMM, javaVectorHMM);
     }
 
     // --------------------------------------------------------------------------------
@@ -139,7 +141,7 @@ public class PairHMMUnitTest extends BaseTest {
         }
 
         public double getTolerance(final PairHMM hmm) {
-            if ( hmm instanceof LoglessPairHMM || hmm instanceof ArrayLoglessPairHMM)
+            if ( hmm instanceof LoglessPairHMM || hmm instanceof ArrayLoglessPairHMM || hmm instanceof JavaVectorLoglessPairHMM)
                 return toleranceFromExact();
             if ( hmm instanceof Log10PairHMM ) {
                 return ((Log10PairHMM)hmm).isDoingExactLog10Calculations() ? toleranceFromExact() : toleranceFromReference();
@@ -602,6 +604,154 @@ public class PairHMMUnitTest extends BaseTest {
         return d;
     }
 
+    @DataProvider(name = "JavaVectorLoglessProvider")
+    public Object[][] makeJavaVectorLoglessProvider() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        for ( final int readLength : Arrays.asList(1, 2, 10, 51, 101, 250) )
+            for ( final int haplotypeLength : Arrays.asList(1, 5, 60, 150, 400) )
+                for ( final boolean tristate : Arrays.asList(true, false) )
+                    tests.add(new Object[]{readLength, haplotypeLength, tristate});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(enabled = !DEBUG, dataProvider = "JavaVectorLoglessProvider")
+    public void testJavaVectorLoglessMatchesLogless(final int readLength, final int haplotypeLength, final boolean tristate) {
+        final Random random = new Random(readLength * 1000 + haplotypeLength);
+        final LoglessPairHMM logless = new LoglessPairHMM();
+        final JavaVectorLoglessPairHMM javaVector = new JavaVectorLoglessPairHMM();
+        if ( ! tristate ) {
+            logless.doNotUseTristateCorrection();
+            javaVector.doNotUseTristateCorrection();
+        }
+        logless.initialize(readLength, haplotypeLength);
+        javaVector.initialize(readLength, haplotypeLength);
+
+        for ( int readIndex = 0; readIndex < 3; readIndex++ ) {
+            final int thisReadLength = readIndex == 0 ? readLength : 1 + random.nextInt(readLength);
+            final byte[] readBases = randomBases(random, thisReadLength);
+            final byte[] readQuals = randomQuals(random, thisReadLength, 5, 40);
+            final byte[] insQuals = randomQuals(random, thisReadLength, 20, 50);
+            final byte[] delQuals = randomQuals(random, thisReadLength, 20, 50);
+            final byte[] gcp = Utils.dupBytes((byte) 10, thisReadLength);
+
+            // several haplotypes per read so that the per-read values cached between haplotypes are exercised.
+            final int haplotypeCount = 4;
+            final byte[][] haplotypes = new byte[haplotypeCount][];
+            for ( int h = 0; h < haplotypeCount; h++ )
+                haplotypes[h] = randomBases(random, h == 0 ? haplotypeLength : 1 + random.nextInt(haplotypeLength));
+            for ( int h = 0; h < haplotypeCount; h++ ) {
+                final byte[] next = h == haplotypeCount - 1 ? null : haplotypes[h + 1];
+                final double expected = logless.computeReadLikelihoodGivenHaplotypeLog10(haplotypes[h], readBases, readQuals, insQuals, delQuals, gcp, h == 0, next);
+                final double actual = javaVector.computeReadLikelihoodGivenHaplotypeLog10(haplotypes[h], readBases, readQuals, insQuals, delQuals, gcp, h == 0, next);
+                Assert.assertEquals(actual, expected, 1e-9, "read " + new String(readBases) + " haplotype " + new String(haplotypes[h]));
+            }
+        }
+    }
+
+    @DataProvider(name = "BandingAndPruningProvider")
+    public Object[][] makeBandingAndPruningProvider() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        for ( final int readLength : Arrays.asList(10, 51, 101) )
+            for ( final int haplotypeLength : Arrays.asList(120, 300) )
+                for ( final boolean constantGaps : Arrays.asList(true, false) )
+                    tests.add(new Object[]{readLength, haplotypeLength, constantGaps});
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(enabled = !DEBUG, dataProvider = "BandingAndPruningProvider")
+    public void testPrunedLikelihoodsAreUpperBounds(final int readLength, final int haplotypeLength, final boolean constantGaps) {
+        final Random random = new Random(readLength * 1000 + haplotypeLength);
+        final LoglessPairHMM full = new LoglessPairHMM();
+        final LoglessPairHMM pruned = new LoglessPairHMM();
+        full.initialize(readLength, haplotypeLength);
+        pruned.initialize(readLength, haplotypeLength);
+
+        // haplotypes of the same length that share long prefixes, so that pruning interleaves with the reuse of columns
+        final byte[][] haplotypes = new byte[6][];
+        haplotypes[0] = randomBases(random, haplotypeLength);
+        for ( int h = 1; h < haplotypes.length; h++ ) {
+            haplotypes[h] = haplotypes[h - 1].clone();
+            haplotypes[h][haplotypeLength - 1 - random.nextInt(haplotypeLength / 2)] = BaseUtils.BASES[random.nextInt(4)];
+        }
+
+        for ( int readIndex = 0; readIndex < 4; readIndex++ ) {
+            final int start = random.nextInt(haplotypeLength - readLength);
+            final byte[] readBases = readIndex % 2 == 0 ? Arrays.copyOfRange(haplotypes[0], start, start + readLength) : randomBases(random, readLength);
+            final byte[] readQuals = randomQuals(random, readLength, 5, 40);
+            final byte[] insQuals = constantGaps ? Utils.dupBytes((byte) 45, readLength) : randomQuals(random, readLength, 20, 50);
+            final byte[] delQuals = constantGaps ? Utils.dupBytes((byte) 45, readLength) : randomQuals(random, readLength, 20, 50);
+            final byte[] gcp = constantGaps ? Utils.dupBytes((byte) 10, readLength) : randomQuals(random, readLength, 5, 20);
+
+            for ( int h = 0; h < haplotypes.length; h++ ) {
+                final byte[] next = h == haplotypes.length - 1 ? null : haplotypes[h + 1];
+                final double expected = full.computeReadLikelihoodGivenHaplotypeLog10(haplotypes[h], readBases, readQuals, insQuals, delQuals, gcp, h == 0, next);
+
+                // alternate between limits that prune almost always, sometimes and never
+                pruned.pruningLimitLog10 = h % 3 == 0 ? 0.0 : h % 3 == 1 ? expected + 0.5 : Double.NEGATIVE_INFINITY;
+                pruned.lastLikelihoodWasPruned = false;
+                final double actual = pruned.computeReadLikelihoodGivenHaplotypeLog10(haplotypes[h], readBases, readQuals, insQuals, delQuals, gcp, h == 0, next);
+                if ( pruned.lastLikelihoodWasPruned ) {
+                    Assert.assertTrue(actual >= expected - 1e-9, "pruned likelihood " + actual + " is below the full one " + expected);
+                    Assert.assertTrue(actual < pruned.pruningLimitLog10, "pruned likelihood " + actual + " is above the limit " + pruned.pruningLimitLog10);
+                } else
+                    Assert.assertEquals(actual, expected, 1e-9, "haplotype " + h);
+            }
+        }
+    }
+
+    @Test(enabled = !DEBUG, dataProvider = "BandingAndPruningProvider")
+    public void testBandedLikelihoods(final int readLength, final int haplotypeLength, final boolean constantGaps) {
+        final Random random = new Random(readLength * 1000 + haplotypeLength);
+        final LoglessPairHMM full = new LoglessPairHMM();
+        final LoglessPairHMM banded = new LoglessPairHMM();
+        full.initialize(readLength, haplotypeLength);
+        banded.initialize(readLength, haplotypeLength);
+
+        final byte[] haplotype = randomBases(random, haplotypeLength);
+        for ( int readIndex = 0; readIndex < 10; readIndex++ ) {
+            final int start = random.nextInt(haplotypeLength - readLength);
+            final byte[] readBases = Arrays.copyOfRange(haplotype, start, start + readLength);
+            readBases[random.nextInt(readLength)] = BaseUtils.BASES[random.nextInt(4)];
+            final byte[] readQuals = randomQuals(random, readLength, 20, 40);
+            final byte[] insQuals = constantGaps ? Utils.dupBytes((byte) 45, readLength) : randomQuals(random, readLength, 20, 50);
+            final byte[] delQuals = constantGaps ? Utils.dupBytes((byte) 45, readLength) : randomQuals(random, readLength, 20, 50);
+            final byte[] gcp = Utils.dupBytes((byte) 10, readLength);
+
+            final double expected = full.computeReadLikelihoodGivenHaplotypeLog10(haplotype, readBases, readQuals, insQuals, delQuals, gcp, true, null);
+
+            // a band that covers the whole matrix gives the same result
+            banded.setBandWidth(haplotypeLength + readLength);
+            banded.readStartInHaplotype = 0;
+            Assert.assertEquals(banded.computeReadLikelihoodGivenHaplotypeLog10(haplotype, readBases, readQuals, insQuals, delQuals, gcp, true, null), expected, 1e-9);
+
+            // a narrow band around the read's true position only misses alignments elsewhere, which hardly matter for long reads
+            banded.setBandWidth(8);
+            banded.readStartInHaplotype = start;
+            final double narrow = banded.computeReadLikelihoodGivenHaplotypeLog10(haplotype, readBases, readQuals, insQuals, delQuals, gcp, true, null);
+            Assert.assertTrue(narrow <= expected + 1e-9, "banded likelihood " + narrow + " is above the full one " + expected);
+            if ( readLength > 50 )
+                Assert.assertEquals(narrow, expected, 1e-2);
+
+            // and a full computation right after a banded one does not reuse anything from it
+            banded.setBandWidth(0);
+            Assert.assertEquals(banded.computeReadLikelihoodGivenHaplotypeLog10(haplotype, readBases, readQuals, insQuals, delQuals, gcp, true, null), expected, 1e-9);
+        }
+    }
+
+    private static byte[] randomBases(final Random random, final int length) {
+        final byte[] result = new byte[length];
+        for ( int i = 0; i < length; i++ )
+            result[i] = random.nextInt(50) == 0 ? (byte) 'N' : BaseUtils.BASES[random.nextInt(4)];
+        return result;
+    }
+
+    private static byte[] randomQuals(final Random random, final int length, final int min, final int max) {
+        final byte[] result = new byte[length];
+        for ( int i = 0; i < length; i++ )
+            result[i] = (byte) (min + random.nextInt(max - min + 1));
+        return result;
+    }
+
     @Test(enabled = !DEBUG)
     public void testFindFirstPositionWhereHaplotypesDiffer() {
         for ( int haplotypeSize1 = 10; haplotypeSize1 < 30; haplotypeSize1++ ) {
@@ -643,6 +793,10 @@ public class PairHMMUnitTest extends BaseTest {
         myArrayLoglessPairHMM.doNotUseTristateCorrection();
         tests.add(new Object[]{myArrayLoglessPairHMM});
 
+        final JavaVectorLoglessPairHMM myJavaVectorLoglessPairHMM = new JavaVectorLoglessPairHMM();
+        myJavaVectorLoglessPairHMM.doNotUseTristateCorrection();
+        tests.add(new Object[]{myJavaVectorLoglessPairHMM});
+
         final Log10PairHMM myLog10PairHMM = new Log10PairHMM(true);
         myLog10PairHMM.doNotUseTristateCorrection();
         tests.add(new Object[]{myLog10PairHMM});
@@ -650,9 +650,9 @@ public class GenomeAnalysisEngine {
                 if (readsDataSource.getSortOrder() != SAMFileHeader.SortOrder.coordinate)
                     throw new UserException.MissortedBAM(SAMFileHeader.SortOrder.coordinate, "Locus walkers can only traverse coordinate-sorted data.  Please resort your input BAM file(s) or set the Sort Order tag in the header appropriately.");
                 if(intervals == null)
-                    return readsDataSource.createShardIteratorOverMappedReads(new LocusShardBalancer());
+                    return readsDataSource.createShardIteratorOverMappedReads(new LocusShardBalancer(argCollection.locusShardTargetCost));
                 else
-                    return readsDataSource.createShardIteratorOverIntervals(intervals,new LocusShardBalancer());
+                    return readsDataSource.createShardIteratorOverIntervals(intervals,new LocusShardBalancer(argCollection.locusShardTargetCost));
             } 
             else if(walker instanceof ActiveRegionWalker) {
                 if (readsDataSource.getSortOrder() != SAMFileHeader.SortOrder.coordinate)
@@ -820,6 +820,7 @@ public class GenomeAnalysisEngine {
                                                     null;
 
         readsDataSource = createReadsDataSource(argCollection,genomeLocParser,referenceDataSource.getReference(), sampleRenameMap);
+        readsDataSource.setShardPlanCacheDirectory(argCollection.shardPlanCacheDirectory);
 
         for (ReadFilter filter : filters)
             filter.initialize(this);
@@ -946,7 +947,8 @@ public class GenomeAnalysisEngine {
                 removeProgramRecords,
                 keepReadsInLIBS,
                 sampleRenameMap,
-                argCollection.intervalArguments.intervalMerging);
+                argCollection.intervalArguments.intervalMerging,
+                argCollection.memoryMapBAMFiles);
     }
 
     /**
@@ -502,6 +502,36 @@ public class GATKArgumentCollection {
 
     @Argument(fullName = "num_bam_file_handles", shortName = "bfh", doc="Total number of BAM file handles to keep open simultaneously", required=false, minValue = 1)
     public Integer numberOfBAMFileHandles = null;
+
+    /**
+     * Only applies when IO threads are enabled with -nit.  Rather than reading each compressed block through a
+     * cached file handle, map every BAM file into memory once and have the IO threads load blocks directly out of
+     * the mapping.
+     */
+    @Argument(fullName = "memory_map_bam_files", shortName = "mmapBAM", doc="Memory-map BAM files when loading blocks asynchronously", required=false)
+    @Hidden
+    public boolean memoryMapBAMFiles = false;
+
+    /**
+     * Computing the file pointers for a long interval list over many BAM files requires walking every BAM index,
+     * and can take minutes before the first read is processed.  When a directory is supplied here, the plan is
+     * stored there and reused by later runs over the same BAM indices and intervals.  A plan is invalidated
+     * automatically whenever any of the indices changes.
+     */
+    @Argument(fullName = "shard_plan_cache_dir", shortName = "shardPlanCache", doc="Directory in which to cache shard plans computed from BAM indices", required=false)
+    @Hidden
+    public File shardPlanCacheDirectory = null;
+
+    /**
+     * By default, locus traversals shard the genome by BAM index bin, so a region of extreme coverage can land in a
+     * single shard that takes far longer than the rest.  When a target is given, the linear index is used to
+     * estimate how much data each shard covers; shards well above the target are split and runs of small shards on
+     * the same contig are merged.  The target is in approximate uncompressed bytes of BAM data.
+     */
+    @Argument(fullName = "locus_shard_target_cost", shortName = "shardCost", doc="Balance locus shards to approximately this many bytes of reads each", required=false, minValue = 0)
+    @Hidden
+    public long locusShardTargetCost = 0;
+
     /**
      * This will filter out read groups matching <TAG>:<STRING> (e.g. SM:sample1) or a .txt file containing the filter strings one per line.
      */
@@ -36,6 +36,9 @@ import java.util.List;
  * combined shard.  The purpose of doing this is to ensure that the HaplotypeCaller, which
  * doesn't support TreeReduction by construction, gets all of the data on a single
  * contig together so the the NanoSchedule runs efficiently
+ *
+ * Active region traversal needs each contig in a single shard, so shards are never split by cost here; their
+ * estimated cost is still reported to show how unevenly the work is spread.
  */
 public class ActiveRegionShardBalancer extends ShardBalancer {
     /**
@@ -45,7 +48,10 @@ public class ActiveRegionShardBalancer extends ShardBalancer {
     public Iterator<Shard> iterator() {
         return new Iterator<Shard>() {
             public boolean hasNext() {
-                return filePointers.hasNext();
+                final boolean hasNext = filePointers.hasNext();
+                if(!hasNext)
+                    logCostHistogram();
+                return hasNext;
             }
 
             public Shard next() {
@@ -54,7 +60,9 @@ public class ActiveRegionShardBalancer extends ShardBalancer {
                 // FilePointers have already been combined as necessary at the IntervalSharder level. No
                 // need to do so again here.
 
-                return new LocusShard(parser,readsDataSource,current.getLocations(),current.fileSpans);
+                final Shard shard = new LocusShard(parser,readsDataSource,current.getLocations(),current.fileSpans);
+                recordShardCost(shard,estimateCost(current));
+                return shard;
             }
 
             public void remove() {
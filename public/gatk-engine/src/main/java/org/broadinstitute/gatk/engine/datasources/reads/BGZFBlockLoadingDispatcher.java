@@ -25,6 +25,7 @@
 
 package org.broadinstitute.gatk.engine.datasources.reads;
 
+import org.apache.log4j.Logger;
 import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
 
 import java.util.LinkedList;
@@ -33,26 +34,103 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 /**
- * Preloads BGZF blocks in preparation for unzipping and data processing.
+ * Preloads BGZF blocks in preparation for unzipping and data processing.  How far ahead of each reader
+ * blocks are loaded is decided by a ReadAheadController.
  * TODO: Right now, the block loader has all threads blocked waiting for a work request.  Ultimately this should
  * TODO: be replaced with a central thread management strategy.
  */
 public class BGZFBlockLoadingDispatcher {
     /**
-     * The file handle cache, used when allocating blocks from the dispatcher.
+     * The file handle cache, used when allocating blocks from the dispatcher.  Null when memory-mapping input files.
      */
     private final FileHandleCache fileHandleCache;
 
+    /**
+     * The memory-mapped input files, used when allocating blocks from the dispatcher.  Null when reading through file handles.
+     */
+    private final MappedFileCache mappedFileCache;
+
+    /**
+     * Recycled decompression buffers and Inflaters, shared by all block loaders.
+     */
+    private final BlockBufferPool bufferPool = new BlockBufferPool();
+
+    /**
+     * Decides how far ahead of each reader to load blocks.
+     */
+    private final ReadAheadController readAheadController;
+
+    /**
+     * Fraction of the maximum heap that may be devoted to read-ahead buffers.
+     */
+    private static final int READ_AHEAD_HEAP_FRACTION = 16;
+
     private final ExecutorService threadPool;
 
     private final Queue<BAMAccessPlan> inputQueue;
 
     public BGZFBlockLoadingDispatcher(final int numThreads, final int numFileHandles) {
+        this(numThreads,numFileHandles,false);
+    }
+
+    /**
+     * Create a new dispatcher.
+     * @param numThreads number of threads to devote to loading blocks.
+     * @param numFileHandles number of file handles to keep open at once.  Ignored when memory-mapping.
+     * @param memoryMapFiles if true, map each input file into memory once and load blocks straight out of the mapping,
+     *                       rather than reading them through a cache of file handles.
+     */
+    public BGZFBlockLoadingDispatcher(final int numThreads, final int numFileHandles, final boolean memoryMapFiles) {
         threadPool = Executors.newFixedThreadPool(numThreads);
-        fileHandleCache = new FileHandleCache(numFileHandles);
+        fileHandleCache = memoryMapFiles ? null : new FileHandleCache(numFileHandles);
+        mappedFileCache = memoryMapFiles ? new MappedFileCache() : null;
         inputQueue = new LinkedList<BAMAccessPlan>();
+        readAheadController = new ReadAheadController(Runtime.getRuntime().maxMemory() / READ_AHEAD_HEAP_FRACTION);
+
+        // Each input stream has at most one block load outstanding at a time, so any number of
+        // loaders can run without reordering the blocks of a single stream.
+        for(int i = 0; i < numThreads; i++)
+            threadPool.execute(new BlockLoader(this,fileHandleCache,mappedFileCache,true));
+    }
 
-        threadPool.execute(new BlockLoader(this,fileHandleCache,true));
+    /**
+     * Gets the pool from which block loaders draw their decompression buffers.
+     * @return The buffer pool for this dispatcher.
+     */
+    BlockBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Gets the controller deciding how far ahead of each reader blocks should be loaded.
+     * @return The read-ahead controller for this dispatcher.
+     */
+    ReadAheadController getReadAheadController() {
+        return readAheadController;
+    }
+
+    /**
+     * Prints read-ahead buffer occupancy and stall time for each reader.
+     * @param logger Logger to which to write the statistics.
+     */
+    public void logReadAheadStatistics(final Logger logger) {
+        readAheadController.logStatistics(logger);
+    }
+
+    /**
+     * How many decompression buffer and Inflater requests were satisfied by recycled objects?
+     * @return Number of pool hits to date.
+     */
+    public long getBufferPoolHits() {
+        return bufferPool.getHits();
+    }
+
+    /**
+     * How many decompression buffer and Inflater requests required a fresh allocation?
+     * @return Number of pool misses to date.
+     */
+    public long getBufferPoolMisses() {
+        return bufferPool.getMisses();
     }
 
     /**
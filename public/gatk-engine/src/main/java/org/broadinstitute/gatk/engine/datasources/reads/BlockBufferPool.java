@@ -0,0 +1,143 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Inflater;
+
+/**
+ * Recycles the fixed-size buffers and Inflaters that block loaders need to decompress BGZF blocks,
+ * so that decompressing a block doesn't allocate.  Each thread draws from its own arena, so claiming
+ * and releasing never contend; the pool only tracks how often a request could be met from an arena.
+ */
+class BlockBufferPool {
+    /**
+     * Size of every pooled buffer.  Large enough to hold any BGZF block, compressed or uncompressed.
+     */
+    public static final int BUFFER_SIZE = BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE;
+
+    /**
+     * The most buffers or Inflaters a single thread's arena will hold on to.
+     */
+    private static final int MAX_ARENA_SIZE = 4;
+
+    /**
+     * Per-thread storage for released buffers and Inflaters.
+     */
+    private final ThreadLocal<Arena> arenas = new ThreadLocal<Arena>() {
+        @Override
+        protected Arena initialValue() {
+            return new Arena();
+        }
+    };
+
+    /**
+     * Number of requests satisfied by a previously released object.
+     */
+    private final AtomicLong hits = new AtomicLong(0);
+
+    /**
+     * Number of requests that required a fresh allocation.
+     */
+    private final AtomicLong misses = new AtomicLong(0);
+
+    /**
+     * Claims a buffer of BUFFER_SIZE bytes.  The contents are undefined.
+     * @return A buffer that the caller owns until it is released.
+     */
+    public byte[] claimBuffer() {
+        final byte[] buffer = arenas.get().buffers.poll();
+        if(buffer != null) {
+            hits.incrementAndGet();
+            return buffer;
+        }
+        misses.incrementAndGet();
+        return new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Returns a buffer claimed from this pool.  Must be called from the thread that claimed it.
+     * @param buffer The buffer to recycle.
+     */
+    public void releaseBuffer(final byte[] buffer) {
+        final Deque<byte[]> buffers = arenas.get().buffers;
+        if(buffers.size() < MAX_ARENA_SIZE)
+            buffers.push(buffer);
+    }
+
+    /**
+     * Claims an Inflater for raw (headerless) deflate data, ready to accept input.
+     * @return An inflater that the caller owns until it is released.
+     */
+    public Inflater claimInflater() {
+        final Inflater inflater = arenas.get().inflaters.poll();
+        if(inflater != null) {
+            hits.incrementAndGet();
+            return inflater;
+        }
+        misses.incrementAndGet();
+        return new Inflater(true);
+    }
+
+    /**
+     * Returns an Inflater claimed from this pool.  Must be called from the thread that claimed it.
+     * @param inflater The inflater to recycle.
+     */
+    public void releaseInflater(final Inflater inflater) {
+        final Deque<Inflater> inflaters = arenas.get().inflaters;
+        if(inflaters.size() < MAX_ARENA_SIZE) {
+            inflater.reset();
+            inflaters.push(inflater);
+        }
+        else
+            inflater.end();
+    }
+
+    /**
+     * @return The number of claims satisfied from a thread's arena.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of claims that required a new allocation.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Buffers and Inflaters released by a single thread.
+     */
+    private static class Arena {
+        private final Deque<byte[]> buffers = new ArrayDeque<byte[]>();
+        private final Deque<Inflater> inflaters = new ArrayDeque<Inflater>();
+    }
+}
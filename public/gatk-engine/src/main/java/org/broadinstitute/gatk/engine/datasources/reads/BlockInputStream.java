@@ -69,9 +69,25 @@ public class BlockInputStream extends InputStream {
     private BAMAccessPlan accessPlan;
 
     /**
-     * A stream of compressed data blocks.
+     * Decides how many blocks to decompress ahead of the reader.
      */
-    private final ByteBuffer buffer;
+    private final ReadAheadController readAheadController;
+
+    /**
+     * Capacity of the buffer before any read-ahead space is reserved.
+     */
+    private static final int BASE_BUFFER_SIZE = 64*1024;
+
+    /**
+     * A stream of compressed data blocks.  Grows and shrinks as the read-ahead depth changes.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Is a block load for this stream queued or in progress?  At most one is outstanding at any time,
+     * so blocks always arrive in order.
+     */
+    private boolean blockLoadPending = false;
 
     /**
      * Offsets of the given blocks in the buffer.
@@ -103,7 +119,7 @@ public class BlockInputStream extends InputStream {
         this.reader = reader;
         this.length = reader.getSamFile().length();
 
-        buffer = ByteBuffer.wrap(new byte[64*1024]);
+        buffer = ByteBuffer.wrap(new byte[BASE_BUFFER_SIZE]);
         buffer.order(ByteOrder.LITTLE_ENDIAN);
 
         // The state of the buffer assumes that the range of data written into the buffer appears in the range
@@ -111,6 +127,7 @@ public class BlockInputStream extends InputStream {
         buffer.limit(0);
 
         this.dispatcher = dispatcher;
+        this.readAheadController = dispatcher.getReadAheadController();
         // TODO: Kill the region when all we want to do is start at the beginning of the stream and run to the end of the stream.
         this.accessPlan = new BAMAccessPlan(reader,this,new GATKBAMFileSpan(new GATKChunk(0,Long.MAX_VALUE)));
 
@@ -186,6 +203,9 @@ public class BlockInputStream extends InputStream {
      */
     public void submitAccessPlan(final BAMAccessPlan accessPlan) {
         //System.out.printf("Thread %s: submitting access plan for block at position: %d%n",Thread.currentThread().getId(),position.getBlockAddress());
+        // Let any read-ahead for the previous access plan land before throwing it away.
+        waitForPendingBlockLoad();
+
         this.accessPlan = accessPlan;
         accessPlan.reset();
 
@@ -195,8 +215,10 @@ public class BlockInputStream extends InputStream {
         // TODO: Don't pass these empty chunks in.
         accessPlan.advancePosition(makeFilePointer(accessPlan.getBlockAddress(),0));
 
-        if(accessPlan.getBlockAddress() >= 0) {
-            waitForBufferFill();
+        // The first block after a seek always has to be waited for, so don't count it as a stall.
+        if(accessPlan.getBlockAddress() >= 0 && !eof()) {
+            queueBlockLoad();
+            waitForPendingBlockLoad();
         }
 
         if(validatingInputStream != null) {
@@ -276,7 +298,10 @@ public class BlockInputStream extends InputStream {
                 }
 
                 compactBuffer();
-                // Open up the buffer for more reading.
+
+                // Open up the buffer for writing after any data that hasn't been read yet.
+                final int readPosition = buffer.position();
+                buffer.position(buffer.limit());
                 buffer.limit(buffer.capacity());
 
                 // Get the spans overlapping this particular block...
@@ -286,8 +311,9 @@ public class BlockInputStream extends InputStream {
                 this.accessPlan = accessPlan;
                 accessPlan.advancePosition(makeFilePointer(filePosition, 0));
 
+                // Read-ahead is only queued when there's room for a complete block, so this should never happen.
                 if(buffer.remaining() < incomingBuffer.remaining())
-                    lock.wait();
+                    throw new ReviewedGATKException(String.format("BUG: no room in BlockInputStream %s for a %d byte block",this,incomingBuffer.remaining()));
 
                 final int bytesInIncomingBuffer = incomingBuffer.limit();
 
@@ -309,13 +335,15 @@ public class BlockInputStream extends InputStream {
                 }
 
                 // Set up the buffer for reading.
-                buffer.flip();
+                buffer.limit(buffer.position());
+                buffer.position(readPosition);
 
-                lock.notify();
+                readAheadController.recordBlockLoaded(reader,buffer.remaining());
+                blockLoadPending = false;
+                lock.notifyAll();
             }
             catch(Exception ex) {
                 reportException(ex);
-                lock.notify();
             }
         }
     }
@@ -323,7 +351,8 @@ public class BlockInputStream extends InputStream {
     void reportException(Throwable t) {
         synchronized(lock) {
             this.error = t;
-            lock.notify();
+            blockLoadPending = false;
+            lock.notifyAll();
         }
     }
 
@@ -382,9 +411,12 @@ public class BlockInputStream extends InputStream {
                 // TODO: Assert that we don't copy across a block boundary
             }
 
-            // Notify any waiting threads that some of the contents of the buffer were removed.
-            if(length-remaining > 0)
-                lock.notify();
+            // Notify any waiting threads that some of the contents of the buffer were removed,
+            // and start loading the next block if the reader is getting close to the end of the buffer.
+            if(length-remaining > 0) {
+                queueReadAhead();
+                lock.notifyAll();
+            }
         }
 
 //        if(validatingInputStream != null) {
@@ -410,6 +442,11 @@ public class BlockInputStream extends InputStream {
     }
 
     public void close() {
+        synchronized(lock) {
+            waitForPendingBlockLoad();
+            readAheadController.release(buffer.capacity()-BASE_BUFFER_SIZE);
+        }
+
         if(validatingInputStream != null) {
             try {
                 validatingInputStream.close();
@@ -428,14 +465,89 @@ public class BlockInputStream extends InputStream {
         synchronized(lock) {
             if(buffer.remaining() == 0 && !eof()) {
                 //System.out.printf("Thread %s is waiting for a buffer fill from position %d to buffer %s%n",Thread.currentThread().getId(),position.getBlockAddress(),this);
-                dispatcher.queueBlockLoad(accessPlan);
-                try {
+                if(!blockLoadPending)
+                    queueBlockLoad();
+                final long stallStartTime = System.nanoTime();
+                waitForPendingBlockLoad();
+                readAheadController.recordStall(reader,System.nanoTime()-stallStartTime);
+            }
+        }
+    }
+
+    /**
+     * Asks the dispatcher to load the next block in the current access plan.
+     */
+    private void queueBlockLoad() {
+        synchronized(lock) {
+            blockLoadPending = true;
+            dispatcher.queueBlockLoad(accessPlan);
+        }
+    }
+
+    /**
+     * Blocks until any outstanding block load for this stream has landed in the buffer or failed.
+     */
+    private void waitForPendingBlockLoad() {
+        synchronized(lock) {
+            try {
+                while(blockLoadPending)
                     lock.wait();
-                }
-                catch(InterruptedException ex) {
-                    throw new ReviewedGATKException("Interrupt occurred waiting for buffer to fill",ex);
-                }
             }
+            catch(InterruptedException ex) {
+                throw new ReviewedGATKException("Interrupt occurred waiting for buffer to fill",ex);
+            }
+        }
+    }
+
+    /**
+     * Queues a load of the next block ahead of the reader if less than the read-ahead depth
+     * is currently buffered.  Never blocks.
+     */
+    private void queueReadAhead() {
+        synchronized(lock) {
+            if(blockLoadPending || error != null || eof())
+                return;
+
+            final int depth = readAheadController.getReadAheadDepth(reader);
+
+            // Besides the blocks read ahead, leave room for the partially consumed current block and
+            // for the incoming block.
+            resizeBuffer((depth+2)*ReadAheadController.BLOCK_SIZE);
+
+            if(buffer.remaining() < depth*ReadAheadController.BLOCK_SIZE &&
+                    buffer.capacity()-buffer.remaining() >= 2*ReadAheadController.BLOCK_SIZE)
+                queueBlockLoad();
+        }
+    }
+
+    /**
+     * Attempts to change the capacity of the buffer, preserving its contents.  Leaves the buffer
+     * untouched if the read-ahead memory budget is exhausted or the current contents wouldn't fit.
+     * @param capacity The desired capacity.
+     */
+    private void resizeBuffer(final int capacity) {
+        synchronized(lock) {
+            if(capacity == buffer.capacity() || buffer.limit() > capacity)
+                return;
+
+            final int change = capacity - buffer.capacity();
+            if(change > 0 && !readAheadController.reserve(change))
+                return;
+            if(change < 0)
+                readAheadController.release(-change);
+
+            final ByteBuffer resized = ByteBuffer.wrap(new byte[capacity]);
+            resized.order(ByteOrder.LITTLE_ENDIAN);
+
+            // Block offsets are relative to the start of the buffer, so copy everything up to the limit.
+            final int position = buffer.position();
+            final int limit = buffer.limit();
+            buffer.position(0);
+            resized.put(buffer);
+            resized.limit(limit);
+            resized.position(position);
+
+            buffer = resized;
         }
     }
 
@@ -46,24 +46,49 @@ class BlockLoader implements Runnable {
     private BGZFBlockLoadingDispatcher dispatcher;
 
     /**
-     * A cache from which to retrieve open file handles.
+     * A cache from which to retrieve open file handles.  Null if reading through memory-mapped files.
      */
     private final FileHandleCache fileHandleCache;
 
+    /**
+     * A cache of memory-mapped input files.  Null if reading through file handles.
+     */
+    private final MappedFileCache mappedFileCache;
+
     /**
      * Whether asynchronous decompression should happen.
      */
     private final boolean decompress;
 
+    /**
+     * Source of recycled buffers and Inflaters for decompression.
+     */
+    private final BlockBufferPool bufferPool;
+
     /**
      * An direct input buffer for incoming data from disk.
      */
     private final ByteBuffer inputBuffer;
 
     public BlockLoader(final BGZFBlockLoadingDispatcher dispatcher, final FileHandleCache fileHandleCache, final boolean decompress) {
+        this(dispatcher,fileHandleCache,null,decompress);
+    }
+
+    /**
+     * Create a new block loader.  Exactly one of fileHandleCache and mappedFileCache should be non-null.
+     * @param dispatcher the source of work requests.
+     * @param fileHandleCache the file handles from which to read blocks, or null if reading from mapped files.
+     * @param mappedFileCache the mapped files from which to read blocks, or null if reading from file handles.
+     * @param decompress whether blocks should be decompressed before being handed to the input stream.
+     */
+    public BlockLoader(final BGZFBlockLoadingDispatcher dispatcher, final FileHandleCache fileHandleCache, final MappedFileCache mappedFileCache, final boolean decompress) {
+        if((fileHandleCache == null) == (mappedFileCache == null))
+            throw new ReviewedGATKException("BUG: block loader must read from exactly one of a file handle cache or a mapped file cache");
         this.dispatcher = dispatcher;
         this.fileHandleCache = fileHandleCache;
+        this.mappedFileCache = mappedFileCache;
         this.decompress = decompress;
+        this.bufferPool = dispatcher.getBufferPool();
 
         this.inputBuffer = ByteBuffer.allocateDirect(64*1024 + BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK.length);
         inputBuffer.order(ByteOrder.LITTLE_ENDIAN);
@@ -74,14 +99,35 @@ class BlockLoader implements Runnable {
             BAMAccessPlan accessPlan = null;
             try {
                 accessPlan = dispatcher.claimNextWorkRequest();
-                FileInputStream inputStream = fileHandleCache.claimFileInputStream(accessPlan.getReader());
-
-                //long blockAddress = readerPosition.getBlockAddress();
-                //System.out.printf("Thread %s: BlockLoader: copying bytes from %s at position %d into %s%n",Thread.currentThread().getId(),inputStream,blockAddress,readerPosition.getInputStream());
 
-                ByteBuffer compressedBlock = readBGZFBlock(inputStream,accessPlan.getBlockAddress());
-                long nextBlockAddress = position(inputStream);
-                fileHandleCache.releaseFileInputStream(accessPlan.getReader(),inputStream);
+                final ByteBuffer compressedBlock;
+                final long nextBlockAddress;
+                if(mappedFileCache != null) {
+                    final MappedFileCache.MappedFile mappedFile = mappedFileCache.getMappedFile(accessPlan.getReader());
+                    long blockAddress = accessPlan.getBlockAddress();
+                    ByteBuffer block = readBGZFBlock(mappedFile,blockAddress);
+                    // Skip over any 0-byte blocks.  If only empty blocks remain before EOF, load the last one.
+                    while(block.getInt(block.limit()-4) == 0 && blockAddress + block.remaining() < mappedFile.length()) {
+                        blockAddress += block.remaining();
+                        block = readBGZFBlock(mappedFile,blockAddress);
+                    }
+                    compressedBlock = block;
+                    nextBlockAddress = blockAddress + compressedBlock.remaining();
+                }
+                else {
+                    FileInputStream inputStream = fileHandleCache.claimFileInputStream(accessPlan.getReader());
+
+                    //long blockAddress = readerPosition.getBlockAddress();
+                    //System.out.printf("Thread %s: BlockLoader: copying bytes from %s at position %d into %s%n",Thread.currentThread().getId(),inputStream,blockAddress,readerPosition.getInputStream());
+
+                    try {
+                        compressedBlock = readBGZFBlock(inputStream,accessPlan.getBlockAddress());
+                        nextBlockAddress = position(inputStream);
+                    }
+                    finally {
+                        fileHandleCache.releaseFileInputStream(accessPlan.getReader(),inputStream);
+                    }
+                }
 
                 ByteBuffer block = decompress ? decompressBGZFBlock(compressedBlock) : compressedBlock;
                 int bytesCopied = block.remaining();
@@ -89,6 +135,11 @@ class BlockLoader implements Runnable {
                 BlockInputStream bamInputStream = accessPlan.getInputStream();
                 bamInputStream.copyIntoBuffer(block,accessPlan,nextBlockAddress);
 
+                // The input stream has taken its own copy of the data, so the decompressed block can be recycled.
+                // If anything above fails, the buffer is simply left to the garbage collector.
+                if(decompress)
+                    bufferPool.releaseBuffer(block.array());
+
                 //System.out.printf("Thread %s: BlockLoader: copied %d bytes from %s at position %d into %s%n",Thread.currentThread().getId(),bytesCopied,inputStream,blockAddress,readerPosition.getInputStream());
             }
             catch(Throwable error) {
@@ -120,14 +171,7 @@ class BlockLoader implements Runnable {
                 throw new ReviewedGATKException("BUG: unable to read a the complete block header in one pass.");
 
             // Verify that the file was read at a valid point.
-            if(unpackUByte8(inputBuffer,0) != BlockCompressedStreamConstants.GZIP_ID1 ||
-                    unpackUByte8(inputBuffer,1) != BlockCompressedStreamConstants.GZIP_ID2 ||
-                    unpackUByte8(inputBuffer,3) != BlockCompressedStreamConstants.GZIP_FLG ||
-                    unpackUInt16(inputBuffer,10) != BlockCompressedStreamConstants.GZIP_XLEN ||
-                    unpackUByte8(inputBuffer,12) != BlockCompressedStreamConstants.BGZF_ID1 ||
-                    unpackUByte8(inputBuffer,13) != BlockCompressedStreamConstants.BGZF_ID2) {
-                throw new ReviewedGATKException("BUG: Started reading compressed block at incorrect position");
-            }
+            validateBlockHeader(inputBuffer);
 
             inputBuffer.position(BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET);
             bufferSize = unpackUInt16(inputBuffer,BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET)+1;
@@ -149,28 +193,73 @@ class BlockLoader implements Runnable {
         return inputBuffer;
     }
 
+    /**
+     * Reads the compressed block starting at the given address directly out of a memory-mapped file, without copying.
+     * @param mappedFile The memory-mapped file.
+     * @param blockAddress Address of the start of the block.
+     * @return A view of the complete BGZF block, with position 0 at the start of the block and limit at its end.
+     */
+    private ByteBuffer readBGZFBlock(final MappedFileCache.MappedFile mappedFile, final long blockAddress) {
+        final ByteBuffer block = mappedFile.view(blockAddress);
+        if(block.remaining() < BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH)
+            throw new ReviewedGATKException("BUG: unable to read a the complete block header from the mapped file.");
+
+        validateBlockHeader(block);
+
+        final int blockSize = unpackUInt16(block,BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET)+1;
+        if(block.remaining() < blockSize)
+            throw new ReviewedGATKException("BUG: compressed block extends past the end of the mapped file.");
+        block.limit(blockSize);
+
+        return block;
+    }
+
+    /**
+     * Verify that the block header at the start of the given buffer is a valid BGZF header.
+     * @param buffer Buffer whose first BLOCK_HEADER_LENGTH bytes hold the header.
+     */
+    private void validateBlockHeader(final ByteBuffer buffer) {
+        if(unpackUByte8(buffer,0) != BlockCompressedStreamConstants.GZIP_ID1 ||
+                unpackUByte8(buffer,1) != BlockCompressedStreamConstants.GZIP_ID2 ||
+                unpackUByte8(buffer,3) != BlockCompressedStreamConstants.GZIP_FLG ||
+                unpackUInt16(buffer,10) != BlockCompressedStreamConstants.GZIP_XLEN ||
+                unpackUByte8(buffer,12) != BlockCompressedStreamConstants.BGZF_ID1 ||
+                unpackUByte8(buffer,13) != BlockCompressedStreamConstants.BGZF_ID2) {
+            throw new ReviewedGATKException("BUG: Started reading compressed block at incorrect position");
+        }
+    }
+
     private ByteBuffer decompressBGZFBlock(final ByteBuffer bgzfBlock) throws DataFormatException {
         final int compressedBufferSize = bgzfBlock.remaining();
 
         // Determine the uncompressed buffer size (
         bgzfBlock.position(bgzfBlock.limit()-4);
         int uncompressedBufferSize = bgzfBlock.getInt();
-        byte[] uncompressedContent = new byte[uncompressedBufferSize];
+        if(uncompressedBufferSize > BlockBufferPool.BUFFER_SIZE)
+            throw new ReviewedGATKException("Uncompressed size of BGZF block exceeds the maximum block size: " + uncompressedBufferSize);
+        byte[] uncompressedContent = bufferPool.claimBuffer();
 
         // Bound the CDATA section of the buffer.
         bgzfBlock.limit(compressedBufferSize-BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH);
         bgzfBlock.position(BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH);
-        byte[] compressedContent = new byte[bgzfBlock.remaining()];
-        ByteBuffer.wrap(compressedContent).put(bgzfBlock);
+        final int compressedContentSize = bgzfBlock.remaining();
+        byte[] compressedContent = bufferPool.claimBuffer();
+        bgzfBlock.get(compressedContent,0,compressedContentSize);
 
         // Decompress the buffer.
-        final Inflater inflater = new Inflater(true);
-        inflater.setInput(compressedContent);
-        int bytesUncompressed = inflater.inflate(uncompressedContent);
-        if(bytesUncompressed != uncompressedBufferSize)
-            throw new ReviewedGATKException("Error decompressing block");
+        final Inflater inflater = bufferPool.claimInflater();
+        try {
+            inflater.setInput(compressedContent,0,compressedContentSize);
+            int bytesUncompressed = inflater.inflate(uncompressedContent,0,uncompressedBufferSize);
+            if(bytesUncompressed != uncompressedBufferSize)
+                throw new ReviewedGATKException("Error decompressing block");
+        }
+        finally {
+            bufferPool.releaseInflater(inflater);
+            bufferPool.releaseBuffer(compressedContent);
+        }
 
-        return ByteBuffer.wrap(uncompressedContent);
+        return ByteBuffer.wrap(uncompressedContent,0,uncompressedBufferSize);
     }
 
     private long position(final FileInputStream inputStream) throws IOException {
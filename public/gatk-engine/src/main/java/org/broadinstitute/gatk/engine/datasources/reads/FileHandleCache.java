@@ -36,8 +36,8 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
- * Caches frequently used  file handles.  Right now, caches only a single file handle.
- * TODO: Generalize to support arbitrary file handle caches.
+ * Caches frequently used file handles.  Safe for use by several threads at once: each claimed handle is used by
+ * only one thread until it is released, and at most cacheSize handles are claimed at any time.
  */
 public class FileHandleCache {
     /**
@@ -51,7 +51,8 @@ public class FileHandleCache {
     private final int cacheSize;
 
     /**
-     * A uniquifier: assign a unique ID to every instance of a file handle.
+     * A uniquifier: assign a unique ID to every instance of a file handle.  Never reused, so that
+     * a key never refers to more than one stream.
      */
     private final Map<SAMReaderID,Integer> keyCounter = new HashMap<SAMReaderID,Integer>();
 
@@ -82,17 +83,19 @@ public class FileHandleCache {
     public FileInputStream claimFileInputStream(final SAMReaderID key) {
         synchronized(lock) {
             FileInputStream inputStream = findExistingEntry(key);
-            if(inputStream == null) {
-                try {
-                    // If the cache is maxed out, wait for another file handle to emerge.
-                    if(numOutstandingFileHandles >= cacheSize)
-                        lock.wait();
+            try {
+                // If the cache is maxed out, wait for another file handle to emerge.  Another thread may
+                // claim it before we wake up, so check again every time.
+                while(inputStream == null && numOutstandingFileHandles >= cacheSize) {
+                    lock.wait();
+                    inputStream = findExistingEntry(key);
                 }
-                catch(InterruptedException ex) {
-                    throw new ReviewedGATKException("Interrupted while waiting for a file handle");
-                }
-                inputStream = openInputStream(key);
             }
+            catch(InterruptedException ex) {
+                throw new ReviewedGATKException("Interrupted while waiting for a file handle");
+            }
+            if(inputStream == null)
+                inputStream = openInputStream(key);
             numOutstandingFileHandles++;
 
             //System.out.printf("Handing input stream %s to thread %s%n",inputStream,Thread.currentThread().getId());
@@ -109,9 +112,12 @@ public class FileHandleCache {
         synchronized(lock) {
             numOutstandingFileHandles--;
             UniqueKey newID = allocateKey(key);
-            fileHandleStorage.put(newID,inputStream);
-            // Let any listeners know that another file handle has become available.
-            lock.notify();
+            final FileInputStream replacedStream = fileHandleStorage.put(newID,inputStream);
+            if(replacedStream != null && replacedStream != inputStream)
+                closeInputStream(replacedStream);
+            // Let any listeners know that another file handle has become available.  They may be
+            // waiting for different readers, so wake them all.
+            lock.notifyAll();
         }
     }
 
@@ -121,12 +127,9 @@ public class FileHandleCache {
      * @return a cached stream, if available.  Otherwise,
      */
     private FileInputStream findExistingEntry(final SAMReaderID key) {
-        int existingHandles = getMostRecentUniquifier(key);
-
-        // See if any of the keys currently exist in the repository.
-        for(int i = 0; i <= existingHandles; i++) {
-            UniqueKey uniqueKey = new UniqueKey(key,i);
-            if(fileHandleStorage.containsKey(uniqueKey))
+        // The storage holds at most cacheSize handles, so just look through all of them.
+        for(final UniqueKey uniqueKey: fileHandleStorage.keySet()) {
+            if(uniqueKey.key.equals(key))
                 return fileHandleStorage.remove(uniqueKey);
         }
 
@@ -164,7 +167,7 @@ public class FileHandleCache {
             inputStream.close();
         }
         catch(IOException ex) {
-            throw new GATKException("Unable to open input file");
+            throw new GATKException("Unable to close input file");
         }
     }
 
@@ -181,7 +184,6 @@ public class FileHandleCache {
         protected boolean removeEldestEntry(Map.Entry<UniqueKey,FileInputStream> entry) {
             synchronized (lock) {
                 if(size() > cacheSize) {
-                    keyCounter.put(entry.getKey().key,keyCounter.get(entry.getKey().key)-1);
                     closeInputStream(entry.getValue());
 
                     return true;
@@ -27,29 +27,31 @@ package org.broadinstitute.gatk.engine.datasources.reads;
 
 import htsjdk.samtools.Bin;
 import htsjdk.samtools.GATKBin;
-import htsjdk.samtools.GATKChunk;
 import htsjdk.samtools.LinearIndex;
 import htsjdk.samtools.SAMSequenceDictionary;
-import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.cram.CRAIIndex;
-import htsjdk.samtools.reference.IndexedFastaSequenceFile;
-import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
-import htsjdk.samtools.seekablestream.SeekableBufferedStream;
-import htsjdk.samtools.seekablestream.SeekableFileStream;
+import htsjdk.samtools.seekablestream.SeekableStream;
 import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.SoftReference;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.ArrayList;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * A basic interface for querying BAM indices.
- * Very much not thread-safe.
+ *
+ * The index file is mapped into memory read-only when the index is opened, and the bins and linear index for
+ * each reference sequence are decoded from the mapping into primitive arrays the first time that sequence is
+ * requested.  Decoded sequences are shared by every caller until the garbage collector needs the memory back,
+ * so all threads and shards querying the same index see a single copy.  Safe for use from multiple threads.
  *
  * @author mhanna
  * @version 0.1
@@ -77,8 +79,11 @@ public class GATKBAMIndex {
 
     private final File mFile;
 
-    //TODO: figure out a good value for this buffer size
-    private final int BUFFERED_STREAM_BUFFER_SIZE = 8192;
+    /**
+     * The contents of the index, either mapped directly from disk or, for CRAM indices, converted into BAI
+     * format on the heap.  Never read directly; see createReader().
+     */
+    private final ByteBuffer indexContents;
 
     /**
      * Number of sequences stored in this index.
@@ -89,29 +94,25 @@ public class GATKBAMIndex {
      * A cache of the starting positions of the sequences.
      */
     private final long[] sequenceStartCache;
-    private SAMSequenceDictionary dictionary;
 
-    private SeekableFileStream fileStream;
-    private SeekableBufferedStream bufferedStream;
-    private long fileLength;
+    /**
+     * Decoded bins and linear index for each sequence, populated on first use.
+     */
+    private final AtomicReferenceArray<SoftReference<GATKBAMIndexData>> sequenceDataCache;
 
     public GATKBAMIndex(final File file, SAMSequenceDictionary dictionary) {
-        this.dictionary = dictionary;
         mFile = file;
-        // Open the file stream.
-        openIndexFile();
+        indexContents = loadIndexContents(dictionary);
 
         // Verify the magic number.
-        seek(0);
-        final byte[] buffer = readBytes(4);
+        final ByteBuffer reader = createReader(0);
+        final byte[] buffer = readBytes(reader,4);
         if (!Arrays.equals(buffer, BAM_INDEX_MAGIC)) {
             throw new ReviewedGATKException("Invalid file header in BAM index " + mFile +
-                    ": " + new String(buffer));
+                                       ": " + new String(buffer));
         }
 
-        seek(4);
-
-        sequenceCount = readInteger();
+        sequenceCount = readInteger(reader);
 
         // Create a cache of the starting position of each sequence.  Initialize it to -1.
         sequenceStartCache = new long[sequenceCount];
@@ -120,76 +121,108 @@ public class GATKBAMIndex {
 
         // Seed the first element in the array with the current position.
         if(sequenceCount > 0)
-            sequenceStartCache[0] = position();
+            sequenceStartCache[0] = reader.position();
 
-        closeIndexFile();
+        sequenceDataCache = new AtomicReferenceArray<SoftReference<GATKBAMIndexData>>(sequenceCount);
     }
 
     public GATKBAMIndex(final File file) {
-        mFile = file;
-        // Open the file stream.
-        openIndexFile();
-
-        // Verify the magic number.
-        seek(0);
-        final byte[] buffer = readBytes(4);
-        if (!Arrays.equals(buffer, BAM_INDEX_MAGIC)) {
-            throw new ReviewedGATKException("Invalid file header in BAM index " + mFile +
-                                       ": " + new String(buffer));
-        }
-
-        seek(4);
-
-        sequenceCount = readInteger();
-
-        // Create a cache of the starting position of each sequence.  Initialize it to -1.
-        sequenceStartCache = new long[sequenceCount];
-        for(int i = 1; i < sequenceCount; i++)
-            sequenceStartCache[i] = -1;
-
-        // Seed the first element in the array with the current position.
-        if(sequenceCount > 0)
-            sequenceStartCache[0] = position();
-
-        closeIndexFile();
+        this(file,null);
     }
 
+    /**
+     * Gets the bins and linear index for the given reference sequence, decoding them from the index if they
+     * haven't been requested already.
+     * @param referenceSequence Index of the reference sequence.
+     * @return The index data for that sequence.  Shared between all callers; must not be modified.
+     */
     public GATKBAMIndexData readReferenceSequence(final int referenceSequence) {
-        openIndexFile();
-
         if (referenceSequence >= sequenceCount)
             throw new ReviewedGATKException("Invalid sequence number " + referenceSequence + " in index file " + mFile);
 
-        skipToSequence(referenceSequence);
-
-        int binCount = readInteger();
-        List<GATKBin> bins = new ArrayList<GATKBin>();
-        for (int binNumber = 0; binNumber < binCount; binNumber++) {
-            final int indexBin = readInteger();
-            final int nChunks = readInteger();
+        final SoftReference<GATKBAMIndexData> cachedReference = sequenceDataCache.get(referenceSequence);
+        GATKBAMIndexData indexData = cachedReference != null ? cachedReference.get() : null;
+        if(indexData == null) {
+            // Two threads may race to decode the same sequence; both produce identical data, and the loser's copy
+            // is simply dropped.
+            indexData = decodeReferenceSequence(referenceSequence);
+            sequenceDataCache.set(referenceSequence,new SoftReference<GATKBAMIndexData>(indexData));
+        }
+        return indexData;
+    }
 
-            List<GATKChunk> chunks = new ArrayList<GATKChunk>(nChunks);
-            long[] rawChunkData = readLongs(nChunks*2);
-            for (int ci = 0; ci < nChunks; ci++) {
-                final long chunkBegin = rawChunkData[ci*2];
-                final long chunkEnd = rawChunkData[ci*2+1];
-                chunks.add(new GATKChunk(chunkBegin, chunkEnd));
-            }
-            GATKBin bin = new GATKBin(referenceSequence, indexBin);
-            bin.setChunkList(chunks.toArray(new GATKChunk[chunks.size()]));
-            while(indexBin >= bins.size())
-                bins.add(null);
-            bins.set(indexBin,bin);
+    private GATKBAMIndexData decodeReferenceSequence(final int referenceSequence) {
+        final long sequenceStart = skipToSequence(referenceSequence);
+
+        // Record where each bin lives and how many chunks there are in total, so that every bin can be decoded
+        // into a single flat array.  Each sort key packs the bin number above the bin's position in the file,
+        // allowing the bins to be ordered by bin number for binary search.
+        final ByteBuffer reader = createReader(sequenceStart);
+        final int binCount = readInteger(reader);
+        requireBytes(reader,8L*binCount);
+        final long[] sortKeys = new long[binCount];
+        final int[] binPositions = new int[binCount];
+        int chunkCount = 0;
+        for (int i = 0; i < binCount; i++) {
+            binPositions[i] = reader.position();
+            sortKeys[i] = ((long)readInteger(reader) << 32) | i;
+            final int nChunks = readInteger(reader);
+            skipBytes(reader,16L*nChunks);
+            chunkCount += nChunks;
+        }
+        final int linearIndexPosition = reader.position();
+        Arrays.sort(sortKeys);
+
+        final int[] binNumbers = new int[binCount];
+        final int[] chunkOffsets = new int[binCount+1];
+        final long[] chunkBoundaries = new long[chunkCount*2];
+        int chunkBoundaryCount = 0;
+        for (int i = 0; i < binCount; i++) {
+            binNumbers[i] = (int)(sortKeys[i] >>> 32);
+            chunkOffsets[i] = chunkBoundaryCount;
+
+            reader.position(binPositions[(int)sortKeys[i]]+4);
+            final int nChunks = readInteger(reader);
+            readLongs(reader,chunkBoundaries,chunkBoundaryCount,nChunks*2);
+            chunkBoundaryCount += nChunks*2;
         }
+        chunkOffsets[binCount] = chunkBoundaryCount;
 
-        final int nLinearBins = readInteger();
-        long[] linearIndexEntries = readLongs(nLinearBins);
+        reader.position(linearIndexPosition);
+        final int nLinearBins = readInteger(reader);
+        requireBytes(reader,8L*nLinearBins);
+        final long[] linearIndexEntries = new long[nLinearBins];
+        readLongs(reader,linearIndexEntries,0,nLinearBins);
 
         LinearIndex linearIndex = new LinearIndex(referenceSequence,0,linearIndexEntries);
 
-        closeIndexFile();
+        return new GATKBAMIndexData(this,referenceSequence,binNumbers,chunkOffsets,chunkBoundaries,linearIndex);
+    }
+
+    /**
+     * Gets the file from which this index is loaded.
+     * @return The BAM index file.
+     */
+    public File getIndexFile() {
+        return mFile;
+    }
+
+    /**
+     * Gets the linear index window containing the given locus.
+     * @param locus 1-based position on the reference sequence.
+     * @return Index of the 16kb linear index window containing the locus.
+     */
+    public static int getLinearIndexWindow(final int locus) {
+        return (locus-1) >> LinearIndex.BAM_LIDX_SHIFT;
+    }
 
-        return new GATKBAMIndexData(this,referenceSequence,bins,linearIndex);
+    /**
+     * Gets the last locus covered by the given linear index window.
+     * @param window Index of the linear index window.
+     * @return 1-based position of the last locus in the window.
+     */
+    public static int getLastLocusInLinearIndexWindow(final int window) {
+        return (window+1) << LinearIndex.BAM_LIDX_SHIFT;
     }
 
     /**
@@ -267,36 +300,30 @@ public class GATKBAMIndex {
      * if there are no elements in linear bins (i.e. no mapped reads).
      */
     public long getStartOfLastLinearBin() {
-        openIndexFile();
-
-        seek(4);
+        final ByteBuffer reader = createReader(4);
 
-        final int sequenceCount = readInteger();
+        final int sequenceCount = readInteger(reader);
         // Because no reads may align to the last sequence in the sequence dictionary,
         // grab the last element of the linear index for each sequence, and return
         // the last one from the last sequence that has one.
         long lastLinearIndexPointer = -1;
         for (int i = 0; i < sequenceCount; i++) {
-            // System.out.println("# Sequence TID: " + i);
-            final int nBins = readInteger();
-            // System.out.println("# nBins: " + nBins);
+            final int nBins = readInteger(reader);
             for (int j1 = 0; j1 < nBins; j1++) {
                 // Skip bin #
-                skipBytes(4);
-                final int nChunks = readInteger();
+                skipBytes(reader,4);
+                final int nChunks = readInteger(reader);
                 // Skip chunks
-                skipBytes(16 * nChunks);
+                skipBytes(reader,16L*nChunks);
             }
-            final int nLinearBins = readInteger();
+            final int nLinearBins = readInteger(reader);
             if (nLinearBins > 0) {
                 // Skip to last element of list of linear bins
-                skipBytes(8 * (nLinearBins - 1));
-                lastLinearIndexPointer = readLongs(1)[0];
+                skipBytes(reader,8L*(nLinearBins - 1));
+                lastLinearIndexPointer = readLong(reader);
             }
         }
 
-        closeIndexFile();
-
         return lastLinearIndexPointer;
     }
 
@@ -308,195 +335,149 @@ public class GATKBAMIndex {
         return BIN_GENOMIC_SPAN;
     }
 
-    protected void skipToSequence(final int referenceSequence) {
-        // Find the offset in the file of the last sequence whose position has been determined.  Start here
-        // when searching the sequence for the next value to read.  (Note that sequenceStartCache[0] will always
-        // be present, so no extra stopping condition is necessary.
-        int sequenceIndex = referenceSequence;
-        while(sequenceStartCache[sequenceIndex] == -1)
-            sequenceIndex--;
-
-        // Advance to the most recently found position.
-        seek(sequenceStartCache[sequenceIndex]);
-
-        for (int i = sequenceIndex; i < referenceSequence; i++) {
-            sequenceStartCache[i] = position();
-            // System.out.println("# Sequence TID: " + i);
-            final int nBins = readInteger();
-            // System.out.println("# nBins: " + nBins);
-            for (int j = 0; j < nBins; j++) {
-                final int bin = readInteger();
-                final int nChunks = readInteger();
-                // System.out.println("# bin[" + j + "] = " + bin + ", nChunks = " + nChunks);
-                skipBytes(16 * nChunks);
+    /**
+     * Finds the offset in the index at which the given reference sequence starts.
+     * @param referenceSequence Index of the reference sequence.
+     * @return Offset of the bin count of the given sequence.
+     */
+    protected long skipToSequence(final int referenceSequence) {
+        synchronized(sequenceStartCache) {
+            if(sequenceStartCache[referenceSequence] != -1)
+                return sequenceStartCache[referenceSequence];
+
+            // Find the offset in the file of the last sequence whose position has been determined.  Start here
+            // when searching the sequence for the next value to read.  (Note that sequenceStartCache[0] will always
+            // be present, so no extra stopping condition is necessary.
+            int sequenceIndex = referenceSequence;
+            while(sequenceStartCache[sequenceIndex] == -1)
+                sequenceIndex--;
+
+            // Advance to the most recently found position.
+            final ByteBuffer reader = createReader(sequenceStartCache[sequenceIndex]);
+
+            for (int i = sequenceIndex; i < referenceSequence; i++) {
+                sequenceStartCache[i] = reader.position();
+                final int nBins = readInteger(reader);
+                for (int j = 0; j < nBins; j++) {
+                    skipBytes(reader,4);
+                    final int nChunks = readInteger(reader);
+                    skipBytes(reader,16L*nChunks);
+                }
+                final int nLinearBins = readInteger(reader);
+                skipBytes(reader,8L*nLinearBins);
             }
-            final int nLinearBins = readInteger();
-            // System.out.println("# nLinearBins: " + nLinearBins);
-            skipBytes(8 * nLinearBins);
 
+            sequenceStartCache[referenceSequence] = reader.position();
+            return sequenceStartCache[referenceSequence];
         }
-
-        sequenceStartCache[referenceSequence] = position();
     }
 
-
-    private void openIndexFile() {
+    /**
+     * Load the contents of the index.  BAI files are mapped directly; CRAI files are converted to BAI format
+     * and held on the heap.
+     * @param dictionary Sequence dictionary, required only for CRAM indices.
+     * @return A buffer containing the complete BAI-formatted index.
+     */
+    private ByteBuffer loadIndexContents(final SAMSequenceDictionary dictionary) {
         try {
-            fileStream = new SeekableFileStream(mFile);
-            if (mFile.getName().endsWith(".crai"))
-                bufferedStream = new SeekableBufferedStream(CRAIIndex.openCraiFileAsBaiStream(mFile, dictionary));
-            else
-                bufferedStream = new SeekableBufferedStream(fileStream, BUFFERED_STREAM_BUFFER_SIZE);
+            if (mFile.getName().endsWith(".crai")) {
+                final SeekableStream baiStream = CRAIIndex.openCraiFileAsBaiStream(mFile, dictionary);
+                try {
+                    final ByteArrayOutputStream contents = new ByteArrayOutputStream();
+                    final byte[] buffer = new byte[8192];
+                    int bytesRead;
+                    while((bytesRead = baiStream.read(buffer,0,buffer.length)) > 0)
+                        contents.write(buffer,0,bytesRead);
+                    return ByteBuffer.wrap(contents.toByteArray());
+                }
+                finally {
+                    baiStream.close();
+                }
+            }
 
-            fileLength = bufferedStream.length();
+            final RandomAccessFile file = new RandomAccessFile(mFile,"r");
+            try {
+                final FileChannel channel = file.getChannel();
+                if(channel.size() > Integer.MAX_VALUE)
+                    throw new UserException.MalformedFile(mFile,"BAM index is too large to be loaded");
+                // The mapping remains valid once the channel is closed.
+                return channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+            }
+            finally {
+                file.close();
+            }
         } catch (IOException exc) {
             throw new ReviewedGATKException("Unable to open index file (" + exc.getMessage() + ")" + mFile, exc);
         }
     }
 
-    private void closeIndexFile() {
-        try {
-            bufferedStream.close();
-            fileStream.close();
-            fileLength = -1;
-        }
-        catch (IOException exc) {
-            throw new ReviewedGATKException("Unable to close index file " + mFile, exc);
-        }
+    /**
+     * Creates an independent, little-endian view of the index contents.
+     * @param position Position at which to start reading.
+     * @return A buffer positioned at the given offset.
+     */
+    private ByteBuffer createReader(final long position) {
+        final ByteBuffer reader = indexContents.duplicate();
+        reader.order(ByteOrder.LITTLE_ENDIAN);
+        if(position > reader.limit())
+            throwTruncated();
+        reader.position((int)position);
+        return reader;
     }
 
-    private static final int INT_SIZE_IN_BYTES = Integer.SIZE / 8;
-    private static final int LONG_SIZE_IN_BYTES = Long.SIZE / 8;
-
-    private byte[] readBytes(int count) {
-        ByteBuffer buffer = getBuffer(count);
-        read(buffer);
-        buffer.flip();
+    private byte[] readBytes(final ByteBuffer reader, final int count) {
+        requireBytes(reader,count);
         byte[] contents = new byte[count];
-        buffer.get(contents);
+        reader.get(contents);
         return contents;
     }
 
-    private int readInteger() {
-        ByteBuffer buffer = getBuffer(INT_SIZE_IN_BYTES);
-        read(buffer);
-        buffer.flip();
-        return buffer.getInt();
+    private int readInteger(final ByteBuffer reader) {
+        requireBytes(reader,INT_SIZE_IN_BYTES);
+        return reader.getInt();
+    }
+
+    private long readLong(final ByteBuffer reader) {
+        requireBytes(reader,LONG_SIZE_IN_BYTES);
+        return reader.getLong();
     }
 
     /**
-     * Reads an array of <count> longs from the file channel, returning the results as an array.
+     * Reads <count> longs from the index into the given array.
+     * @param reader Source of the data.
+     * @param destination Array into which to read.
+     * @param offset Offset in the array at which to store the first long.
      * @param count Number of longs to read.
-     * @return An array of longs.  Size of array should match count.
      */
-    private long[] readLongs(final int count) {
-        ByteBuffer buffer = getBuffer(count*LONG_SIZE_IN_BYTES);
-        read(buffer);
-        buffer.flip();
-        long[] result = new long[count];
-        for(int i = 0; i < count; i++)
-            result[i] = buffer.getLong();
-        return result;
+    private void readLongs(final ByteBuffer reader, final long[] destination, final int offset, final int count) {
+        requireBytes(reader,(long)count*LONG_SIZE_IN_BYTES);
+        reader.asLongBuffer().get(destination,offset,count);
+        reader.position(reader.position()+count*LONG_SIZE_IN_BYTES);
     }
 
-    private void read(final ByteBuffer buffer) {
-        final int bytesRequested = buffer.limit();
-        if (bytesRequested == 0)
-            return;
-
-        try {
-
-           //BufferedInputStream cannot read directly into a byte buffer, so we read into an array
-            //and put the result into the bytebuffer after the if statement.
-
-            // We have a rigid expectation here to read in exactly the number of bytes we've limited
-            // our buffer to -- if there isn't enough data in the file, the index
-            // must be truncated or otherwise corrupt:
-            if(bytesRequested > fileLength - bufferedStream.position()){
-                throw new UserException.MalformedFile(mFile, String.format("Premature end-of-file while reading BAM index file %s. " +
-                        "It's likely that this file is truncated or corrupt -- " +
-                        "Please try re-indexing the corresponding BAM file.",
-                        mFile));
-            }
-
-            int bytesRead = bufferedStream.read(byteArray, 0, bytesRequested);
-
-            // We have a rigid expectation here to read in exactly the number of bytes we've limited
-            // our buffer to -- if we encounter EOF (-1), the index
-            // must be truncated or otherwise corrupt:
-            if (bytesRead <= 0) {
-            throw new UserException.MalformedFile(mFile, String.format("Premature end-of-file while reading BAM index file %s. " +
-                                                                       "It's likely that this file is truncated or corrupt -- " +
-                                                                       "Please try re-indexing the corresponding BAM file.",
-                                                                       mFile));
-            }
-
-            if(bytesRead != bytesRequested)
-                throw new RuntimeException("Read amount different from requested amount. This should not happen.");
-
-            buffer.put(byteArray, 0, bytesRequested);
-        }
-        catch(IOException ex) {
-            throw new ReviewedGATKException("Index: unable to read bytes from index file " + mFile);
-        }
+    private void skipBytes(final ByteBuffer reader, final long count) {
+        requireBytes(reader,count);
+        reader.position(reader.position()+(int)count);
     }
 
+    private static final int INT_SIZE_IN_BYTES = Integer.SIZE / 8;
+    private static final int LONG_SIZE_IN_BYTES = Long.SIZE / 8;
 
     /**
-     * A reusable buffer for use by this index generator.
-     * TODO: Should this be a SoftReference?
+     * We have a rigid expectation that every structure described by the index is fully present -- if there
+     * isn't enough data in the file, the index must be truncated or otherwise corrupt.
+     * @param reader Buffer from which data is about to be read.
+     * @param count Number of bytes about to be read.
      */
-    private ByteBuffer buffer = null;
-
-    //BufferedStream don't read into ByteBuffers, so we need this temporary array
-    private byte[] byteArray=null;
-    private ByteBuffer getBuffer(final int size) {
-        if(buffer == null || buffer.capacity() < size) {
-            // Allocate a new byte buffer.  For now, make it indirect to make sure it winds up on the heap for easier debugging.
-            buffer = ByteBuffer.allocate(size);
-            byteArray = new byte[size];
-            buffer.order(ByteOrder.LITTLE_ENDIAN);
-        }
-        buffer.clear();
-        buffer.limit(size);
-        return buffer;
-    }
-
-    private void skipBytes(final int count) {
-        try {
-
-            //try to skip forward the requested amount.
-            long skipped =  bufferedStream.skip(count);
-
-            if( skipped != count ) { //if not managed to skip the requested amount
-                throw new ReviewedGATKException("Index: unable to reposition file channel of index file " + mFile);
-            }
-        }
-        catch(IOException ex) {
-            throw new ReviewedGATKException("Index: unable to reposition file channel of index file " + mFile);
-        }
-    }
-
-    private void seek(final long position) {
-        try {
-            //to seek a new position, move the fileChannel, and reposition the bufferedStream
-            bufferedStream.seek(position);
-        }
-        catch(IOException ex) {
-            throw new ReviewedGATKException("Index: unable to reposition of file channel of index file " + mFile);
-        }
+    private void requireBytes(final ByteBuffer reader, final long count) {
+        if(count < 0 || count > reader.remaining())
+            throwTruncated();
     }
 
-    /**
-     * Retrieve the position from the current file channel.
-     * @return position of the current file channel.
-     */
-    private long position() {
-        try {
-            return bufferedStream.position();
-        }
-        catch (IOException exc) {
-            throw new ReviewedGATKException("Unable to read position from index file " + mFile, exc);
-        }
+    private void throwTruncated() {
+        throw new UserException.MalformedFile(mFile, String.format("Premature end-of-file while reading BAM index file %s. " +
+                                                                   "It's likely that this file is truncated or corrupt -- " +
+                                                                   "Please try re-indexing the corresponding BAM file.",
+                                                                   mFile));
     }
 }
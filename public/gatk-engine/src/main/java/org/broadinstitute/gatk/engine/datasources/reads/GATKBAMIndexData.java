@@ -31,23 +31,55 @@ import htsjdk.samtools.GATKBin;
 import htsjdk.samtools.GATKChunk;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 /**
- * Stores and processes a single reference worth of GATK data.
+ * Stores and processes a single reference worth of GATK data.  Bins are held as flat primitive arrays rather than
+ * as individual bin and chunk objects; instances are immutable and may be shared between threads.
  */
 public class GATKBAMIndexData {
     private final GATKBAMIndex index;
     private final int referenceSequence;
-    private final List<GATKBin> bins;
+
+    /**
+     * Numbers of the bins present in this reference sequence, in ascending order.
+     */
+    private final int[] binNumbers;
+
+    /**
+     * For the bin at each position in binNumbers, the offset into chunkBoundaries of its first chunk.  Contains
+     * one extra trailing entry marking the end of the last bin's chunks.
+     */
+    private final int[] chunkOffsets;
+
+    /**
+     * Start and end virtual file offsets of each chunk, interleaved.
+     */
+    private final long[] chunkBoundaries;
+
     private final LinearIndex linearIndex;
 
-    public GATKBAMIndexData(final GATKBAMIndex index, final int referenceSequence, final List<GATKBin> bins, final LinearIndex linearIndex) {
+    /**
+     * Virtual file offset of the end of the last chunk holding reads for this reference sequence.
+     */
+    private final long endOfData;
+
+    public GATKBAMIndexData(final GATKBAMIndex index, final int referenceSequence, final int[] binNumbers, final int[] chunkOffsets, final long[] chunkBoundaries, final LinearIndex linearIndex) {
         this.index = index;
         this.referenceSequence = referenceSequence;
-        this.bins = bins;
+        this.binNumbers = binNumbers;
+        this.chunkOffsets = chunkOffsets;
+        this.chunkBoundaries = chunkBoundaries;
         this.linearIndex = linearIndex;
+
+        // The metadata pseudo-bin doesn't hold real chunks, and sorts last.
+        long endOfData = 0;
+        final int lastRealChunk = binNumbers.length > 0 && binNumbers[binNumbers.length-1] >= GATKBAMIndex.MAX_BINS ? chunkOffsets[binNumbers.length-1] : chunkBoundaries.length;
+        for(int i = 1; i < lastRealChunk; i += 2)
+            endOfData = Math.max(endOfData,chunkBoundaries[i]);
+        this.endOfData = endOfData;
     }
 
     public int getReferenceSequence() {
@@ -68,24 +100,17 @@ public class GATKBAMIndexData {
         final int binLevel = index.getLevelForBin(bin);
         final int firstLocusInBin = index.getFirstLocusInBin(bin);
 
+        List<GATKChunk> chunkList = new ArrayList<GATKChunk>();
+
         // Add the specified bin to the tree if it exists.
-        List<GATKBin> binTree = new ArrayList<GATKBin>();
-        if(gatkBin.getBinNumber() < bins.size() && bins.get(gatkBin.getBinNumber()) != null)
-            binTree.add(bins.get(gatkBin.getBinNumber()));
+        addChunks(gatkBin.getBinNumber(),chunkList);
 
         int currentBinLevel = binLevel;
         while(--currentBinLevel >= 0) {
             final int binStart = index.getFirstBinInLevel(currentBinLevel);
             final int binWidth = index.getMaxAddressibleGenomicLocation()/index.getLevelSize(currentBinLevel);
             final int binNumber = firstLocusInBin/binWidth + binStart;
-            if(binNumber < bins.size() && bins.get(binNumber) != null)
-                binTree.add(bins.get(binNumber));
-        }
-
-        List<GATKChunk> chunkList = new ArrayList<GATKChunk>();
-        for(GATKBin coveringBin: binTree) {
-            for(GATKChunk chunk: coveringBin.getChunkList())
-                chunkList.add(chunk.clone());
+            addChunks(binNumber,chunkList);
         }
 
         final int start = index.getFirstLocusInBin(bin);
@@ -93,6 +118,56 @@ public class GATKBAMIndexData {
         return new GATKBAMFileSpan(chunkList.toArray(new GATKChunk[chunkList.size()]));
     }
 
+    /**
+     * Gets the smallest virtual file offset of any read overlapping the given locus.
+     * @param locus 1-based position on this reference sequence.
+     * @return The minimum offset, according to the linear index.
+     */
+    public long getMinimumOffset(final int locus) {
+        return linearIndex.getMinimumOffset(locus);
+    }
+
+    /**
+     * Estimates the size of the reads starting in the given linear index window, from the distance between the
+     * window's linear index entry and the next distinct entry.  Follows the same conventions as
+     * FilePointer.size(): the compressed distance is scaled up to an approximate number of uncompressed bytes.
+     *
+     * A window whose entry matches its predecessor's shares its first read with that window, and all of its data
+     * is attributed there.
+     *
+     * @param window Index of the linear index window; see GATKBAMIndex.getLinearIndexWindow().
+     * @return Approximate size of the reads in the window, or 0 if the window is empty.
+     */
+    public long estimateWindowSize(final int window) {
+        final long[] entries = linearIndex.getIndexEntries();
+        if(window < 0 || window >= entries.length || entries[window] == 0)
+            return 0;
+        if(window > 0 && entries[window] == entries[window-1])
+            return 0;
+
+        long nextOffset = endOfData;
+        for(int nextWindow = window+1; nextWindow < entries.length; nextWindow++) {
+            if(entries[nextWindow] != 0 && entries[nextWindow] != entries[window]) {
+                nextOffset = entries[nextWindow];
+                break;
+            }
+        }
+        return nextOffset > entries[window] ? new GATKChunk(entries[window],nextOffset).size() : 0;
+    }
+
+    /**
+     * Add fresh copies of the chunks in the given bin, if present, to the given list.
+     * @param binNumber Number of the bin.
+     * @param chunkList List to which to add the chunks.
+     */
+    private void addChunks(final int binNumber, final List<GATKChunk> chunkList) {
+        final int binPosition = Arrays.binarySearch(binNumbers,binNumber);
+        if(binPosition < 0)
+            return;
+        for(int i = chunkOffsets[binPosition]; i < chunkOffsets[binPosition+1]; i += 2)
+            chunkList.add(new GATKChunk(chunkBoundaries[i],chunkBoundaries[i+1]));
+    }
+
     private List<GATKChunk> optimizeChunkList(final List<GATKChunk> chunks, final long minimumOffset) {
         GATKChunk lastChunk = null;
         Collections.sort(chunks);
@@ -56,10 +56,12 @@ public class IntervalSharder implements Iterator<FilePointer> {
     }
 
     public static IntervalSharder shardOverIntervals(final SAMDataSource dataSource, final GenomeLocSortedSet loci, final IntervalMergingRule intervalMergeRule) {
-        return new IntervalSharder(BAMScheduler.createOverIntervals(dataSource,intervalMergeRule,loci),loci.getGenomeLocParser());
+        final ShardPlanCache planCache = dataSource.getShardPlanCache();
+        final Iterator<FilePointer> schedule = planCache != null ? planCache.getSchedule(dataSource,intervalMergeRule,loci) : BAMScheduler.createOverIntervals(dataSource,intervalMergeRule,loci);
+        return new IntervalSharder(schedule,loci.getGenomeLocParser());
     }
 
-    private IntervalSharder(final BAMScheduler scheduler, final GenomeLocParser parser) {
+    private IntervalSharder(final Iterator<FilePointer> scheduler, final GenomeLocParser parser) {
         wrappedIterator = new PeekableIterator<FilePointer>(scheduler);
         this.parser = parser;
     }
@@ -22,15 +22,61 @@
 * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
 * THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 */
-
 package org.broadinstitute.gatk.engine.datasources.reads;
 
+import htsjdk.samtools.GATKBAMFileSpan;
+import htsjdk.samtools.GATKChunk;
+import htsjdk.samtools.SAMFileSpan;
+import org.broadinstitute.gatk.utils.GenomeLoc;
+import org.broadinstitute.gatk.utils.sam.SAMReaderID;
+
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Batch granular file pointers into potentially larger shards.
+ *
+ * When given a target shard cost, uses the linear indices of the BAM files to estimate how much data each file
+ * pointer covers, splitting pointers that cover far more than the target along linear index window boundaries and
+ * merging runs of cheap pointers on the same contig until they approach it.
  */
 public class LocusShardBalancer extends ShardBalancer {
+    /**
+     * The most pieces into which a single linear index window will be split.  Every piece of a window starts
+     * reading at the same place in the file, so slicing a window ever more finely only multiplies the amount of
+     * data read and discarded.
+     */
+    protected static final int MAX_PIECES_PER_WINDOW = 8;
+
+    /**
+     * Target estimated cost of each shard, in the units of FilePointer.size(), or 0 to leave the file pointers
+     * as they were sharded.
+     */
+    private final long targetShardCost;
+
+    /**
+     * Shards split off a costly file pointer, waiting to be handed out.
+     */
+    private final LinkedList<Shard> pendingShards = new LinkedList<Shard>();
+
+    public LocusShardBalancer() {
+        this(0);
+    }
+
+    /**
+     * Create a balancer that aims to give each shard the given estimated cost.
+     * @param targetShardCost Target cost in the units of FilePointer.size(); 0 disables cost-based balancing.
+     */
+    public LocusShardBalancer(final long targetShardCost) {
+        if(targetShardCost < 0)
+            throw new IllegalArgumentException("Target shard cost cannot be negative: " + targetShardCost);
+        this.targetShardCost = targetShardCost;
+    }
+
     /**
      * Convert iterators of file pointers into balanced iterators of shards.
      * @return An iterator over balanced shards.
@@ -38,16 +84,37 @@ public class LocusShardBalancer extends ShardBalancer {
     public Iterator<Shard> iterator() {
         return new Iterator<Shard>() {
             public boolean hasNext() {
-                return filePointers.hasNext();
+                final boolean hasNext = !pendingShards.isEmpty() || filePointers.hasNext();
+                if(!hasNext)
+                    logCostHistogram();
+                return hasNext;
             }
 
             public Shard next() {
+                if(!pendingShards.isEmpty())
+                    return pendingShards.removeFirst();
+
                 FilePointer current = filePointers.next();
+                long cost = estimateCost(current);
 
-                // FilePointers have already been combined as necessary at the IntervalSharder level. No
-                // need to do so again here.
+                // FilePointers have already been combined as necessary at the IntervalSharder level. Only revisit
+                // that decision if we've been asked to balance by cost.
+                if(targetShardCost > 0 && cost > targetShardCost) {
+                    pendingShards.addAll(split(current));
+                    return pendingShards.removeFirst();
+                }
 
-                return new LocusShard(parser,readsDataSource,current.getLocations(),current.fileSpans);
+                if(targetShardCost > 0 && cost >= 0) {
+                    while(filePointers.hasNext() && isMergeable(current,filePointers.peek())) {
+                        final long nextCost = estimateCost(filePointers.peek());
+                        if(nextCost < 0 || cost + nextCost > targetShardCost)
+                            break;
+                        current = current.combine(parser,filePointers.next());
+                        cost += nextCost;
+                    }
+                }
+
+                return createShard(current.getLocations(),current.fileSpans,cost);
             }
 
             public void remove() {
@@ -55,4 +122,97 @@ public class LocusShardBalancer extends ShardBalancer {
             }
         };
     }
+
+    /**
+     * Can the next file pointer be folded into the current one?
+     * @param current The file pointer accumulated so far.
+     * @param next The next file pointer in the stream.
+     * @return True if both pointers are mapped, unsharded regions on the same contig.
+     */
+    private boolean isMergeable(final FilePointer current, final FilePointer next) {
+        return !next.isRegionUnmapped && !next.isMonolithic() && next.getContigIndex() == current.getContigIndex();
+    }
+
+    /**
+     * Split a costly file pointer into pieces whose estimated cost approaches the target, along linear index
+     * window boundaries.  A single window costing more than the target is itself divided evenly by locus.
+     * @param filePointer The file pointer to split; must be mapped and on a single contig.
+     * @return Shards covering exactly the locations of the file pointer, in order.
+     */
+    protected List<Shard> split(final FilePointer filePointer) {
+        final List<Shard> shards = new ArrayList<Shard>();
+        final List<GenomeLoc> pieceLocations = new ArrayList<GenomeLoc>();
+        long pieceCost = 0;
+
+        for(final GenomeLoc location: filePointer.getLocations()) {
+            final String contig = location.getContig();
+            for(int window = GATKBAMIndex.getLinearIndexWindow(location.getStart()); window <= GATKBAMIndex.getLinearIndexWindow(location.getStop()); window++) {
+                final int start = Math.max(location.getStart(),GATKBAMIndex.getLastLocusInLinearIndexWindow(window-1)+1);
+                final int stop = Math.min(location.getStop(),GATKBAMIndex.getLastLocusInLinearIndexWindow(window));
+                final long windowCost = estimateCost(filePointer,contig,start,stop);
+
+                if(windowCost > targetShardCost) {
+                    if(!pieceLocations.isEmpty())
+                        shards.add(createPiece(filePointer,pieceLocations,pieceCost));
+                    pieceLocations.clear();
+                    pieceCost = 0;
+
+                    final int length = stop - start + 1;
+                    final int numPieces = (int)Math.min(Math.min((windowCost + targetShardCost - 1) / targetShardCost,MAX_PIECES_PER_WINDOW),length);
+                    for(int piece = 0; piece < numPieces; piece++) {
+                        final int pieceStart = start + (int)((long)length * piece / numPieces);
+                        final int pieceStop = start + (int)((long)length * (piece+1) / numPieces) - 1;
+                        final List<GenomeLoc> locations = new ArrayList<GenomeLoc>();
+                        locations.add(parser.createGenomeLoc(contig,pieceStart,pieceStop));
+                        shards.add(createPiece(filePointer,locations,estimateCost(filePointer,contig,pieceStart,pieceStop)));
+                    }
+                    continue;
+                }
+
+                if(!pieceLocations.isEmpty() && pieceCost + windowCost > targetShardCost) {
+                    shards.add(createPiece(filePointer,pieceLocations,pieceCost));
+                    pieceLocations.clear();
+                    pieceCost = 0;
+                }
+
+                // Windows of the same location are contiguous; extend rather than fragment the interval.
+                final GenomeLoc last = pieceLocations.isEmpty() ? null : pieceLocations.get(pieceLocations.size()-1);
+                if(last != null && last.getContig().equals(contig) && last.getStop()+1 == start && last.getStart() >= location.getStart())
+                    pieceLocations.set(pieceLocations.size()-1,parser.createGenomeLoc(contig,last.getStart(),stop));
+                else
+                    pieceLocations.add(parser.createGenomeLoc(contig,start,stop));
+                pieceCost += windowCost;
+            }
+        }
+
+        if(!pieceLocations.isEmpty())
+            shards.add(createPiece(filePointer,pieceLocations,pieceCost));
+        return shards;
+    }
+
+    /**
+     * Create a shard covering part of a file pointer.  Reads overlapping the piece can't precede the linear index
+     * entry for its first locus, so each file span is trimmed to start there.  Reads beyond the end of the piece
+     * are left in place; they're skipped when filtering by interval.
+     * @param filePointer The file pointer being split.
+     * @param locations Locations covered by the piece.
+     * @param cost Estimated cost of the piece.
+     * @return A shard covering the piece.
+     */
+    private Shard createPiece(final FilePointer filePointer, final List<GenomeLoc> locations, final long cost) {
+        final GenomeLoc first = locations.get(0);
+        final Map<SAMReaderID,SAMFileSpan> fileSpans = new HashMap<SAMReaderID,SAMFileSpan>();
+        for(final Map.Entry<SAMReaderID,SAMFileSpan> entry: filePointer.fileSpans.entrySet()) {
+            final GATKBAMIndexData indexData = getIndexData(entry.getKey(),first.getContig());
+            final GATKBAMFileSpan lowerBound = new GATKBAMFileSpan(new GATKChunk(indexData.getMinimumOffset(first.getStart()),Long.MAX_VALUE));
+            fileSpans.put(entry.getKey(),new GATKBAMFileSpan(entry.getValue()).intersection(lowerBound));
+        }
+        return createShard(new ArrayList<GenomeLoc>(locations),fileSpans,cost);
+    }
+
+    private Shard createShard(final List<GenomeLoc> locations, final Map<SAMReaderID,SAMFileSpan> fileSpans, final long cost) {
+        final Shard shard = new LocusShard(parser,readsDataSource,locations,fileSpans);
+        recordShardCost(shard,cost);
+        return shard;
+    }
 }
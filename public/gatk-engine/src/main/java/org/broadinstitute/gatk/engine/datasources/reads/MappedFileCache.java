@@ -0,0 +1,138 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import org.broadinstitute.gatk.utils.exceptions.GATKException;
+import org.broadinstitute.gatk.utils.sam.SAMReaderID;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps each BAM file into memory exactly once, so that block loaders can read compressed
+ * blocks straight out of the page cache without claiming a file handle or copying the
+ * data into an intermediate buffer.
+ */
+class MappedFileCache {
+    /**
+     * Size of a single mapped region.  A MappedByteBuffer can address at most 2GB, so larger
+     * files are mapped as a series of segments.
+     */
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    /**
+     * Each segment overlaps the start of the next by the size of the largest possible BGZF
+     * block, so that any block starting within a segment lies entirely within it.
+     */
+    private static final long SEGMENT_OVERLAP = BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE;
+
+    /**
+     * The files mapped to date.
+     */
+    private final Map<SAMReaderID,MappedFile> mappedFiles = new HashMap<SAMReaderID,MappedFile>();
+
+    /**
+     * Retrieves the mapping of the given reader, mapping the file if this is the first request for it.
+     * @param reader The reader to map.
+     * @return A read-only mapping of the reader's file.
+     */
+    public synchronized MappedFile getMappedFile(final SAMReaderID reader) {
+        MappedFile mappedFile = mappedFiles.get(reader);
+        if(mappedFile == null) {
+            mappedFile = new MappedFile(reader);
+            mappedFiles.put(reader,mappedFile);
+        }
+        return mappedFile;
+    }
+
+    /**
+     * A read-only mapping of a single BAM file.
+     */
+    static class MappedFile {
+        /**
+         * Total length of the file, in bytes.
+         */
+        private final long length;
+
+        /**
+         * Mapped segments, each starting at a multiple of SEGMENT_SIZE.
+         */
+        private final MappedByteBuffer[] segments;
+
+        private MappedFile(final SAMReaderID reader) {
+            try {
+                final RandomAccessFile file = new RandomAccessFile(reader.getSamFile(),"r");
+                try {
+                    final FileChannel channel = file.getChannel();
+                    length = channel.size();
+                    segments = new MappedByteBuffer[(int)((length+SEGMENT_SIZE-1)/SEGMENT_SIZE)];
+                    for(int i = 0; i < segments.length; i++) {
+                        final long segmentStart = i*SEGMENT_SIZE;
+                        final long segmentLength = Math.min(SEGMENT_SIZE+SEGMENT_OVERLAP,length-segmentStart);
+                        segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,segmentStart,segmentLength);
+                    }
+                }
+                finally {
+                    // The mapping remains valid after the channel is closed.
+                    file.close();
+                }
+            }
+            catch(IOException ex) {
+                throw new GATKException("Unable to memory-map input file " + reader.getSamFilePath(),ex);
+            }
+        }
+
+        /**
+         * @return Total length of the mapped file, in bytes.
+         */
+        public long length() {
+            return length;
+        }
+
+        /**
+         * Gets a view of the mapped data starting at the given file offset.  The view's position is zero
+         * at the given offset and it extends to the end of the segment containing that offset, which is
+         * always far enough to contain a complete BGZF block.
+         * @param address Offset into the file at which the view should start.
+         * @return A little-endian view onto the mapped data.  Callers may freely adjust its position and limit.
+         */
+        public ByteBuffer view(final long address) {
+            if(address < 0 || address >= length)
+                throw new GATKException(String.format("Attempted to read at position %d, outside of the mapped file of length %d",address,length));
+            final ByteBuffer segment = segments[(int)(address/SEGMENT_SIZE)].duplicate();
+            segment.position((int)(address%SEGMENT_SIZE));
+            final ByteBuffer view = segment.slice();
+            view.order(ByteOrder.LITTLE_ENDIAN);
+            return view;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import org.apache.log4j.Logger;
+import org.broadinstitute.gatk.utils.sam.SAMReaderID;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decides how far ahead of the traversal each reader's BlockInputStreams should decompress.
+ *
+ * Depth is tracked per reader, in blocks.  Whenever a consumer has to wait for data to arrive, the loader is
+ * falling behind and the depth for that reader grows by a block.  Once a reader has gone a while without a
+ * stall, the loader is comfortably ahead and the depth shrinks again, releasing memory for readers that need
+ * it.  All streams together may reserve no more than a global cap on read-ahead buffer memory.
+ */
+class ReadAheadController {
+    /**
+     * Size of a single block's worth of buffer space.
+     */
+    public static final int BLOCK_SIZE = BlockBufferPool.BUFFER_SIZE;
+
+    /**
+     * The deepest any reader is allowed to read ahead, in blocks.
+     */
+    private static final int MAX_DEPTH = 64;
+
+    /**
+     * How many blocks must arrive without the consumer stalling before the read-ahead depth shrinks.
+     */
+    private static final int LOADS_BEFORE_SHRINK = 64;
+
+    /**
+     * Upper bound on the total read-ahead buffer space reserved by all input streams, in bytes.
+     */
+    private final long memoryCap;
+
+    /**
+     * Read-ahead buffer space currently reserved by all input streams, in bytes.
+     */
+    private long reservedBytes = 0;
+
+    /**
+     * High water mark of reservedBytes.
+     */
+    private long maxReservedBytes = 0;
+
+    /**
+     * Depth and statistics for each reader seen to date.
+     */
+    private final Map<SAMReaderID,ReaderState> readerStates = new LinkedHashMap<SAMReaderID,ReaderState>();
+
+    /**
+     * Create a new controller.
+     * @param memoryCap Total bytes of read-ahead buffer space that may be reserved at once.
+     */
+    public ReadAheadController(final long memoryCap) {
+        if(memoryCap < 0)
+            throw new IllegalArgumentException("memoryCap cannot be negative, but saw " + memoryCap);
+        this.memoryCap = memoryCap;
+    }
+
+    /**
+     * How many blocks should be kept decompressed ahead of the consumer for the given reader?
+     * @param reader The reader.
+     * @return Number of blocks of read-ahead, at least 1.
+     */
+    public synchronized int getReadAheadDepth(final SAMReaderID reader) {
+        return getState(reader).depth;
+    }
+
+    /**
+     * Notes that a consumer of the given reader had to wait for data.
+     * @param reader The reader whose consumer stalled.
+     * @param stallTimeNanos How long the consumer waited.
+     */
+    public synchronized void recordStall(final SAMReaderID reader, final long stallTimeNanos) {
+        final ReaderState state = getState(reader);
+        state.numStalls++;
+        state.totalStallTimeNanos += stallTimeNanos;
+        state.loadsSinceStall = 0;
+        if(state.depth < MAX_DEPTH) {
+            state.depth++;
+            state.maxDepth = Math.max(state.maxDepth,state.depth);
+        }
+    }
+
+    /**
+     * Notes that a block has arrived in one of the given reader's input streams.
+     * @param reader The reader whose block was loaded.
+     * @param bufferedBytes How many bytes were waiting to be consumed in the stream once the block was added.
+     */
+    public synchronized void recordBlockLoaded(final SAMReaderID reader, final int bufferedBytes) {
+        final ReaderState state = getState(reader);
+        state.numBlocksLoaded++;
+        state.totalBufferedBytes += bufferedBytes;
+        state.maxBufferedBytes = Math.max(state.maxBufferedBytes,bufferedBytes);
+        if(++state.loadsSinceStall >= LOADS_BEFORE_SHRINK) {
+            state.loadsSinceStall = 0;
+            if(state.depth > 1)
+                state.depth--;
+        }
+    }
+
+    /**
+     * Attempts to reserve buffer space for read-ahead.
+     * @param bytes Number of bytes to reserve.
+     * @return True if the space was reserved; false if doing so would exceed the memory cap.
+     */
+    public synchronized boolean reserve(final long bytes) {
+        if(reservedBytes + bytes > memoryCap)
+            return false;
+        reservedBytes += bytes;
+        maxReservedBytes = Math.max(maxReservedBytes,reservedBytes);
+        return true;
+    }
+
+    /**
+     * Returns buffer space previously reserved with reserve().
+     * @param bytes Number of bytes to return.
+     */
+    public synchronized void release(final long bytes) {
+        reservedBytes -= bytes;
+    }
+
+    /**
+     * Prints buffer occupancy and stall time for each reader.
+     * @param logger Logger to which to write the statistics.
+     */
+    public synchronized void logStatistics(final Logger logger) {
+        logger.info(String.format("Asynchronous BAM read-ahead used at most %d KB of a %d KB buffer budget",
+                maxReservedBytes/1024,memoryCap/1024));
+        for(final Map.Entry<SAMReaderID,ReaderState> entry: readerStates.entrySet()) {
+            final ReaderState state = entry.getValue();
+            logger.info(String.format("  -> %s: %d blocks loaded, mean/max buffered %d/%d KB, read-ahead depth at most %d blocks, %d stalls totalling %.2f sec",
+                    entry.getKey().getSamFilePath(),
+                    state.numBlocksLoaded,
+                    state.numBlocksLoaded > 0 ? state.totalBufferedBytes/state.numBlocksLoaded/1024 : 0,
+                    state.maxBufferedBytes/1024,
+                    state.maxDepth,
+                    state.numStalls,
+                    state.totalStallTimeNanos/1e9));
+        }
+    }
+
+    private ReaderState getState(final SAMReaderID reader) {
+        ReaderState state = readerStates.get(reader);
+        if(state == null) {
+            state = new ReaderState();
+            readerStates.put(reader,state);
+        }
+        return state;
+    }
+
+    /**
+     * Read-ahead depth and statistics for a single reader.
+     */
+    private static class ReaderState {
+        private int depth = 1;
+        private int maxDepth = 1;
+        private int loadsSinceStall = 0;
+
+        private long numBlocksLoaded = 0;
+        private long totalBufferedBytes = 0;
+        private long maxBufferedBytes = 0;
+
+        private long numStalls = 0;
+        private long totalStallTimeNanos = 0;
+    }
+}
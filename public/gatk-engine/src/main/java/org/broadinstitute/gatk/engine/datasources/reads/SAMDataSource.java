@@ -168,6 +168,11 @@ public class SAMDataSource {
      */
     private final IntervalMergingRule intervalMergingRule;
 
+    /**
+     * Where previously computed shard plans are kept, or null if shard plans should always be recomputed.
+     */
+    private ShardPlanCache shardPlanCache = null;
+
     /**
      * Static set of unsupported programs that create bam files.
      * The key is the PG record ID and the value is the name of the tool that created it
@@ -240,6 +245,49 @@ public class SAMDataSource {
                 IntervalMergingRule.ALL);
     }
 
+    /**
+     * See complete constructor.  Reads BAM files through file handles rather than memory-mapping them.
+     */
+    public SAMDataSource(
+            final File referenceFile,
+            Collection<SAMReaderID> samFiles,
+            ThreadAllocation threadAllocation,
+            Integer numFileHandles,
+            GenomeLocParser genomeLocParser,
+            boolean useOriginalBaseQualities,
+            ValidationStringency strictness,
+            Integer readBufferSize,
+            DownsamplingMethod downsamplingMethod,
+            ValidationExclusion exclusionList,
+            Collection<ReadFilter> supplementalFilters,
+            List<ReadTransformer> readTransformers,
+            boolean includeReadsWithDeletionAtLoci,
+            byte defaultBaseQualities,
+            boolean removeProgramRecords,
+            final boolean keepReadsInLIBS,
+            final Map<String, String> sampleRenameMap,
+            final IntervalMergingRule intervalMergingRule) {
+        this(   referenceFile,
+                samFiles,
+                threadAllocation,
+                numFileHandles,
+                genomeLocParser,
+                useOriginalBaseQualities,
+                strictness,
+                readBufferSize,
+                downsamplingMethod,
+                exclusionList,
+                supplementalFilters,
+                readTransformers,
+                includeReadsWithDeletionAtLoci,
+                defaultBaseQualities,
+                removeProgramRecords,
+                keepReadsInLIBS,
+                sampleRenameMap,
+                intervalMergingRule,
+                false);
+    }
+
     /**
      * Create a new SAM data source given the supplied read metadata.
      * @param referenceFile reference file.
@@ -258,6 +306,7 @@ public class SAMDataSource {
      * @param sampleRenameMap Map of BAM file to new sample ID used during on-the-fly runtime sample renaming.
      *                        Will be null if we're not doing sample renaming.
      * @param intervalMergingRule how are adjacent intervals merged by the sharder
+     * @param memoryMapBAMFiles when loading blocks asynchronously, should BAM files be memory-mapped rather than read through file handles?
      */
     public SAMDataSource(
             final File referenceFile,
@@ -277,7 +326,8 @@ public class SAMDataSource {
             boolean removeProgramRecords,
             final boolean keepReadsInLIBS,
             final Map<String, String> sampleRenameMap,
-            final IntervalMergingRule intervalMergingRule) {
+            final IntervalMergingRule intervalMergingRule,
+            final boolean memoryMapBAMFiles) {
 
         this.referenceFile = referenceFile;
         this.readMetrics = new ReadMetrics();
@@ -290,10 +340,13 @@ public class SAMDataSource {
         // TODO: Consider a borrowed-thread dispatcher implementation.
         if(this.threadAllocation.getNumIOThreads() > 0) {
             logger.info("Running in asynchronous I/O mode; number of threads = " + this.threadAllocation.getNumIOThreads());
-            dispatcher = new BGZFBlockLoadingDispatcher(this.threadAllocation.getNumIOThreads(), numFileHandles != null ? numFileHandles : 1);
+            dispatcher = new BGZFBlockLoadingDispatcher(this.threadAllocation.getNumIOThreads(), numFileHandles != null ? numFileHandles : 1, memoryMapBAMFiles);
         }
-        else
+        else {
+            if(memoryMapBAMFiles)
+                logger.warn("Memory-mapping of BAM files only applies to asynchronous I/O, which is off; BAM files will be read without memory mapping.  Use -nit to enable asynchronous I/O.");
             dispatcher = null;
+        }
 
         validationStringency = strictness;
         this.removeProgramRecords = removeProgramRecords;
@@ -429,6 +482,31 @@ public class SAMDataSource {
         return readProperties.getSAMReaderIDs().size() == 0;
     }
 
+    /**
+     * Gets the dispatcher loading BGZF blocks on behalf of this data source.
+     * @return The block loading dispatcher, or null if not running in asynchronous I/O mode.
+     */
+    public BGZFBlockLoadingDispatcher getBlockLoadingDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Store shard plans computed over intervals in the given directory, and reuse any plan already stored there
+     * for the same BAM indices and intervals.
+     * @param cacheDirectory Directory in which to cache shard plans, or null to disable caching.
+     */
+    public void setShardPlanCacheDirectory(final File cacheDirectory) {
+        shardPlanCache = cacheDirectory != null ? new ShardPlanCache(cacheDirectory) : null;
+    }
+
+    /**
+     * Gets the cache of shard plans used by this data source.
+     * @return The shard plan cache, or null if shard plans are not being cached.
+     */
+    public ShardPlanCache getShardPlanCache() {
+        return shardPlanCache;
+    }
+
     /**
      * Gets the SAM file associated with a given reader ID.
      * @param id The reader for which to retrieve the source file.
@@ -25,8 +25,13 @@
 
 package org.broadinstitute.gatk.engine.datasources.reads;
 
+import htsjdk.samtools.LinearIndex;
+import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.util.PeekableIterator;
+import org.apache.log4j.Logger;
+import org.broadinstitute.gatk.utils.GenomeLoc;
 import org.broadinstitute.gatk.utils.GenomeLocParser;
+import org.broadinstitute.gatk.utils.sam.SAMReaderID;
 
 import java.util.Iterator;
 
@@ -34,10 +39,18 @@ import java.util.Iterator;
  * Balances maximally granular file pointers into shards of reasonable size.
  */
 public abstract class ShardBalancer implements Iterable<Shard> {
+    private static Logger logger = Logger.getLogger(ShardBalancer.class);
+
     protected SAMDataSource readsDataSource;
     protected PeekableIterator<FilePointer> filePointers;
     protected GenomeLocParser parser;
 
+    /**
+     * Estimated cost of every shard handed out so far.
+     */
+    protected final ShardCostHistogram costHistogram = new ShardCostHistogram();
+    private boolean costHistogramLogged = false;
+
     public void initialize(final SAMDataSource readsDataSource, final Iterator<FilePointer> filePointers, final GenomeLocParser parser) {
         this.readsDataSource = readsDataSource;
         this.filePointers = new PeekableIterator<FilePointer>(filePointers);
@@ -46,4 +59,93 @@ public abstract class ShardBalancer implements Iterable<Shard> {
     public void close() {
       this.filePointers.close();
     }
+
+    /**
+     * Estimates the cost of processing the given file pointer from the linear indices of its BAM files: the
+     * approximate size of the reads starting in each 16kb window its locations overlap, prorated for windows
+     * only partially covered, and summed across every file.
+     * @param filePointer The file pointer to assess.
+     * @return The estimated cost, or -1 if the cost can't be estimated from the BAM indices.
+     */
+    protected long estimateCost(final FilePointer filePointer) {
+        if(filePointer.isRegionUnmapped || filePointer.isMonolithic())
+            return -1;
+        long cost = 0;
+        for(final GenomeLoc location: filePointer.getLocations()) {
+            final long locationCost = estimateCost(filePointer,location.getContig(),location.getStart(),location.getStop());
+            if(locationCost < 0)
+                return -1;
+            cost += locationCost;
+        }
+        return cost;
+    }
+
+    /**
+     * Estimates the cost of processing the given region of the given file pointer's BAM files.
+     * @param filePointer File pointer whose BAM files should be assessed.
+     * @param contig Contig of the region.
+     * @param start First locus of the region.
+     * @param stop Last locus of the region, inclusive.
+     * @return The estimated cost, or -1 if the cost can't be estimated from the BAM indices.
+     */
+    protected long estimateCost(final FilePointer filePointer, final String contig, final int start, final int stop) {
+        double cost = 0;
+        for(final SAMReaderID reader: filePointer.fileSpans.keySet()) {
+            final GATKBAMIndexData indexData = getIndexData(reader,contig);
+            if(indexData == null)
+                return -1;
+            for(int window = GATKBAMIndex.getLinearIndexWindow(start); window <= GATKBAMIndex.getLinearIndexWindow(stop); window++) {
+                final int windowStop = GATKBAMIndex.getLastLocusInLinearIndexWindow(window);
+                final int windowStart = windowStop - (1 << LinearIndex.BAM_LIDX_SHIFT) + 1;
+                final int coveredLoci = Math.min(stop,windowStop) - Math.max(start,windowStart) + 1;
+                cost += (double)indexData.estimateWindowSize(window) * coveredLoci / (windowStop - windowStart + 1);
+            }
+        }
+        return Math.round(cost);
+    }
+
+    /**
+     * Gets the index data for the given contig in the given reader's BAM file.
+     * @param reader The reader.
+     * @param contig Name of the contig.
+     * @return The decoded index data, or null if the reader has no index or doesn't contain the contig.
+     */
+    protected GATKBAMIndexData getIndexData(final SAMReaderID reader, final String contig) {
+        if(readsDataSource == null)
+            return null;
+        final GATKBAMIndex index = readsDataSource.getIndex(reader);
+        // Take the contig index from the merged BAM header rather than the reference, which may order contigs differently.
+        final SAMSequenceRecord sequenceRecord = readsDataSource.getHeader().getSequence(contig);
+        if(index == null || sequenceRecord == null)
+            return null;
+        return index.readReferenceSequence(sequenceRecord.getSequenceIndex());
+    }
+
+    /**
+     * Record the estimated cost of a shard about to be handed out.
+     * @param shard The shard.
+     * @param cost Estimated cost of the shard, or -1 if unknown.
+     */
+    protected void recordShardCost(final Shard shard, final long cost) {
+        if(cost >= 0)
+            costHistogram.add(shard.getLocation(),cost);
+    }
+
+    /**
+     * Report the distribution of shard costs, once every shard has been handed out.
+     */
+    protected void logCostHistogram() {
+        if(costHistogramLogged)
+            return;
+        costHistogramLogged = true;
+        costHistogram.log(logger);
+    }
+
+    /**
+     * Gets the distribution of the estimated cost of the shards handed out so far.
+     * @return The shard cost histogram.
+     */
+    public ShardCostHistogram getCostHistogram() {
+        return costHistogram;
+    }
 }
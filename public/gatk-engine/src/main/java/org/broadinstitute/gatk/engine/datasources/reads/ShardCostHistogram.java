@@ -0,0 +1,131 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import org.apache.log4j.Logger;
+import org.broadinstitute.gatk.utils.GenomeLoc;
+
+/**
+ * Accumulates the estimated cost of every shard handed out by a shard balancer into power-of-two buckets, so that
+ * the shape of the distribution -- and in particular the handful of expensive shards in its tail -- can be reported
+ * once sharding is complete.
+ */
+public class ShardCostHistogram {
+    /**
+     * Bucket 0 holds shards with no estimated cost; bucket b > 0 holds costs in [2^(b-1),2^b).
+     */
+    private final long[] shardCounts = new long[Long.SIZE+1];
+    private final long[] bucketCosts = new long[Long.SIZE+1];
+
+    private long numberOfShards = 0;
+    private long totalCost = 0;
+
+    private long maximumCost = -1;
+    private GenomeLoc maximumCostLocation = null;
+
+    /**
+     * Record the estimated cost of a shard.
+     * @param location Location of the shard.
+     * @param cost Estimated cost of the shard.
+     */
+    public void add(final GenomeLoc location, final long cost) {
+        if(cost < 0)
+            throw new IllegalArgumentException("Shard cost cannot be negative: " + cost);
+
+        final int bucket = getBucket(cost);
+        shardCounts[bucket]++;
+        bucketCosts[bucket] += cost;
+        numberOfShards++;
+        totalCost += cost;
+
+        if(cost > maximumCost) {
+            maximumCost = cost;
+            maximumCostLocation = location;
+        }
+    }
+
+    /**
+     * Gets the bucket into which a shard with the given cost falls.
+     * @param cost The estimated cost; must be non-negative.
+     * @return Index of the bucket.
+     */
+    public static int getBucket(final long cost) {
+        return Long.SIZE - Long.numberOfLeadingZeros(cost);
+    }
+
+    public long getNumberOfShards() {
+        return numberOfShards;
+    }
+
+    public long getTotalCost() {
+        return totalCost;
+    }
+
+    public long getMaximumCost() {
+        return maximumCost;
+    }
+
+    public GenomeLoc getMaximumCostLocation() {
+        return maximumCostLocation;
+    }
+
+    /**
+     * Gets the number of shards in the given bucket.
+     * @param bucket Index of the bucket.
+     * @return Number of shards recorded in that bucket.
+     */
+    public long getShardCount(final int bucket) {
+        return shardCounts[bucket];
+    }
+
+    /**
+     * Write the histogram to the given logger, one line per populated bucket.
+     * @param logger Logger to which to write the histogram.
+     */
+    public void log(final Logger logger) {
+        if(numberOfShards == 0)
+            return;
+
+        logger.info(String.format("Estimated shard cost: %d shards, %s in total, largest %s at %s",
+                numberOfShards,formatBytes(totalCost),formatBytes(maximumCost),maximumCostLocation));
+        for(int bucket = 0; bucket < shardCounts.length; bucket++) {
+            if(shardCounts[bucket] == 0)
+                continue;
+            final String range = bucket == 0 ? "0" : String.format("%s - %s",formatBytes(1L << (bucket-1)),formatBytes(bucket < Long.SIZE-1 ? 1L << bucket : Long.MAX_VALUE));
+            logger.info(String.format("    %21s: %8d shards (%5.1f%% of shards, %5.1f%% of cost)",
+                    range,shardCounts[bucket],
+                    100.0*shardCounts[bucket]/numberOfShards,
+                    totalCost > 0 ? 100.0*bucketCosts[bucket]/totalCost : 0.0));
+        }
+    }
+
+    private static String formatBytes(final long bytes) {
+        if(bytes < 1024)
+            return bytes + " B";
+        final int exponent = (Long.SIZE - 1 - Long.numberOfLeadingZeros(bytes)) / 10;
+        return String.format("%.0f %siB",(double)bytes / (1L << (exponent*10)),"KMGTPE".charAt(exponent-1));
+    }
+}
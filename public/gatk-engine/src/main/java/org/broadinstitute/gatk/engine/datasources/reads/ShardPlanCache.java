@@ -0,0 +1,429 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import htsjdk.samtools.GATKBAMFileSpan;
+import htsjdk.samtools.GATKChunk;
+import htsjdk.samtools.SAMFileSpan;
+import htsjdk.samtools.util.CloseableIterator;
+import org.apache.log4j.Logger;
+import org.broadinstitute.gatk.utils.GenomeLoc;
+import org.broadinstitute.gatk.utils.GenomeLocParser;
+import org.broadinstitute.gatk.utils.GenomeLocSortedSet;
+import org.broadinstitute.gatk.utils.exceptions.GATKException;
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.broadinstitute.gatk.utils.interval.IntervalMergingRule;
+import org.broadinstitute.gatk.utils.sam.SAMReaderID;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Keeps the file pointers generated by the BAMScheduler for a given set of BAM files and intervals on disk, so
+ * that later runs over the same data can skip walking the BAM indices altogether.
+ *
+ * Each plan is stored in its own file, named after an MD5 digest of the contents of every BAM index, the BAM
+ * files themselves, the interval merging rule and the full interval list.  Regenerating or replacing an index
+ * therefore produces a different key, and the stale plan is simply never consulted again.
+ */
+public class ShardPlanCache {
+    private static final Logger logger = Logger.getLogger(ShardPlanCache.class);
+
+    /**
+     * Magic number ("GSPC") at the head of every cached plan.
+     */
+    private static final int PLAN_FILE_MAGIC = 0x47535043;
+
+    /**
+     * Version of the on-disk plan format.  Bump whenever the layout below changes.
+     */
+    private static final int PLAN_FILE_VERSION = 1;
+
+    /**
+     * Extension given to every cached plan.
+     */
+    protected static final String PLAN_FILE_EXTENSION = ".shardplan";
+
+    /**
+     * Markers preceding each serialized file pointer, and terminating the plan.
+     */
+    private static final byte FILE_POINTER_MARKER = 1;
+    private static final byte END_OF_PLAN_MARKER = 0;
+
+    /**
+     * Size of the buffer used when digesting index files.
+     */
+    private static final int DIGEST_BUFFER_SIZE = 64*1024;
+
+    private static final Charset KEY_CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * Directory in which plans are stored.
+     */
+    private final File cacheDirectory;
+
+    /**
+     * Create a new plan cache backed by the given directory, creating the directory if necessary.
+     * @param cacheDirectory Directory in which to store the plans.
+     */
+    public ShardPlanCache(final File cacheDirectory) {
+        if(cacheDirectory == null)
+            throw new IllegalArgumentException("cacheDirectory cannot be null");
+        if(!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs())
+            throw new UserException.CouldNotCreateOutputFile(cacheDirectory,"unable to create shard plan cache directory");
+        if(!cacheDirectory.canWrite())
+            throw new UserException.CouldNotCreateOutputFile(cacheDirectory,"shard plan cache directory is not writable");
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * Gets the directory in which plans are stored.
+     * @return the cache directory.
+     */
+    public File getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    /**
+     * Create the schedule of file pointers over the given intervals, reusing a previously stored plan where one
+     * exists and recording the plan as it's generated otherwise.  Data sources where any reader lacks an index
+     * are scheduled directly, as the resulting single file pointer is trivial to compute.
+     * @param dataSource BAM source.
+     * @param mergeRule Interval merging rule to apply.
+     * @param loci Intervals to schedule.
+     * @return An iterator over the file pointers, in BAMScheduler order.
+     */
+    public Iterator<FilePointer> getSchedule(final SAMDataSource dataSource, final IntervalMergingRule mergeRule, final GenomeLocSortedSet loci) {
+        final List<SAMReaderID> readers = new ArrayList<SAMReaderID>(dataSource.getReaderIDs());
+        final Map<SAMReaderID,File> indexFiles = new HashMap<SAMReaderID,File>();
+        for(final SAMReaderID reader: readers) {
+            if(!dataSource.hasIndex(reader))
+                return BAMScheduler.createOverIntervals(dataSource,mergeRule,loci);
+            indexFiles.put(reader,dataSource.getIndex(reader).getIndexFile());
+        }
+
+        final String key = computeKey(readers,indexFiles,mergeRule,loci);
+        final List<FilePointer> cachedPlan = readPlan(key,readers,mergeRule,loci.getGenomeLocParser());
+        if(cachedPlan != null) {
+            logger.info(String.format("Reusing cached shard plan %s (%d file pointers)",getPlanFile(key),cachedPlan.size()));
+            return cachedPlan.iterator();
+        }
+        return recordPlan(key,readers,BAMScheduler.createOverIntervals(dataSource,mergeRule,loci));
+    }
+
+    /**
+     * Compute the key under which the plan for the given readers and intervals is stored.
+     * @param readers All readers, in the order in which they'll be referenced by the plan.
+     * @param indexFiles Index file associated with each reader.
+     * @param mergeRule Interval merging rule in effect.
+     * @param loci Intervals being scheduled.
+     * @return A 32-character hex digest uniquely identifying the plan.
+     */
+    public String computeKey(final List<SAMReaderID> readers, final Map<SAMReaderID,File> indexFiles, final IntervalMergingRule mergeRule, final GenomeLocSortedSet loci) {
+        final MessageDigest digest = createDigest();
+        updateDigest(digest,"v"+PLAN_FILE_VERSION);
+        updateDigest(digest,mergeRule.name());
+
+        final byte[] buffer = new byte[DIGEST_BUFFER_SIZE];
+        for(final SAMReaderID reader: readers) {
+            final File indexFile = indexFiles.get(reader);
+            if(indexFile == null)
+                throw new ReviewedGATKException("No index supplied for reader " + reader.getSamFilePath());
+            updateDigest(digest,reader.getSamFile().getAbsolutePath());
+            updateDigest(digest,Long.toString(indexFile.length()));
+            try {
+                final InputStream indexStream = new FileInputStream(indexFile);
+                try {
+                    int bytesRead;
+                    while((bytesRead = indexStream.read(buffer)) > 0)
+                        digest.update(buffer,0,bytesRead);
+                }
+                finally {
+                    indexStream.close();
+                }
+            }
+            catch(IOException ex) {
+                throw new UserException.CouldNotReadInputFile(indexFile,ex);
+            }
+        }
+
+        for(final GenomeLoc locus: loci)
+            updateDigest(digest,GenomeLoc.isUnmapped(locus) ? "unmapped" : locus.toString());
+
+        return String.format("%032x",new BigInteger(1,digest.digest()));
+    }
+
+    /**
+     * Gets the file in which the plan with the given key is stored.
+     * @param key Key of the plan.
+     * @return The plan file, which may or may not exist.
+     */
+    public File getPlanFile(final String key) {
+        return new File(cacheDirectory,key+PLAN_FILE_EXTENSION);
+    }
+
+    /**
+     * Load the plan stored under the given key.  Unreadable or malformed plans are discarded.
+     * @param key Key of the plan.
+     * @param readers All readers, in the order used when the plan was recorded.
+     * @param mergeRule Interval merging rule to assign to the file pointers.
+     * @param parser Parser with which to recreate the intervals.
+     * @return The stored file pointers, or null if no usable plan is present.
+     */
+    public List<FilePointer> readPlan(final String key, final List<SAMReaderID> readers, final IntervalMergingRule mergeRule, final GenomeLocParser parser) {
+        final File planFile = getPlanFile(key);
+        if(!planFile.exists())
+            return null;
+
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(planFile)));
+            try {
+                if(in.readInt() != PLAN_FILE_MAGIC || in.readInt() != PLAN_FILE_VERSION || !in.readUTF().equals(key) || in.readInt() != readers.size())
+                    throw new IOException("plan header does not match");
+                final List<FilePointer> plan = new ArrayList<FilePointer>();
+                byte marker;
+                while((marker = in.readByte()) == FILE_POINTER_MARKER)
+                    plan.add(readFilePointer(in,readers,mergeRule,parser));
+                if(marker != END_OF_PLAN_MARKER)
+                    throw new IOException("unexpected marker " + marker);
+                return plan;
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch(IOException ex) {
+            discardPlan(planFile,ex.getMessage());
+            return null;
+        }
+        catch(GATKException ex) {
+            // The plan decoded cleanly but describes intervals or file pointers that are no longer valid,
+            // e.g. a contig missing from the current sequence dictionary.
+            discardPlan(planFile,ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Wrap the given schedule so that every file pointer passing through it is recorded under the given key.
+     * The plan is only published once the schedule has been exhausted.
+     * @param key Key of the plan.
+     * @param readers All readers, in the order in which they'll be referenced by the plan.
+     * @param schedule Source of file pointers.
+     * @return An iterator returning the same file pointers as the given schedule.
+     */
+    public Iterator<FilePointer> recordPlan(final String key, final List<SAMReaderID> readers, final Iterator<FilePointer> schedule) {
+        return new RecordingIterator(key,readers,schedule);
+    }
+
+    private void discardPlan(final File planFile, final String reason) {
+        logger.warn(String.format("Discarding unusable shard plan %s: %s",planFile,reason));
+        if(!planFile.delete())
+            logger.warn("Unable to delete shard plan " + planFile);
+    }
+
+    private FilePointer readFilePointer(final DataInputStream in, final List<SAMReaderID> readers, final IntervalMergingRule mergeRule, final GenomeLocParser parser) throws IOException {
+        final boolean isMonolithic = in.readBoolean();
+        final int numLocations = in.readInt();
+        final List<GenomeLoc> locations = new ArrayList<GenomeLoc>(numLocations);
+        for(int i = 0; i < numLocations; i++) {
+            if(in.readBoolean())
+                locations.add(GenomeLoc.UNMAPPED);
+            else {
+                final String contig = in.readUTF();
+                final int start = in.readInt();
+                final int stop = in.readInt();
+                locations.add(parser.createGenomeLoc(contig,start,stop));
+            }
+        }
+
+        final FilePointer filePointer = new FilePointer(mergeRule,locations);
+        filePointer.setIsMonolithic(isMonolithic);
+
+        final int numSpans = in.readInt();
+        for(int i = 0; i < numSpans; i++) {
+            final int readerIndex = in.readInt();
+            if(readerIndex < 0 || readerIndex >= readers.size())
+                throw new IOException("reader index " + readerIndex + " out of range");
+            final GATKChunk[] chunks = new GATKChunk[in.readInt()];
+            for(int j = 0; j < chunks.length; j++) {
+                final long chunkStart = in.readLong();
+                final long chunkEnd = in.readLong();
+                chunks[j] = new GATKChunk(chunkStart,chunkEnd);
+            }
+            filePointer.addFileSpans(readers.get(readerIndex),new GATKBAMFileSpan(chunks));
+        }
+        return filePointer;
+    }
+
+    private static void writeFilePointer(final DataOutputStream out, final FilePointer filePointer, final Map<SAMReaderID,Integer> readerIndices) throws IOException {
+        out.writeByte(FILE_POINTER_MARKER);
+        out.writeBoolean(filePointer.isMonolithic());
+        out.writeInt(filePointer.locations.size());
+        for(final GenomeLoc location: filePointer.locations) {
+            final boolean unmapped = GenomeLoc.isUnmapped(location);
+            out.writeBoolean(unmapped);
+            if(!unmapped) {
+                out.writeUTF(location.getContig());
+                out.writeInt(location.getStart());
+                out.writeInt(location.getStop());
+            }
+        }
+
+        out.writeInt(filePointer.fileSpans.size());
+        for(final Map.Entry<SAMReaderID,SAMFileSpan> entry: filePointer.fileSpans.entrySet()) {
+            final Integer readerIndex = readerIndices.get(entry.getKey());
+            if(readerIndex == null || !(entry.getValue() instanceof GATKBAMFileSpan))
+                throw new IOException("file pointer references a span that cannot be cached: " + entry.getKey());
+            final List<GATKChunk> chunks = ((GATKBAMFileSpan)entry.getValue()).getGATKChunks();
+            out.writeInt(readerIndex);
+            out.writeInt(chunks.size());
+            for(final GATKChunk chunk: chunks) {
+                out.writeLong(chunk.getChunkStart());
+                out.writeLong(chunk.getChunkEnd());
+            }
+        }
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        }
+        catch(NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("MD5 digest algorithm not present");
+        }
+    }
+
+    private static void updateDigest(final MessageDigest digest, final String value) {
+        digest.update(value.getBytes(KEY_CHARSET));
+        digest.update((byte)0);
+    }
+
+    /**
+     * Passes file pointers through from the BAMScheduler, writing each one to a temporary file in the cache
+     * directory.  Once the schedule is exhausted, the temporary file is moved into place under the plan's key.
+     * Failures while recording are logged and otherwise ignored; they never interfere with the traversal.
+     */
+    protected class RecordingIterator implements CloseableIterator<FilePointer> {
+        private final String key;
+        private final Iterator<FilePointer> schedule;
+        private final Map<SAMReaderID,Integer> readerIndices = new HashMap<SAMReaderID,Integer>();
+
+        private File temporaryFile = null;
+        private DataOutputStream out = null;
+
+        public RecordingIterator(final String key, final List<SAMReaderID> readers, final Iterator<FilePointer> schedule) {
+            this.key = key;
+            this.schedule = schedule;
+            for(int i = 0; i < readers.size(); i++)
+                readerIndices.put(readers.get(i),i);
+
+            try {
+                temporaryFile = File.createTempFile(key,PLAN_FILE_EXTENSION+".tmp",cacheDirectory);
+                temporaryFile.deleteOnExit();
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+                out.writeInt(PLAN_FILE_MAGIC);
+                out.writeInt(PLAN_FILE_VERSION);
+                out.writeUTF(key);
+                out.writeInt(readers.size());
+            }
+            catch(IOException ex) {
+                abandon(ex);
+            }
+        }
+
+        public boolean hasNext() {
+            final boolean hasNext = schedule.hasNext();
+            if(!hasNext && out != null)
+                publish();
+            return hasNext;
+        }
+
+        public FilePointer next() {
+            final FilePointer filePointer = schedule.next();
+            if(out != null) {
+                try {
+                    writeFilePointer(out,filePointer,readerIndices);
+                }
+                catch(IOException ex) {
+                    abandon(ex);
+                }
+            }
+            return filePointer;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException("Unable to remove FilePointers from a shard plan");
+        }
+
+        /**
+         * Stop recording without publishing a plan, and release the underlying scheduler.
+         */
+        public void close() {
+            if(out != null)
+                abandon(null);
+            if(schedule instanceof BAMScheduler)
+                ((BAMScheduler)schedule).close();
+        }
+
+        private void publish() {
+            try {
+                out.writeByte(END_OF_PLAN_MARKER);
+                out.close();
+                out = null;
+                final File planFile = getPlanFile(key);
+                Files.move(temporaryFile.toPath(),planFile.toPath(),StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+                logger.info("Cached shard plan in " + planFile);
+            }
+            catch(IOException ex) {
+                abandon(ex);
+            }
+        }
+
+        private void abandon(final IOException ex) {
+            if(ex != null)
+                logger.warn("Unable to cache shard plan: " + ex.getMessage());
+            if(out != null) {
+                try {
+                    out.close();
+                }
+                catch(IOException closeException) {
+                    // Nothing more to be done; the partial plan is deleted below.
+                }
+                out = null;
+            }
+            if(temporaryFile != null && temporaryFile.exists() && !temporaryFile.delete())
+                logger.warn("Unable to delete partial shard plan " + temporaryFile);
+        }
+    }
+}
@@ -39,7 +39,6 @@ import org.broadinstitute.gatk.engine.walkers.Walker;
 import org.broadinstitute.gatk.utils.MultiThreadedErrorTracker;
 import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
-import org.broadinstitute.gatk.utils.threading.ThreadPoolMonitor;
 
 import java.util.Collection;
 import java.util.Iterator;
@@ -61,6 +60,22 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
     /** Manage currently running threads. */
     private ExecutorService threadPool;
 
+    /**
+     * One permit per thread in the pool.  A permit is taken before any task is handed
+     * to the pool and given back when that task finishes, so the scheduler blocks
+     * rather than piling up work the pool can't yet run.
+     */
+    private final Semaphore freeQueueSlots;
+
+    /**
+     * Signalled each time a task in the thread pool finishes, so that the scheduler can
+     * wake up when a blocked tree reduce may have become ready.
+     */
+    private final Object taskCompletionMonitor = new Object();
+
+    /** How many pool tasks (traversals and reduces) have finished to date?  Guarded by taskCompletionMonitor. */
+    private long totalCompletedTasks = 0;
+
     /**
      * A thread local output tracker for managing output per-thread.
      */
@@ -122,6 +137,7 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
         }
 
         this.threadPool = Executors.newFixedThreadPool(nThreadsToUse, new UniqueThreadGroupThreadFactory());
+        this.freeQueueSlots = new Semaphore(nThreadsToUse);
     }
 
     /**
@@ -151,6 +167,10 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
         initializeWalker(walker);
 
         while (! abortExecution() && (isShardTraversePending() || isTreeReducePending())) {
+            // Snapshot the completion count before looking at the queues, so that a task
+            // finishing between the checks below and the wait can't be missed.
+            final long completedTasksSeen = getTotalCompletedTasks();
+
             // Check for errors during execution.
             errorTracker.throwErrorIfPending();
 
@@ -158,15 +178,24 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
             if (isMergeLimitExceeded())
                 mergeExistingOutput(false);
 
-            // Wait for the next slot in the queue to become free.
-            waitForFreeQueueSlot();
+            if (isTreeReduceReady() || isShardTraversePending()) {
+                // Wait for the next slot in the queue to become free.
+                waitForFreeQueueSlot();
 
-            // Pick the next most appropriate task and run it.  In the interest of
-            // memory conservation, hierarchical reduces always run before traversals.
-            if (isTreeReduceReady())
-                queueNextTreeReduce(walker);
-            else if (isShardTraversePending())
-                queueNextShardTraverse(walker, reduceTree);
+                // Pick the next most appropriate task and run it.  In the interest of
+                // memory conservation, hierarchical reduces always run before traversals.
+                if (isTreeReduceReady())
+                    queueNextTreeReduce(walker);
+                else
+                    queueNextShardTraverse(walker, reduceTree);
+            }
+            else {
+                // Only reduces blocked on running tasks remain.  Rather than spin, use this
+                // thread to merge whatever output is already finished, then sleep until the
+                // pool reports that something else has completed.
+                mergeExistingOutput(false);
+                waitForTaskCompletion(completedTasksSeen);
+            }
         }
 
         errorTracker.throwErrorIfPending();
@@ -352,7 +381,8 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
 
         final ShardTraverser traverser = new ShardTraverser(this, walker, shard, outputTracker);
 
-        final Future traverseResult = threadPool.submit(traverser);
+        final SlotReleasingTask traverseResult = new SlotReleasingTask(traverser);
+        threadPool.execute(traverseResult);
 
         // Add this traverse result to the reduce tree.  The reduce tree will call a callback to throw its entries on the queue.
         reduceTree.addEntry(traverseResult);
@@ -383,15 +413,51 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
         final TreeReduceTask reducer = reduceTasks.remove();
         reducer.setWalker((TreeReducible) walker);
 
-        threadPool.submit(reducer);
+        threadPool.execute(reducer);
     }
 
     /** Blocks until a free slot appears in the thread queue. */
     protected void waitForFreeQueueSlot() {
-        final ThreadPoolMonitor monitor = new ThreadPoolMonitor();
-        synchronized (monitor) {
-            threadPool.submit(monitor);
-            monitor.watch();
+        try {
+            freeQueueSlots.acquire();
+        }
+        catch( InterruptedException ex ) {
+            throw new ReviewedGATKException("Interrupted while waiting for a free slot in the thread pool", ex);
+        }
+    }
+
+    /**
+     * Blocks until at least one task beyond the given count has completed in the thread pool.
+     *
+     * @param completedTasksSeen the number of completed tasks observed by the caller.
+     */
+    protected void waitForTaskCompletion( final long completedTasksSeen ) {
+        synchronized (taskCompletionMonitor) {
+            try {
+                while ( totalCompletedTasks == completedTasksSeen )
+                    taskCompletionMonitor.wait();
+            }
+            catch( InterruptedException ex ) {
+                throw new ReviewedGATKException("Interrupted while waiting for a traversal or reduce to complete", ex);
+            }
+        }
+    }
+
+    /**
+     * Called by the thread pool whenever a traversal or reduce finishes, successfully or not.
+     * Frees the task's slot in the pool and wakes up the scheduler.
+     */
+    private void notifyTaskComplete() {
+        freeQueueSlots.release();
+        synchronized (taskCompletionMonitor) {
+            totalCompletedTasks++;
+            taskCompletionMonitor.notifyAll();
+        }
+    }
+
+    private long getTotalCompletedTasks() {
+        synchronized (taskCompletionMonitor) {
+            return totalCompletedTasks;
         }
     }
 
@@ -413,8 +479,29 @@ public class HierarchicalMicroScheduler extends MicroScheduler implements Hierar
         return errorTracker.notifyOfError(error);
     }
 
+    /**
+     * A FutureTask that hands its slot in the thread pool back to the scheduler once it has run,
+     * whether it completed normally or failed.  The slot is freed when the pool thread is done with
+     * the task rather than in done(), so cancelling a running task doesn't free its slot before the
+     * task actually stops.
+     */
+    private class SlotReleasingTask extends FutureTask<Object> {
+        public SlotReleasingTask( Callable<Object> callable ) {
+            super(callable);
+        }
+
+        @Override
+        public void run() {
+            try {
+                super.run();
+            } finally {
+                notifyTaskComplete();
+            }
+        }
+    }
+
     /** A small wrapper class that provides the TreeReducer interface along with the FutureTask semantics. */
-    private class TreeReduceTask extends FutureTask {
+    private class TreeReduceTask extends SlotReleasingTask {
         final private TreeReducer treeReducer;
 
         public TreeReduceTask( TreeReducer treeReducer ) {
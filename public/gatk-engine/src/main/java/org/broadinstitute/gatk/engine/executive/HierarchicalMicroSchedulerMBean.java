@@ -41,7 +41,7 @@ package org.broadinstitute.gatk.engine.executive;
  * An interface for retrieving runtime statistics about how the hierarchical
  * microscheduler is behaving. 
  */
-public interface HierarchicalMicroSchedulerMBean {
+public interface HierarchicalMicroSchedulerMBean extends MicroSchedulerMBean {
     /**
      * How many tree reduces are waiting in the tree reduce queue?
      * @return Total number of reduces waiting in the tree reduce queue?
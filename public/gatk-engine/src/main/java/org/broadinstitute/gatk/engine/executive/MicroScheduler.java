@@ -30,6 +30,7 @@ import htsjdk.samtools.reference.IndexedFastaSequenceFile;
 import org.apache.log4j.Logger;
 import org.broadinstitute.gatk.engine.GenomeAnalysisEngine;
 import org.broadinstitute.gatk.engine.ReadMetrics;
+import org.broadinstitute.gatk.engine.datasources.reads.BGZFBlockLoadingDispatcher;
 import org.broadinstitute.gatk.engine.datasources.reads.SAMDataSource;
 import org.broadinstitute.gatk.engine.datasources.reads.Shard;
 import org.broadinstitute.gatk.engine.datasources.rmd.ReferenceOrderedDataSource;
@@ -327,6 +328,7 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
     protected void executionIsDone() {
         engine.getProgressMeter().notifyDone(engine.getCumulativeMetrics().getNumIterations());
         printReadFilteringStats();
+        printReadAheadStats();
         shutdownTraversalEngines();
 
         // Print out the threading efficiency of this HMS, if state monitoring is enabled
@@ -380,6 +382,15 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
         }
     }
 
+    /**
+     * Prints out read-ahead buffer occupancy and stall times, if reads were loaded asynchronously
+     */
+    private void printReadAheadStats() {
+        final BGZFBlockLoadingDispatcher dispatcher = reads != null ? reads.getBlockLoadingDispatcher() : null;
+        if ( dispatcher != null )
+            dispatcher.logReadAheadStatistics(logger);
+    }
+
     /**
      * Gets the engine that created this microscheduler.
      * @return The engine owning this microscheduler.
@@ -392,6 +403,18 @@ public abstract class MicroScheduler implements MicroSchedulerMBean {
      */
     public SAMDataSource getSAMDataSource() { return reads; }
 
+    /** {@inheritDoc} */
+    public long getBlockBufferPoolHits() {
+        final BGZFBlockLoadingDispatcher dispatcher = reads != null ? reads.getBlockLoadingDispatcher() : null;
+        return dispatcher != null ? dispatcher.getBufferPoolHits() : 0;
+    }
+
+    /** {@inheritDoc} */
+    public long getBlockBufferPoolMisses() {
+        final BGZFBlockLoadingDispatcher dispatcher = reads != null ? reads.getBlockLoadingDispatcher() : null;
+        return dispatcher != null ? dispatcher.getBufferPoolMisses() : 0;
+    }
+
     /**
      * Returns the reference maintained by this scheduler.
      * @return The reference maintained by this scheduler.
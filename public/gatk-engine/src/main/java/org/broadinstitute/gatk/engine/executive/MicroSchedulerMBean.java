@@ -33,5 +33,15 @@ package org.broadinstitute.gatk.engine.executive;
  * To change this template use File | Settings | File Templates.
  */
 public interface MicroSchedulerMBean {
-    // has nothing because we don't have anything we currently track
+    /**
+     * How many BGZF decompression buffers and Inflaters have been reused rather than allocated?
+     * @return Number of pool hits in the asynchronous block loader; 0 if not running in asynchronous I/O mode.
+     */
+    public long getBlockBufferPoolHits();
+
+    /**
+     * How many BGZF decompression buffers and Inflaters had to be freshly allocated?
+     * @return Number of pool misses in the asynchronous block loader; 0 if not running in asynchronous I/O mode.
+     */
+    public long getBlockBufferPoolMisses();
 }
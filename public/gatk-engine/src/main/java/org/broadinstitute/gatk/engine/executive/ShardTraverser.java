@@ -51,7 +51,7 @@ import java.util.concurrent.Callable;
 /**
  * Carries the walker over a given shard, in a callable interface.
  */
-public class ShardTraverser implements Callable {
+public class ShardTraverser implements Callable<Object> {
     final private HierarchicalMicroScheduler microScheduler;
     final private Walker walker;
     final private Shard shard;
@@ -49,7 +49,7 @@ import java.util.concurrent.Future;
  * Provides services for indicating when all data is prepared for the reduce a callable
  * interface to force the reduce.
  */
-public class TreeReducer implements Callable {
+public class TreeReducer implements Callable<Object> {
     final private HierarchicalMicroScheduler microScheduler;
     private TreeReducible walker;
     private Future lhs;
@@ -25,37 +25,99 @@
 
 package org.broadinstitute.gatk.engine.traversals;
 
+import htsjdk.samtools.BAMRecordCodec;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.RuntimeIOException;
 import org.broadinstitute.gatk.utils.downsampling.Downsampler;
 import org.broadinstitute.gatk.utils.downsampling.ReservoirDownsampler;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
 import org.broadinstitute.gatk.utils.sam.AlignmentStartComparator;
+import org.broadinstitute.gatk.utils.sam.GATKBAMRecordDecoder;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
  * Subsystem to track a list of all reads currently live in the TraverseActiveRegions system,
  * while limiting the total number of reads to a maximum capacity.
  *
+ * By default reads beyond the maximum capacity are downsampled away.  If the cache is instead created
+ * with a memory budget, reads are never discarded: once the reads held in memory exceed either the
+ * budget or the maximum capacity they are written out as a block compressed BAM-encoded block to a
+ * temporary file, and the blocks are streamed back in order when the reads are popped.  Since reads are
+ * added in sorted order the blocks are sorted runs that follow one another, so no merging is required.
+ *
+ * Note that only the persistent state of a read survives a trip through a spill file.  Temporary
+ * attributes and other in-memory-only state of GATKSAMRecord are lost.
+ *
  * User: depristo
  * Date: 4/7/13
  * Time: 11:23 AM
  */
 public class TAROrderedReadCache {
     private final int maxCapacity;
+    private final long maxBytesInMemory;
+    private final SAMFileHeader header;
+    private final File tempDir;
     private ArrayList<GATKSAMRecord> undownsampledCache;
     private Downsampler<GATKSAMRecord> downsampler;
 
+    /**
+     * Spill files holding the oldest reads in the cache, in the order they were written
+     */
+    private LinkedList<File> spillFiles = new LinkedList<>();
+    private int nSpilledReads = 0;
+    private long bytesInMemory = 0;
+    private long totalSpilledReads = 0;
+
     private static final int UNDOWNSAMPLED_CACHE_MAX_INITIAL_SIZE = 10000;
 
+    /**
+     * Rough cost in bytes of a read on the heap, on top of its per base arrays
+     */
+    private static final int READ_OVERHEAD_BYTES = 300;
+
+    /**
+     * Spill files are short lived, so favor speed over size when compressing them
+     */
+    private static final int SPILL_COMPRESSION_LEVEL = 1;
+
     /**
      * Create a new empty ReadCache
      * @param maxCapacity the max capacity of the read cache.
      */
     public TAROrderedReadCache( final int maxCapacity ) {
+        this(maxCapacity, 0, null, null);
+    }
+
+    /**
+     * Create a new empty ReadCache that spills reads to disk instead of discarding them
+     *
+     * @param maxCapacity the max number of reads to hold in memory at once
+     * @param maxBytesInMemory the approximate max number of bytes of reads to hold in memory at once, or 0
+     *                         to discard reads beyond maxCapacity instead of spilling them
+     * @param header the header of the reads, used to encode spilled reads.  Can be null only if maxBytesInMemory is 0
+     * @param tempDir the directory in which spill files are created.  Can be null only if maxBytesInMemory is 0
+     */
+    public TAROrderedReadCache( final int maxCapacity, final long maxBytesInMemory, final SAMFileHeader header, final File tempDir ) {
         if ( maxCapacity < 0 ) throw new IllegalArgumentException("maxCapacity must be >= 0 but got " + maxCapacity);
+        if ( maxBytesInMemory < 0 ) throw new IllegalArgumentException("maxBytesInMemory must be >= 0 but got " + maxBytesInMemory);
+        if ( maxBytesInMemory > 0 && header == null ) throw new IllegalArgumentException("header cannot be null when spilling reads");
+        if ( maxBytesInMemory > 0 && tempDir == null ) throw new IllegalArgumentException("tempDir cannot be null when spilling reads");
         this.maxCapacity = maxCapacity;
+        this.maxBytesInMemory = maxBytesInMemory;
+        this.header = header;
+        this.tempDir = tempDir;
 
         // The one we're not currently using will always be null:
         initializeUndownsampledCache();
@@ -79,6 +141,7 @@ public class TAROrderedReadCache {
      */
     private void initializeUndownsampledCache() {
         undownsampledCache = new ArrayList<>(Math.min(maxCapacity + 1, UNDOWNSAMPLED_CACHE_MAX_INITIAL_SIZE));
+        bytesInMemory = 0;
     }
 
     /**
@@ -89,6 +152,14 @@ public class TAROrderedReadCache {
         return maxCapacity;
     }
 
+    /**
+     * Does this cache spill reads to disk rather than discarding them?
+     * @return true if reads beyond the in memory limits are written to temporary files
+     */
+    public boolean spillsToDisk() {
+        return maxBytesInMemory > 0;
+    }
+
     /**
      * Add a single read to this cache.  Assumed to be in sorted order w.r.t. the previously added reads
      * @param read a read to add
@@ -102,8 +173,14 @@ public class TAROrderedReadCache {
         else {
             undownsampledCache.add(read);
 
+            if ( spillsToDisk() ) {
+                bytesInMemory += estimateReadSize(read);
+                if ( bytesInMemory > maxBytesInMemory || undownsampledCache.size() > maxCapacity ) {
+                    spillReadsInMemory();
+                }
+            }
             // No more room in the undownsampledCache? Time to start downsampling
-            if ( undownsampledCache.size() > maxCapacity ) {
+            else if ( undownsampledCache.size() > maxCapacity ) {
                 activateDownsampler();
             }
         }
@@ -121,22 +198,35 @@ public class TAROrderedReadCache {
     }
 
     /**
-     * How many reads are currently in the cache?
+     * How many reads are currently in the cache, including those spilled to disk?
      * @return a positive integer
      */
     public int size() {
-        return downsampler != null ? downsampler.size() : undownsampledCache.size();
+        return downsampler != null ? downsampler.size() : undownsampledCache.size() + nSpilledReads;
     }
 
     /**
      * How many reads were discarded since the last call to popCurrentReads
      *
+     * Always 0 for a cache that spills to disk.
+     *
      * @return number of items discarded during downsampling since last pop operation
      */
     public int getNumDiscarded() {
         return downsampler != null ? downsampler.getNumberOfDiscardedItems() : 0;
     }
 
+    /**
+     * How many reads have been written to spill files over the life of this cache?
+     *
+     * Reads that are spilled, popped, and added back are counted each time they are spilled.
+     *
+     * @return a non-negative number of reads
+     */
+    public long getTotalSpilledReads() {
+        return totalSpilledReads;
+    }
+
     /**
      * Removes all reads currently in the cache, and returns them in sorted order (w.r.t. alignmentStart)
      *
@@ -149,6 +239,15 @@ public class TAROrderedReadCache {
     public List<GATKSAMRecord> popCurrentReads() {
         final List<GATKSAMRecord> poppedReads;
 
+        if ( ! spillFiles.isEmpty() ) {
+            poppedReads = new ArrayList<>(size());
+            final CloseableIterator<GATKSAMRecord> it = popCurrentReadsIterator();
+            while ( it.hasNext() )
+                poppedReads.add(it.next());
+            it.close();
+            return poppedReads;
+        }
+
         if ( downsampler == null ) {
             poppedReads = undownsampledCache;  // avoid making a copy here, since we're going to allocate a new cache
         }
@@ -165,4 +264,161 @@ public class TAROrderedReadCache {
         initializeUndownsampledCache();
         return poppedReads;
     }
+
+    /**
+     * Removes all reads currently in the cache, and returns an iterator over them in sorted order (w.r.t. alignmentStart)
+     *
+     * Unlike popCurrentReads() this doesn't need to hold the spilled reads in memory all at once, as
+     * they are decoded from their spill files as the iterator advances.  The cache is flushed immediately,
+     * so it is safe to add reads back to it while consuming the iterator.  The iterator should be
+     * closed if it isn't exhausted, to clean up its remaining spill files.
+     *
+     * @return a non-null iterator of GATKSAMRecords in this cache
+     */
+    public CloseableIterator<GATKSAMRecord> popCurrentReadsIterator() {
+        final LinkedList<File> files = spillFiles;
+        spillFiles = new LinkedList<>();
+        nSpilledReads = 0;
+        return new SpilledReadsIterator(files, popCurrentReads());
+    }
+
+    /**
+     * Remove any spill files still held by this cache, discarding the reads in them
+     */
+    public void close() {
+        for ( final File file : spillFiles )
+            file.delete();
+        spillFiles.clear();
+        nSpilledReads = 0;
+    }
+
+    /**
+     * Estimate how many bytes of heap a read is using
+     * @param read a non-null read
+     * @return a positive number of bytes
+     */
+    protected static long estimateReadSize(final GATKSAMRecord read) {
+        // bases, base qualities and the insertion / deletion qualities if BQSR has added them
+        return READ_OVERHEAD_BYTES + 4L * read.getReadLength();
+    }
+
+    /**
+     * Write all of the reads in the undownsampledCache to a new spill file, and empty it
+     */
+    private void spillReadsInMemory() {
+        final File spillFile;
+        try {
+            spillFile = File.createTempFile("TAROrderedReadCache.", ".bam", tempDir);
+            spillFile.deleteOnExit();
+        } catch ( IOException e ) {
+            throw new UserException.BadTmpDir("could not create a file to spill active region reads to: " + e.getMessage());
+        }
+
+        final BlockCompressedOutputStream out = new BlockCompressedOutputStream(spillFile, SPILL_COMPRESSION_LEVEL);
+        try {
+            final BAMRecordCodec codec = new BAMRecordCodec(header);
+            codec.setOutputStream(out, spillFile.getName());
+            for ( final GATKSAMRecord read : undownsampledCache )
+                codec.encode(read);
+            out.close();
+        } catch ( RuntimeIOException e ) {
+            spillFile.delete();
+            throw new UserException.CouldNotCreateOutputFile(spillFile, "could not spill active region reads", e);
+        } catch ( IOException e ) {
+            spillFile.delete();
+            throw new UserException.CouldNotCreateOutputFile(spillFile, "could not spill active region reads", e);
+        }
+
+        spillFiles.add(spillFile);
+        nSpilledReads += undownsampledCache.size();
+        totalSpilledReads += undownsampledCache.size();
+        initializeUndownsampledCache();
+    }
+
+    /**
+     * Streams the reads in a list of spill files, deleting each one as it is consumed, followed by
+     * the reads that were still in memory
+     */
+    private class SpilledReadsIterator implements CloseableIterator<GATKSAMRecord> {
+        private final LinkedList<File> files;
+        private final Iterator<GATKSAMRecord> readsInMemory;
+        private File currentFile = null;
+        private BlockCompressedInputStream currentStream = null;
+        private GATKBAMRecordDecoder decoder = null;
+        private GATKSAMRecord nextRead;
+
+        private SpilledReadsIterator(final LinkedList<File> files, final List<GATKSAMRecord> readsInMemory) {
+            this.files = files;
+            this.readsInMemory = readsInMemory.iterator();
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextRead != null;
+        }
+
+        @Override
+        public GATKSAMRecord next() {
+            if ( ! hasNext() ) throw new NoSuchElementException("No more reads in the active region read cache");
+            final GATKSAMRecord read = nextRead;
+            advance();
+            return read;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Cannot remove from a TAROrderedReadCache iterator");
+        }
+
+        @Override
+        public void close() {
+            closeCurrentFile();
+            for ( final File file : files )
+                file.delete();
+            files.clear();
+            nextRead = null;
+        }
+
+        private void advance() {
+            nextRead = null;
+            while ( nextRead == null ) {
+                if ( currentStream == null ) {
+                    if ( files.isEmpty() ) {
+                        if ( readsInMemory.hasNext() ) nextRead = readsInMemory.next();
+                        return;
+                    }
+                    openNextFile();
+                }
+
+                nextRead = decoder.decode();
+                if ( nextRead == null )
+                    closeCurrentFile();
+            }
+        }
+
+        private void openNextFile() {
+            currentFile = files.removeFirst();
+            try {
+                currentStream = new BlockCompressedInputStream(currentFile);
+            } catch ( IOException e ) {
+                throw new UserException.CouldNotReadInputFile(currentFile, "could not read back spilled active region reads", e);
+            }
+            decoder = new GATKBAMRecordDecoder(header, currentStream);
+        }
+
+        private void closeCurrentFile() {
+            if ( currentStream == null )
+                return;
+            try {
+                currentStream.close();
+            } catch ( IOException e ) {
+                throw new UserException.CouldNotReadInputFile(currentFile, "could not close spilled active region reads", e);
+            }
+            currentFile.delete();
+            currentStream = null;
+            currentFile = null;
+            decoder = null;
+        }
+    }
 }
@@ -27,6 +27,7 @@ package org.broadinstitute.gatk.engine.traversals;
 
 import com.google.java.contract.Ensures;
 import com.google.java.contract.Requires;
+import htsjdk.samtools.util.CloseableIterator;
 import org.apache.log4j.Logger;
 import org.broadinstitute.gatk.engine.GenomeAnalysisEngine;
 import org.broadinstitute.gatk.utils.contexts.AlignmentContext;
@@ -35,6 +36,7 @@ import org.broadinstitute.gatk.engine.datasources.providers.*;
 import org.broadinstitute.gatk.utils.refdata.RefMetaDataTracker;
 import org.broadinstitute.gatk.engine.walkers.ActiveRegionTraversalParameters;
 import org.broadinstitute.gatk.engine.walkers.ActiveRegionWalker;
+import org.broadinstitute.gatk.engine.walkers.ThreadSafeIsActive;
 import org.broadinstitute.gatk.engine.walkers.Walker;
 import org.broadinstitute.gatk.utils.GenomeLoc;
 import org.broadinstitute.gatk.utils.Utils;
@@ -42,6 +44,8 @@ import org.broadinstitute.gatk.utils.activeregion.ActiveRegion;
 import org.broadinstitute.gatk.utils.activeregion.ActivityProfile;
 import org.broadinstitute.gatk.utils.activeregion.ActivityProfileState;
 import org.broadinstitute.gatk.utils.activeregion.BandPassActivityProfile;
+import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
 import org.broadinstitute.gatk.utils.nanoScheduler.NSMapFunction;
 import org.broadinstitute.gatk.utils.nanoScheduler.NSProgressFunction;
 import org.broadinstitute.gatk.utils.nanoScheduler.NSReduceFunction;
@@ -50,11 +54,19 @@ import org.broadinstitute.gatk.utils.progressmeter.ProgressMeter;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
 import org.broadinstitute.gatk.utils.sam.ReadUtils;
 
+import java.io.File;
 import java.io.PrintStream;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Implement active region traversal
@@ -96,6 +108,18 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
     int maxReadsInMemory = 0;
     ActiveRegionWalker<M, T> walker;
 
+    /**
+     * How many loci may the traversal run ahead of the activity profile per activity profile thread?
+     */
+    private final static int PENDING_LOCI_PER_THREAD = 256;
+
+    /**
+     * Threads running the walker's isActive function ahead of the activity profile, or null if the
+     * traversal thread calls it itself
+     */
+    private ExecutorService activityProfileExecutor = null;
+    private int maxPendingLoci = 1;
+
     final NanoScheduler<MapData, M, T> nanoScheduler;
 
     /**
@@ -162,9 +186,21 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
         activityProfile = new BandPassActivityProfile(engine.getGenomeLocParser(), engine.getIntervals(), this.walker.maxProbPropagationDistance, this.walker.activeProbThreshold,
                 BandPassActivityProfile.MAX_FILTER_SIZE, bandPassSigma);
 
+        if ( this.walker.activityProfileThreads > 0 ) {
+            if ( ! (walker instanceof ThreadSafeIsActive) )
+                throw new UserException.BadArgumentValue("activityProfileThreads", "walker " + walker.getClass().getSimpleName() + " doesn't declare its isActive function thread safe, so it can only be run by a single thread");
+            activityProfileExecutor = createActivityProfileExecutor(this.walker.activityProfileThreads);
+            maxPendingLoci = this.walker.activityProfileThreads * PENDING_LOCI_PER_THREAD;
+        }
+
         final int maxReadsAcrossSamples = annotation.maxReadsToHoldInMemoryPerSample() * ReadUtils.getSAMFileSamples(engine.getSAMFileHeader()).size();
         final int maxReadsToHoldInMemory = Math.min(maxReadsAcrossSamples, annotation.maxReadsToHoldTotal());
-        myReads = new TAROrderedReadCache(maxReadsToHoldInMemory);
+        if ( this.walker.activeRegionReadMemoryMB == null ) {
+            myReads = new TAROrderedReadCache(maxReadsToHoldInMemory);
+        } else {
+            myReads = new TAROrderedReadCache(maxReadsToHoldInMemory, this.walker.activeRegionReadMemoryMB * 1024L * 1024L,
+                    engine.getSAMFileHeader(), new File(System.getProperty("java.io.tmpdir")));
+        }
     }
 
     // -------------------------------------------------------------------------------------
@@ -173,6 +209,23 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
     //
     // -------------------------------------------------------------------------------------
 
+    /**
+     * Create the pool of daemon threads running isActive calls ahead of the traversal
+     * @param nThreads the number of threads, must be > 0
+     * @return a non-null executor
+     */
+    private static ExecutorService createActivityProfileExecutor(final int nThreads) {
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        return Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "ActivityProfile-" + threadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
     /**
      * Load in the preset regions for contig into workQueue
      *
@@ -276,9 +329,21 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
         return result;
     }
 
+    @Override
+    public void shutdown() {
+        if ( activityProfileExecutor != null )
+            activityProfileExecutor.shutdownNow();
+        if ( myReads != null ) {
+            if ( myReads.getTotalSpilledReads() > 0 )
+                logger.info(String.format("Active region traversal spilled %d reads to disk", myReads.getTotalSpilledReads()));
+            myReads.close();
+        }
+    }
+
     private class ActiveRegionIterator implements Iterator<MapData> {
         private final LocusShardDataProvider dataProvider;
         private LinkedList<MapData> readyActiveRegions = new LinkedList<>();
+        private final LinkedList<PendingLocus> pendingLoci = new LinkedList<>();
         private boolean done = false;
         private final LocusView locusView;
         private final LocusReferenceView referenceView;
@@ -335,16 +400,50 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
                 return false;
             else {
 
-                while( locusView.hasNext() ) {
-                    final AlignmentContext locus = locusView.next();
-                    final GenomeLoc location = locus.getLocation();
+                while( true ) {
+                    // run ahead of the activity profile, handing the isActive calls over to the profile threads
+                    while ( pendingLoci.size() < maxPendingLoci && locusView.hasNext() ) {
+                        final AlignmentContext locus = locusView.next();
+                        final GenomeLoc location = locus.getLocation();
+
+                        // get all of the new reads that appear in the current pileup.  They only go into our list of
+                        // reads when this locus is integrated below, so running ahead doesn't change what the read
+                        // cache holds (and so which reads it downsamples) when active regions are popped from it
+                        final Collection<GATKSAMRecord> reads = locusView.getLIBS().transferReadsFromAllPreviousPileups();
+
+                        // skip this location -- it's not part of our engine intervals
+                        if ( outsideEngineIntervals(location) ) {
+                            pendingLoci.add(new PendingLocus(location, reads, null));
+                            continue;
+                        }
+
+                        dataProvider.getShard().getReadMetrics().incrementNumIterations();
+
+                        // create reference context. Note that if we have a pileup of "extended events", the context will
+                        // hold the (longest) stretch of deleted reference bases (if deletions are present in the pileup).
+                        final ReferenceContext refContext = referenceView.getReferenceContext(location);
+                        // load its bases here: the lazy provider reads the reference view's current contig, which
+                        // can't be touched by the profile threads while the traversal moves on
+                        refContext.getBases();
+
+                        // Iterate forward to get all reference ordered data covering this location
+                        final RefMetaDataTracker tracker = referenceOrderedDataView.getReferenceOrderedDataAtLocus(locus.getLocation());
+
+                        // Queue up the walkers isActive function for this locus, to be integrated later
+                        pendingLoci.add(new PendingLocus(location, reads, submitIsActive(walker, tracker, refContext, locus)));
+                    }
+
+                    if ( pendingLoci.isEmpty() )
+                        break;
+
+                    // integrate the loci in genome order, exactly as if we hadn't run ahead
+                    final PendingLocus pending = pendingLoci.remove();
+                    final GenomeLoc location = pending.location;
 
                     rememberLastLocusLocation(location);
 
-                    // get all of the new reads that appear in the current pileup, and them to our list of reads
-                    // provided we haven't seen them before
-                    final Collection<GATKSAMRecord> reads = locusView.getLIBS().transferReadsFromAllPreviousPileups();
-                    for( final GATKSAMRecord read : reads ) {
+                    // add the new reads of this locus to our list of reads, provided we haven't seen them before
+                    for( final GATKSAMRecord read : pending.reads ) {
                         // note that ActiveRegionShards span entire contigs, so this check is in some
                         // sense no longer necessary, as any read that appeared in the last shard would now
                         // by definition be on a different contig.  However, the logic here doesn't hurt anything
@@ -356,8 +455,8 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
                         }
                     }
 
-                    // skip this location -- it's not part of our engine intervals
-                    if ( outsideEngineIntervals(location) )
+                    // this location isn't part of our engine intervals
+                    if ( pending.isActiveCall == null )
                         continue;
 
                     // we've move across some interval boundary, restart profile
@@ -366,17 +465,7 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
                             || location.getStart() != activityProfile.getStop() + 1);
                     final List<MapData> newActiveRegions = prepActiveRegionsForProcessing(walker, flushProfile, false, referenceOrderedDataView);
 
-                    dataProvider.getShard().getReadMetrics().incrementNumIterations();
-
-                    // create reference context. Note that if we have a pileup of "extended events", the context will
-                    // hold the (longest) stretch of deleted reference bases (if deletions are present in the pileup).
-                    final ReferenceContext refContext = referenceView.getReferenceContext(location);
-
-                    // Iterate forward to get all reference ordered data covering this location
-                    final RefMetaDataTracker tracker = referenceOrderedDataView.getReferenceOrderedDataAtLocus(locus.getLocation());
-
-                    // Call the walkers isActive function for this locus and add them to the list to be integrated later
-                    addIsActiveResult(walker, tracker, refContext, locus);
+                    addIsActiveResult(walker, pending.isActiveCall.get());
 
                     maxReadsInMemory = Math.max(myReads.size(), maxReadsInMemory);
                     printProgress(location);
@@ -605,18 +694,91 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
     // -------------------------------------------------------------------------------------
 
     /**
-     * Invoke the walker isActive function, and incorporate its result into the activity profile
+     * Prepare a call to the walker isActive function
+     *
+     * If we have activity profile threads the call is started on them right away, otherwise it's made by the
+     * traversal thread when the result is needed.  Either way the call is always made, even if we won't use
+     * the result, to satisfy the walker contract.
      *
      * @param walker the walker we're running
      * @param tracker the ref meta data tracker to pass on to the isActive function of walker
      * @param refContext the refContext to pass on to the isActive function of walker
      * @param locus the AlignmentContext to pass on to the isActive function of walker
+     * @return a non-null pending isActive call for locus
+     */
+    private PendingIsActiveCall submitIsActive(final ActiveRegionWalker<M, T> walker,
+                                               final RefMetaDataTracker tracker, final ReferenceContext refContext,
+                                               final AlignmentContext locus) {
+        final FutureTask<ActivityProfileState> task = new FutureTask<>(new Callable<ActivityProfileState>() {
+            @Override
+            public ActivityProfileState call() {
+                return walker.isActive( tracker, refContext, locus );
+            }
+        });
+        if ( activityProfileExecutor != null )
+            activityProfileExecutor.execute(task);
+        return new PendingIsActiveCall(locus.getLocation(), task);
+    }
+
+    /**
+     * A locus the traversal has run ahead to, waiting to be integrated into the read cache and the activity profile
+     */
+    private static class PendingLocus {
+        final GenomeLoc location;
+        final Collection<GATKSAMRecord> reads;
+        final PendingIsActiveCall isActiveCall;
+
+        /**
+         * @param location the location of the locus
+         * @param reads the reads that first appeared in the pileup of this locus
+         * @param isActiveCall the isActive call of this locus, or null if it's outside of the engine intervals
+         */
+        private PendingLocus(final GenomeLoc location, final Collection<GATKSAMRecord> reads, final PendingIsActiveCall isActiveCall) {
+            this.location = location;
+            this.reads = reads;
+            this.isActiveCall = isActiveCall;
+        }
+    }
+
+    /**
+     * A call to the walker isActive function at a locus, that may not have been made yet
+     */
+    private static class PendingIsActiveCall {
+        final GenomeLoc location;
+        final FutureTask<ActivityProfileState> task;
+
+        private PendingIsActiveCall(final GenomeLoc location, final FutureTask<ActivityProfileState> task) {
+            this.location = location;
+            this.task = task;
+        }
+
+        /**
+         * Get the result of the isActive call, running it on the current thread if no one has picked it up yet
+         * @return the non-null activity profile state of this locus
+         */
+        ActivityProfileState get() {
+            task.run(); // a no-op if the task has already been started
+            try {
+                return task.get();
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new ReviewedGATKException("Interrupted while waiting for the isActive result at " + location, e);
+            } catch ( ExecutionException e ) {
+                final Throwable cause = e.getCause();
+                if ( cause instanceof RuntimeException ) throw (RuntimeException)cause;
+                if ( cause instanceof Error ) throw (Error)cause;
+                throw new ReviewedGATKException("Failed to compute the isActive result at " + location, cause);
+            }
+        }
+    }
+
+    /**
+     * Incorporate the result of the walker isActive function into the activity profile
+     *
+     * @param walker the walker we're running
+     * @param state the result of the isActive function of walker
      */
-    private void addIsActiveResult(final ActiveRegionWalker<M, T> walker,
-                                   final RefMetaDataTracker tracker, final ReferenceContext refContext,
-                                   final AlignmentContext locus) {
-        // must be called, even if we won't use the result, to satisfy walker contract
-        final ActivityProfileState state = walker.isActive( tracker, refContext, locus );
+    private void addIsActiveResult(final ActiveRegionWalker<M, T> walker, final ActivityProfileState state) {
         if ( walker.forceActive) state.isActiveProb = 1.0;
         if ( ! walkerHasPresetRegions ) {
             activityProfile.add(state);
@@ -659,8 +821,11 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
     private MapData prepActiveRegionForProcessing(final ActiveRegion activeRegion,
                                                   final ActiveRegionWalker<M, T> walker,
                                                   final IntervalReferenceOrderedView referenceOrderedDataView) {
-        final List<GATKSAMRecord> stillLive = new LinkedList<>();
-        for ( final GATKSAMRecord read : myReads.popCurrentReads() ) {
+        // stream the reads, putting the ones that are still live straight back into the cache, so that a
+        // cache that spills to disk never needs to have all of its reads in memory at once
+        final CloseableIterator<GATKSAMRecord> cachedReads = myReads.popCurrentReadsIterator();
+        while ( cachedReads.hasNext() ) {
+            final GATKSAMRecord read = cachedReads.next();
             boolean killed = false;
             final GenomeLoc readLoc = this.engine.getGenomeLocParser().createGenomeLoc( read );
 
@@ -680,9 +845,9 @@ public final class TraverseActiveRegions<M, T> extends TraversalEngine<M,T,Activ
             }
 
             // keep track of all of the still live active regions
-            if ( ! killed ) stillLive.add(read);
+            if ( ! killed ) myReads.add(read);
         }
-        myReads.addAll(stillLive);
+        cachedReads.close();
 
         if ( logger.isDebugEnabled() ) {
             logger.debug(">> Map call with " + activeRegion.getReads().size() + " " + (activeRegion.isActive() ? "active" : "inactive") + " reads @ " + activeRegion.getLocation() + " with full extent: " + activeRegion.getReadSpanLoc());
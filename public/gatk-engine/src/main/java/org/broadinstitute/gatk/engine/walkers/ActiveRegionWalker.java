@@ -103,6 +103,28 @@ public abstract class ActiveRegionWalker<MapType, ReduceType> extends Walker<Map
     @Argument(fullName="activeRegionMaxSize", shortName="activeRegionMaxSize", doc="The active region maximum size; if not provided defaults to Walker annotated default", required = false)
     public Integer activeRegionMaxSize = null;
 
+    /**
+     * By default the traversal discards reads at random once it holds more than the walker's maximum number of reads
+     * in memory.  If this argument is provided, reads are instead written to temporary files in java.io.tmpdir once
+     * they take up more than this many megabytes of heap (or exceed the maximum read count), and are streamed back
+     * when the active regions that need them are processed.  Nothing is discarded, at the cost of extra I/O in deep
+     * regions.
+     */
+    @Advanced
+    @Argument(fullName="activeRegionReadMemoryMB", shortName="activeRegionReadMemoryMB", minValue = 1, doc="Spill reads held by the active region traversal to disk, rather than downsampling them, beyond this many megabytes", required = false)
+    public Integer activeRegionReadMemoryMB = null;
+
+    /**
+     * By default the walker's isActive function is called by the traversal thread, which also manages the reads
+     * and the activity profile, so with many -nct threads it can limit how fast active regions are handed out.
+     * With this argument the isActive calls are made by this many separate threads, running ahead of the activity
+     * profile.  Only allowed for walkers that implement ThreadSafeIsActive, as isActive must then be thread safe.
+     * The active regions and their reads are the same as without this argument.
+     */
+    @Advanced
+    @Argument(fullName="activityProfileThreads", shortName="activityProfileThreads", minValue = 0, doc="Number of threads computing the activity profile ahead of the active region traversal", required = false)
+    public int activityProfileThreads = 0;
+
     @Advanced
     @Argument(fullName="bandPassSigma", shortName="bandPassSigma", doc="The sigma of the band pass filter Gaussian kernel; if not provided defaults to Walker annotated default", required = false)
     public Double bandPassSigma = null;
@@ -0,0 +1,77 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.zip.Inflater;
+
+public class BlockBufferPoolUnitTest extends BaseTest {
+    @Test
+    public void testBuffersAreRecycled() {
+        final BlockBufferPool pool = new BlockBufferPool();
+
+        final byte[] first = pool.claimBuffer();
+        Assert.assertEquals(first.length, BlockBufferPool.BUFFER_SIZE);
+        Assert.assertEquals(pool.getHits(), 0);
+        Assert.assertEquals(pool.getMisses(), 1);
+
+        pool.releaseBuffer(first);
+        Assert.assertSame(pool.claimBuffer(), first, "Released buffer should be handed out again");
+        Assert.assertEquals(pool.getHits(), 1);
+        Assert.assertEquals(pool.getMisses(), 1);
+    }
+
+    @Test
+    public void testInflatersAreRecycled() {
+        final BlockBufferPool pool = new BlockBufferPool();
+
+        final Inflater first = pool.claimInflater();
+        pool.releaseInflater(first);
+        Assert.assertSame(pool.claimInflater(), first, "Released inflater should be handed out again");
+        Assert.assertEquals(pool.getHits(), 1);
+        Assert.assertEquals(pool.getMisses(), 1);
+    }
+
+    @Test
+    public void testArenasArePerThread() throws InterruptedException {
+        final BlockBufferPool pool = new BlockBufferPool();
+        pool.releaseBuffer(pool.claimBuffer());
+
+        final Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pool.claimBuffer();
+            }
+        });
+        other.start();
+        other.join();
+
+        Assert.assertEquals(pool.getHits(), 0, "Another thread should not see this thread's released buffer");
+        Assert.assertEquals(pool.getMisses(), 2);
+    }
+}
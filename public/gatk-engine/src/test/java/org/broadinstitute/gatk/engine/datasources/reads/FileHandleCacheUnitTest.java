@@ -0,0 +1,114 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.commandline.Tags;
+import org.broadinstitute.gatk.utils.sam.SAMReaderID;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FileHandleCacheUnitTest extends BaseTest {
+    private final File[] bamFiles = new File[]{ new File(publicTestDir + "exampleBAM.bam"), new File(publicTestDir + "exampleBAM.simple.bam") };
+
+    @DataProvider(name = "ConcurrentClaimsTest")
+    public Object[][] makeConcurrentClaimsTest() {
+        final List<Object[]> tests = new LinkedList<Object[]>();
+
+        for ( final int cacheSize : new int[]{1, 2} ) {
+            for ( final int numReaders : new int[]{1, 2} ) {
+                tests.add(new Object[]{cacheSize, numReaders});
+            }
+        }
+
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "ConcurrentClaimsTest", timeOut = 60000)
+    public void testConcurrentClaims(final int cacheSize, final int numReaders) throws Exception {
+        final FileHandleCache cache = new FileHandleCache(cacheSize);
+        final List<SAMReaderID> readers = new ArrayList<SAMReaderID>();
+        for ( int i = 0; i < numReaders; i++ )
+            readers.add(new SAMReaderID(bamFiles[i], new Tags()));
+
+        final int numThreads = 4;
+        final Set<FileInputStream> claimedStreams = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<FileInputStream, Boolean>()));
+        final Set<FileInputStream> allStreams = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<FileInputStream, Boolean>()));
+        final AtomicInteger numClaimed = new AtomicInteger();
+
+        final ExecutorService threadPool = Executors.newFixedThreadPool(numThreads);
+        try {
+            final List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for ( int thread = 0; thread < numThreads; thread++ ) {
+                final SAMReaderID reader = readers.get(thread % numReaders);
+                results.add(threadPool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for ( int i = 0; i < 1000; i++ ) {
+                            final FileInputStream inputStream = cache.claimFileInputStream(reader);
+                            Assert.assertTrue(numClaimed.incrementAndGet() <= cacheSize, "More file handles claimed than the cache size");
+                            Assert.assertTrue(claimedStreams.add(inputStream), "A file handle was claimed by two threads at once");
+                            Assert.assertTrue(inputStream.getChannel().isOpen(), "A closed file handle was claimed");
+                            allStreams.add(inputStream);
+                            inputStream.getChannel().position(i);
+                            claimedStreams.remove(inputStream);
+                            numClaimed.decrementAndGet();
+                            cache.releaseFileInputStream(reader, inputStream);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for ( final Future<Void> result : results )
+                result.get();
+        }
+        finally {
+            threadPool.shutdownNow();
+        }
+
+        // every handle the cache no longer holds should have been closed
+        int numOpenStreams = 0;
+        for ( final FileInputStream inputStream : allStreams ) {
+            if ( inputStream.getChannel().isOpen() )
+                numOpenStreams++;
+        }
+        Assert.assertTrue(numOpenStreams <= cacheSize, "Leaked " + (numOpenStreams - cacheSize) + " file handles");
+    }
+}
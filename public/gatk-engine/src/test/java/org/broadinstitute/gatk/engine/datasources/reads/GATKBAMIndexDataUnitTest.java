@@ -0,0 +1,149 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import htsjdk.samtools.*;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the spans produced by the GATK's decoded index data against those produced by htsjdk.
+ */
+public class GATKBAMIndexDataUnitTest extends BaseTest {
+    private static final File bamFile = new File(publicTestDir + "exampleBAM.bam");
+    private static final File bamIndexFile = new File(publicTestDir + "exampleBAM.bam.bai");
+
+    private SAMSequenceDictionary sequenceDictionary;
+
+    @BeforeClass
+    public void init() throws IOException {
+        final SamReader reader = SamReaderFactory.makeDefault().open(bamFile);
+        sequenceDictionary = reader.getFileHeader().getSequenceDictionary();
+        reader.close();
+    }
+
+    @Test
+    public void testSpansMatchHtsjdk() throws IOException {
+        final GATKBAMIndex gatkIndex = new GATKBAMIndex(bamIndexFile);
+        final SamReader reader = SamReaderFactory.makeDefault()
+                .enable(SamReaderFactory.Option.CACHE_FILE_BASED_INDEXES)
+                .open(SamInputResource.of(bamFile).index(bamIndexFile));
+        final BrowseableBAMIndex htsjdkIndex = reader.indexing().getBrowseableIndex();
+
+        try {
+            int nonEmptySpans = 0;
+            for ( int referenceSequence = 0; referenceSequence < sequenceDictionary.size(); referenceSequence++ ) {
+                final GATKBAMIndexData indexData = gatkIndex.readReferenceSequence(referenceSequence);
+                for ( int binNumber = 0; binNumber < GATKBAMIndex.MAX_BINS - 1; binNumber++ ) {
+                    final Bin bin = new Bin(referenceSequence, binNumber);
+                    final List<GATKChunk> actual = indexData.getSpanOverlapping(bin).getGATKChunks();
+                    final List<GATKChunk> expected = new GATKBAMFileSpan(htsjdkIndex.getSpanOverlapping(bin)).getGATKChunks();
+
+                    Assert.assertEquals(actual.size(), expected.size(), "Wrong number of chunks in bin " + bin);
+                    for ( int i = 0; i < actual.size(); i++ ) {
+                        Assert.assertEquals(actual.get(i).getChunkStart(), expected.get(i).getChunkStart(), "Wrong chunk start in bin " + bin);
+                        Assert.assertEquals(actual.get(i).getChunkEnd(), expected.get(i).getChunkEnd(), "Wrong chunk end in bin " + bin);
+                    }
+                    if ( !actual.isEmpty() )
+                        nonEmptySpans++;
+                }
+            }
+            Assert.assertTrue(nonEmptySpans > 0, "Test index should contain at least one populated bin");
+
+            Assert.assertEquals(gatkIndex.getStartOfLastLinearBin(), htsjdkIndex.getStartOfLastLinearBin());
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testDecodedSequencesAreShared() throws InterruptedException {
+        final GATKBAMIndex index = new GATKBAMIndex(bamIndexFile);
+        final GATKBAMIndexData first = index.readReferenceSequence(0);
+        Assert.assertSame(index.readReferenceSequence(0), first, "Repeated queries should share the decoded sequence");
+
+        final List<Thread> threads = new ArrayList<Thread>();
+        final GATKBAMIndexData[] results = new GATKBAMIndexData[8];
+        for ( int i = 0; i < results.length; i++ ) {
+            final int slot = i;
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    results[slot] = index.readReferenceSequence(0);
+                }
+            }));
+        }
+        for ( final Thread thread : threads )
+            thread.start();
+        for ( final Thread thread : threads )
+            thread.join();
+
+        for ( final GATKBAMIndexData result : results )
+            Assert.assertSame(result, first, "Concurrent queries should share the decoded sequence");
+    }
+
+    @DataProvider(name = "truncations")
+    public Object[][] makeTruncations() {
+        // The final eight bytes of the index hold the optional count of unplaced reads, which is never read.
+        final long dataLength = bamIndexFile.length() - 8;
+        return new Object[][]{ {dataLength - 8}, {dataLength - 3}, {12L} };
+    }
+
+    @Test(dataProvider = "truncations", expectedExceptions = UserException.MalformedFile.class)
+    public void testDetectTruncatedIndex(final long truncatedLength) throws IOException {
+        final File truncatedIndex = createTempFile("truncated", ".bai");
+        final byte[] contents = new byte[(int)truncatedLength];
+        final RandomAccessFile source = new RandomAccessFile(bamIndexFile, "r");
+        try {
+            source.readFully(contents);
+        }
+        finally {
+            source.close();
+        }
+        final FileOutputStream out = new FileOutputStream(truncatedIndex);
+        try {
+            out.write(contents);
+        }
+        finally {
+            out.close();
+        }
+
+        final GATKBAMIndex index = new GATKBAMIndex(truncatedIndex);
+        for ( int referenceSequence = 0; referenceSequence < sequenceDictionary.size(); referenceSequence++ )
+            index.readReferenceSequence(referenceSequence);
+    }
+}
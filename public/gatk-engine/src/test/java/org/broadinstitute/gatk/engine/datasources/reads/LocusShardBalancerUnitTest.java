@@ -0,0 +1,206 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import htsjdk.samtools.GATKBAMFileSpan;
+import htsjdk.samtools.GATKChunk;
+import htsjdk.samtools.LinearIndex;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileSpan;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.GenomeLoc;
+import org.broadinstitute.gatk.utils.GenomeLocParser;
+import org.broadinstitute.gatk.utils.commandline.Tags;
+import org.broadinstitute.gatk.utils.interval.IntervalMergingRule;
+import org.broadinstitute.gatk.utils.sam.ArtificialSAMUtils;
+import org.broadinstitute.gatk.utils.sam.SAMReaderID;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+public class LocusShardBalancerUnitTest extends BaseTest {
+    private static final int WINDOW_SIZE = 1 << LinearIndex.BAM_LIDX_SHIFT;
+    private static final int NUM_WINDOWS = 10;
+    private static final int HOT_WINDOW = 3;
+
+    /**
+     * Compressed bytes of reads in each ordinary window, and in the hot window.
+     */
+    private static final long COLD_WINDOW_BYTES = 1000;
+    private static final long HOT_WINDOW_BYTES = 100000;
+
+    private GenomeLocParser genomeLocParser;
+    private SAMReaderID reader;
+    private GATKBAMIndexData indexData;
+    private long[] linearIndexEntries;
+    private long endOfData;
+
+    @BeforeClass
+    public void setup() {
+        final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(1, 1, NUM_WINDOWS * WINDOW_SIZE);
+        genomeLocParser = new GenomeLocParser(header.getSequenceDictionary());
+        reader = new SAMReaderID("synthetic.bam", new Tags());
+
+        // Lay the windows out back-to-back in the file, one compressed block per window.
+        linearIndexEntries = new long[NUM_WINDOWS];
+        long blockAddress = 1000;
+        for(int window = 0; window < NUM_WINDOWS; window++) {
+            linearIndexEntries[window] = blockAddress << 16;
+            blockAddress += window == HOT_WINDOW ? HOT_WINDOW_BYTES : COLD_WINDOW_BYTES;
+        }
+        endOfData = blockAddress << 16;
+
+        indexData = new GATKBAMIndexData(null, 0,
+                new int[] { 0 },
+                new int[] { 0, 2 },
+                new long[] { linearIndexEntries[0], endOfData },
+                new LinearIndex(0, 0, linearIndexEntries));
+    }
+
+    private long coldWindowCost() {
+        return new GATKChunk(0, COLD_WINDOW_BYTES << 16).size();
+    }
+
+    private long hotWindowCost() {
+        return new GATKChunk(0, HOT_WINDOW_BYTES << 16).size();
+    }
+
+    private LocusShardBalancer createBalancer(final long targetShardCost, final List<FilePointer> filePointers) {
+        final LocusShardBalancer balancer = new LocusShardBalancer(targetShardCost) {
+            @Override
+            protected GATKBAMIndexData getIndexData(final SAMReaderID reader, final String contig) {
+                return indexData;
+            }
+        };
+        balancer.initialize(null, filePointers.iterator(), genomeLocParser);
+        return balancer;
+    }
+
+    private FilePointer createFilePointer(final int start, final int stop) {
+        final Map<SAMReaderID,SAMFileSpan> fileSpans = new HashMap<SAMReaderID,SAMFileSpan>();
+        fileSpans.put(reader, new GATKBAMFileSpan(new GATKChunk(linearIndexEntries[0], endOfData)));
+        return new FilePointer(fileSpans, IntervalMergingRule.ALL, Collections.singletonList(genomeLocParser.createGenomeLoc("chr1", start, stop)));
+    }
+
+    /**
+     * One file pointer per linear index window, covering the whole contig.
+     */
+    private List<FilePointer> createWindowFilePointers() {
+        final List<FilePointer> filePointers = new ArrayList<FilePointer>();
+        for(int window = 0; window < NUM_WINDOWS; window++)
+            filePointers.add(createFilePointer(window * WINDOW_SIZE + 1, (window+1) * WINDOW_SIZE));
+        return filePointers;
+    }
+
+    private List<Shard> drain(final LocusShardBalancer balancer) {
+        final List<Shard> shards = new ArrayList<Shard>();
+        for(final Shard shard: balancer)
+            shards.add(shard);
+        return shards;
+    }
+
+    /**
+     * Check that the shards cover every locus of the contig exactly once, in order.
+     */
+    private void assertCoversContig(final List<Shard> shards) {
+        int nextLocus = 1;
+        for(final Shard shard: shards) {
+            for(final GenomeLoc location: shard.getGenomeLocs()) {
+                Assert.assertEquals(location.getStart(), nextLocus, "Shards should cover the contig contiguously");
+                nextLocus = location.getStop() + 1;
+            }
+        }
+        Assert.assertEquals(nextLocus, NUM_WINDOWS * WINDOW_SIZE + 1, "Shards should cover the entire contig");
+    }
+
+    @Test
+    public void testWindowCostEstimate() {
+        Assert.assertEquals(indexData.estimateWindowSize(0), coldWindowCost());
+        Assert.assertEquals(indexData.estimateWindowSize(HOT_WINDOW), hotWindowCost());
+        Assert.assertEquals(indexData.estimateWindowSize(NUM_WINDOWS-1), coldWindowCost());
+        Assert.assertEquals(indexData.estimateWindowSize(NUM_WINDOWS), 0);
+
+        final LocusShardBalancer balancer = createBalancer(0, Collections.<FilePointer>emptyList());
+        Assert.assertEquals(balancer.estimateCost(createFilePointer(1, NUM_WINDOWS * WINDOW_SIZE)), (NUM_WINDOWS-1) * coldWindowCost() + hotWindowCost());
+        Assert.assertEquals(balancer.estimateCost(createFilePointer(1, WINDOW_SIZE / 2)), Math.round(coldWindowCost() / 2.0));
+    }
+
+    @Test
+    public void testUnbalancedByDefault() {
+        final List<FilePointer> filePointers = createWindowFilePointers();
+        final LocusShardBalancer balancer = createBalancer(0, filePointers);
+        final List<Shard> shards = drain(balancer);
+
+        Assert.assertEquals(shards.size(), filePointers.size(), "Without a target cost, every file pointer should become one shard");
+        for(int i = 0; i < shards.size(); i++)
+            Assert.assertEquals(shards.get(i).getGenomeLocs(), filePointers.get(i).getLocations());
+        Assert.assertEquals(balancer.getCostHistogram().getNumberOfShards(), NUM_WINDOWS);
+        Assert.assertEquals(balancer.getCostHistogram().getMaximumCost(), hotWindowCost());
+    }
+
+    @Test
+    public void testMergeCheapFilePointers() {
+        final long targetShardCost = 3 * coldWindowCost();
+        final LocusShardBalancer balancer = createBalancer(targetShardCost, createWindowFilePointers());
+        final List<Shard> shards = drain(balancer);
+
+        assertCoversContig(shards);
+        // 0-2 | 3, split as finely as allowed | 4-6 | 7-9
+        Assert.assertEquals(shards.size(), 3 + LocusShardBalancer.MAX_PIECES_PER_WINDOW, "Cheap file pointers should have been merged");
+        Assert.assertEquals(shards.get(0).getGenomeLocs(), Collections.singletonList(genomeLocParser.createGenomeLoc("chr1", 1, 3 * WINDOW_SIZE)));
+        Assert.assertEquals(shards.get(shards.size()-1).getGenomeLocs(), Collections.singletonList(genomeLocParser.createGenomeLoc("chr1", 7 * WINDOW_SIZE + 1, NUM_WINDOWS * WINDOW_SIZE)));
+    }
+
+    @Test
+    public void testSplitCostlyFilePointer() {
+        final long targetShardCost = 3 * coldWindowCost();
+        final LocusShardBalancer balancer = createBalancer(targetShardCost, Collections.singletonList(createFilePointer(1, NUM_WINDOWS * WINDOW_SIZE)));
+        final List<Shard> shards = drain(balancer);
+
+        assertCoversContig(shards);
+
+        int hotPieces = 0;
+        for(final Shard shard: shards) {
+            final GenomeLoc first = shard.getGenomeLocs().get(0);
+            final GenomeLoc last = shard.getGenomeLocs().get(shard.getGenomeLocs().size()-1);
+            final int firstWindow = GATKBAMIndex.getLinearIndexWindow(first.getStart());
+            if(firstWindow == HOT_WINDOW) {
+                hotPieces++;
+                Assert.assertEquals(GATKBAMIndex.getLinearIndexWindow(last.getStop()), HOT_WINDOW, "Pieces of the hot window shouldn't be merged with its neighbours");
+            }
+            else
+                Assert.assertTrue(balancer.estimateCost(createFilePointer(first.getStart(), last.getStop())) <= targetShardCost, "Shard " + first + " exceeds the target cost");
+
+            // No piece should begin reading before the first read overlapping its start.
+            final GATKBAMFileSpan fileSpan = (GATKBAMFileSpan)shard.getFileSpans().get(reader);
+            Assert.assertEquals(fileSpan.getGATKChunks().get(0).getChunkStart(), linearIndexEntries[firstWindow]);
+        }
+        Assert.assertEquals(hotPieces, LocusShardBalancer.MAX_PIECES_PER_WINDOW, "Hot window should have been split as finely as allowed");
+        Assert.assertEquals(balancer.getCostHistogram().getNumberOfShards(), shards.size());
+    }
+}
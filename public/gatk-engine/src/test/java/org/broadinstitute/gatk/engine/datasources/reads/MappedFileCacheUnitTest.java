@@ -0,0 +1,160 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import htsjdk.samtools.*;
+import org.broadinstitute.gatk.engine.filters.ReadFilter;
+import org.broadinstitute.gatk.engine.iterators.ReadTransformer;
+import org.broadinstitute.gatk.engine.resourcemanagement.ThreadAllocation;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.GenomeLocParser;
+import org.broadinstitute.gatk.utils.ValidationExclusion;
+import org.broadinstitute.gatk.utils.commandline.Tags;
+import org.broadinstitute.gatk.utils.exceptions.GATKException;
+import org.broadinstitute.gatk.utils.interval.IntervalMergingRule;
+import org.broadinstitute.gatk.utils.sam.ArtificialSAMUtils;
+import org.broadinstitute.gatk.utils.sam.ArtificialSingleSampleReadStream;
+import org.broadinstitute.gatk.utils.sam.SAMReaderID;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class MappedFileCacheUnitTest extends BaseTest {
+    private final File bamFile = new File(publicTestDir + "exampleBAM.bam");
+
+    @Test
+    public void testMappedFileIsSharedPerReader() {
+        final MappedFileCache cache = new MappedFileCache();
+        final SAMReaderID reader = new SAMReaderID(bamFile, new Tags());
+
+        Assert.assertSame(cache.getMappedFile(reader), cache.getMappedFile(new SAMReaderID(bamFile, new Tags())),
+                "Equivalent readers should share a single mapping");
+        Assert.assertEquals(cache.getMappedFile(reader).length(), bamFile.length());
+    }
+
+    @Test
+    public void testViewMatchesFileContents() throws IOException {
+        final MappedFileCache.MappedFile mappedFile = new MappedFileCache().getMappedFile(new SAMReaderID(bamFile, new Tags()));
+
+        final byte[] expected = new byte[(int)bamFile.length()];
+        final RandomAccessFile file = new RandomAccessFile(bamFile, "r");
+        try {
+            file.readFully(expected);
+        }
+        finally {
+            file.close();
+        }
+
+        for ( final long offset : new long[]{0, 1, 17, expected.length - 1} ) {
+            final ByteBuffer view = mappedFile.view(offset);
+            Assert.assertEquals(view.position(), 0);
+            Assert.assertEquals(view.remaining(), expected.length - offset);
+            for ( int i = 0; i < view.remaining(); i++ )
+                Assert.assertEquals(view.get(i), expected[(int)offset + i], "Mismatch at offset " + (offset + i));
+        }
+    }
+
+    @Test
+    public void testMappedReadsMatchStreamedReads() {
+        // enough reads to span many BGZF blocks
+        final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(3, 1, 100000);
+        final SAMReadGroupRecord readGroup = new SAMReadGroupRecord("foo");
+        readGroup.setSample("testSample");
+        header.addReadGroup(readGroup);
+
+        final File testBAMFile = createTempFile("MappedFileCacheTest", ".bam");
+        final SAMFileWriter bamWriter = new SAMFileWriterFactory().setCreateIndex(true).makeBAMWriter(header, true, testBAMFile);
+        for ( final SAMRecord read : new ArtificialSingleSampleReadStream(header, "foo", 3, 200, 10, 30, 1, 100, 50, 150, 500) )
+            bamWriter.addAlignment(read);
+        bamWriter.close();
+        new File(testBAMFile.getAbsolutePath().replace(".bam", ".bai")).deleteOnExit();
+
+        final SAMReaderID testBAM = new SAMReaderID(testBAMFile, new Tags());
+        final GenomeLocParser genomeLocParser = new GenomeLocParser(header.getSequenceDictionary());
+        final List<String> streamedReads = readAllReads(testBAM, genomeLocParser, 0, false);
+        long readBytes = 0;
+        for ( final String read : streamedReads )
+            readBytes += read.length();
+        Assert.assertTrue(readBytes > 10 * 65536, "Test BAM is too small to span several BGZF blocks");
+        Assert.assertEquals(readAllReads(testBAM, genomeLocParser, 1, false), streamedReads, "Asynchronously loaded reads differ from synchronously loaded reads");
+        Assert.assertEquals(readAllReads(testBAM, genomeLocParser, 3, false), streamedReads, "Reads loaded by several threads sharing a file handle differ from synchronously loaded reads");
+        Assert.assertEquals(readAllReads(testBAM, genomeLocParser, 0, true), streamedReads, "Reads differ from streamed reads when memory mapping is requested without IO threads");
+        Assert.assertEquals(readAllReads(testBAM, genomeLocParser, 1, true), streamedReads, "Reads memory-mapped by a single IO thread differ from streamed reads");
+        Assert.assertEquals(readAllReads(testBAM, genomeLocParser, 3, true), streamedReads, "Reads memory-mapped by several IO threads differ from streamed reads");
+    }
+
+    /**
+     * Reads every read of a BAM, in order, through a SAMDataSource
+     *
+     * @param numIOThreads      number of threads loading blocks, or 0 to load them on the reading thread
+     * @param memoryMapBAMFiles should the block loaders read the BAM through a mapping?
+     * @return the SAM strings of the reads
+     */
+    private List<String> readAllReads(final SAMReaderID bam, final GenomeLocParser genomeLocParser, final int numIOThreads, final boolean memoryMapBAMFiles) {
+        final SAMDataSource dataSource = new SAMDataSource(null,
+                Arrays.asList(bam),
+                new ThreadAllocation(1, 1, numIOThreads, false),
+                null,
+                genomeLocParser,
+                false,
+                ValidationStringency.SILENT,
+                ReadShard.DEFAULT_MAX_READS,
+                null,
+                new ValidationExclusion(),
+                new ArrayList<ReadFilter>(),
+                Collections.<ReadTransformer>emptyList(),
+                false,
+                (byte) -1,
+                false,
+                false,
+                null,
+                IntervalMergingRule.ALL,
+                memoryMapBAMFiles);
+
+        final List<String> reads = new ArrayList<String>();
+        try {
+            for ( final Shard shard : dataSource.createShardIteratorOverAllReads(new ReadShardBalancer()) )
+                for ( final SAMRecord read : shard.iterator() )
+                    reads.add(read.getSAMString());
+        }
+        finally {
+            dataSource.close();
+        }
+        return reads;
+    }
+
+    @Test(expectedExceptions = GATKException.class)
+    public void testViewPastEndOfFile() {
+        new MappedFileCache().getMappedFile(new SAMReaderID(bamFile, new Tags())).view(bamFile.length());
+    }
+}
@@ -0,0 +1,71 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.commandline.Tags;
+import org.broadinstitute.gatk.utils.sam.SAMReaderID;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+
+public class ReadAheadControllerUnitTest extends BaseTest {
+    private final SAMReaderID reader = new SAMReaderID(new File(publicTestDir + "exampleBAM.bam"), new Tags());
+    private final SAMReaderID otherReader = new SAMReaderID(new File(publicTestDir + "exampleBAM.simple.bam"), new Tags());
+
+    @Test
+    public void testDepthGrowsOnStalls() {
+        final ReadAheadController controller = new ReadAheadController(Long.MAX_VALUE);
+        Assert.assertEquals(controller.getReadAheadDepth(reader), 1);
+
+        controller.recordStall(reader, 1000);
+        controller.recordStall(reader, 1000);
+        Assert.assertEquals(controller.getReadAheadDepth(reader), 3);
+        Assert.assertEquals(controller.getReadAheadDepth(otherReader), 1, "Stalls on one reader should not affect another");
+    }
+
+    @Test
+    public void testDepthShrinksWithoutStalls() {
+        final ReadAheadController controller = new ReadAheadController(Long.MAX_VALUE);
+        controller.recordStall(reader, 1000);
+        controller.recordStall(reader, 1000);
+
+        // keep loading blocks without ever stalling; depth should work its way back down, but never below 1
+        for ( int i = 0; i < 10000; i++ )
+            controller.recordBlockLoaded(reader, ReadAheadController.BLOCK_SIZE);
+        Assert.assertEquals(controller.getReadAheadDepth(reader), 1);
+    }
+
+    @Test
+    public void testMemoryCap() {
+        final ReadAheadController controller = new ReadAheadController(3 * ReadAheadController.BLOCK_SIZE);
+
+        Assert.assertTrue(controller.reserve(2 * ReadAheadController.BLOCK_SIZE));
+        Assert.assertFalse(controller.reserve(2 * ReadAheadController.BLOCK_SIZE), "Reservation should not exceed the cap");
+        controller.release(2 * ReadAheadController.BLOCK_SIZE);
+        Assert.assertTrue(controller.reserve(3 * ReadAheadController.BLOCK_SIZE));
+    }
+}
@@ -0,0 +1,84 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import htsjdk.samtools.SAMFileHeader;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.GenomeLocParser;
+import org.broadinstitute.gatk.utils.sam.ArtificialSAMUtils;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class ShardCostHistogramUnitTest extends BaseTest {
+    @DataProvider(name = "Buckets")
+    public Object[][] makeBuckets() {
+        return new Object[][] {
+                { 0L, 0 },
+                { 1L, 1 },
+                { 2L, 2 },
+                { 3L, 2 },
+                { 4L, 3 },
+                { 1023L, 10 },
+                { 1024L, 11 },
+                { Long.MAX_VALUE, 63 }
+        };
+    }
+
+    @Test(dataProvider = "Buckets")
+    public void testGetBucket(final long cost, final int expectedBucket) {
+        Assert.assertEquals(ShardCostHistogram.getBucket(cost), expectedBucket);
+    }
+
+    @Test
+    public void testAccumulation() {
+        final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(3, 1, 1000);
+        final GenomeLocParser genomeLocParser = new GenomeLocParser(header.getSequenceDictionary());
+        final ShardCostHistogram histogram = new ShardCostHistogram();
+
+        histogram.add(genomeLocParser.createGenomeLoc("chr1", 1, 100), 5);
+        histogram.add(genomeLocParser.createGenomeLoc("chr2", 1, 100), 7);
+        histogram.add(genomeLocParser.createGenomeLoc("chr3", 1, 100), 5000);
+        histogram.add(genomeLocParser.createGenomeLoc("chr3", 101, 200), 0);
+
+        Assert.assertEquals(histogram.getNumberOfShards(), 4);
+        Assert.assertEquals(histogram.getTotalCost(), 5012);
+        Assert.assertEquals(histogram.getMaximumCost(), 5000);
+        Assert.assertEquals(histogram.getMaximumCostLocation(), genomeLocParser.createGenomeLoc("chr3", 1, 100));
+        Assert.assertEquals(histogram.getShardCount(0), 1);
+        Assert.assertEquals(histogram.getShardCount(3), 2);
+        Assert.assertEquals(histogram.getShardCount(ShardCostHistogram.getBucket(5000)), 1);
+        Assert.assertEquals(histogram.getShardCount(1), 0);
+
+        // Should log without complaint.
+        histogram.log(logger);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNegativeCostRejected() {
+        new ShardCostHistogram().add(null, -1);
+    }
+}
@@ -0,0 +1,202 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.engine.datasources.reads;
+
+import htsjdk.samtools.GATKBAMFileSpan;
+import htsjdk.samtools.GATKChunk;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.broadinstitute.gatk.utils.GenomeLoc;
+import org.broadinstitute.gatk.utils.GenomeLocParser;
+import org.broadinstitute.gatk.utils.GenomeLocSortedSet;
+import org.broadinstitute.gatk.utils.commandline.Tags;
+import org.broadinstitute.gatk.utils.interval.IntervalMergingRule;
+import org.broadinstitute.gatk.utils.sam.ArtificialSAMUtils;
+import org.broadinstitute.gatk.utils.sam.SAMReaderID;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+public class ShardPlanCacheUnitTest extends BaseTest {
+    private GenomeLocParser genomeLocParser;
+    private File cacheDirectory;
+    private List<SAMReaderID> readers;
+    private Map<SAMReaderID,File> indexFiles;
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        genomeLocParser = new GenomeLocParser(ArtificialSAMUtils.createArtificialSamHeader(2, 1, 100000).getSequenceDictionary());
+
+        cacheDirectory = createTempFile("shardPlanCache", ".dir");
+        Assert.assertTrue(cacheDirectory.delete() && cacheDirectory.mkdir());
+        cacheDirectory.deleteOnExit();
+
+        readers = Arrays.asList(new SAMReaderID("first.bam", new Tags()), new SAMReaderID("second.bam", new Tags()));
+        indexFiles = new HashMap<SAMReaderID,File>();
+        for ( final SAMReaderID reader : readers )
+            indexFiles.put(reader, writeIndex(reader.getSamFile().getName(), new byte[]{1, 2, 3}));
+    }
+
+    @Test
+    public void testRecordedPlanRoundTrips() {
+        final ShardPlanCache cache = new ShardPlanCache(cacheDirectory);
+        final String key = cache.computeKey(readers, indexFiles, IntervalMergingRule.ALL, createIntervals());
+        Assert.assertNull(cache.readPlan(key, readers, IntervalMergingRule.ALL, genomeLocParser), "Plan should not exist before being recorded");
+
+        final List<FilePointer> plan = createPlan();
+        final List<FilePointer> passedThrough = drain(cache.recordPlan(key, readers, plan.iterator()));
+        Assert.assertEquals(passedThrough, plan, "Recording a plan should not alter the file pointers");
+        Assert.assertTrue(cache.getPlanFile(key).exists(), "Exhausted plan should have been published");
+
+        final List<FilePointer> cachedPlan = cache.readPlan(key, readers, IntervalMergingRule.ALL, genomeLocParser);
+        Assert.assertEquals(cachedPlan, plan, "Cached plan differs from the recorded one");
+        for ( int i = 0; i < plan.size(); i++ ) {
+            Assert.assertEquals(cachedPlan.get(i).isMonolithic(), plan.get(i).isMonolithic());
+            Assert.assertEquals(cachedPlan.get(i).isRegionUnmapped, plan.get(i).isRegionUnmapped);
+            Assert.assertEquals(cachedPlan.get(i).getIntervalMergingRule(), IntervalMergingRule.ALL);
+        }
+    }
+
+    @Test
+    public void testIncompletePlanIsNotPublished() {
+        final ShardPlanCache cache = new ShardPlanCache(cacheDirectory);
+        final String key = cache.computeKey(readers, indexFiles, IntervalMergingRule.ALL, createIntervals());
+
+        final ShardPlanCache.RecordingIterator recorder = (ShardPlanCache.RecordingIterator)cache.recordPlan(key, readers, createPlan().iterator());
+        recorder.next();
+        recorder.close();
+
+        Assert.assertFalse(cache.getPlanFile(key).exists(), "Partially consumed plan should not be published");
+        Assert.assertEquals(cacheDirectory.listFiles().length, 0, "Temporary plan should have been cleaned up");
+    }
+
+    @Test
+    public void testKeyTracksIndicesAndIntervals() {
+        final ShardPlanCache cache = new ShardPlanCache(cacheDirectory);
+        final GenomeLocSortedSet intervals = createIntervals();
+        final String key = cache.computeKey(readers, indexFiles, IntervalMergingRule.ALL, intervals);
+
+        Assert.assertEquals(cache.computeKey(readers, indexFiles, IntervalMergingRule.ALL, createIntervals()), key, "Key should be stable");
+        Assert.assertNotEquals(cache.computeKey(readers, indexFiles, IntervalMergingRule.OVERLAPPING_ONLY, intervals), key, "Key should depend on the merging rule");
+        Assert.assertNotEquals(cache.computeKey(Arrays.asList(readers.get(1), readers.get(0)), indexFiles, IntervalMergingRule.ALL, intervals), key, "Key should depend on reader order");
+
+        final GenomeLocSortedSet otherIntervals = createIntervals();
+        otherIntervals.add(genomeLocParser.createGenomeLoc("chr2", 5000, 6000));
+        Assert.assertNotEquals(cache.computeKey(readers, indexFiles, IntervalMergingRule.ALL, otherIntervals), key, "Key should depend on the intervals");
+
+        writeIndex(readers.get(1).getSamFile().getName(), new byte[]{1, 2, 4});
+        Assert.assertNotEquals(cache.computeKey(readers, indexFiles, IntervalMergingRule.ALL, intervals), key, "Key should change when an index changes");
+    }
+
+    @Test
+    public void testCorruptPlanIsDiscarded() throws IOException {
+        final ShardPlanCache cache = new ShardPlanCache(cacheDirectory);
+        final String key = cache.computeKey(readers, indexFiles, IntervalMergingRule.ALL, createIntervals());
+        drain(cache.recordPlan(key, readers, createPlan().iterator()));
+
+        final File planFile = cache.getPlanFile(key);
+        final FileOutputStream out = new FileOutputStream(planFile);
+        try {
+            out.write(new byte[]{0x47, 0x53, 0x50, 0x43, 0, 0});
+        }
+        finally {
+            out.close();
+        }
+
+        Assert.assertNull(cache.readPlan(key, readers, IntervalMergingRule.ALL, genomeLocParser), "Truncated plan should be rejected");
+        Assert.assertFalse(planFile.exists(), "Truncated plan should have been deleted");
+    }
+
+    @Test
+    public void testPlanWithUnknownContigIsDiscarded() {
+        final ShardPlanCache cache = new ShardPlanCache(cacheDirectory);
+        final String key = cache.computeKey(readers, indexFiles, IntervalMergingRule.ALL, createIntervals());
+        drain(cache.recordPlan(key, readers, createPlan().iterator()));
+
+        // chr2 is no longer in the sequence dictionary the plan is read back against.
+        final GenomeLocParser staleParser = new GenomeLocParser(ArtificialSAMUtils.createArtificialSamHeader(1, 1, 100000).getSequenceDictionary());
+        Assert.assertNull(cache.readPlan(key, readers, IntervalMergingRule.ALL, staleParser), "Plan referring to an unknown contig should be rejected");
+        Assert.assertFalse(cache.getPlanFile(key).exists(), "Plan referring to an unknown contig should have been deleted");
+    }
+
+    private GenomeLocSortedSet createIntervals() {
+        final GenomeLocSortedSet intervals = new GenomeLocSortedSet(genomeLocParser);
+        intervals.add(genomeLocParser.createGenomeLoc("chr1", 100, 200));
+        intervals.add(genomeLocParser.createGenomeLoc("chr1", 1000, 1500));
+        intervals.add(genomeLocParser.createGenomeLoc("chr2", 1, 50));
+        return intervals;
+    }
+
+    private List<FilePointer> createPlan() {
+        final List<FilePointer> plan = new ArrayList<FilePointer>();
+
+        final FilePointer first = new FilePointer(IntervalMergingRule.ALL, genomeLocParser.createGenomeLoc("chr1", 100, 200), genomeLocParser.createGenomeLoc("chr1", 1000, 1500));
+        first.addFileSpans(readers.get(0), new GATKBAMFileSpan(new GATKChunk[]{new GATKChunk(100, 200), new GATKChunk(300, 400)}));
+        first.addFileSpans(readers.get(1), new GATKBAMFileSpan());
+        plan.add(first);
+
+        final FilePointer second = new FilePointer(IntervalMergingRule.ALL, genomeLocParser.createGenomeLoc("chr2", 1, 50));
+        second.addFileSpans(readers.get(0), new GATKBAMFileSpan(new GATKChunk(500, 600)));
+        second.addFileSpans(readers.get(1), new GATKBAMFileSpan(new GATKChunk(700, 800)));
+        plan.add(second);
+
+        final FilePointer unmapped = new FilePointer(IntervalMergingRule.ALL, GenomeLoc.UNMAPPED);
+        for ( final SAMReaderID reader : readers )
+            unmapped.addFileSpans(reader, new GATKBAMFileSpan(new GATKChunk(900, Long.MAX_VALUE)));
+        plan.add(unmapped);
+
+        return plan;
+    }
+
+    private File writeIndex(final String name, final byte[] contents) {
+        final File indexFile = new File(cacheDirectory.getParentFile(), cacheDirectory.getName() + "." + name + ".bai");
+        indexFile.deleteOnExit();
+        try {
+            final FileOutputStream out = new FileOutputStream(indexFile);
+            try {
+                out.write(contents);
+            }
+            finally {
+                out.close();
+            }
+        }
+        catch ( IOException e ) {
+            throw new RuntimeException(e);
+        }
+        return indexFile;
+    }
+
+    private static List<FilePointer> drain(final Iterator<FilePointer> iterator) {
+        final List<FilePointer> filePointers = new ArrayList<FilePointer>();
+        while ( iterator.hasNext() )
+            filePointers.add(iterator.next());
+        return filePointers;
+    }
+}
@@ -26,8 +26,10 @@
 package org.broadinstitute.gatk.engine.traversals;
 
 import htsjdk.samtools.reference.IndexedFastaSequenceFile;
+import htsjdk.samtools.util.CloseableIterator;
 import org.broadinstitute.gatk.utils.BaseTest;
 import org.broadinstitute.gatk.utils.fasta.CachingIndexedFastaSequenceFile;
+import org.broadinstitute.gatk.utils.io.IOUtils;
 import org.broadinstitute.gatk.utils.sam.ArtificialBAMBuilder;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
 import org.testng.Assert;
@@ -101,6 +103,99 @@ public class TAROrderedReadCacheUnitTest extends BaseTest {
         verifySortednessOfReads(cacheReads);
     }
 
+    @DataProvider(name = "SpillingReadCacheTestData")
+    public Object[][] makeSpillingReadCacheTestData() {
+        List<Object[]> tests = new ArrayList<Object[]>();
+
+        for ( final int nReadsPerLocus : Arrays.asList(0, 1, 10, 100) ) {
+            for ( final int nLoci : Arrays.asList(1, 10, 100) ) {
+                for ( final int max : Arrays.asList(10, 1000) ) {
+                    for ( final long maxBytes : Arrays.asList(1L, 5000L, 100000000L) ) {
+                        tests.add(new Object[]{nReadsPerLocus, nLoci, max, maxBytes});
+                    }
+                }
+            }
+        }
+
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "SpillingReadCacheTestData")
+    public void testSpillingReadCache(final int nReadsPerLocus, final int nLoci, final int max, final long maxBytes) {
+        final ArtificialBAMBuilder bamBuilder = new ArtificialBAMBuilder(seq, nReadsPerLocus, nLoci);
+        final List<GATKSAMRecord> reads = bamBuilder.makeReads();
+        final File tempDir = createSpillDir();
+        final TAROrderedReadCache cache = new TAROrderedReadCache(max, maxBytes, bamBuilder.getHeader(), tempDir);
+        Assert.assertTrue(cache.spillsToDisk());
+
+        cache.addAll(reads);
+        Assert.assertEquals(cache.getNumDiscarded(), 0, "a spilling cache should never discard reads");
+        Assert.assertEquals(cache.size(), reads.size(), "wrong number of reads kept");
+        final boolean shouldHaveSpilled = reads.size() > max || (! reads.isEmpty() && reads.size() * TAROrderedReadCache.estimateReadSize(reads.get(0)) > maxBytes);
+        Assert.assertEquals(cache.getTotalSpilledReads() > 0, shouldHaveSpilled);
+
+        final List<GATKSAMRecord> cacheReads = cache.popCurrentReads();
+        Assert.assertEquals(cache.size(), 0, "Should be no reads left");
+        Assert.assertEquals(tempDir.list().length, 0, "spill files should be removed once popped");
+        assertSameReads(cacheReads, reads);
+    }
+
+    @Test
+    public void testAddingBackWhileStreamingSpilledReads() {
+        final ArtificialBAMBuilder bamBuilder = new ArtificialBAMBuilder(seq, 10, 100);
+        final List<GATKSAMRecord> reads = bamBuilder.makeReads();
+        final File tempDir = createSpillDir();
+        final TAROrderedReadCache cache = new TAROrderedReadCache(50, 5000, bamBuilder.getHeader(), tempDir);
+        cache.addAll(reads);
+
+        // put every other read back, as the active region traversal does with the reads that are still live
+        final List<GATKSAMRecord> stillLive = new ArrayList<GATKSAMRecord>();
+        final CloseableIterator<GATKSAMRecord> it = cache.popCurrentReadsIterator();
+        for ( int i = 0; it.hasNext(); i++ ) {
+            final GATKSAMRecord read = it.next();
+            if ( i % 2 == 0 ) {
+                cache.add(read);
+                stillLive.add(read);
+            }
+        }
+        it.close();
+
+        Assert.assertEquals(cache.size(), stillLive.size());
+        assertSameReads(cache.popCurrentReads(), stillLive);
+        Assert.assertEquals(tempDir.list().length, 0, "spill files should be removed once popped");
+    }
+
+    @Test
+    public void testCloseRemovesSpillFiles() {
+        final ArtificialBAMBuilder bamBuilder = new ArtificialBAMBuilder(seq, 10, 10);
+        final File tempDir = createSpillDir();
+        final TAROrderedReadCache cache = new TAROrderedReadCache(10, 1, bamBuilder.getHeader(), tempDir);
+        cache.addAll(bamBuilder.makeReads());
+        Assert.assertTrue(tempDir.list().length > 0);
+
+        cache.close();
+        Assert.assertEquals(cache.size(), 0);
+        Assert.assertEquals(tempDir.list().length, 0);
+    }
+
+    private File createSpillDir() {
+        final File dir = IOUtils.tempDir("TAROrderedReadCacheUnitTest.", "");
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    private void assertSameReads(final List<GATKSAMRecord> actual, final List<GATKSAMRecord> expected) {
+        Assert.assertEquals(actual.size(), expected.size(), "wrong number of reads");
+        for ( int i = 0; i < actual.size(); i++ ) {
+            Assert.assertEquals(actual.get(i).getReadName(), expected.get(i).getReadName());
+            Assert.assertEquals(actual.get(i).getAlignmentStart(), expected.get(i).getAlignmentStart());
+            Assert.assertEquals(actual.get(i).getCigarString(), expected.get(i).getCigarString());
+            Assert.assertEquals(actual.get(i).getReadBases(), expected.get(i).getReadBases());
+            Assert.assertEquals(actual.get(i).getBaseQualities(), expected.get(i).getBaseQualities());
+            Assert.assertEquals(actual.get(i).getReadGroup().getId(), expected.get(i).getReadGroup().getId());
+        }
+    }
+
     private void verifySortednessOfReads( final List<GATKSAMRecord> reads) {
         int lastStart = -1;
         for ( GATKSAMRecord read : reads ) {
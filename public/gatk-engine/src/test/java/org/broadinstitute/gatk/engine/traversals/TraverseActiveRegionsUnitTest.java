@@ -33,8 +33,16 @@ import org.broadinstitute.gatk.engine.datasources.reads.*;
 import org.broadinstitute.gatk.engine.filters.ReadFilter;
 import org.broadinstitute.gatk.engine.iterators.ReadTransformer;
 import org.broadinstitute.gatk.engine.resourcemanagement.ThreadAllocation;
+import org.broadinstitute.gatk.engine.walkers.ActiveRegionTraversalParameters;
+import org.broadinstitute.gatk.engine.walkers.ThreadSafeIsActive;
 import org.broadinstitute.gatk.engine.walkers.Walker;
+import org.broadinstitute.gatk.utils.activeregion.ActivityProfileState;
+import org.broadinstitute.gatk.utils.contexts.AlignmentContext;
+import org.broadinstitute.gatk.utils.contexts.ReferenceContext;
+import org.broadinstitute.gatk.utils.exceptions.UserException;
+import org.broadinstitute.gatk.utils.refdata.RefMetaDataTracker;
 import org.broadinstitute.gatk.utils.GenomeLocSortedSet;
+import org.broadinstitute.gatk.utils.Utils;
 import org.broadinstitute.gatk.utils.activeregion.ActiveRegionReadState;
 import org.broadinstitute.gatk.utils.interval.IntervalMergingRule;
 import org.broadinstitute.gatk.utils.interval.IntervalUtils;
@@ -630,6 +638,118 @@ public class TraverseActiveRegionsUnitTest extends BaseTest {
         return readNames;
     }
 
+    // ---------------------------------------------------------------------------------------------------------
+    //
+    // Make sure running isActive on separate threads doesn't change the traversal
+    //
+    // ---------------------------------------------------------------------------------------------------------
+
+    /**
+     * A DummyActiveRegionWalker whose isActive function can be called from several threads
+     */
+    private static class ThreadSafeDummyActiveRegionWalker extends DummyActiveRegionWalker implements ThreadSafeIsActive {
+        private ThreadSafeDummyActiveRegionWalker(final GenomeLocSortedSet activeRegions) {
+            super(activeRegions, false);
+        }
+
+        @Override
+        public synchronized ActivityProfileState isActive(final RefMetaDataTracker tracker, final ReferenceContext ref, final AlignmentContext context) {
+            return super.isActive(tracker, ref, context);
+        }
+    }
+
+    /**
+     * A ThreadSafeDummyActiveRegionWalker holding so few reads in memory that the traversal has to downsample them
+     */
+    @ActiveRegionTraversalParameters(extension = 50, maxRegion = 50, maxReadsToHoldInMemoryPerSample = 50)
+    private static class DownsamplingThreadSafeDummyActiveRegionWalker extends ThreadSafeDummyActiveRegionWalker {
+        private DownsamplingThreadSafeDummyActiveRegionWalker(final GenomeLocSortedSet activeRegions) {
+            super(activeRegions);
+        }
+    }
+
+    private static DummyActiveRegionWalker makeThreadSafeWalker(final GenomeLocSortedSet activeRegions, final EnumSet<ActiveRegionReadState> readStates, final boolean downsample) {
+        final DummyActiveRegionWalker walker = downsample
+                ? new DownsamplingThreadSafeDummyActiveRegionWalker(activeRegions)
+                : new ThreadSafeDummyActiveRegionWalker(activeRegions);
+        walker.setStates(readStates);
+        return walker;
+    }
+
+    @DataProvider(name = "PipelinedActivityProfileProvider")
+    public Object[][] makePipelinedActivityProfileProvider() {
+        final List<Object[]> tests = new LinkedList<Object[]>();
+
+        for ( final int nProfileThreads : Arrays.asList(1, 3) ) {
+            for ( final int start : Arrays.asList(1, ArtificialBAMBuilder.BAM_SHARD_SIZE - 100) ) {
+                final ArtificialBAMBuilder bamBuilder = new ArtificialBAMBuilder(reference, 2, 1000);
+                bamBuilder.setReadLength(100);
+                bamBuilder.setAlignmentStart(start);
+                for ( final int stepSize : Arrays.asList(11, 53) ) {
+                    final GenomeLocSortedSet activeRegions = makeActiveRegionMask(bamBuilder.getAlignmentStart(), bamBuilder.getAlignmentEnd(), stepSize, false);
+                    for ( final EnumSet<ActiveRegionReadState> readStates : Arrays.asList(
+                            EnumSet.of(ActiveRegionReadState.PRIMARY),
+                            EnumSet.of(ActiveRegionReadState.PRIMARY, ActiveRegionReadState.NONPRIMARY, ActiveRegionReadState.EXTENDED)) ) {
+                        for ( final boolean downsample : Arrays.asList(false, true) )
+                            tests.add(new Object[]{nProfileThreads, activeRegions, readStates, downsample, bamBuilder});
+                    }
+                }
+            }
+        }
+
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(enabled = true && ! DEBUG, dataProvider = "PipelinedActivityProfileProvider")
+    public void testPipelinedActivityProfileMatchesSerial(final int nProfileThreads, final GenomeLocSortedSet activeRegions, final EnumSet<ActiveRegionReadState> readStates,
+                                                          final boolean downsample, final ArtificialBAMBuilder bamBuilder) {
+        final List<GenomeLoc> intervals = Arrays.asList(
+                genomeLocParser.createGenomeLoc("1", bamBuilder.getAlignmentStart(), bamBuilder.getAlignmentEnd())
+        );
+        final File bam = bamBuilder.makeTemporarilyBAMFile();
+
+        // both traversals must draw the same random numbers when downsampling the reads they hold
+        Utils.resetRandomGenerator();
+        final DummyActiveRegionWalker serialWalker = makeThreadSafeWalker(activeRegions, readStates, downsample);
+        final Map<GenomeLoc, ActiveRegion> serialRegions = getActiveRegions(new TraverseActiveRegions<Integer, Integer>(), serialWalker, intervals, bam);
+
+        if ( downsample ) {
+            final Set<String> serialReadNames = new HashSet<String>();
+            for ( final ActiveRegion region : serialRegions.values() )
+                serialReadNames.addAll(readNamesInRegion(region));
+            Assert.assertTrue(serialReadNames.size() < bamBuilder.expectedNumberOfReads(), "the traversal should have downsampled the reads");
+        }
+
+        Utils.resetRandomGenerator();
+        final DummyActiveRegionWalker pipelinedWalker = makeThreadSafeWalker(activeRegions, readStates, downsample);
+        pipelinedWalker.activityProfileThreads = nProfileThreads;
+        final TraverseActiveRegions<Integer, Integer> pipelinedTraversal = new TraverseActiveRegions<>();
+        final Map<GenomeLoc, ActiveRegion> pipelinedRegions = getActiveRegions(pipelinedTraversal, pipelinedWalker, intervals, bam);
+        pipelinedTraversal.shutdown();
+
+        // the isActive calls can complete in any order, but every locus must still be seen exactly once
+        final List<GenomeLoc> serialCalls = new ArrayList<GenomeLoc>(serialWalker.isActiveCalls);
+        final List<GenomeLoc> pipelinedCalls = new ArrayList<GenomeLoc>(pipelinedWalker.isActiveCalls);
+        Collections.sort(serialCalls);
+        Collections.sort(pipelinedCalls);
+        Assert.assertEquals(pipelinedCalls, serialCalls);
+
+        Assert.assertEquals(new ArrayList<GenomeLoc>(pipelinedRegions.keySet()), new ArrayList<GenomeLoc>(serialRegions.keySet()));
+        for ( final Map.Entry<GenomeLoc, ActiveRegion> serialRegion : serialRegions.entrySet() ) {
+            final ActiveRegion pipelinedRegion = pipelinedRegions.get(serialRegion.getKey());
+            Assert.assertEquals(pipelinedRegion.isActive(), serialRegion.getValue().isActive());
+            Assert.assertEquals(pipelinedRegion.getExtendedLoc(), serialRegion.getValue().getExtendedLoc());
+            Assert.assertEquals(readNamesInRegion(pipelinedRegion), readNamesInRegion(serialRegion.getValue()), "Reads differ in region " + serialRegion.getKey());
+        }
+    }
+
+    @Test(enabled = true && ! DEBUG, expectedExceptions = UserException.BadArgumentValue.class)
+    public void testPipelinedActivityProfileRequiresThreadSafeWalker() {
+        final DummyActiveRegionWalker walker = new DummyActiveRegionWalker();
+        walker.activityProfileThreads = 2;
+        createDataProviders(new TraverseActiveRegions<Integer, Integer>(), walker, intervals, testBAM);
+    }
+
     // ---------------------------------------------------------------------------------------------------------
     //
     // Make sure all insertion reads are properly included in the active regions
@@ -126,13 +126,23 @@ public class ActiveRegion implements HasGenomeLocation {
      * @param extension the active region extension to use for this active region
      */
     public ActiveRegion( final GenomeLoc activeRegionLoc, final List<ActivityProfileState> supportingStates, final boolean isActive, final GenomeLocParser genomeLocParser, final int extension ) {
+        this(activeRegionLoc, supportingStates == null ? Collections.<ActivityProfileState>emptyList() : new ArrayList<ActivityProfileState>(supportingStates), true, isActive, genomeLocParser, extension);
+    }
+
+    /**
+     * Shared constructor, taking ownership of supportingStates
+     *
+     * @param validateStates should we check that the supporting states are a contiguous sequence?  Not needed
+     *                       when they are an ActivityProfileStateList, which always is
+     */
+    private ActiveRegion( final GenomeLoc activeRegionLoc, final List<ActivityProfileState> supportingStates, final boolean validateStates, final boolean isActive, final GenomeLocParser genomeLocParser, final int extension ) {
         if ( activeRegionLoc == null ) throw new IllegalArgumentException("activeRegionLoc cannot be null");
         if ( activeRegionLoc.size() == 0 ) throw new IllegalArgumentException("Active region cannot be of zero size, but got " + activeRegionLoc);
         if ( genomeLocParser == null ) throw new IllegalArgumentException("genomeLocParser cannot be null");
         if ( extension < 0 ) throw new IllegalArgumentException("extension cannot be < 0 but got " + extension);
 
         this.activeRegionLoc = activeRegionLoc;
-        this.supportingStates = supportingStates == null ? Collections.<ActivityProfileState>emptyList() : new ArrayList<ActivityProfileState>(supportingStates);
+        this.supportingStates = supportingStates;
         this.isActive = isActive;
         this.genomeLocParser = genomeLocParser;
         this.extension = extension;
@@ -142,17 +152,37 @@ public class ActiveRegion implements HasGenomeLocation {
         if ( ! this.supportingStates.isEmpty() ) {
             if ( this.supportingStates.size() != activeRegionLoc.size() )
                 throw new IllegalArgumentException("Supporting states wasn't empty but it doesn't have exactly one state per bp in the active region: states " + this.supportingStates.size() + " vs. bp in region = " + activeRegionLoc.size());
-            GenomeLoc lastStateLoc = null;
-            for ( final ActivityProfileState state : this.supportingStates ) {
-                if ( lastStateLoc != null ) {
-                    if ( state.getLoc().getStart() != lastStateLoc.getStart() + 1 || state.getLoc().getContigIndex() != lastStateLoc.getContigIndex())
-                        throw new IllegalArgumentException("Supporting state has an invalid sequence: last state was " + lastStateLoc + " but next state was " + state);
+            if ( validateStates ) {
+                GenomeLoc lastStateLoc = null;
+                for ( final ActivityProfileState state : this.supportingStates ) {
+                    if ( lastStateLoc != null ) {
+                        if ( state.getLoc().getStart() != lastStateLoc.getStart() + 1 || state.getLoc().getContigIndex() != lastStateLoc.getContigIndex())
+                            throw new IllegalArgumentException("Supporting state has an invalid sequence: last state was " + lastStateLoc + " but next state was " + state);
+                    }
+                    lastStateLoc = state.getLoc();
                 }
-                lastStateLoc = state.getLoc();
             }
         }
     }
 
+    /**
+     * Create a new ActiveRegion containing no reads, from the probabilities of its supporting states
+     *
+     * The states themselves are only created if someone asks for them via getSupportingStates()
+     *
+     * @param activeRegionLoc the span of this active region
+     * @param supportingProbs the isActiveProb of each bp in activeRegionLoc, in order.  Must have exactly
+     *                        one entry for each bp in activeRegionLoc.  Not copied, so the caller must not
+     *                        modify it afterwards
+     * @param isActive indicates whether this is an active region, or an inactve one
+     * @param genomeLocParser a non-null parser to let us create new genome locs
+     * @param extension the active region extension to use for this active region
+     * @return a non-null active region
+     */
+    static ActiveRegion createFromSupportingProbs( final GenomeLoc activeRegionLoc, final double[] supportingProbs, final boolean isActive, final GenomeLocParser genomeLocParser, final int extension ) {
+        return new ActiveRegion(activeRegionLoc, new ActivityProfileStateList(genomeLocParser, activeRegionLoc, supportingProbs), false, isActive, genomeLocParser, extension);
+    }
+
     /**
      * Simple interface to create an active region that isActive without any profile state
      */
@@ -41,7 +41,16 @@ import java.util.*;
  * @since Date created
  */
 public class ActivityProfile {
-    protected final List<ActivityProfileState> stateList;
+    private final static int INITIAL_CAPACITY = 1024;
+
+    /**
+     * The isActiveProb of each state in this profile, as a ring buffer whose capacity is a power of 2.  The
+     * state at offset i from regionStartLoc is at probs[(head + i) & (probs.length - 1)]
+     */
+    private double[] probs = new double[INITIAL_CAPACITY];
+    private int head = 0;
+    private int nStates = 0;
+
     protected final GenomeLocParser parser;
     protected final GenomeLocSortedSet restrictToIntervals;
 
@@ -78,7 +87,6 @@ public class ActivityProfile {
         if ( parser == null ) throw new IllegalArgumentException("parser cannot be null");
 
         this.parser = parser;
-        this.stateList = new ArrayList<ActivityProfileState>();
         this.restrictToIntervals = intervals;
         this.maxProbPropagationDistance = maxProbPropagationDistance;
         this.activeProbThreshold = activeProbThreshold;
@@ -113,7 +121,7 @@ public class ActivityProfile {
      */
     @Ensures("result >= 0")
     public int size() {
-        return stateList.size();
+        return nStates;
     }
 
     /**
@@ -122,7 +130,7 @@ public class ActivityProfile {
      */
     @Ensures("isEmpty() == (size() == 0)")
     public boolean isEmpty() {
-        return stateList.isEmpty();
+        return nStates == 0;
     }
 
     /**
@@ -145,11 +153,17 @@ public class ActivityProfile {
 
     /**
      * Get the list of active profile results in this object
+     *
+     * The profile only keeps the probabilities of its states, so this is a snapshot of them as states.
+     * Changing the returned states doesn't change the profile.
+     *
      * @return a non-null, ordered list of active profile results
      */
     @Ensures("result != null")
     protected List<ActivityProfileState> getStateList() {
-        return stateList;
+        if ( isEmpty() )
+            return Collections.emptyList();
+        return new ActivityProfileStateList(parser, regionStartLoc, getProbabilitiesAsArray());
     }
 
     /**
@@ -158,29 +172,17 @@ public class ActivityProfile {
      */
     @Ensures("result != null")
     protected double[] getProbabilitiesAsArray() {
-        final double[] probs = new double[getStateList().size()];
-        int i = 0;
-        for ( final ActivityProfileState state : getStateList() )
-            probs[i++] = state.isActiveProb;
-        return probs;
+        return copyProbs(nStates);
     }
 
     /**
-     * Helper function that gets the genome loc for a site offset from relativeLoc, protecting ourselves from
-     * falling off the edge of the contig.
+     * Is start, a position on the current contig, a position where we can put a state?
      *
-     * @param relativeLoc the location offset is relative to
-     * @param offset the offset from relativeLoc where we'd like to create a GenomeLoc
-     * @return a genome loc with relativeLoc.start + offset, if this is on the contig, null otherwise
+     * @param start the position, in bp
+     * @return true if start isn't falling off the edge of the contig
      */
-    @Requires("relativeLoc != null")
-    protected GenomeLoc getLocForOffset(final GenomeLoc relativeLoc, final int offset) {
-        final int start = relativeLoc.getStart() + offset;
-        if ( start < 0 || start > getCurrentContigLength() ) {
-            return null;
-        } else {
-            return parser.createGenomeLoc(regionStartLoc.getContig(), regionStartLoc.getContigIndex(), start, start);
-        }
+    protected boolean isOnCurrentContig(final int start) {
+        return start >= 0 && start <= getCurrentContigLength();
     }
 
     /**
@@ -220,76 +222,101 @@ public class ActivityProfile {
             regionStopLoc = loc;
         }
 
-        final Collection<ActivityProfileState> processedStates = processState(state);
-        for ( final ActivityProfileState processedState : processedStates ) {
-            incorporateSingleState(processedState);
-        }
+        processState(state);
     }
 
     /**
-     * Incorporate a single activity profile state into the current list of states
+     * Incorporate the probability of a single activity profile state into the current states
      *
-     * If state's position occurs immediately after the last position in this profile, then
-     * the state is appended to the state list.  If it's within the existing states list,
-     * the prob of stateToAdd is added to its corresponding state in the list.  If the
-     * position would be before the start of this profile, stateToAdd is simply ignored.
+     * If start occurs immediately after the last position in this profile, then a new state
+     * with prob is appended to the profile.  If it's within the existing states, prob is added
+     * to the corresponding state.  If the position would be before the start of this profile,
+     * prob is simply ignored.
      *
-     * @param stateToAdd the state we want to add to the states list
+     * @param start the position of the state on the current contig, in bp
+     * @param prob the probability to add to the state at start
      */
-    @Requires("stateToAdd != null")
-    private void incorporateSingleState(final ActivityProfileState stateToAdd) {
-        final int position = stateToAdd.getOffset(regionStartLoc);
+    protected void incorporateProbability(final int start, final double prob) {
+        final int position = start - regionStartLoc.getStart();
 
         if ( position > size() )
             // should we allow this?  probably not
-            throw new IllegalArgumentException("Must add state contiguous to existing states: adding " + stateToAdd);
+            throw new IllegalArgumentException("Must add state contiguous to existing states: adding state at " + start + " with prob " + prob + " to " + this);
 
         if ( position >= 0 ) {
             // ignore states starting before this region's start
             if ( position < size() ) {
-                stateList.get(position).isActiveProb += stateToAdd.isActiveProb;
+                probs[(head + position) & (probs.length - 1)] += prob;
             } else {
-                if ( position != size() ) throw new IllegalStateException("position == size but it wasn't");
-                stateList.add(stateToAdd);
+                if ( nStates == probs.length ) {
+                    probs = copyProbs(2 * probs.length);
+                    head = 0;
+                }
+                probs[(head + nStates) & (probs.length - 1)] = prob;
+                nStates++;
             }
         }
     }
 
     /**
-     * Process justAddedState, returning a collection of derived states that actually be added to the stateList
+     * Process justAddedState, incorporating the derived states we actually want to track into this profile
      *
      * The purpose of this function is to transform justAddedStates, if needed, into a series of atomic states
      * that we actually want to track.  For example, if state is for soft clips, we transform that single
-     * state into a list of states that surround the state up to the distance of the soft clip.
+     * state into the states that surround the state up to the distance of the soft clip.  Each of these
+     * derived states is handed to incorporateDerivedState().
      *
-     * Can be overridden by subclasses to transform states in any way
-     *
-     * There's no particular contract for the output states, except that they can never refer to states
-     * beyond the current end of the stateList unless the explicitly include preceding states before
-     * the reference.  So for example if the current state list is [1, 2, 3] this function could return
-     * [1,2,3,4,5] but not [1,2,3,5].
-     *
-     * @param justAddedState the state our client provided to use to add to the list
-     * @return a list of derived states that should actually be added to this profile's state list
+     * @param justAddedState the state our client provided to use to add to the profile
      */
-    protected Collection<ActivityProfileState> processState(final ActivityProfileState justAddedState) {
+    private void processState(final ActivityProfileState justAddedState) {
+        final int start = justAddedState.getLoc().getStart();
         if ( justAddedState.resultState.equals(ActivityProfileState.Type.HIGH_QUALITY_SOFT_CLIPS) ) {
             // special code to deal with the problem that high quality soft clipped bases aren't added to pileups
-            final List<ActivityProfileState> states = new LinkedList<ActivityProfileState>();
             // add no more than the max prob propagation distance num HQ clips
             final int numHQClips = Math.min(justAddedState.resultValue.intValue(), getMaxProbPropagationDistance());
             for( int jjj = - numHQClips; jjj <= numHQClips; jjj++ ) {
-                final GenomeLoc loc = getLocForOffset(justAddedState.getLoc(), jjj);
-                if ( loc != null )
-                    states.add(new ActivityProfileState(loc, justAddedState.isActiveProb));
+                if ( isOnCurrentContig(start + jjj) )
+                    incorporateDerivedState(start, start + jjj, justAddedState.isActiveProb);
             }
-
-            return states;
         } else {
-            return Collections.singletonList(justAddedState);
+            incorporateDerivedState(start, start, justAddedState.isActiveProb);
         }
     }
 
+    /**
+     * Incorporate one of the states derived from the state our client just added into this profile
+     *
+     * Can be overridden by subclasses to transform states in any way, using incorporateProbability() to
+     * add the transformed states to the profile.
+     *
+     * There's no particular contract for the output states, except that they can never refer to states
+     * beyond the current end of the profile unless the explicitly include preceding states before
+     * the reference.  So for example if the current states are [1, 2, 3] this function could incorporate
+     * [1,2,3,4,5] but not [1,2,3,5].
+     *
+     * @param justAddedStart the position of the state our client just added
+     * @param start the position of the derived state
+     * @param prob the isActiveProb of the derived state
+     */
+    protected void incorporateDerivedState(final int justAddedStart, final int start, final double prob) {
+        incorporateProbability(start, prob);
+    }
+
+    /**
+     * Copy the first n probabilities of this profile into a new linear array
+     * @param length the length of the new array.  If it's larger than the number of states the remainder is 0.0,
+     *               and if it's smaller only the first length states are copied
+     * @return a non-null array with the first states of this profile at its start
+     */
+    private double[] copyProbs(final int length) {
+        final double[] copy = new double[length];
+        final int n = Math.min(nStates, length);
+        final int firstPart = Math.min(n, probs.length - head);
+        System.arraycopy(probs, head, copy, 0, firstPart);
+        System.arraycopy(probs, 0, copy, firstPart, n - firstPart);
+        return copy;
+    }
+
     // --------------------------------------------------------------------------------
     //
     // routines to get active regions from the profile
@@ -314,7 +341,7 @@ public class ActivityProfile {
      * @param minRegionSize the minimum region size, in the case where we have to cut up regions that are too large
      * @param maxRegionSize the maximize size of the returned region
      * @param forceConversion if true, we'll return a region whose end isn't sufficiently far from the end of the
-     *                        stateList.  Used to close out the active region when we've hit some kind of end (such
+     *                        profile.  Used to close out the active region when we've hit some kind of end (such
      *                        as the end of the contig)
      * @return a non-null list of active regions
      */
@@ -350,46 +377,45 @@ public class ActivityProfile {
      * @param minRegionSize the minimum region size, in the case where we have to cut up regions that are too large
      * @param maxRegionSize the maximize size of the returned region
      * @param forceConversion if true, we'll return a region whose end isn't sufficiently far from the end of the
-     *                        stateList.  Used to close out the active region when we've hit some kind of end (such
+     *                        profile.  Used to close out the active region when we've hit some kind of end (such
      *                        as the end of the contig)
      * @return a fully formed active region, or null if none can be made
      */
     private ActiveRegion popNextReadyActiveRegion(final int activeRegionExtension, final int minRegionSize, final int maxRegionSize, final boolean forceConversion) {
-        if ( stateList.isEmpty() )
+        if ( isEmpty() )
             return null;
 
         // If we are flushing the activity profile we need to trim off the excess states so that we don't create regions outside of our current processing interval
-        if( forceConversion ) {
-            final List<ActivityProfileState> statesToTrimAway = new ArrayList<ActivityProfileState>(stateList.subList(getSpan().size(), stateList.size()));
-            stateList.removeAll(statesToTrimAway);
-        }
+        if( forceConversion )
+            nStates = Math.min(nStates, getSpan().size());
 
-        final ActivityProfileState first = stateList.get(0);
-        final boolean isActiveRegion = first.isActiveProb > activeProbThreshold;
+        final GenomeLoc first = regionStartLoc;
+        final boolean isActiveRegion = getProb(0) > activeProbThreshold;
         final int offsetOfNextRegionEnd = findEndOfRegion(isActiveRegion, minRegionSize, maxRegionSize, forceConversion);
         if ( offsetOfNextRegionEnd == -1 )
             // couldn't find a valid ending offset, so we return null
             return null;
 
         // we need to create the active region, and clip out the states we're extracting from this profile
-        final List<ActivityProfileState> sub = stateList.subList(0, offsetOfNextRegionEnd + 1);
-        final List<ActivityProfileState> supportingStates = new ArrayList<ActivityProfileState>(sub);
-        sub.clear();
+        final double[] supportingProbs = copyProbs(offsetOfNextRegionEnd + 1);
+        head = (head + offsetOfNextRegionEnd + 1) & (probs.length - 1);
+        nStates -= offsetOfNextRegionEnd + 1;
 
         // update the start and stop locations as necessary
-        if ( stateList.isEmpty() ) {
+        if ( isEmpty() ) {
             regionStartLoc = regionStopLoc = null;
         } else {
-            regionStartLoc = stateList.get(0).getLoc();
+            final int newStart = first.getStart() + offsetOfNextRegionEnd + 1;
+            regionStartLoc = parser.createGenomeLoc(first.getContig(), first.getContigIndex(), newStart, newStart);
         }
-        final GenomeLoc regionLoc = parser.createGenomeLoc(first.getLoc().getContig(), first.getLoc().getStart(), first.getLoc().getStart() + offsetOfNextRegionEnd);
-        return new ActiveRegion(regionLoc, supportingStates, isActiveRegion, parser, activeRegionExtension);
+        final GenomeLoc regionLoc = parser.createGenomeLoc(first.getContig(), first.getStart(), first.getStart() + offsetOfNextRegionEnd);
+        return ActiveRegion.createFromSupportingProbs(regionLoc, supportingProbs, isActiveRegion, parser, activeRegionExtension);
     }
 
     /**
      * Find the end of the current region, returning the index into the element isActive element, or -1 if the region isn't done
      *
-     * The current region is defined from the start of the stateList, looking for elements that have the same isActiveRegion
+     * The current region is defined from the start of the profile, looking for elements that have the same isActiveRegion
      * flag (i.e., if isActiveRegion is true we are looking for states with isActiveProb > threshold, or alternatively
      * for states < threshold).  The maximize size of the returned region is maxRegionSize.  If forceConversion is
      * true, then we'll return the region end even if this isn't safely beyond the max prob propagation distance.
@@ -402,16 +428,16 @@ public class ActivityProfile {
      * @param minRegionSize the minimum region size, in the case where we have to cut up regions that are too large
      * @param maxRegionSize the maximize size of the returned region
      * @param forceConversion if true, we'll return a region whose end isn't sufficiently far from the end of the
-     *                        stateList.  Used to close out the active region when we've hit some kind of end (such
+     *                        profile.  Used to close out the active region when we've hit some kind of end (such
      *                        as the end of the contig)
-     * @return the index into stateList of the last element of this region, or -1 if it cannot be found
+     * @return the index into the states of the last element of this region, or -1 if it cannot be found
      */
     @Ensures({
             "result >= -1",
             "result == -1 || result < maxRegionSize",
             "! (result == -1 && forceConversion)"})
     private int findEndOfRegion(final boolean isActiveRegion, final int minRegionSize, final int maxRegionSize, final boolean forceConversion) {
-        if ( ! forceConversion && stateList.size() < maxRegionSize + getMaxProbPropagationDistance() ) {
+        if ( ! forceConversion && size() < maxRegionSize + getMaxProbPropagationDistance() ) {
             // we really haven't finalized at the probability mass that might affect our decision, so keep
             // waiting until we do before we try to make any decisions
             return -1;
@@ -470,9 +496,8 @@ public class ActivityProfile {
      *         if no such element exists
      */
     @Requires({"maxRegionSize > 0"})
-    @Ensures({"result >= 0", "result <= stateList.size()"})
+    @Ensures({"result >= 0", "result <= size()"})
     private int findFirstActivityBoundary(final boolean isActiveRegion, final int maxRegionSize) {
-        final int nStates = stateList.size();
         int endOfActiveRegion = 0;
 
         while ( endOfActiveRegion < nStates && endOfActiveRegion < maxRegionSize ) {
@@ -490,9 +515,9 @@ public class ActivityProfile {
      * @param index a valid offset into the state list
      * @return the isActiveProb of the state at index
      */
-    @Requires({"index >= 0", "index < stateList.size()"})
+    @Requires({"index >= 0", "index < size()"})
     private double getProb(final int index) {
-        return stateList.get(index).isActiveProb;
+        return probs[(head + index) & (probs.length - 1)];
     }
 
     /**
@@ -504,9 +529,9 @@ public class ActivityProfile {
      * @param index the index of the state we want to test
      * @return true if prob at state is a minimum, false otherwise
      */
-    @Requires({"index >= 0", "index < stateList.size()"})
+    @Requires({"index >= 0", "index < size()"})
     private boolean isMinimum(final int index) {
-        if ( index == stateList.size() - 1 )
+        if ( index == size() - 1 )
             // we cannot be at a minimum if the current position is the last in the state list
             return false;
         else if ( index < 1 )
@@ -0,0 +1,74 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.activeregion;
+
+import org.broadinstitute.gatk.utils.GenomeLoc;
+import org.broadinstitute.gatk.utils.GenomeLocParser;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * An unmodifiable list of contiguous activity profile states backed by an array of their probabilities
+ *
+ * Lets the activity profile and its active regions keep only the isActiveProb of each bp, creating
+ * the ActivityProfileState for a position only when a client actually asks for it.
+ */
+final class ActivityProfileStateList extends AbstractList<ActivityProfileState> implements RandomAccess {
+    private final GenomeLocParser parser;
+    private final GenomeLoc firstLoc;
+    private final double[] probs;
+
+    /**
+     * Create a new list of states
+     *
+     * @param parser the parser we can use to create genome locs, cannot be null
+     * @param firstLoc the position of the first state, cannot be null
+     * @param probs the isActiveProb of each state, the i-th at firstLoc.getStart() + i.  Not copied, so
+     *              the caller must not modify it afterwards
+     */
+    ActivityProfileStateList(final GenomeLocParser parser, final GenomeLoc firstLoc, final double[] probs) {
+        if ( parser == null ) throw new IllegalArgumentException("parser cannot be null");
+        if ( firstLoc == null ) throw new IllegalArgumentException("firstLoc cannot be null");
+        if ( probs == null ) throw new IllegalArgumentException("probs cannot be null");
+
+        this.parser = parser;
+        this.firstLoc = firstLoc;
+        this.probs = probs;
+    }
+
+    @Override
+    public ActivityProfileState get(final int index) {
+        if ( index < 0 || index >= probs.length ) throw new IndexOutOfBoundsException("index " + index + " not in [0, " + probs.length + ")");
+        final int start = firstLoc.getStart() + index;
+        return new ActivityProfileState(parser.createGenomeLoc(firstLoc.getContig(), firstLoc.getContigIndex(), start, start), probs[index]);
+    }
+
+    @Override
+    public int size() {
+        return probs.length;
+    }
+}
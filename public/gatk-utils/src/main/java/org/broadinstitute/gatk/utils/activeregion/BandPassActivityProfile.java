@@ -26,14 +26,10 @@
 package org.broadinstitute.gatk.utils.activeregion;
 
 import com.google.java.contract.Ensures;
-import org.broadinstitute.gatk.utils.GenomeLoc;
 import org.broadinstitute.gatk.utils.GenomeLocParser;
 import org.broadinstitute.gatk.utils.GenomeLocSortedSet;
 import org.broadinstitute.gatk.utils.MathUtils;
 
-import java.util.Collection;
-import java.util.LinkedList;
-
 /**
  * A band pass filtering version of the activity profile
  *
@@ -168,27 +164,19 @@ public class BandPassActivityProfile extends ActivityProfile {
     }
 
     /**
-     * Band pass the probabilities in the ActivityProfile, producing a new profile that's band pass filtered
-     * @return a new double[] that's the band-pass filtered version of this profile
+     * Band pass the probability of a derived state, spreading it over the states surrounding justAddedStart
+     *
+     * Note that the kernel is centered on the state our client added, not on the derived state itself.
      */
     @Override
-    protected Collection<ActivityProfileState> processState(final ActivityProfileState justAddedState) {
-        final Collection<ActivityProfileState> states = new LinkedList<ActivityProfileState>();
-
-        for ( final ActivityProfileState superState : super.processState(justAddedState) ) {
-            if ( superState.isActiveProb > 0.0 ) {
-                for( int jjj = -filterSize; jjj <= filterSize; jjj++ ) {
-                    final GenomeLoc loc = getLocForOffset(justAddedState.getLoc(), jjj);
-                    if ( loc != null ) {
-                        final double newProb = superState.isActiveProb * GaussianKernel[jjj + filterSize];
-                        states.add(new ActivityProfileState(loc, newProb));
-                    }
-                }
-            } else {
-                states.add(justAddedState);
+    protected void incorporateDerivedState(final int justAddedStart, final int start, final double prob) {
+        if ( prob > 0.0 ) {
+            for( int jjj = -filterSize; jjj <= filterSize; jjj++ ) {
+                if ( isOnCurrentContig(justAddedStart + jjj) )
+                    incorporateProbability(justAddedStart + jjj, prob * GaussianKernel[jjj + filterSize]);
             }
+        } else {
+            incorporateProbability(justAddedStart, prob);
         }
-
-        return states;
     }
 }
@@ -37,6 +37,8 @@ import org.broadinstitute.gatk.utils.exceptions.ReviewedGATKException;
 import org.broadinstitute.gatk.utils.exceptions.UserException;
 import org.broadinstitute.gatk.utils.sam.ReadUtils;
 
+import java.util.Arrays;
+
 /*
   The topology of the profile HMM:
 
@@ -185,6 +187,53 @@ public class BAQ {
         return EPSILONS[ref][read][qualB];
     }
 
+    /**
+     * Workspaces larger than this number of cells per matrix aren't kept around between calls to hmm_glocal,
+     * so that a single read with a huge band doesn't pin down a lot of memory
+     */
+    private final static int MAX_CACHED_WORKSPACE_CELLS = 1 << 20;
+
+    /**
+     * The forward and backward matrices and the scaling array of hmm_glocal, reused across reads
+     * as allocating them for every read is a large fraction of the cost of the BAQ calculation
+     */
+    private static class HMMWorkspace {
+        double[][] f = new double[0][0];
+        double[][] b = new double[0][0];
+        double[] s = new double[0];
+
+        /**
+         * Make sure the workspace holds at least nRows rows of width cells, and zero out that part of the matrices,
+         * as hmm_glocal relies on the cells outside of the band being 0
+         *
+         * @param nRows the number of rows needed
+         * @param width the number of cells needed in each row
+         */
+        void prepare(final int nRows, final int width) {
+            if ( nRows > f.length || width > f[0].length ) {
+                final int newRows = Math.max(nRows, f.length);
+                final int newWidth = Math.max(width, f.length == 0 ? 0 : f[0].length);
+                f = new double[newRows][newWidth];
+                b = new double[newRows][newWidth];
+                s = new double[newRows + 1];
+            } else {
+                for ( int i = 0; i < nRows; i++ ) {
+                    Arrays.fill(f[i], 0, width, 0.0);
+                    Arrays.fill(b[i], 0, width, 0.0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Thread local workspace to allow multi-threaded use of this class
+     */
+    private final ThreadLocal<HMMWorkspace> workspace = new ThreadLocal<HMMWorkspace>() {
+        @Override protected HMMWorkspace initialValue() {
+            return new HMMWorkspace();
+        }
+    };
+
     // ####################################################################################################
     //
     // NOTE -- THIS CODE IS SYNCHRONIZED WITH CODE IN THE SAMTOOLS REPOSITORY.  CHANGES TO THIS CODE SHOULD BE
@@ -223,10 +272,17 @@ public class BAQ {
         //System.out.printf("c->bw = %d, bw = %d, l_ref = %d, l_query = %d\n", cb, bw, l_ref, l_query);
 		bw2 = bw * 2 + 1;
 
-        // allocate the forward and backward matrices f[][] and b[][] and the scaling array s[]
-		double[][] f = new double[l_query+1][bw2*3 + 6];
-		double[][] b = new double[l_query+1][bw2*3 + 6];
-		double[] s = new double[l_query+2];
+        // get the forward and backward matrices f[][] and b[][] and the scaling array s[]
+        final HMMWorkspace hmmWorkspace;
+        if ( (long)(l_query+1) * (bw2*3 + 6) <= MAX_CACHED_WORKSPACE_CELLS ) {
+            hmmWorkspace = workspace.get();
+        } else {
+            hmmWorkspace = new HMMWorkspace();
+        }
+        hmmWorkspace.prepare(l_query+1, bw2*3 + 6);
+		final double[][] f = hmmWorkspace.f;
+		final double[][] b = hmmWorkspace.b;
+		final double[] s = hmmWorkspace.s;
 
 		// initialize transition probabilities
 		double sM, sI, bM, bI;
@@ -300,12 +300,12 @@ public final class LocusIteratorByState extends LocusIterator {
             for (final Map.Entry<String, PerSampleReadStateManager> sampleStatePair : readStates ) {
                 final String sample = sampleStatePair.getKey();
                 final PerSampleReadStateManager readState = sampleStatePair.getValue();
-                final Iterator<AlignmentStateMachine> iterator = readState.iterator();
-                final List<PileupElement> pile = new ArrayList<PileupElement>(readState.size());
+                final int nReadStates = readState.size();
+                final List<PileupElement> pile = new ArrayList<PileupElement>(nReadStates);
 
-                while (iterator.hasNext()) {
+                for (int i = 0; i < nReadStates; i++) {
                     // state object with the read/offset information
-                    final AlignmentStateMachine state = iterator.next();
+                    final AlignmentStateMachine state = readState.get(i);
                     final GATKSAMRecord read = state.getRead();
                     final CigarOperator op = state.getCigarOperator();
 
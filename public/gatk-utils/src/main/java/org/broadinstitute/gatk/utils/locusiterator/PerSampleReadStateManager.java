@@ -30,16 +30,22 @@ import com.google.java.contract.Invariant;
 import com.google.java.contract.Requires;
 import htsjdk.samtools.CigarOperator;
 import org.apache.log4j.Logger;
-import org.broadinstitute.gatk.utils.downsampling.Downsampler;
+import org.broadinstitute.gatk.utils.MathUtils;
 import org.broadinstitute.gatk.utils.downsampling.LevelingDownsampler;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
  * ReadStateManager for a single sample
  *
+ * The read states are held in a single array, ordered by alignment start, which is compacted in place
+ * as reads fall off the end of the pileup.  At high depth this avoids allocating list nodes for every
+ * read and regrouping them at every new alignment start.
+ *
  * User: depristo
  * Date: 1/13/13
  * Time: 12:28 PM
@@ -47,6 +53,7 @@ import java.util.List;
 @Invariant({
         "readStartsAreWellOrdered()",
         "! isDownsampling() || downsamplingTarget > 0",
+        "nReadStates >= 0",
         "nSites >= 0",
         "nSitesNeedingDownsampling >= 0",
         "nSitesNeedingDownsampling <= nSites"
@@ -54,16 +61,24 @@ import java.util.List;
 final class PerSampleReadStateManager implements Iterable<AlignmentStateMachine> {
     private final static Logger logger = Logger.getLogger(ReadStateManager.class);
     private final static boolean CAPTURE_DOWNSAMPLING_STATS = false;
+    private final static int INITIAL_CAPACITY = 16;
 
     /**
-     * A list (potentially empty) of alignment state machines.
+     * The alignment state machines, in readStates[0] to readStates[nReadStates - 1].
      *
      * The state machines must be ordered by the alignment start of their underlying reads, with the
-     * lowest alignment starts on the left, and the largest on the right
+     * lowest alignment starts on the left, and the largest on the right.  Entries beyond nReadStates
+     * are always null, so that we don't hold onto reads we're done with.
+     */
+    private AlignmentStateMachine[] readStates = new AlignmentStateMachine[INITIAL_CAPACITY];
+    private int nReadStates = 0;
+
+    /**
+     * Scratch space for the sizes of the groups of read states sharing a genome offset, used when leveling
      */
-    private LinkedList<AlignmentStateMachine> readStatesByAlignmentStart = new LinkedList<AlignmentStateMachine>();
+    private int[] groupSizes = new int[INITIAL_CAPACITY];
+    private int[] keptGroupSizes = new int[INITIAL_CAPACITY];
 
-    private final Downsampler<LinkedList<AlignmentStateMachine>> levelingDownsampler;
     private final int downsamplingTarget;
 
     /**
@@ -82,49 +97,71 @@ final class PerSampleReadStateManager implements Iterable<AlignmentStateMachine>
      */
     public PerSampleReadStateManager(final LIBSDownsamplingInfo LIBSDownsamplingInfo) {
         this.downsamplingTarget = LIBSDownsamplingInfo.isPerformDownsampling() ? LIBSDownsamplingInfo.getToCoverage() : -1;
-        this.levelingDownsampler = LIBSDownsamplingInfo.isPerformDownsampling()
-                ? new LevelingDownsampler<LinkedList<AlignmentStateMachine>, AlignmentStateMachine>(LIBSDownsamplingInfo.getToCoverage())
-                : null;
     }
 
     /**
-     * Group the underlying readStatesByAlignmentStart into a list of list of alignment state machines,
-     * where each list contains machines with a unique genome site.  The outer list is ordered
-     * by alignment start.
+     * Level the read states down to the downsampling target, exactly as a LevelingDownsampler would if given
+     * the read states grouped by genome offset.
      *
-     * For example, if the flat list has alignment starts [10, 10, 11, 12, 12, 13] then
-     * the resulting grouping will be [[10, 10], [11], [12, 12], [13]].
+     * For example, if the read states have alignment starts [10, 10, 11, 12, 12, 13] then the groups
+     * are [[10, 10], [11], [12, 12], [13]], and reads are removed from each group in turn until we are
+     * at the target or every group is down to a single read.
      *
-     * @return a non-null list of lists
+     * @return the number of read states removed
      */
-    @Ensures("result != null")
-    private List<LinkedList<AlignmentStateMachine>> groupByAlignmentStart() {
-        final LinkedList<LinkedList<AlignmentStateMachine>> grouped = new LinkedList<LinkedList<AlignmentStateMachine>>();
-
-        AlignmentStateMachine last = null;
-        for ( final AlignmentStateMachine stateMachine : readStatesByAlignmentStart ) {
-            if ( last == null || stateMachine.getGenomeOffset() != last.getGenomeOffset() ) {
+    @Requires("isDownsampling()")
+    @Ensures("result >= 0")
+    private int levelReadStates() {
+        int nGroups = 0;
+        for ( int i = 0; i < nReadStates; i++ ) {
+            if ( i == 0 || readStates[i].getGenomeOffset() != readStates[i-1].getGenomeOffset() ) {
                 // we've advanced to a place where the state machine has a different state,
-                // so start a new list
-                grouped.add(new LinkedList<AlignmentStateMachine>());
-                last = stateMachine;
+                // so start a new group
+                if ( nGroups == groupSizes.length ) {
+                    groupSizes = Arrays.copyOf(groupSizes, nGroups * 2);
+                    keptGroupSizes = new int[nGroups * 2];
+                }
+                groupSizes[nGroups++] = 0;
             }
-            grouped.getLast().add(stateMachine);
+            groupSizes[nGroups-1]++;
         }
 
-        return grouped;
+        System.arraycopy(groupSizes, 0, keptGroupSizes, 0, nGroups);
+        if ( ! LevelingDownsampler.levelGroupSizes(keptGroupSizes, nGroups, downsamplingTarget, 1) )
+            return 0;
+
+        // compact the kept states of each group towards the front of the array
+        int groupStart = 0;
+        int nKept = 0;
+        for ( int group = 0; group < nGroups; group++ ) {
+            final int groupSize = groupSizes[group];
+            if ( keptGroupSizes[group] >= groupSize ) {
+                System.arraycopy(readStates, groupStart, readStates, nKept, groupSize);
+                nKept += groupSize;
+            } else {
+                final BitSet itemsToKeep = new BitSet(groupSize);
+                for ( final Integer selectedIndex : MathUtils.sampleIndicesWithoutReplacement(groupSize, keptGroupSizes[group]) )
+                    itemsToKeep.set(selectedIndex);
+                for ( int i = 0; i < groupSize; i++ ) {
+                    if ( itemsToKeep.get(i) )
+                        readStates[nKept++] = readStates[groupStart + i];
+                }
+            }
+            groupStart += groupSize;
+        }
+
+        final int nRemoved = nReadStates - nKept;
+        truncate(nKept);
+        return nRemoved;
     }
 
     /**
-     * Flattens the grouped list of list of alignment state machines into a single list in order
-     * @return a non-null list contains the state machines
+     * Drop all read states from index newSize onwards
+     * @param newSize the number of read states to keep
      */
-    @Ensures("result != null")
-    private LinkedList<AlignmentStateMachine> flattenByAlignmentStart(final List<LinkedList<AlignmentStateMachine>> grouped) {
-        final LinkedList<AlignmentStateMachine> flat = new LinkedList<AlignmentStateMachine>();
-        for ( final List<AlignmentStateMachine> l : grouped )
-            flat.addAll(l);
-        return flat;
+    private void truncate(final int newSize) {
+        Arrays.fill(readStates, newSize, nReadStates, null);
+        nReadStates = newSize;
     }
 
     /**
@@ -133,41 +170,37 @@ final class PerSampleReadStateManager implements Iterable<AlignmentStateMachine>
      */
     private boolean readStartsAreWellOrdered() {
         int lastStart = -1;
-        for ( final AlignmentStateMachine machine : readStatesByAlignmentStart ) {
-            if ( lastStart > machine.getRead().getAlignmentStart() )
+        for ( int i = 0; i < nReadStates; i++ ) {
+            if ( lastStart > readStates[i].getRead().getAlignmentStart() )
                 return false;
-            lastStart = machine.getRead().getAlignmentStart();
+            lastStart = readStates[i].getRead().getAlignmentStart();
         }
         return true;
     }
 
     /**
-     * Assumes it can just keep the states linked lists without making a copy
+     * Copies the states into this manager; the caller may reuse the list afterwards
      * @param states the new states to add to this manager
      * @return The change in the number of states, after including states and potentially downsampling.  Note
      * that this return result might be negative, if downsampling is enabled, as we might drop
      * more sites than have been added by the downsampler
      */
     @Requires("states != null")
-    public int addStatesAtNextAlignmentStart(final LinkedList<AlignmentStateMachine> states) {
+    public int addStatesAtNextAlignmentStart(final List<AlignmentStateMachine> states) {
         if ( states.isEmpty() ) {
             return 0;
         }
 
-        readStatesByAlignmentStart.addAll(states);
+        if ( nReadStates + states.size() > readStates.length )
+            readStates = Arrays.copyOf(readStates, Math.max(readStates.length * 2, nReadStates + states.size()));
+        for ( final AlignmentStateMachine state : states )
+            readStates[nReadStates++] = state;
         int nStatesAdded = states.size();
 
-        if ( isDownsampling() && readStatesByAlignmentStart.size() > downsamplingTarget ) {
+        if ( isDownsampling() && nReadStates > downsamplingTarget ) {
             // only go into the downsampling branch if we are downsampling and the coverage > the target
             captureDownsamplingStats();
-            levelingDownsampler.submit(groupByAlignmentStart());
-            levelingDownsampler.signalEndOfInput();
-
-            nStatesAdded -= levelingDownsampler.getNumberOfDiscardedItems();
-
-            // use returned List directly rather than make a copy, for efficiency's sake
-            readStatesByAlignmentStart = flattenByAlignmentStart(levelingDownsampler.consumeFinalizedItems());
-            levelingDownsampler.resetStats();
+            nStatesAdded -= levelReadStates();
         }
 
         return nStatesAdded;
@@ -178,7 +211,7 @@ final class PerSampleReadStateManager implements Iterable<AlignmentStateMachine>
      * @return true if we are downsampling, false otherwise
      */
     private boolean isDownsampling() {
-        return levelingDownsampler != null;
+        return downsamplingTarget >= 0;
     }
 
     /**
@@ -186,7 +219,7 @@ final class PerSampleReadStateManager implements Iterable<AlignmentStateMachine>
      * @return a potentially null AlignmentStateMachine
      */
     public AlignmentStateMachine getFirst() {
-        return isEmpty() ? null : readStatesByAlignmentStart.getFirst();
+        return isEmpty() ? null : readStates[0];
     }
 
     /**
@@ -215,7 +248,7 @@ final class PerSampleReadStateManager implements Iterable<AlignmentStateMachine>
      * @return true if there's at least one alignment, false otherwise
      */
     public boolean isEmpty() {
-        return readStatesByAlignmentStart.isEmpty();
+        return nReadStates == 0;
     }
 
     /**
@@ -224,7 +257,17 @@ final class PerSampleReadStateManager implements Iterable<AlignmentStateMachine>
      */
     @Ensures("result >= 0")
     public int size() {
-        return readStatesByAlignmentStart.size();
+        return nReadStates;
+    }
+
+    /**
+     * Get the read state at the given position, in alignment start order
+     * @param i the index of the read state, between 0 and size() - 1
+     * @return a non-null AlignmentStateMachine
+     */
+    @Requires({"i >= 0", "i < size()"})
+    public AlignmentStateMachine get(final int i) {
+        return readStates[i];
     }
 
     /**
@@ -233,29 +276,56 @@ final class PerSampleReadStateManager implements Iterable<AlignmentStateMachine>
      * @return the number of states we're removed after advancing
      */
     public int updateReadStates() {
-        int nRemoved = 0;
-        final Iterator<AlignmentStateMachine> it = iterator();
-        while (it.hasNext()) {
-            final AlignmentStateMachine state = it.next();
+        int nKept = 0;
+        for ( int i = 0; i < nReadStates; i++ ) {
+            final AlignmentStateMachine state = readStates[i];
             final CigarOperator op = state.stepForwardOnGenome();
-            if (op == null) {
-                // we discard the read only when we are past its end AND indel at the end of the read (if any) was
-                // already processed. Keeping the read state that returned null upon stepForwardOnGenome() is safe
-                // as the next call to stepForwardOnGenome() will return null again AND will clear hadIndel() flag.
-                it.remove();                                                // we've stepped off the end of the object
-                nRemoved++;
-            }
+            // we discard the read only when we are past its end AND indel at the end of the read (if any) was
+            // already processed. Keeping the read state that returned null upon stepForwardOnGenome() is safe
+            // as the next call to stepForwardOnGenome() will return null again AND will clear hadIndel() flag.
+            if ( op != null )
+                readStates[nKept++] = state;
         }
 
+        final int nRemoved = nReadStates - nKept;
+        truncate(nKept);
         return nRemoved;
     }
 
     /**
      * Iterate over the AlignmentStateMachine in this manager in alignment start order.
+     *
+     * The iterator supports remove(), though removing from the middle of the read states is linear in
+     * the number of read states after it.
+     *
      * @return a valid iterator
      */
     @Ensures("result != null")
     public Iterator<AlignmentStateMachine> iterator() {
-        return readStatesByAlignmentStart.iterator();
+        return new Iterator<AlignmentStateMachine>() {
+            private int next = 0;
+            private boolean canRemove = false;
+
+            @Override
+            public boolean hasNext() {
+                return next < nReadStates;
+            }
+
+            @Override
+            public AlignmentStateMachine next() {
+                if ( ! hasNext() ) throw new NoSuchElementException();
+                canRemove = true;
+                return readStates[next++];
+            }
+
+            @Override
+            public void remove() {
+                if ( ! canRemove ) throw new IllegalStateException("next() must be called before remove()");
+                canRemove = false;
+                next--;
+                System.arraycopy(readStates, next + 1, readStates, next, nReadStates - next - 1);
+                truncate(nReadStates - 1);
+            }
+        };
     }
 }
@@ -64,6 +64,11 @@ final class ReadStateManager implements Iterable<Map.Entry<String, PerSampleRead
 
     private int totalReadStates = 0;
 
+    /**
+     * Scratch list of the new read states for a sample, reused across alignment starts
+     */
+    private final List<AlignmentStateMachine> newReadStates = new ArrayList<AlignmentStateMachine>();
+
     public ReadStateManager(final Iterator<GATKSAMRecord> source,
                             final List<String> samples,
                             final LIBSDownsamplingInfo LIBSDownsamplingInfo,
@@ -275,8 +280,7 @@ final class ReadStateManager implements Iterable<Map.Entry<String, PerSampleRead
         if (reads.isEmpty())
             return;
 
-        final LinkedList<AlignmentStateMachine> newReadStates = new LinkedList<AlignmentStateMachine>();
-
+        newReadStates.clear();
         for (final GATKSAMRecord read : reads) {
             final AlignmentStateMachine state = new AlignmentStateMachine(read);
             if ( state.stepForwardOnGenome() != null ) // todo -- should be an assertion not a skip
@@ -285,5 +289,6 @@ final class ReadStateManager implements Iterable<Map.Entry<String, PerSampleRead
         }
 
         totalReadStates += readStates.addStatesAtNextAlignmentStart(newReadStates);
+        newReadStates.clear();
     }
 }
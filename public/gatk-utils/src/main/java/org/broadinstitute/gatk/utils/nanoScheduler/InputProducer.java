@@ -28,6 +28,7 @@ package org.broadinstitute.gatk.utils.nanoScheduler;
 import org.apache.log4j.Logger;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 
 /**
@@ -167,6 +168,31 @@ class InputProducer<InputType> {
         }
     }
 
+    /**
+     * Get up to maxValues InputValues from this producer at once, with consecutive IDs
+     *
+     * Equivalent to calling next() repeatedly, but acquires the lock on this producer only once,
+     * which matters when the map function is cheap enough that threads would otherwise spend their
+     * time contending for the input.  Stops early after adding an EOF marker, so the last value
+     * added is an EOF marker if and only if the underlying iterator has been exhausted.
+     *
+     * @param values the list to which to add the values; they are appended in ID order
+     * @param maxValues the maximum number of values to add; must be >= 1
+     * @return the number of values added, including any EOF marker
+     */
+    public synchronized int next(final List<InputValue> values, final int maxValues) {
+        if ( values == null ) throw new IllegalArgumentException("values cannot be null");
+        if ( maxValues < 1 ) throw new IllegalArgumentException("maxValues must be >= 1, got " + maxValues);
+
+        for ( int i = 0; i < maxValues; i++ ) {
+            final InputValue value = next();
+            values.add(value);
+            if ( value.isEOFMarker() )
+                return i + 1;
+        }
+        return maxValues;
+    }
+
     /**
      * Helper class that contains a read value suitable for EOF marking in a BlockingQueue
      *
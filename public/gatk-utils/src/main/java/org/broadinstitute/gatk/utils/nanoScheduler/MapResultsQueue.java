@@ -25,7 +25,8 @@
 
 package org.broadinstitute.gatk.utils.nanoScheduler;
 
-import org.broadinstitute.gatk.utils.collections.ExpandingArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Created with IntelliJ IDEA.
@@ -34,21 +35,35 @@ import org.broadinstitute.gatk.utils.collections.ExpandingArrayList;
  * Time: 3:53 PM
  *
  * This class makes some critical assumptions.  First is that the jobID of the first
- * job is 0.  If this isn't true the MapResultsQueue will certainly fail.
+ * job is 0.  If this isn't true the MapResultsQueue will certainly fail.  Second is that
+ * only one thread at a time calls nextValueIsAvailable and take, which the Reducer
+ * guarantees with its reduce lock.  Any number of threads may call put concurrently.
  */
 public class MapResultsQueue<MapType> {
     //private final static boolean DEBUG = false;
     //private final static Logger logger = Logger.getLogger(MapResultsQueue.class);
 
+    protected final static int SEGMENT_SHIFT = 10;
+    protected final static int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private final static int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    /**
+     * Since we know that the job ids start at 0 and increment by 1 in each successive job,
+     * results are stored by jobID rather than in a sorted structure.  Map threads put their
+     * results in any order, so the slots are held in a chain of fixed-size segments that map
+     * threads extend and the reducer drops once it has taken every value from them.  Slots are
+     * claimed without locking: each jobID has exactly one slot, written once by the thread that
+     * ran the job and cleared once by the reducer.
+     *
+     * head is the segment containing the next job to reduce.
+     */
+    private volatile Segment<MapType> head = new Segment<MapType>(0);
+
     /**
-     * Although naturally stored as priority blocking queue, this is actually quite expensive
-     * due to the O(n log n) sorting calculation.  Since we know that the job ids start
-     * at 0 and increment by 1 in each successive job, we store an array instead.  The
-     * array is indexed by jobID, and contains the MapResult for that job id.  Because elements
-     * can be added to the queue in any order, we need to use an expanding array list to
-     * store the elements.
+     * The segment most recently added to the chain.  Only a hint to keep put from walking the
+     * whole chain when map threads run far ahead of the reducer.
      */
-    final ExpandingArrayList<MapResult<MapType>> queue = new ExpandingArrayList<MapResult<MapType>>(10000);
+    private volatile Segment<MapType> tail = head;
 
     /**
      * The jobID of the last job we've seen
@@ -59,13 +74,19 @@ public class MapResultsQueue<MapType> {
      * Put mapResult into this MapResultsQueue, associated with its jobID
      * @param mapResult a non-null map result
      */
-    public synchronized void put(final MapResult<MapType> mapResult) {
+    public void put(final MapResult<MapType> mapResult) {
         if ( mapResult == null ) throw new IllegalArgumentException("mapResult cannot be null");
 
-        // make sure that nothing is at the job id for map
-        assert queue.size() < mapResult.getJobID() || queue.get(mapResult.getJobID()) == null;
+        final int jobID = mapResult.getJobID();
+        final int segmentIndex = jobID >>> SEGMENT_SHIFT;
+        final Segment<MapType> hint = tail;
+        final Segment<MapType> segment = findSegment(hint.index <= segmentIndex ? hint : head, segmentIndex);
+        if ( segment.index > hint.index )
+            tail = segment;
 
-        queue.set(mapResult.getJobID(), mapResult);
+        // make sure that nothing is at the job id for map
+        if ( ! segment.slots.compareAndSet(jobID & SEGMENT_MASK, null, mapResult) )
+            throw new IllegalStateException("Multiple map results put for job ID " + jobID);
     }
 
     /**
@@ -73,8 +94,8 @@ public class MapResultsQueue<MapType> {
      *
      * @return true if we should reduce
      */
-    public synchronized boolean nextValueIsAvailable() {
-        final MapResult<MapType> nextMapResult = queue.get(nextJobID());
+    public boolean nextValueIsAvailable() {
+        final MapResult<MapType> nextMapResult = head.slots.get(nextJobID() & SEGMENT_MASK);
 
         if ( nextMapResult == null ) {
             // natural case -- the next job hasn't had a value added yet
@@ -101,16 +122,54 @@ public class MapResultsQueue<MapType> {
      * @return
      * @throws InterruptedException
      */
-    // TODO -- does this have to be synchronized? -- I think the answer is no
-    public synchronized MapResult<MapType> take() throws InterruptedException {
-        final MapResult<MapType> result = queue.get(nextJobID());
+    public MapResult<MapType> take() throws InterruptedException {
+        final Segment<MapType> segment = head;
+        final int slot = nextJobID() & SEGMENT_MASK;
+        final MapResult<MapType> result = segment.slots.get(slot);
 
         // make sure the value we've fetched has the right id
         assert result.getJobID() == nextJobID();
 
         prevJobID = result.getJobID();
-        queue.set(prevJobID, null);
+        segment.slots.set(slot, null);
+
+        // once the last slot in the segment is consumed, nothing will be put in it again
+        if ( slot == SEGMENT_MASK )
+            head = findSegment(segment, segment.index + 1);
 
         return result;
     }
+
+    /**
+     * Walk forward from start to the segment with the given index, extending the chain if necessary
+     *
+     * @param start the segment from which to search; must not be beyond the requested segment
+     * @param segmentIndex the index of the desired segment
+     * @return the segment holding jobIDs segmentIndex * SEGMENT_SIZE up to the next segment
+     */
+    private Segment<MapType> findSegment(final Segment<MapType> start, final int segmentIndex) {
+        Segment<MapType> segment = start;
+        while ( segment.index < segmentIndex ) {
+            Segment<MapType> next = segment.next.get();
+            if ( next == null ) {
+                final Segment<MapType> created = new Segment<MapType>(segment.index + 1);
+                next = segment.next.compareAndSet(null, created) ? created : segment.next.get();
+            }
+            segment = next;
+        }
+        return segment;
+    }
+
+    /**
+     * A block of consecutive result slots
+     */
+    private static final class Segment<MapType> {
+        final int index;
+        final AtomicReferenceArray<MapResult<MapType>> slots = new AtomicReferenceArray<MapResult<MapType>>(SEGMENT_SIZE);
+        final AtomicReference<Segment<MapType>> next = new AtomicReference<Segment<MapType>>();
+
+        private Segment(final int index) {
+            this.index = index;
+        }
+    }
 }
@@ -31,6 +31,7 @@ import org.apache.log4j.Logger;
 import org.broadinstitute.gatk.utils.MultiThreadedErrorTracker;
 import org.broadinstitute.gatk.utils.threading.NamedThreadFactory;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.*;
@@ -44,9 +45,9 @@ import java.util.concurrent.*;
  * List[Input] outerData : outerDataLoop )
  *   result = nano.execute(outerData.iterator(), map, reduce)
  *
- * bufferSize determines how many elements from the input stream are read in one go by the
- * nanoscheduler.  The scheduler may hold up to bufferSize in memory at one time, as well
- * as up to bufferSize map results as well.
+ * bufferSize bounds how many elements from the input stream a single map thread takes in one
+ * go: each of the nThreads map threads takes batches of at most bufferSize / nThreads inputs
+ * (and at least one), so together they never hold more than about bufferSize inputs at once.
  *
  * numberOfMapElementsToProcessTogether determines how many input elements are processed
  * together each thread cycle.  For example, if this value is 10, then the input data
@@ -61,6 +62,11 @@ import java.util.concurrent.*;
  * thread is put to work by execute to help with the processing of the data.  So in reality the
  * nanoScheduler only spawn nThreads - 1 additional workers (if this is > 1).
  *
+ * Each map thread takes its inputs from the input stream in batches, sized adaptively so that a
+ * batch takes roughly TARGET_BATCH_NANOS to map.  Cheap map functions are thus handed many inputs
+ * at once, amortizing the cost of coordinating with the other threads, while expensive ones are
+ * handed a single input at a time so the work stays evenly spread.
+ *
  * User: depristo
  * Date: 8/24/12
  * Time: 9:47 AM
@@ -71,7 +77,13 @@ public class NanoScheduler<InputType, MapType, ReduceType> {
     protected final static int UPDATE_PROGRESS_FREQ = 100;
 
     /**
-     * Currently not used, but kept because it's conceptual reasonable to have a buffer
+     * How long we'd like mapping a single batch of inputs to take, in nanoseconds
+     */
+    protected final static long TARGET_BATCH_NANOS = 100 * 1000;
+
+    /**
+     * Bounds the size of the input batches taken by each map thread, which may take up to
+     * bufferSize / nThreads inputs at once
      */
     final int bufferSize;
 
@@ -123,7 +135,8 @@ public class NanoScheduler<InputType, MapType, ReduceType> {
     }
 
     /**
-     * The input buffer size used by this NanoScheduler
+     * The input buffer size used by this NanoScheduler, which caps each map thread's input batches
+     * at getBufferSize() / getnThreads() inputs
      * @return
      */
     @Ensures("result > 0")
@@ -354,6 +367,32 @@ public class NanoScheduler<InputType, MapType, ReduceType> {
 //        }
 //    }
 
+    /**
+     * Determine how many inputs a map thread should take for its next batch
+     *
+     * Aims for a batch that takes TARGET_BATCH_NANOS to map given the time taken by the previous
+     * batch, but at most doubles the batch size each time so that a few unusually cheap inputs
+     * don't cause a thread to grab a large share of the input at once.
+     *
+     * @param previousBatchSize the size of the previous batch
+     * @param nMapped the number of inputs actually mapped in the previous batch
+     * @param elapsedNanos the time taken to map them
+     * @param maxBatchSize the largest allowed batch size
+     * @return the size of the next batch, between 1 and maxBatchSize
+     */
+    @Ensures({"result >= 1", "result <= Math.max(maxBatchSize, 1)"})
+    protected static int nextBatchSize(final int previousBatchSize, final int nMapped, final long elapsedNanos, final int maxBatchSize) {
+        final long idealBatchSize;
+        if ( nMapped == 0 )
+            idealBatchSize = previousBatchSize;
+        else if ( elapsedNanos <= 0 )
+            idealBatchSize = 2L * previousBatchSize;
+        else
+            idealBatchSize = TARGET_BATCH_NANOS * nMapped / elapsedNanos;
+
+        return (int)Math.max(1, Math.min(Math.min(idealBatchSize, 2L * previousBatchSize), maxBatchSize));
+    }
+
     private void handleErrors() {
         if ( errorTracker.hasAnErrorOccurred() ) {
             masterExecutor.shutdownNow();
@@ -454,39 +493,49 @@ public class NanoScheduler<InputType, MapType, ReduceType> {
         @Override
         public void run() {
             try {
+                // keep every thread busy: don't let one thread take more than its share of the buffer
+                final int maxBatchSize = Math.max(1, bufferSize / nThreads);
+                final List<InputProducer<InputType>.InputValue> batch = new ArrayList<InputProducer<InputType>.InputValue>(maxBatchSize);
+                int batchSize = 1;
+
                 boolean done = false;
                 while ( ! done ) {
-                    // get the next item from the input producer
-                    final InputProducer<InputType>.InputValue inputWrapper = inputProducer.next();
-
-                    // depending on inputWrapper, actually do some work or not, putting result input result object
-                    final MapResult<MapType> result;
-                    if ( ! inputWrapper.isEOFMarker() ) {
-                        // just skip doing anything if we don't have work to do, which is possible
-                        // because we don't necessarily know how much input there is when we queue
-                        // up our jobs
-                        final InputType input = inputWrapper.getValue();
-
-                        // actually execute the map
-                        final MapType mapValue = map.apply(input);
-
-                        // enqueue the result into the mapResultQueue
-                        result = new MapResult<MapType>(mapValue, inputWrapper.getId());
-
-                        mapResultQueue.put(result);
+                    // get the next batch of items from the input producer
+                    batch.clear();
+                    inputProducer.next(batch, batchSize);
+
+                    final long startTime = System.nanoTime();
+                    int nMapped = 0;
+                    for ( final InputProducer<InputType>.InputValue inputWrapper : batch ) {
+                        // depending on inputWrapper, actually do some work or not, putting result input result object
+                        if ( ! inputWrapper.isEOFMarker() ) {
+                            // just skip doing anything if we don't have work to do, which is possible
+                            // because we don't necessarily know how much input there is when we queue
+                            // up our jobs
+                            final InputType input = inputWrapper.getValue();
+
+                            // actually execute the map
+                            final MapType mapValue = map.apply(input);
+
+                            // enqueue the result into the mapResultQueue
+                            mapResultQueue.put(new MapResult<MapType>(mapValue, inputWrapper.getId()));
+                            nMapped++;
+
+                            updateProgress(inputWrapper.getId(), input);
+                        } else {
+                            done = true;
+                        }
+                    }
 
-                        // reduce as much as possible, without blocking, if another thread is already doing reduces
-                        final int nReduced = reducer.reduceAsMuchAsPossible(mapResultQueue, false);
+                    // reduce as much as possible, without blocking, if another thread is already doing reduces
+                    reducer.reduceAsMuchAsPossible(mapResultQueue, false);
 
-                        updateProgress(inputWrapper.getId(), input);
-                    } else {
-                        done = true;
-                    }
+                    batchSize = nextBatchSize(batchSize, nMapped, System.nanoTime() - startTime, maxBatchSize);
                 }
             } catch (Throwable ex) {
                 errorTracker.notifyOfError(ex);
             } finally {
-                // we finished a map job, release the job queue semaphore
+                // we finished a map job, let execute know that one fewer map job is running
                 runningMapJobs.countDown();
             }
         }
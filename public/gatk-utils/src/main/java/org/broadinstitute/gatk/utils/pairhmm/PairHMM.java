@@ -34,6 +34,7 @@ import org.broadinstitute.gatk.utils.haplotype.Haplotype;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
 
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -53,6 +54,11 @@ public abstract class PairHMM {
 
     public static final byte BASE_QUALITY_SCORE_THRESHOLD = (byte) 18; // Base quals less than this value are squashed down to min possible qual
 
+    /**
+     * Marks a read whose start position within a haplotype is not known; see {@link #computeLikelihoods(ReadLikelihoods.Matrix, List, Map, int[][])}.
+     */
+    public static final int UNKNOWN_READ_START = Integer.MIN_VALUE;
+
     public enum HMM_IMPLEMENTATION {
         /* Very slow implementation which uses very accurate log10 sum functions. Only meant to be used as a reference test implementation */
         EXACT,
@@ -65,7 +71,9 @@ public abstract class PairHMM {
         /* Debugging for vector implementation of LOGLESS_CACHING */
         DEBUG_VECTOR_LOGLESS_CACHING,
         /* Logless caching PairHMM that stores computations in 1D arrays instead of matrices, and which proceeds diagonally over the (read x haplotype) intersection matrix */
-        ARRAY_LOGLESS
+        ARRAY_LOGLESS,
+        /* Pure Java logless PairHMM that sweeps anti-diagonals with branch-free unit-stride loops the JIT can vectorize; needs no native library */
+        JAVA_VECTOR_LOGLESS
     }
 
     /* Instruction sets for computing VectorLoglessHMM */
@@ -107,6 +115,21 @@ public abstract class PairHMM {
     //debug array
     protected double[] mLikelihoodArray;
 
+    // banding and pruning settings; implementations that support neither always fill the whole matrix
+    protected int bandWidth = 0;
+    protected double pruningThreshold = 0.0;
+
+    // state of the current read/haplotype computation for the implementations that support banding and pruning:
+    // the 0-based haplotype offset where the read is expected to start, the log10 likelihood below which the
+    // computation may stop early, and whether it did so.
+    protected int readStartInHaplotype = UNKNOWN_READ_START;
+    protected double pruningLimitLog10 = Double.NEGATIVE_INFINITY;
+    protected boolean lastLikelihoodWasPruned = false;
+
+    // reads of the last computeLikelihoods call with at least one pruned likelihood
+    private final BitSet prunedReads = new BitSet();
+    private long prunedLikelihoodCount = 0;
+
     //profiling information
     protected static Boolean doProfiling = true;
     protected static long pairHMMComputeTime = 0;
@@ -139,6 +162,59 @@ public abstract class PairHMM {
         initialized = true;
     }
 
+    /**
+     * Restricts the computation of each read/haplotype pair to a band of diagonals around the position where the read
+     * is expected to start in the haplotype.
+     *
+     * <p>
+     *     Only applies to the pairs whose read start is given to
+     *     {@link #computeLikelihoods(ReadLikelihoods.Matrix, List, Map, int[][])} and whose band fits within the matrix;
+     *     the others are computed in full. Banded likelihoods ignore the alignments outside the band, so they can be
+     *     lower than the full ones.
+     * </p>
+     *
+     * @param bandWidth number of diagonals on each side of the expected one; 0 disables banding.
+     * @throws IllegalArgumentException if {@code bandWidth} is negative.
+     */
+    public void setBandWidth(final int bandWidth) {
+        if ( bandWidth < 0 ) throw new IllegalArgumentException("the band width cannot be negative: " + bandWidth);
+        this.bandWidth = bandWidth;
+    }
+
+    /**
+     * Stops computing a read/haplotype pair once its likelihood is known to be at least {@code log10Threshold} below
+     * the best likelihood of the same read found so far.
+     *
+     * <p>
+     *     Pruned pairs get an upper bound of their likelihood instead, which is still below the best one by at least
+     *     the threshold; whether a read got any is reported by {@link #hasPrunedLikelihoods}.
+     * </p>
+     *
+     * @param log10Threshold the threshold in log10 units; 0 disables pruning.
+     * @throws IllegalArgumentException if {@code log10Threshold} is negative or not a number.
+     */
+    public void setPruningThreshold(final double log10Threshold) {
+        if ( Double.isNaN(log10Threshold) || log10Threshold < 0 ) throw new IllegalArgumentException("the pruning threshold must be 0 or positive: " + log10Threshold);
+        this.pruningThreshold = log10Threshold;
+    }
+
+    /**
+     * Checks whether some likelihood of a read in the last call to computeLikelihoods was pruned.
+     *
+     * @param readIndex index of the read in that call.
+     * @return {@code true} iff at least one of the likelihoods of the read is only an upper bound.
+     */
+    public boolean hasPrunedLikelihoods(final int readIndex) {
+        return prunedReads.get(readIndex);
+    }
+
+    /**
+     * Returns the number of read/haplotype pairs pruned by this PairHMM so far.
+     */
+    public long getPrunedLikelihoodCount() {
+        return prunedLikelihoodCount;
+    }
+
     /**
      * Called at the end of PairHMM for a region - mostly used by the JNI implementations
      */
@@ -211,6 +287,21 @@ public abstract class PairHMM {
     public void computeLikelihoods(final ReadLikelihoods.Matrix<Haplotype> likelihoods,
                                    final List<GATKSAMRecord> processedReads,
                                    final Map<GATKSAMRecord,byte[]> gcp) {
+        computeLikelihoods(likelihoods, processedReads, gcp, null);
+    }
+
+    /**
+     * Same as {@link #computeLikelihoods(ReadLikelihoods.Matrix, List, Map)} but with the positions used to seed the
+     * band of each read/haplotype pair (see {@link #setBandWidth}).
+     *
+     * @param readStartsInHaplotypes position [a][r] holds the 0-based offset in {@code alleles[a]} where {@code reads[r]}
+     *                               is expected to start, or {@link #UNKNOWN_READ_START}. {@code null} if none is known.
+     */
+    public void computeLikelihoods(final ReadLikelihoods.Matrix<Haplotype> likelihoods,
+                                   final List<GATKSAMRecord> processedReads,
+                                   final Map<GATKSAMRecord,byte[]> gcp,
+                                   final int[][] readStartsInHaplotypes) {
+        prunedReads.clear();
         if (processedReads.isEmpty())
             return;
         if(doProfiling)
@@ -236,17 +327,28 @@ public abstract class PairHMM {
 
             // peak at the next haplotype in the list (necessary to get nextHaplotypeBases, which is required for caching in the array implementation)
             final boolean isFirstHaplotype = true;
+            double bestLikelihood = Double.NEGATIVE_INFINITY;
             for (int a = 0; a < alleleCount; a++) {
                 final Allele allele = alleles.get(a);
                 final byte[] alleleBases = allele.getBases();
                 final byte[] nextAlleleBases = a == alleles.size() - 1 ? null : alleles.get(a + 1).getBases();
+                readStartInHaplotype = readStartsInHaplotypes == null ? UNKNOWN_READ_START : readStartsInHaplotypes[a][readIndex];
+                pruningLimitLog10 = pruningThreshold > 0 ? bestLikelihood - pruningThreshold : Double.NEGATIVE_INFINITY;
+                lastLikelihoodWasPruned = false;
                 final double lk = computeReadLikelihoodGivenHaplotypeLog10(alleleBases,
                         readBases, readQuals, readInsQuals, readDelQuals, overallGCP, isFirstHaplotype, nextAlleleBases);
+                if (lastLikelihoodWasPruned) {
+                    prunedReads.set(readIndex);
+                    prunedLikelihoodCount++;
+                } else if (lk > bestLikelihood)
+                    bestLikelihood = lk;
                 likelihoods.set(a, readIndex, lk);
                 mLikelihoodArray[idx++] = lk;
             }
             readIndex++;
         }
+        readStartInHaplotype = UNKNOWN_READ_START;
+        pruningLimitLog10 = Double.NEGATIVE_INFINITY;
         if(doProfiling) {
             threadLocalPairHMMComputeTimeDiff = (System.nanoTime() - startTime);
             //synchronized(doProfiling)
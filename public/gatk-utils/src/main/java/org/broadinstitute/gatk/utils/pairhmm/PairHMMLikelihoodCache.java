@@ -0,0 +1,338 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.pairhmm;
+
+import org.broadinstitute.gatk.utils.LRUCache;
+
+import java.util.Arrays;
+
+/**
+ * Bounded cache of PairHMM log10 likelihoods keyed by the content of the read and the haplotype.
+ *
+ * <p>
+ *     Overlapping and adjacent active regions often score the very same reads against identical haplotypes;
+ *     this cache lets callers skip the PairHMM for those read/haplotype pairs. Entries are keyed on the
+ *     read bases, base qualities, insertion and deletion gap open penalties and gap continuation penalties,
+ *     together with the haplotype bases, so reads and haplotypes need not be the same objects to match.
+ *     The least recently used entries are evicted once the cache grows beyond its maximum size.
+ * </p>
+ *
+ * <p>
+ *     Banded PairHMM likelihoods also depend on where the read is expected to start in the haplotype, so
+ *     callers that seed the band must pass those starts, which then become part of the key.
+ * </p>
+ *
+ * <p>
+ *     Lookups and insertions are done one read at a time across all haplotypes, since that is the unit of
+ *     work of every {@link PairHMM} implementation. A read is a hit only if all its haplotype likelihoods are cached.
+ * </p>
+ *
+ * <p>
+ *     The cache does not copy the arrays it is given; callers must not modify them after they have been used to
+ *     create a {@link ReadContent} or {@link HaplotypeContent}.
+ * </p>
+ *
+ * <p>This class is thread-safe.</p>
+ */
+public final class PairHMMLikelihoodCache {
+
+    private final LRUCache<Key, Double> cache;
+
+    private final int maximumSize;
+
+    private long readHits = 0;
+
+    private long readMisses = 0;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maximumSize maximum number of read/haplotype likelihoods to keep.
+     * @throws IllegalArgumentException if {@code maximumSize} is not positive.
+     */
+    public PairHMMLikelihoodCache(final int maximumSize) {
+        if (maximumSize <= 0)
+            throw new IllegalArgumentException("the maximum cache size must be positive: " + maximumSize);
+        this.maximumSize = maximumSize;
+        cache = new LRUCache<>(maximumSize);
+    }
+
+    /**
+     * Retrieves the likelihoods of a read given a list of haplotypes.
+     *
+     * <p>The destination array is only fully updated if the method returns {@code true}.</p>
+     *
+     * @param read the read content.
+     * @param haplotypes the haplotype contents.
+     * @param dest where to store the likelihood of the read given {@code haplotypes[h]} at position {@code h}.
+     *
+     * @throws IllegalArgumentException if any argument is {@code null} or {@code dest} is shorter than {@code haplotypes}.
+     * @return {@code true} iff the likelihoods of all the haplotypes were found in the cache.
+     */
+    public boolean get(final ReadContent read, final HaplotypeContent[] haplotypes, final double[] dest) {
+        return get(read, haplotypes, null, dest);
+    }
+
+    /**
+     * Retrieves the banded likelihoods of a read given a list of haplotypes.
+     *
+     * <p>The destination array is only fully updated if the method returns {@code true}.</p>
+     *
+     * @param read the read content.
+     * @param haplotypes the haplotype contents.
+     * @param readStarts where the read is expected to start in {@code haplotypes[h]} at position {@code h}, or
+     *                   {@code null} if the likelihoods do not depend on it.
+     * @param dest where to store the likelihood of the read given {@code haplotypes[h]} at position {@code h}.
+     *
+     * @throws IllegalArgumentException if any argument but {@code readStarts} is {@code null}, or {@code dest} or
+     *          a non-{@code null} {@code readStarts} is shorter than {@code haplotypes}.
+     * @return {@code true} iff the likelihoods of all the haplotypes were found in the cache.
+     */
+    public synchronized boolean get(final ReadContent read, final HaplotypeContent[] haplotypes, final int[] readStarts, final double[] dest) {
+        checkArguments(read, haplotypes, readStarts, dest);
+        for (int h = 0; h < haplotypes.length; h++) {
+            final Double value = cache.get(new Key(read, haplotypes[h], readStarts == null ? PairHMM.UNKNOWN_READ_START : readStarts[h]));
+            if (value == null) {
+                readMisses++;
+                return false;
+            }
+            dest[h] = value;
+        }
+        readHits++;
+        return true;
+    }
+
+    /**
+     * Stores the likelihoods of a read given a list of haplotypes.
+     *
+     * @param read the read content.
+     * @param haplotypes the haplotype contents.
+     * @param values the likelihood of the read given {@code haplotypes[h]} at position {@code h}.
+     *
+     * @throws IllegalArgumentException if any argument is {@code null} or {@code values} is shorter than {@code haplotypes}.
+     */
+    public void put(final ReadContent read, final HaplotypeContent[] haplotypes, final double[] values) {
+        put(read, haplotypes, null, values);
+    }
+
+    /**
+     * Stores the banded likelihoods of a read given a list of haplotypes.
+     *
+     * @param read the read content.
+     * @param haplotypes the haplotype contents.
+     * @param readStarts where the read is expected to start in {@code haplotypes[h]} at position {@code h}, or
+     *                   {@code null} if the likelihoods do not depend on it.
+     * @param values the likelihood of the read given {@code haplotypes[h]} at position {@code h}.
+     *
+     * @throws IllegalArgumentException if any argument but {@code readStarts} is {@code null}, or {@code values} or
+     *          a non-{@code null} {@code readStarts} is shorter than {@code haplotypes}.
+     */
+    public synchronized void put(final ReadContent read, final HaplotypeContent[] haplotypes, final int[] readStarts, final double[] values) {
+        checkArguments(read, haplotypes, readStarts, values);
+        for (int h = 0; h < haplotypes.length; h++)
+            cache.put(new Key(read, haplotypes[h], readStarts == null ? PairHMM.UNKNOWN_READ_START : readStarts[h]), values[h]);
+    }
+
+    private static void checkArguments(final ReadContent read, final HaplotypeContent[] haplotypes, final int[] readStarts, final double[] values) {
+        if (read == null) throw new IllegalArgumentException("the read cannot be null");
+        if (haplotypes == null) throw new IllegalArgumentException("the haplotypes cannot be null");
+        if (values == null) throw new IllegalArgumentException("the value array cannot be null");
+        if (values.length < haplotypes.length)
+            throw new IllegalArgumentException("the value array is shorter than the haplotype array: " + values.length + " < " + haplotypes.length);
+        if (readStarts != null && readStarts.length < haplotypes.length)
+            throw new IllegalArgumentException("the read start array is shorter than the haplotype array: " + readStarts.length + " < " + haplotypes.length);
+    }
+
+    /**
+     * Returns the number of read/haplotype likelihoods currently in the cache.
+     * @return 0 or greater, never more than {@link #getMaximumSize()}.
+     */
+    public synchronized int size() {
+        return cache.size();
+    }
+
+    /**
+     * Returns the maximum number of read/haplotype likelihoods kept in the cache.
+     * @return greater than 0.
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Number of read lookups that were fully served by the cache.
+     * @return 0 or greater.
+     */
+    public synchronized long getHitCount() {
+        return readHits;
+    }
+
+    /**
+     * Number of read lookups where at least one haplotype likelihood was missing.
+     * @return 0 or greater.
+     */
+    public synchronized long getMissCount() {
+        return readMisses;
+    }
+
+    /**
+     * Fraction of read lookups that were fully served by the cache.
+     * @return a value between 0 and 1; 0 if there has not been any lookup.
+     */
+    public synchronized double getHitRate() {
+        final long lookups = readHits + readMisses;
+        return lookups == 0 ? 0.0 : readHits / (double) lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d read lookups, %d hits (%.2f%%), %d of %d entries in use",
+                readHits + readMisses, readHits, 100.0 * getHitRate(), cache.size(), maximumSize);
+    }
+
+    /**
+     * Content of a read relevant to the PairHMM computation.
+     */
+    public static final class ReadContent {
+
+        private final byte[] bases;
+        private final byte[] quals;
+        private final byte[] insertionGOP;
+        private final byte[] deletionGOP;
+        private final byte[] overallGCP;
+        private final int hashCode;
+
+        /**
+         * Creates a read content key.
+         *
+         * @param bases the read bases.
+         * @param quals the read base qualities.
+         * @param insertionGOP the insertion gap open penalties.
+         * @param deletionGOP the deletion gap open penalties.
+         * @param overallGCP the gap continuation penalties.
+         *
+         * @throws IllegalArgumentException if any array is {@code null}.
+         */
+        public ReadContent(final byte[] bases, final byte[] quals, final byte[] insertionGOP, final byte[] deletionGOP, final byte[] overallGCP) {
+            if (bases == null) throw new IllegalArgumentException("the read bases cannot be null");
+            if (quals == null) throw new IllegalArgumentException("the read qualities cannot be null");
+            if (insertionGOP == null) throw new IllegalArgumentException("the insertion GOP cannot be null");
+            if (deletionGOP == null) throw new IllegalArgumentException("the deletion GOP cannot be null");
+            if (overallGCP == null) throw new IllegalArgumentException("the GCP cannot be null");
+            this.bases = bases;
+            this.quals = quals;
+            this.insertionGOP = insertionGOP;
+            this.deletionGOP = deletionGOP;
+            this.overallGCP = overallGCP;
+            int hash = Arrays.hashCode(bases);
+            hash = hash * 31 + Arrays.hashCode(quals);
+            hash = hash * 31 + Arrays.hashCode(insertionGOP);
+            hash = hash * 31 + Arrays.hashCode(deletionGOP);
+            hashCode = hash * 31 + Arrays.hashCode(overallGCP);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ReadContent)) return false;
+            final ReadContent other = (ReadContent) o;
+            return hashCode == other.hashCode
+                    && Arrays.equals(bases, other.bases)
+                    && Arrays.equals(quals, other.quals)
+                    && Arrays.equals(insertionGOP, other.insertionGOP)
+                    && Arrays.equals(deletionGOP, other.deletionGOP)
+                    && Arrays.equals(overallGCP, other.overallGCP);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * Content of a haplotype relevant to the PairHMM computation.
+     */
+    public static final class HaplotypeContent {
+
+        private final byte[] bases;
+        private final int hashCode;
+
+        /**
+         * Creates a haplotype content key.
+         *
+         * @param bases the haplotype bases.
+         * @throws IllegalArgumentException if {@code bases} is {@code null}.
+         */
+        public HaplotypeContent(final byte[] bases) {
+            if (bases == null) throw new IllegalArgumentException("the haplotype bases cannot be null");
+            this.bases = bases;
+            hashCode = Arrays.hashCode(bases);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof HaplotypeContent)) return false;
+            final HaplotypeContent other = (HaplotypeContent) o;
+            return hashCode == other.hashCode && Arrays.equals(bases, other.bases);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * Cache key combining a read, a haplotype and where the read is expected to start in it.
+     */
+    private static final class Key {
+
+        private final ReadContent read;
+        private final HaplotypeContent haplotype;
+        private final int readStart;
+
+        private Key(final ReadContent read, final HaplotypeContent haplotype, final int readStart) {
+            this.read = read;
+            this.haplotype = haplotype;
+            this.readStart = readStart;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            final Key other = (Key) o;
+            return readStart == other.readStart && read.equals(other.read) && haplotype.equals(other.haplotype);
+        }
+
+        @Override
+        public int hashCode() {
+            return (read.hashCode * 31 + haplotype.hashCode) * 31 + readStart;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.pileup;
+
+import htsjdk.samtools.SAMReadGroupRecord;
+import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only, array backed store of pileup elements with lazily decoded primitive columns.
+ *
+ * The store keeps the elements themselves in a growable array, and on first columnar access decodes
+ * the bases, quals, offsets, mapping qualities, strand / deletion flags and sample indices of every
+ * element into parallel primitive arrays.  Filtered pileups are expressed as index views over a single
+ * store (see UnifiedPileupElementTracker), so all views derived from one pileup share both the elements
+ * and the decoded columns instead of copying them.
+ *
+ * Elements may only be appended.  Columns are decoded incrementally, so appending after a columnar
+ * access only decodes the new rows the next time columns are requested.
+ *
+ * @param <PE> the type of pileup element stored
+ */
+final class PileupColumns<PE extends PileupElement> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * A filter over the decoded columns of a single row of a store
+     */
+    interface RowFilter {
+        public boolean allow(final PileupColumns<?> columns, final int row);
+    }
+
+    /** bit set in the flags column when the element is a deletion */
+    static final byte DELETION = 1;
+    /** bit set in the flags column when the element's read is on the negative strand */
+    static final byte NEGATIVE_STRAND = 1 << 1;
+
+    private PileupElement[] elements;
+    private int size = 0;
+
+    // decoded columns, valid for rows [0, nDecoded)
+    private int nDecoded = 0;
+    private byte[] bases;
+    private byte[] quals;
+    private byte[] flags;
+    private int[] offsets;
+    private int[] mappingQuals;
+    private int[] sampleIndices;
+    private final List<String> samples = new ArrayList<String>();
+    private final Map<String, Integer> sampleIndexMap = new HashMap<String, Integer>();
+
+    public PileupColumns() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public PileupColumns(final int initialCapacity) {
+        elements = new PileupElement[Math.max(initialCapacity, 1)];
+    }
+
+    /**
+     * Create a store holding exactly the given elements, in order
+     * @param pileup the elements to store, must not be null
+     */
+    public PileupColumns(final List<? extends PileupElement> pileup) {
+        elements = pileup.toArray(new PileupElement[Math.max(pileup.size(), 1)]);
+        size = pileup.size();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void add(final PE element) {
+        if ( size == elements.length )
+            elements = Arrays.copyOf(elements, size * 2);
+        elements[size++] = element;
+    }
+
+    @SuppressWarnings("unchecked")
+    public PE get(final int i) {
+        return (PE)elements[i];
+    }
+
+    /**
+     * Make sure the primitive columns cover every element added so far.
+     *
+     * Synchronized so that views of the same store handed to different threads see fully decoded columns
+     * @return this store, for chaining
+     */
+    public synchronized PileupColumns<PE> decode() {
+        if ( nDecoded == size )
+            return this;
+
+        if ( bases == null || bases.length < size ) {
+            final int capacity = elements.length;
+            bases = bases == null ? new byte[capacity] : Arrays.copyOf(bases, capacity);
+            quals = quals == null ? new byte[capacity] : Arrays.copyOf(quals, capacity);
+            flags = flags == null ? new byte[capacity] : Arrays.copyOf(flags, capacity);
+            offsets = offsets == null ? new int[capacity] : Arrays.copyOf(offsets, capacity);
+            mappingQuals = mappingQuals == null ? new int[capacity] : Arrays.copyOf(mappingQuals, capacity);
+            sampleIndices = sampleIndices == null ? new int[capacity] : Arrays.copyOf(sampleIndices, capacity);
+        }
+
+        for ( int i = nDecoded; i < size; i++ ) {
+            final PileupElement p = elements[i];
+            final GATKSAMRecord read = p.getRead();
+            bases[i] = p.getBase();
+            quals[i] = p.getQual();
+            offsets[i] = p.getOffset();
+            mappingQuals[i] = read.getMappingQuality();
+            flags[i] = (byte)((p.isDeletion() ? DELETION : 0) | (read.getReadNegativeStrandFlag() ? NEGATIVE_STRAND : 0));
+            sampleIndices[i] = sampleIndex(read);
+        }
+        nDecoded = size;
+        return this;
+    }
+
+    private int sampleIndex(final GATKSAMRecord read) {
+        final SAMReadGroupRecord readGroup = read.getReadGroup();
+        final String sample = readGroup != null ? readGroup.getSample() : null;
+        Integer index = sampleIndexMap.get(sample);
+        if ( index == null ) {
+            index = samples.size();
+            samples.add(sample);
+            sampleIndexMap.put(sample, index);
+        }
+        return index;
+    }
+
+    // ------------------------------------------------------------------------------------
+    // Column accessors.  Only valid after decode(), and only for rows below the decoded size
+    // ------------------------------------------------------------------------------------
+
+    public byte getBase(final int i) { return bases[i]; }
+    public byte getQual(final int i) { return quals[i]; }
+    public int getOffset(final int i) { return offsets[i]; }
+    public int getMappingQual(final int i) { return mappingQuals[i]; }
+    public boolean isDeletion(final int i) { return (flags[i] & DELETION) != 0; }
+    public boolean isNegativeStrand(final int i) { return (flags[i] & NEGATIVE_STRAND) != 0; }
+    public int getSampleIndex(final int i) { return sampleIndices[i]; }
+
+    /**
+     * @param sampleIndex an index returned by getSampleIndex
+     * @return the sample name for sampleIndex, which may be null for reads without a sample
+     */
+    public String getSample(final int sampleIndex) { return samples.get(sampleIndex); }
+
+    /**
+     * @return the number of distinct samples seen among the decoded elements
+     */
+    public int getNumberOfSamples() { return samples.size(); }
+
+    /**
+     * @param sample a sample name, may be null
+     * @return the index of sample among the decoded elements, or -1 if no element comes from sample
+     */
+    public int getSampleIndex(final String sample) {
+        final Integer index = sampleIndexMap.get(sample);
+        return index == null ? -1 : index;
+    }
+}
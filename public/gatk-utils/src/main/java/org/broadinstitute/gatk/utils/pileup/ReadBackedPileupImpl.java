@@ -42,6 +42,30 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
 
     private final static int UNINITIALIZED_CACHED_INT_VALUE = -1;
 
+    private final static PileupColumns.RowFilter NOT_DELETION = new PileupColumns.RowFilter() {
+        @Override public boolean allow(final PileupColumns<?> columns, final int row) { return ! columns.isDeletion(row); }
+    };
+
+    private final static PileupColumns.RowFilter DELETION = new PileupColumns.RowFilter() {
+        @Override public boolean allow(final PileupColumns<?> columns, final int row) { return columns.isDeletion(row); }
+    };
+
+    private final static PileupColumns.RowFilter NOT_MAPPING_QUALITY_ZERO = new PileupColumns.RowFilter() {
+        @Override public boolean allow(final PileupColumns<?> columns, final int row) { return columns.getMappingQual(row) > 0; }
+    };
+
+    private final static PileupColumns.RowFilter MAPPING_QUALITY_ZERO = new PileupColumns.RowFilter() {
+        @Override public boolean allow(final PileupColumns<?> columns, final int row) { return columns.getMappingQual(row) == 0; }
+    };
+
+    private final static PileupColumns.RowFilter POSITIVE_STRAND = new PileupColumns.RowFilter() {
+        @Override public boolean allow(final PileupColumns<?> columns, final int row) { return ! columns.isNegativeStrand(row); }
+    };
+
+    private final static PileupColumns.RowFilter NEGATIVE_STRAND = new PileupColumns.RowFilter() {
+        @Override public boolean allow(final PileupColumns<?> columns, final int row) { return columns.isNegativeStrand(row); }
+    };
+
     /**
      * Different then number of elements due to reduced reads
      */
@@ -194,14 +218,7 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
 
             } else {
                 UnifiedPileupElementTracker<PileupElement> tracker = (UnifiedPileupElementTracker<PileupElement>) pileupElementTracker;
-                UnifiedPileupElementTracker<PileupElement> filteredTracker = new UnifiedPileupElementTracker<PileupElement>();
-
-                for (PileupElement p : tracker) {
-                    if (!p.isDeletion()) {
-                        filteredTracker.add(p);
-                    }
-                }
-                return createNewPileup(loc, filteredTracker);
+                return createNewPileup(loc, tracker.select(NOT_DELETION));
             }
         } else {
             return this;
@@ -302,14 +319,7 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
 
             } else {
                 UnifiedPileupElementTracker<PileupElement> tracker = (UnifiedPileupElementTracker<PileupElement>) pileupElementTracker;
-                UnifiedPileupElementTracker<PileupElement> filteredTracker = new UnifiedPileupElementTracker<PileupElement>();
-
-                for (PileupElement p : tracker) {
-                    if (p.getRead().getMappingQuality() > 0) {
-                        filteredTracker.add(p);
-                    }
-                }
-                return createNewPileup(loc, filteredTracker);
+                return createNewPileup(loc, tracker.select(NOT_MAPPING_QUALITY_ZERO));
             }
         } else {
             return this;
@@ -329,14 +339,7 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
             return createNewPileup(loc, filteredTracker);
         } else {
             UnifiedPileupElementTracker<PileupElement> tracker = (UnifiedPileupElementTracker<PileupElement>) pileupElementTracker;
-            UnifiedPileupElementTracker<PileupElement> filteredTracker = new UnifiedPileupElementTracker<PileupElement>();
-
-            for (PileupElement p : tracker) {
-                if (!p.getRead().getReadNegativeStrandFlag()) {
-                    filteredTracker.add(p);
-                }
-            }
-            return createNewPileup(loc, filteredTracker);
+            return createNewPileup(loc, tracker.select(POSITIVE_STRAND));
         }
     }
 
@@ -358,14 +361,7 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
             return createNewPileup(loc, filteredTracker);
         } else {
             UnifiedPileupElementTracker<PileupElement> tracker = (UnifiedPileupElementTracker<PileupElement>) pileupElementTracker;
-            UnifiedPileupElementTracker<PileupElement> filteredTracker = new UnifiedPileupElementTracker<PileupElement>();
-
-            for (PileupElement p : tracker) {
-                if (p.getRead().getReadNegativeStrandFlag()) {
-                    filteredTracker.add(p);
-                }
-            }
-            return createNewPileup(loc, filteredTracker);
+            return createNewPileup(loc, tracker.select(NEGATIVE_STRAND));
         }
     }
 
@@ -388,14 +384,8 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
 
             return createNewPileup(loc, filteredTracker);
         } else {
-            UnifiedPileupElementTracker<PileupElement> filteredTracker = new UnifiedPileupElementTracker<PileupElement>();
-
-            for (PileupElement p : pileupElementTracker) {
-                if (filter.allow(p))
-                    filteredTracker.add(p);
-            }
-
-            return createNewPileup(loc, filteredTracker);
+            UnifiedPileupElementTracker<PileupElement> tracker = (UnifiedPileupElementTracker<PileupElement>) pileupElementTracker;
+            return createNewPileup(loc, tracker.select(filter));
         }
     }
 
@@ -408,7 +398,7 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
      * @return
      */
     @Override
-    public ReadBackedPileupImpl getBaseAndMappingFilteredPileup(int minBaseQ, int minMapQ) {
+    public ReadBackedPileupImpl getBaseAndMappingFilteredPileup(final int minBaseQ, final int minMapQ) {
         if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
             PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
             PerSamplePileupElementTracker<PileupElement> filteredTracker = new PerSamplePileupElementTracker<PileupElement>();
@@ -421,15 +411,13 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
 
             return createNewPileup(loc, filteredTracker);
         } else {
-            UnifiedPileupElementTracker<PileupElement> filteredTracker = new UnifiedPileupElementTracker<PileupElement>();
-
-            for (PileupElement p : pileupElementTracker) {
-                if (p.getRead().getMappingQuality() >= minMapQ && (p.isDeletion() || p.getQual() >= minBaseQ)) {
-                    filteredTracker.add(p);
+            UnifiedPileupElementTracker<PileupElement> tracker = (UnifiedPileupElementTracker<PileupElement>) pileupElementTracker;
+            return createNewPileup(loc, tracker.select(new PileupColumns.RowFilter() {
+                @Override
+                public boolean allow(final PileupColumns<?> columns, final int row) {
+                    return columns.getMappingQual(row) >= minMapQ && (columns.isDeletion(row) || columns.getQual(row) >= minBaseQ);
                 }
-            }
-
-            return createNewPileup(loc, filteredTracker);
+            }));
         }
     }
 
@@ -576,11 +564,16 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
             PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
             return new HashSet<String>(tracker.getSamples());
         } else {
+            UnifiedPileupElementTracker<PileupElement> tracker = (UnifiedPileupElementTracker<PileupElement>) pileupElementTracker;
+            PileupColumns<PileupElement> columns = tracker.columns();
+            boolean[] seen = new boolean[columns.getNumberOfSamples()];
             Collection<String> sampleNames = new HashSet<String>();
-            for (PileupElement p : this) {
-                GATKSAMRecord read = p.getRead();
-                String sampleName = read.getReadGroup() != null ? read.getReadGroup().getSample() : null;
-                sampleNames.add(sampleName);
+            for (int i = 0; i < tracker.size(); i++) {
+                int sampleIndex = columns.getSampleIndex(tracker.row(i));
+                if (!seen[sampleIndex]) {
+                    seen[sampleIndex] = true;
+                    sampleNames.add(columns.getSample(sampleIndex));
+                }
             }
             return sampleNames;
         }
@@ -628,16 +621,13 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
             return createNewPileup(loc, filteredTracker);
         } else {
             UnifiedPileupElementTracker<PileupElement> tracker = (UnifiedPileupElementTracker<PileupElement>) pileupElementTracker;
-            UnifiedPileupElementTracker<PileupElement> filteredTracker = new UnifiedPileupElementTracker<PileupElement>();
-
-            Iterator positionIter = positions.iterator();
 
-            while (positionIter.hasNext()) {
-                int nextReadToKeep = (Integer) positionIter.next();
-                filteredTracker.add(tracker.get(nextReadToKeep));
-            }
+            int[] readsToKeep = new int[positions.size()];
+            int nReadsToKeep = 0;
+            for (int nextReadToKeep : positions)
+                readsToKeep[nReadsToKeep++] = nextReadToKeep;
 
-            return createNewPileup(getLocation(), filteredTracker);
+            return createNewPileup(getLocation(), tracker.select(readsToKeep, nReadsToKeep));
         }
     }
 
@@ -648,18 +638,27 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
             PileupElementTracker<PileupElement> filteredElements = tracker.getElements(sampleNames);
             return filteredElements != null ? createNewPileup(loc, filteredElements) : null;
         } else {
-            HashSet<String> hashSampleNames = new HashSet<String>(sampleNames);                                         // to speed up the "contains" access in the for loop
-            UnifiedPileupElementTracker<PileupElement> filteredTracker = new UnifiedPileupElementTracker<PileupElement>();
-            for (PileupElement p : pileupElementTracker) {
-                GATKSAMRecord read = p.getRead();
-                if (sampleNames != null) {                                                                              // still checking on sampleNames because hashSampleNames will never be null. And empty means something else.
-                    if (read.getReadGroup() != null && hashSampleNames.contains(read.getReadGroup().getSample()))
-                        filteredTracker.add(p);
-                } else {
-                    if (read.getReadGroup() == null || read.getReadGroup().getSample() == null)
-                        filteredTracker.add(p);
+            UnifiedPileupElementTracker<PileupElement> tracker = (UnifiedPileupElementTracker<PileupElement>) pileupElementTracker;
+            PileupColumns<PileupElement> columns = tracker.columns();
+            final int noSampleIndex = columns.getSampleIndex((String) null);
+            final boolean[] keepSample = new boolean[columns.getNumberOfSamples()];                                     // resolve the names once, then filter on the sample index column
+            if (sampleNames != null) {
+                for (String sample : sampleNames) {
+                    int sampleIndex = columns.getSampleIndex(sample);
+                    if (sampleIndex != -1)
+                        keepSample[sampleIndex] = true;
                 }
+            } else if (noSampleIndex != -1) {
+                keepSample[noSampleIndex] = true;
             }
+            final boolean requireReadGroup = sampleNames != null;                                                       // a null name in sampleNames only matches reads whose read group has no sample
+            UnifiedPileupElementTracker<PileupElement> filteredTracker = tracker.select(new PileupColumns.RowFilter() {
+                @Override
+                public boolean allow(final PileupColumns<?> columns, final int row) {
+                    final int sampleIndex = columns.getSampleIndex(row);
+                    return keepSample[sampleIndex] && (!requireReadGroup || sampleIndex != noSampleIndex || columns.get(row).getRead().getReadGroup() != null);
+                }
+            });
             return filteredTracker.size() > 0 ? createNewPileup(loc, filteredTracker) : null;
         }
     }
@@ -675,23 +674,9 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
                     result.put(sample, createNewPileup(loc, filteredElements));
             }
         } else {
-            Map<String, UnifiedPileupElementTracker<PileupElement>> trackerMap = new HashMap<String, UnifiedPileupElementTracker<PileupElement>>();
-
-            for (String sample : sampleNames) {                                                                         // initialize pileups for each sample
-                UnifiedPileupElementTracker<PileupElement> filteredTracker = new UnifiedPileupElementTracker<PileupElement>();
-                trackerMap.put(sample, filteredTracker);
-            }
-            for (PileupElement p : pileupElementTracker) {                                                                         // go through all pileup elements only once and add them to the respective sample's pileup
-                GATKSAMRecord read = p.getRead();
-                if (read.getReadGroup() != null) {
-                    String sample = read.getReadGroup().getSample();
-                    UnifiedPileupElementTracker<PileupElement> tracker = trackerMap.get(sample);
-                    if (tracker != null)                                                                                // we only add the pileup the requested samples. Completely ignore the rest
-                        tracker.add(p);
-                }
-            }
-            for (Map.Entry<String, UnifiedPileupElementTracker<PileupElement>> entry : trackerMap.entrySet())                      // create the ReadBackedPileup for each sample
-                result.put(entry.getKey(), createNewPileup(loc, entry.getValue()));
+            UnifiedPileupElementTracker<PileupElement> tracker = (UnifiedPileupElementTracker<PileupElement>) pileupElementTracker;
+            for (String sample : sampleNames)                                                                           // each sample's pileup is a view over the sample index column
+                result.put(sample, createNewPileup(loc, selectSample(tracker, sample, false)));
         }
         return result;
     }
@@ -704,21 +689,60 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
             PileupElementTracker<PileupElement> filteredElements = tracker.getElements(sampleName);
             return filteredElements != null ? createNewPileup(loc, filteredElements) : null;
         } else {
-            UnifiedPileupElementTracker<PileupElement> filteredTracker = new UnifiedPileupElementTracker<PileupElement>();
-            for (PileupElement p : pileupElementTracker) {
-                GATKSAMRecord read = p.getRead();
-                if (sampleName != null) {
-                    if (read.getReadGroup() != null && sampleName.equals(read.getReadGroup().getSample()))
-                        filteredTracker.add(p);
-                } else {
-                    if (read.getReadGroup() == null || read.getReadGroup().getSample() == null)
-                        filteredTracker.add(p);
-                }
-            }
+            UnifiedPileupElementTracker<PileupElement> filteredTracker = selectSample((UnifiedPileupElementTracker<PileupElement>) pileupElementTracker, sampleName, true);
             return filteredTracker.size() > 0 ? createNewPileup(loc, filteredTracker) : null;
         }
     }
 
+    /**
+     * Select the elements of tracker coming from sample, using the sample index column
+     *
+     * @param tracker the tracker to select from
+     * @param sample the sample to select, or null to select reads whose read group has no sample
+     * @param includeReadsWithoutReadGroup when sample is null, should reads without any read group be selected too?
+     * @return a view over the elements of tracker from sample, possibly empty
+     */
+    private static UnifiedPileupElementTracker<PileupElement> selectSample(final UnifiedPileupElementTracker<PileupElement> tracker, final String sample,
+                                                                           final boolean includeReadsWithoutReadGroup) {
+        final int sampleIndex = tracker.columns().getSampleIndex(sample);
+        if (sampleIndex == -1)
+            return new UnifiedPileupElementTracker<PileupElement>();
+
+        final boolean requireReadGroup = sample == null && ! includeReadsWithoutReadGroup;
+        return tracker.select(new PileupColumns.RowFilter() {
+            @Override
+            public boolean allow(final PileupColumns<?> columns, final int row) {
+                return columns.getSampleIndex(row) == sampleIndex && (!requireReadGroup || columns.get(row).getRead().getReadGroup() != null);
+            }
+        });
+    }
+
+    /**
+     * Count the elements of tracker passing filter, using the decoded columns of each underlying store
+     *
+     * @param tracker the tracker whose elements should be counted
+     * @param filter the filter to apply to each element
+     * @return the number of elements of tracker passing filter
+     */
+    private static int countRows(final PileupElementTracker<PileupElement> tracker, final PileupColumns.RowFilter filter) {
+        if (tracker instanceof PerSamplePileupElementTracker) {
+            final PerSamplePileupElementTracker<PileupElement> perSampleTracker = (PerSamplePileupElementTracker<PileupElement>) tracker;
+            int count = 0;
+            for (final String sample : perSampleTracker.getSamples())
+                count += countRows(perSampleTracker.getElements(sample), filter);
+            return count;
+        } else {
+            final UnifiedPileupElementTracker<PileupElement> unifiedTracker = (UnifiedPileupElementTracker<PileupElement>) tracker;
+            final PileupColumns<PileupElement> columns = unifiedTracker.columns();
+            int count = 0;
+            for (int i = 0; i < unifiedTracker.size(); i++) {
+                if (filter.allow(columns, unifiedTracker.row(i)))
+                    count++;
+            }
+            return count;
+        }
+    }
+
     // --------------------------------------------------------
     //
     // iterators
@@ -772,12 +796,7 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
     @Override
     public int getNumberOfDeletions() {
         if ( nDeletions == UNINITIALIZED_CACHED_INT_VALUE ) {
-            nDeletions = 0;
-            for (PileupElement p : pileupElementTracker.unorderedIterable() ) {
-                if (p.isDeletion()) {
-                    nDeletions++;
-                }
-            }
+            nDeletions = countRows(pileupElementTracker, DELETION);
         }
         return nDeletions;
     }
@@ -785,13 +804,7 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
     @Override
     public int getNumberOfMappingQualityZeroReads() {
         if ( nMQ0Reads == UNINITIALIZED_CACHED_INT_VALUE ) {
-            nMQ0Reads = 0;
-
-            for (PileupElement p : pileupElementTracker.unorderedIterable()) {
-                if (p.getRead().getMappingQuality() == 0) {
-                    nMQ0Reads++;
-                }
-            }
+            nMQ0Reads = countRows(pileupElementTracker, MAPPING_QUALITY_ZERO);
         }
 
         return nMQ0Reads;
@@ -843,7 +856,6 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
     public int[] getBaseCounts() {
         int[] counts = new int[4];
 
-        // TODO -- can be optimized with .unorderedIterable()
         if (pileupElementTracker instanceof PerSamplePileupElementTracker) {
             PerSamplePileupElementTracker<PileupElement> tracker = (PerSamplePileupElementTracker<PileupElement>) pileupElementTracker;
             for (final String sample : tracker.getSamples()) {
@@ -852,10 +864,13 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
                     counts[i] += countsBySample[i];
             }
         } else {
-            for (PileupElement pile : this) {
+            UnifiedPileupElementTracker<PileupElement> tracker = (UnifiedPileupElementTracker<PileupElement>) pileupElementTracker;
+            PileupColumns<PileupElement> columns = tracker.columns();
+            for (int i = 0; i < tracker.size(); i++) {
+                final int row = tracker.row(i);
                 // skip deletion sites
-                if (!pile.isDeletion()) {
-                    int index = BaseUtils.simpleBaseToBaseIndex((char) pile.getBase());
+                if (!columns.isDeletion(row)) {
+                    int index = BaseUtils.simpleBaseToBaseIndex((char) columns.getBase(row));
                     if (index != -1)
                         counts[index]++;
                 }
@@ -924,8 +939,15 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
     @Override
     public List<Integer> getOffsets() {
         List<Integer> offsets = new ArrayList<Integer>(getNumberOfElements());
-        for (PileupElement pile : pileupElementTracker.unorderedIterable()) {
-            offsets.add(pile.getOffset());
+        if (pileupElementTracker instanceof UnifiedPileupElementTracker) {
+            UnifiedPileupElementTracker<PileupElement> tracker = (UnifiedPileupElementTracker<PileupElement>) pileupElementTracker;
+            PileupColumns<PileupElement> columns = tracker.columns();
+            for (int i = 0; i < tracker.size(); i++)
+                offsets.add(columns.getOffset(tracker.row(i)));
+        } else {
+            for (PileupElement pile : pileupElementTracker.unorderedIterable()) {
+                offsets.add(pile.getOffset());
+            }
         }
         return offsets;
     }
@@ -938,9 +960,16 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
     @Override
     public byte[] getBases() {
         byte[] v = new byte[getNumberOfElements()];
-        int pos = 0;
-        for (PileupElement pile : pileupElementTracker) {
-            v[pos++] = pile.getBase();
+        if (pileupElementTracker instanceof UnifiedPileupElementTracker) {
+            UnifiedPileupElementTracker<PileupElement> tracker = (UnifiedPileupElementTracker<PileupElement>) pileupElementTracker;
+            PileupColumns<PileupElement> columns = tracker.columns();
+            for (int i = 0; i < v.length; i++)
+                v[i] = columns.getBase(tracker.row(i));
+        } else {
+            int pos = 0;
+            for (PileupElement pile : pileupElementTracker) {
+                v[pos++] = pile.getBase();
+            }
         }
         return v;
     }
@@ -953,9 +982,16 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
     @Override
     public byte[] getQuals() {
         byte[] v = new byte[getNumberOfElements()];
-        int pos = 0;
-        for (PileupElement pile : pileupElementTracker) {
-            v[pos++] = pile.getQual();
+        if (pileupElementTracker instanceof UnifiedPileupElementTracker) {
+            UnifiedPileupElementTracker<PileupElement> tracker = (UnifiedPileupElementTracker<PileupElement>) pileupElementTracker;
+            PileupColumns<PileupElement> columns = tracker.columns();
+            for (int i = 0; i < v.length; i++)
+                v[i] = columns.getQual(tracker.row(i));
+        } else {
+            int pos = 0;
+            for (PileupElement pile : pileupElementTracker) {
+                v[pos++] = pile.getQual();
+            }
         }
         return v;
     }
@@ -968,9 +1004,16 @@ public class ReadBackedPileupImpl implements ReadBackedPileup {
     @Override
     public int[] getMappingQuals() {
         final int[] v = new int[getNumberOfElements()];
-        int pos = 0;
-        for ( final PileupElement pile : pileupElementTracker ) {
-            v[pos++] = pile.getRead().getMappingQuality();
+        if ( pileupElementTracker instanceof UnifiedPileupElementTracker ) {
+            final UnifiedPileupElementTracker<PileupElement> tracker = (UnifiedPileupElementTracker<PileupElement>) pileupElementTracker;
+            final PileupColumns<PileupElement> columns = tracker.columns();
+            for ( int i = 0; i < v.length; i++ )
+                v[i] = columns.getMappingQual(tracker.row(i));
+        } else {
+            int pos = 0;
+            for ( final PileupElement pile : pileupElementTracker ) {
+                v[pos++] = pile.getRead().getMappingQuality();
+            }
         }
         return v;
     }
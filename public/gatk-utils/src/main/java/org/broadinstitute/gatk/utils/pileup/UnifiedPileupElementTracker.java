@@ -0,0 +1,156 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.pileup;
+
+import java.util.*;
+
+/**
+ * Tracker over a flat list of pileup elements.
+ *
+ * The elements live in a PileupColumns store.  A tracker either owns its store outright (and can be appended to)
+ * or is an immutable index view over a store shared with the tracker it was selected from, so that filtering a
+ * pileup costs one int per retained element rather than a copy of the element list.
+ */
+class UnifiedPileupElementTracker<PE extends PileupElement> extends PileupElementTracker<PE> {
+    private final PileupColumns<PE> store;
+
+    /** rows of store in this tracker, in order, or null if this tracker owns every row of store */
+    private final int[] view;
+
+    public UnifiedPileupElementTracker() { this(new PileupColumns<PE>(), null); }
+    public UnifiedPileupElementTracker(List<PE> pileup) { this(new PileupColumns<PE>(pileup), null); }
+
+    private UnifiedPileupElementTracker(final PileupColumns<PE> store, final int[] view) {
+        this.store = store;
+        this.view = view;
+    }
+
+    @Override
+    public UnifiedPileupElementTracker<PE> copy() {
+        final UnifiedPileupElementTracker<PE> result = new UnifiedPileupElementTracker<PE>(new PileupColumns<PE>(size()), null);
+        for(PE element : this)
+            result.add(element);
+        return result;
+    }
+
+    public void add(PE element) {
+        if ( view != null ) throw new IllegalStateException("Cannot add elements to a filtered view of a pileup");
+        store.add(element);
+    }
+
+    public PE get(int index) {
+        return store.get(row(index));
+    }
+
+    public int size() {
+        return view == null ? store.size() : view.length;
+    }
+
+    /**
+     * @param index the index of an element in this tracker
+     * @return the row of the element in the underlying store
+     */
+    public int row(final int index) {
+        return view == null ? index : view[index];
+    }
+
+    /**
+     * @return the store of this tracker with its columns decoded, to be accessed through row(i)
+     */
+    public PileupColumns<PE> columns() {
+        return store.decode();
+    }
+
+    /**
+     * Select the elements of this tracker whose decoded columns pass filter
+     * @param filter the filter to apply to each row
+     * @return a view over the passing elements, sharing this tracker's store
+     */
+    public UnifiedPileupElementTracker<PE> select(final PileupColumns.RowFilter filter) {
+        final PileupColumns<PE> columns = columns();
+        final int n = size();
+        final int[] selected = new int[n];
+        int nSelected = 0;
+        for ( int i = 0; i < n; i++ ) {
+            final int row = row(i);
+            if ( filter.allow(columns, row) )
+                selected[nSelected++] = row;
+        }
+        return view(selected, nSelected);
+    }
+
+    /**
+     * Select the elements of this tracker that pass filter
+     * @param filter the filter to apply to each element
+     * @return a view over the passing elements, sharing this tracker's store
+     */
+    public UnifiedPileupElementTracker<PE> select(final PileupElementFilter filter) {
+        final int n = size();
+        final int[] selected = new int[n];
+        int nSelected = 0;
+        for ( int i = 0; i < n; i++ ) {
+            final int row = row(i);
+            if ( filter.allow(store.get(row)) )
+                selected[nSelected++] = row;
+        }
+        return view(selected, nSelected);
+    }
+
+    /**
+     * Select the elements at the given indices of this tracker
+     * @param indices increasing indices into this tracker
+     * @param n the number of indices to use
+     * @return a view over the indexed elements, sharing this tracker's store
+     */
+    public UnifiedPileupElementTracker<PE> select(final int[] indices, final int n) {
+        final int[] selected = new int[n];
+        for ( int i = 0; i < n; i++ )
+            selected[i] = row(indices[i]);
+        return view(selected, n);
+    }
+
+    private UnifiedPileupElementTracker<PE> view(final int[] rows, final int n) {
+        if ( view != null && n == view.length )
+            return this; // views are immutable, so an unfiltered view can be shared as is
+        return new UnifiedPileupElementTracker<PE>(store, n == rows.length ? rows : Arrays.copyOf(rows, n));
+    }
+
+    public Iterator<PE> iterator() {
+        return new Iterator<PE>() {
+            private final int n = size();
+            private int i = 0;
+
+            @Override public boolean hasNext() { return i < n; }
+            @Override public PE next() {
+                if ( i >= n ) throw new NoSuchElementException();
+                return store.get(row(i++));
+            }
+            @Override public void remove() { throw new UnsupportedOperationException("Cannot remove"); }
+        };
+    }
+
+    public Iterable<PE> unorderedIterable() { return this; }
+}
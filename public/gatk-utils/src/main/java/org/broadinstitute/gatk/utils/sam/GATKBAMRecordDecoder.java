@@ -0,0 +1,145 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.gatk.utils.sam;
+
+import htsjdk.samtools.*;
+import htsjdk.samtools.util.BinaryCodec;
+import htsjdk.samtools.util.RuntimeEOFException;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes BAM records, as written by htsjdk's BAMRecordCodec, straight into GATKSAMRecords
+ *
+ * BAMRecordCodec can only decode into BAMRecords, which GATKSAMRecords aren't, so reading
+ * them back through it means copying every read.  This decoder fills in an empty GATKSAMRecord
+ * instead.  The indexing bin of the records is not kept, as it is recomputed from the alignment.
+ */
+public class GATKBAMRecordDecoder {
+    /** Size of the fixed-length part of a BAM record, after its length */
+    private final static int FIXED_BLOCK_SIZE = 32;
+
+    private final SAMFileHeader header;
+    private final BinaryCodec binaryCodec;
+
+    /**
+     * Create a decoder of the BAM records in inputStream
+     *
+     * @param header the header of the reads, used to resolve their references and read groups
+     * @param inputStream the uncompressed BAM records, with no BAM header
+     */
+    public GATKBAMRecordDecoder(final SAMFileHeader header, final InputStream inputStream) {
+        if ( header == null ) throw new IllegalArgumentException("header cannot be null");
+        if ( inputStream == null ) throw new IllegalArgumentException("inputStream cannot be null");
+        this.header = header;
+        this.binaryCodec = new BinaryCodec(inputStream);
+    }
+
+    /**
+     * Read the next record
+     *
+     * @return the next read, or null if there are no more records
+     */
+    public GATKSAMRecord decode() {
+        final int recordLength;
+        try {
+            recordLength = binaryCodec.readInt();
+        } catch ( RuntimeEOFException e ) {
+            return null;
+        }
+        if ( recordLength < FIXED_BLOCK_SIZE )
+            throw new SAMFormatException("Invalid BAM record length: " + recordLength);
+
+        final int referenceIndex = binaryCodec.readInt();
+        final int alignmentStart = binaryCodec.readInt() + 1;
+        final short readNameLength = binaryCodec.readUByte();
+        final short mappingQuality = binaryCodec.readUByte();
+        binaryCodec.readUShort(); // the indexing bin
+        final int cigarLength = binaryCodec.readUShort();
+        final int flags = binaryCodec.readUShort();
+        final int readLength = binaryCodec.readInt();
+        final int mateReferenceIndex = binaryCodec.readInt();
+        final int mateAlignmentStart = binaryCodec.readInt() + 1;
+        final int insertSize = binaryCodec.readInt();
+        final byte[] variableLengthBlock = new byte[recordLength - FIXED_BLOCK_SIZE];
+        binaryCodec.readBytes(variableLengthBlock);
+
+        final GATKSAMRecord read = new GATKSAMRecord(header);
+        read.setReferenceIndex(referenceIndex);
+        read.setAlignmentStart(alignmentStart);
+        read.setMappingQuality(mappingQuality);
+        read.setFlags(flags);
+        read.setMateReferenceIndex(mateReferenceIndex);
+        read.setMateAlignmentStart(mateAlignmentStart);
+        read.setInferredInsertSize(insertSize);
+
+        // the read name is null terminated
+        int offset = 0;
+        read.setReadName(new String(variableLengthBlock, offset, readNameLength - 1));
+        offset += readNameLength;
+
+        read.setCigar(decodeCigar(variableLengthBlock, offset, cigarLength));
+        offset += 4 * cigarLength;
+
+        final int basesLength = (readLength + 1) / 2;
+        read.setReadBases(readLength == 0 ? SAMRecord.NULL_SEQUENCE : SAMUtils.compressedBasesToBytes(readLength, variableLengthBlock, offset));
+        offset += basesLength;
+
+        // missing qualities are stored as 0xFF
+        if ( readLength == 0 || variableLengthBlock[offset] == (byte) 0xFF ) {
+            read.setBaseQualities(SAMRecord.NULL_QUALS);
+        } else {
+            final byte[] quals = new byte[readLength];
+            System.arraycopy(variableLengthBlock, offset, quals, 0, readLength);
+            read.setBaseQualities(quals);
+        }
+        offset += readLength;
+
+        final SAMTagUtil tagUtil = SAMTagUtil.getSingleton();
+        for ( SAMBinaryTagAndValue tag = BinaryTagCodec.readTags(variableLengthBlock, offset, variableLengthBlock.length - offset, ValidationStringency.SILENT);
+              tag != null; tag = tag.getNext() ) {
+            if ( tag.isUnsignedArray() )
+                read.setUnsignedArrayAttribute(tagUtil.makeStringTag(tag.tag), tag.value);
+            else
+                read.setAttribute(tagUtil.makeStringTag(tag.tag), tag.value);
+        }
+
+        return read;
+    }
+
+    private static Cigar decodeCigar(final byte[] block, final int offset, final int cigarLength) {
+        final ByteBuffer buffer = ByteBuffer.wrap(block, offset, 4 * cigarLength).order(ByteOrder.LITTLE_ENDIAN);
+        final List<CigarElement> elements = new ArrayList<>(cigarLength);
+        for ( int i = 0; i < cigarLength; i++ ) {
+            final int element = buffer.getInt();
+            elements.add(new CigarElement(element >>> 4, CigarOperator.binaryToEnum(element & 0xF)));
+        }
+        return new Cigar(elements);
+    }
+}
@@ -145,7 +145,7 @@ public class ActivityProfileUnitTest extends BaseTest {
         Assert.assertEquals(profile.regionStartLoc, genomeLocParser.createGenomeLoc(cfg.regionStart.getContig(), cfg.regionStart.getStart(), cfg.regionStart.getStart() ), "Start loc should be the start of the region");
 
         Assert.assertEquals(profile.size(), cfg.probs.size(), "Should have exactly the number of states we expected to add");
-        assertProbsAreEqual(profile.stateList, cfg.probs);
+        assertProbsAreEqual(profile.getStateList(), cfg.probs);
 
         // TODO -- reanble tests
         //assertRegionsAreEqual(profile.createActiveRegions(0, 100), cfg.expectedRegions);
@@ -488,4 +488,53 @@ public class ActivityProfileUnitTest extends BaseTest {
         Assert.assertEquals(region.getLocation().getStart(), 1, "Region should start at 1");
         Assert.assertEquals(region.getLocation().size(), expectedRegionSize, "Incorrect region size; cut must have been incorrect");
     }
+
+    // -------------------------------------------------------------------------------------
+    //
+    // Tests that the probabilities survive profiles much longer than their initial capacity
+    //
+    // -------------------------------------------------------------------------------------
+
+    @DataProvider(name = "LongProfileTests")
+    public Object[][] makeLongProfileTests() {
+        final List<Object[]> tests = new LinkedList<Object[]>();
+
+        for ( final int nStates : Arrays.asList(1000, 1024, 1025, 5000) ) {
+            for ( final int popEvery : Arrays.asList(1, 37, 1000, Integer.MAX_VALUE) ) {
+                tests.add(new Object[]{nStates, popEvery});
+            }
+        }
+
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(enabled = ! DEBUG, dataProvider = "LongProfileTests")
+    public void testLongProfile(final int nStates, final int popEvery) {
+        final ActivityProfile profile = new ActivityProfile(genomeLocParser, MAX_PROB_PROPAGATION_DISTANCE, ACTIVE_PROB_THRESHOLD);
+
+        final String contig = genomeLocParser.getContigs().getSequences().get(0).getSequenceName();
+        final Random random = new Random(nStates);
+        final double[] probs = new double[nStates];
+        final List<ActiveRegion> regions = new ArrayList<ActiveRegion>();
+        for ( int i = 0; i < nStates; i++ ) {
+            // runs of active and inactive states, so that we get regions of many different sizes
+            probs[i] = (i / 73) % 2 == 0 ? random.nextDouble() * ACTIVE_PROB_THRESHOLD : 0.5 + random.nextDouble() * 0.5;
+            profile.add(new ActivityProfileState(genomeLocParser.createGenomeLoc(contig, i + 1), probs[i]));
+            if ( i % popEvery == 0 )
+                regions.addAll(profile.popReadyActiveRegions(0, 1, 100, false));
+        }
+        regions.addAll(profile.popReadyActiveRegions(0, 1, 100, true));
+        Assert.assertTrue(profile.isEmpty(), "Forcing conversion should have emptied the profile");
+
+        int offset = 0;
+        for ( final ActiveRegion region : regions ) {
+            Assert.assertEquals(region.getLocation().getStart(), offset + 1, "Region " + region + " doesn't start immediately after previous region");
+            for ( final ActivityProfileState state : region.getSupportingStates() ) {
+                Assert.assertEquals(state.getLoc().getStart(), offset + 1);
+                Assert.assertEquals(state.isActiveProb, probs[offset], "Bad prob at " + state.getLoc());
+                offset++;
+            }
+        }
+        Assert.assertEquals(offset, nStates, "Regions should cover all of the states we added");
+    }
 }
\ No newline at end of file
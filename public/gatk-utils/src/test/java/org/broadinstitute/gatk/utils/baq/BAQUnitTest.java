@@ -38,6 +38,7 @@ import org.broadinstitute.gatk.utils.Utils;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.PrintStream;
+import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
 
@@ -193,6 +194,43 @@ public class BAQUnitTest extends BaseTest {
         }
     }
 
+    @Test(enabled = true)
+    public void testBAQReusesWorkspace() {
+        final List<BAQTest> tests = new ArrayList<BAQTest>();
+        for ( final Object[] test : createData1() )
+            if ( ((BAQTest)test[0]).refBases != null )
+                tests.add((BAQTest)test[0]);
+
+        // a read much longer than the others, with a mismatch every 10 bases.  It has 20 extra reference bases, which
+        // widen the band of the HMM, and starts with 5 inserted bases, which put the mass of the HMM off its diagonal,
+        // where the band of the other reads ends
+        final StringBuilder refBases = new StringBuilder(), readBases = new StringBuilder("TTTTT"), quals = new StringBuilder();
+        for ( int i = 0; i < 520; i++ ) {
+            final char base = "ACGT".charAt((i * 7 + i / 3) % 4);
+            refBases.append(base);
+            if ( i < 495 )
+                readBases.append(i % 10 == 5 ? (base == 'A' ? 'C' : 'A') : base);
+        }
+        for ( int i = 0; i < readBases.length(); i++ )
+            quals.append((char)(33 + 20 + i % 20));
+        final BAQTest longTest = new BAQTest(0, refBases.toString(), readBases.toString(), quals.toString(), quals.toString());
+
+        // BAQ every read with a single BAQ object, interleaving the long read, and check that we get exactly the same
+        // results as a fresh BAQ object gives us
+        final BAQ baqHMM = new BAQ(1e-3, 0.1, 7, (byte)4, false);
+        for ( int round = 0; round < 2; round++ ) {
+            for ( final BAQTest test : tests ) {
+                for ( final BAQTest t : Arrays.asList(longTest, test) ) {
+                    final BAQ.BAQCalculationResult expected = new BAQ(1e-3, 0.1, 7, (byte)4, false).calcBAQFromHMM(t.createRead(), t.refBases.getBytes(), t.refOffset);
+                    final BAQ.BAQCalculationResult result = baqHMM.calcBAQFromHMM(t.createRead(), t.refBases.getBytes(), t.refOffset);
+                    Assert.assertEquals(result.bq, expected.bq, "BAQ qualities changed when reusing the workspace for read " + t);
+                    Assert.assertEquals(result.state, expected.state, "BAQ states changed when reusing the workspace for read " + t);
+                }
+                Assert.assertEquals(baqHMM.calcBAQFromHMM(test.createRead(), test.refBases.getBytes(), test.refOffset).bq, test.expected);
+            }
+        }
+    }
+
     @Test(enabled = true)
     public void testBAQQualRange() {
         BAQ baq = new BAQ(1e-3, 0.1, 7, (byte)4, false);         // matches current samtools parameters
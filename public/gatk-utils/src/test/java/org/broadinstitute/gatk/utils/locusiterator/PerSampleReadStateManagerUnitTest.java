@@ -27,6 +27,8 @@ package org.broadinstitute.gatk.utils.locusiterator;
 
 import htsjdk.samtools.SAMRecord;
 import org.broadinstitute.gatk.utils.MathUtils;
+import org.broadinstitute.gatk.utils.Utils;
+import org.broadinstitute.gatk.utils.downsampling.LevelingDownsampler;
 import org.broadinstitute.gatk.utils.sam.ArtificialSAMUtils;
 import org.broadinstitute.gatk.utils.sam.GATKSAMRecord;
 import org.testng.Assert;
@@ -185,4 +187,88 @@ public class PerSampleReadStateManagerUnitTest extends LocusIteratorByStateBaseT
 
         test.run();
     }
+
+    @DataProvider(name = "LevelingTest")
+    public Object[][] createLevelingTests() {
+        final List<Object[]> tests = new ArrayList<Object[]>();
+        for ( final int target : Arrays.asList(1, 5, 20, 100) )
+            for ( final int stackSize : Arrays.asList(1, 3, 10, 50) )
+                tests.add(new Object[]{ target, stackSize });
+        return tests.toArray(new Object[][]{});
+    }
+
+    /**
+     * The array-backed leveling in PerSampleReadStateManager must keep exactly the reads that a
+     * LevelingDownsampler would keep given the read states grouped by genome offset
+     */
+    @Test(dataProvider = "LevelingTest")
+    public void testLevelingMatchesLevelingDownsampler(final int target, final int stackSize) {
+        final int nStacks = 40;
+        final List<List<GATKSAMRecord>> stacks = new ArrayList<List<GATKSAMRecord>>();
+        for ( int start = 1; start <= nStacks; start++ )
+            stacks.add(new ArrayList<GATKSAMRecord>(ArtificialSAMUtils.createStackOfIdenticalArtificialReads(stackSize + start % 3, header, "foo", 0, start, 25)));
+
+        final PerSampleReadStateManager manager = new PerSampleReadStateManager(new LIBSDownsamplingInfo(true, target));
+        Utils.resetRandomGenerator();
+        final List<List<GATKSAMRecord>> observed = new ArrayList<List<GATKSAMRecord>>();
+        for ( final List<GATKSAMRecord> stack : stacks ) {
+            manager.addStatesAtNextAlignmentStart(makeSteppedStates(stack));
+            observed.add(readsOf(manager));
+            manager.updateReadStates();
+        }
+
+        final LevelingDownsampler<LinkedList<AlignmentStateMachine>, AlignmentStateMachine> downsampler =
+                new LevelingDownsampler<LinkedList<AlignmentStateMachine>, AlignmentStateMachine>(target);
+        Utils.resetRandomGenerator();
+        LinkedList<AlignmentStateMachine> expectedStates = new LinkedList<AlignmentStateMachine>();
+        for ( int i = 0; i < nStacks; i++ ) {
+            expectedStates.addAll(makeSteppedStates(stacks.get(i)));
+            if ( expectedStates.size() > target ) {
+                downsampler.submit(groupByGenomeOffset(expectedStates));
+                downsampler.signalEndOfInput();
+                expectedStates = new LinkedList<AlignmentStateMachine>();
+                for ( final LinkedList<AlignmentStateMachine> group : downsampler.consumeFinalizedItems() )
+                    expectedStates.addAll(group);
+            }
+
+            final List<GATKSAMRecord> expected = new ArrayList<GATKSAMRecord>();
+            for ( final AlignmentStateMachine state : expectedStates )
+                expected.add(state.getRead());
+            Assert.assertEquals(observed.get(i), expected, "Leveled read states differ after stack " + i);
+
+            final Iterator<AlignmentStateMachine> it = expectedStates.iterator();
+            while ( it.hasNext() )
+                if ( it.next().stepForwardOnGenome() == null )
+                    it.remove();
+        }
+    }
+
+    private List<AlignmentStateMachine> makeSteppedStates(final List<GATKSAMRecord> reads) {
+        final List<AlignmentStateMachine> states = new ArrayList<AlignmentStateMachine>(reads.size());
+        for ( final GATKSAMRecord read : reads ) {
+            final AlignmentStateMachine state = new AlignmentStateMachine(read);
+            state.stepForwardOnGenome();
+            states.add(state);
+        }
+        return states;
+    }
+
+    private List<GATKSAMRecord> readsOf(final PerSampleReadStateManager manager) {
+        final List<GATKSAMRecord> reads = new ArrayList<GATKSAMRecord>(manager.size());
+        for ( final AlignmentStateMachine state : manager )
+            reads.add(state.getRead());
+        return reads;
+    }
+
+    private List<LinkedList<AlignmentStateMachine>> groupByGenomeOffset(final List<AlignmentStateMachine> states) {
+        final List<LinkedList<AlignmentStateMachine>> grouped = new ArrayList<LinkedList<AlignmentStateMachine>>();
+        AlignmentStateMachine last = null;
+        for ( final AlignmentStateMachine state : states ) {
+            if ( last == null || state.getGenomeOffset() != last.getGenomeOffset() )
+                grouped.add(new LinkedList<AlignmentStateMachine>());
+            grouped.get(grouped.size() - 1).add(state);
+            last = state;
+        }
+        return grouped;
+    }
 }
@@ -91,4 +91,39 @@ public class InputProducerUnitTest extends BaseTest {
         Assert.assertTrue(ip.allInputsHaveBeenRead(), "InputProvider said that all inputs haven't been read, but I read them all");
         Assert.assertEquals(ip.getNumInputValues(), nElements, "Wrong number of total elements getNumInputValues");
     }
+
+    @Test(enabled = true, dataProvider = "InputProducerTest", timeOut = NanoSchedulerUnitTest.NANO_SCHEDULE_MAX_RUNTIME)
+    public void testInputProducerBatches(final int nElements, final int batchSize) throws InterruptedException {
+        final List<Integer> elements = new ArrayList<Integer>(nElements);
+        for ( int i = 0; i < nElements; i++ ) elements.add(i);
+
+        final InputProducer<Integer> ip = new InputProducer<Integer>(elements.iterator());
+        final List<InputProducer<Integer>.InputValue> batch = new ArrayList<InputProducer<Integer>.InputValue>();
+
+        int nRead = 0;
+        boolean sawEOF = false;
+        while ( ! sawEOF ) {
+            batch.clear();
+            final int nAdded = ip.next(batch, batchSize);
+            Assert.assertEquals(nAdded, batch.size(), "Returned count doesn't match the number of values added");
+            Assert.assertTrue(nAdded >= 1 && nAdded <= batchSize, "Batch of " + nAdded + " values not between 1 and " + batchSize);
+
+            for ( int i = 0; i < batch.size(); i++ ) {
+                final InputProducer<Integer>.InputValue value = batch.get(i);
+                Assert.assertEquals(value.getId(), nRead, "Values in batch don't have consecutive IDs");
+                if ( value.isEOFMarker() ) {
+                    Assert.assertEquals(i, batch.size() - 1, "EOF marker should end the batch");
+                    sawEOF = true;
+                } else {
+                    Assert.assertEquals((int)value.getValue(), nRead, "Read values coming out of order!");
+                    nRead++;
+                }
+            }
+            if ( ! sawEOF )
+                Assert.assertEquals(nAdded, batchSize, "Batch cut short before the end of the input");
+        }
+
+        Assert.assertEquals(nRead, nElements, "Number of input values " + nRead + " not all that are expected " + nElements);
+        Assert.assertTrue(ip.allInputsHaveBeenRead(), "InputProvider said that all inputs haven't been read, but I read them all");
+    }
 }
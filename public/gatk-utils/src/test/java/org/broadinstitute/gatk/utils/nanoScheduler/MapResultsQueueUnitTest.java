@@ -0,0 +1,144 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.nanoScheduler;
+
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UnitTests for the MapResultsQueue
+ */
+public class MapResultsQueueUnitTest extends BaseTest {
+    @Test
+    public void testInOrder() throws InterruptedException {
+        final MapResultsQueue<Integer> queue = new MapResultsQueue<Integer>();
+        Assert.assertFalse(queue.nextValueIsAvailable(), "Empty queue has a value available");
+
+        final int nJobs = 3 * MapResultsQueue.SEGMENT_SIZE + 1;
+        for ( int i = 0; i < nJobs; i++ ) {
+            queue.put(new MapResult<Integer>(i, i));
+            Assert.assertTrue(queue.nextValueIsAvailable(), "Value " + i + " put but not available");
+            Assert.assertEquals(queue.take().getJobID(), i);
+            Assert.assertFalse(queue.nextValueIsAvailable(), "Value available before it was put");
+        }
+    }
+
+    @Test
+    public void testOutOfOrder() throws InterruptedException {
+        final int nJobs = 5 * MapResultsQueue.SEGMENT_SIZE;
+        final List<Integer> jobIDs = new ArrayList<Integer>(nJobs);
+        for ( int i = 0; i < nJobs; i++ ) jobIDs.add(i);
+        Collections.shuffle(jobIDs, new Random(42));
+
+        final MapResultsQueue<Integer> queue = new MapResultsQueue<Integer>();
+        int nextToTake = 0;
+        for ( final int jobID : jobIDs ) {
+            queue.put(new MapResult<Integer>(jobID, jobID));
+            while ( queue.nextValueIsAvailable() )
+                Assert.assertEquals(queue.take().getJobID(), nextToTake++, "Values taken out of order");
+        }
+        Assert.assertEquals(nextToTake, nJobs, "Not all values were taken");
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testDuplicateJobID() {
+        final MapResultsQueue<Integer> queue = new MapResultsQueue<Integer>();
+        queue.put(new MapResult<Integer>(1, 1));
+        queue.put(new MapResult<Integer>(2, 1));
+    }
+
+    @DataProvider(name = "ConcurrentPutTest")
+    public Object[][] createConcurrentPutTest() {
+        return new Object[][]{ {2, 1}, {4, 10}, {8, 100} };
+    }
+
+    @Test(dataProvider = "ConcurrentPutTest", timeOut = NanoSchedulerUnitTest.NANO_SCHEDULE_MAX_RUNTIME)
+    public void testConcurrentPut(final int nThreads, final int batchSize) throws Exception {
+        final int nJobs = 100000;
+        final MapResultsQueue<Integer> queue = new MapResultsQueue<Integer>();
+        final InputProducer<Integer> producer = new InputProducer<Integer>(makeInput(nJobs));
+        final CountDownLatch start = new CountDownLatch(1);
+
+        final ExecutorService es = Executors.newFixedThreadPool(nThreads);
+        for ( int t = 0; t < nThreads; t++ ) {
+            es.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        final List<InputProducer<Integer>.InputValue> batch = new ArrayList<InputProducer<Integer>.InputValue>();
+                        while ( true ) {
+                            batch.clear();
+                            producer.next(batch, batchSize);
+                            for ( final InputProducer<Integer>.InputValue value : batch ) {
+                                if ( value.isEOFMarker() ) return;
+                                queue.put(new MapResult<Integer>(value.getValue(), value.getId()));
+                            }
+                        }
+                    } catch ( InterruptedException e ) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+
+        // take concurrently with the puts, as the Reducer would
+        start.countDown();
+        int nextToTake = 0;
+        while ( nextToTake < nJobs ) {
+            if ( queue.nextValueIsAvailable() ) {
+                final MapResult<Integer> result = queue.take();
+                Assert.assertEquals(result.getJobID(), nextToTake, "Values taken out of order");
+                Assert.assertEquals((int)result.getValue(), nextToTake, "Value doesn't match its job");
+                nextToTake++;
+            } else {
+                Thread.yield();
+            }
+        }
+
+        es.shutdown();
+        Assert.assertTrue(es.awaitTermination(1, TimeUnit.MINUTES), "Producer threads didn't finish");
+        Assert.assertFalse(queue.nextValueIsAvailable(), "Extra values were put in the queue");
+    }
+
+    private static Iterator<Integer> makeInput(final int nElements) {
+        final List<Integer> elements = new ArrayList<Integer>(nElements);
+        for ( int i = 0; i < nElements; i++ ) elements.add(i);
+        return elements.iterator();
+    }
+}
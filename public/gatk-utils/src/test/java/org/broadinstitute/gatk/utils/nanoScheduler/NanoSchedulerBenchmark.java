@@ -0,0 +1,86 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.nanoScheduler;
+
+import com.google.caliper.Param;
+import com.google.caliper.SimpleBenchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Caliper microbenchmark of NanoScheduler throughput as a function of the number of threads,
+ * for map functions ranging from trivially cheap (where scheduling overhead dominates) to
+ * moderately expensive
+ */
+public class NanoSchedulerBenchmark extends SimpleBenchmark {
+    final int nElements = 1000000;
+    final List<Integer> inputs = new ArrayList<Integer>(nElements);
+
+    @Param({"1", "2", "4", "8", "16"})
+    int nThreads; // set automatically by framework
+
+    @Param({"0", "10", "100"})
+    int mapCost; // set automatically by framework; iterations of busy work per map call
+
+    @Override protected void setUp() {
+        for ( int i = 0; i < nElements; i++ )
+            inputs.add(i);
+    }
+
+    public void timeNanoScheduler(int rep) {
+        for ( int i = 0; i < rep; i++ ) {
+            final NanoScheduler<Integer, Integer, Long> nanoScheduler = new NanoScheduler<Integer, Integer, Long>(nThreads);
+            nanoScheduler.execute(inputs.iterator(), new BusyMap(mapCost), 0L, new SumReduce());
+            nanoScheduler.shutdown();
+        }
+    }
+
+    private static class BusyMap implements NSMapFunction<Integer, Integer> {
+        final int cost;
+
+        private BusyMap(final int cost) {
+            this.cost = cost;
+        }
+
+        @Override public Integer apply(final Integer input) {
+            int value = input;
+            for ( int i = 0; i < cost; i++ )
+                value = value * 31 + i;
+            return value;
+        }
+    }
+
+    private static class SumReduce implements NSReduceFunction<Integer, Long> {
+        @Override public Long apply(final Integer one, final Long sum) {
+            return sum + one;
+        }
+    }
+
+    public static void main(String[] args) {
+        com.google.caliper.Runner.main(NanoSchedulerBenchmark.class, args);
+    }
+}
@@ -249,6 +249,27 @@ public class NanoSchedulerUnitTest extends BaseTest {
         nanoScheduler.execute(exampleTest.makeReader(), exampleTest.makeMap(), exampleTest.initReduce(), exampleTest.makeReduce());
     }
 
+    @DataProvider(name = "NextBatchSizeTest")
+    public Object[][] createNextBatchSizeTest() {
+        final long target = NanoScheduler.TARGET_BATCH_NANOS;
+        return new Object[][]{
+                // previous size, n mapped, elapsed, max size, expected
+                { 1, 1, target, 100, 1 },           // exactly on target
+                { 1, 1, target / 10, 100, 2 },      // growth is limited to doubling
+                { 64, 64, target / 10, 100, 100 },  // but never beyond the max
+                { 10, 10, target * 10, 100, 1 },    // expensive maps shrink straight to what fits
+                { 10, 10, target / 2, 100, 20 },
+                { 10, 0, 0, 100, 10 },              // nothing mapped, nothing learned
+                { 10, 10, 0, 100, 20 },             // too fast to time
+                { 1, 1, target / 10, 0, 1 },        // always at least one input
+        };
+    }
+
+    @Test(enabled = true && ! DEBUG, dataProvider = "NextBatchSizeTest")
+    public void testNextBatchSize(final int previousBatchSize, final int nMapped, final long elapsedNanos, final int maxBatchSize, final int expected) {
+        Assert.assertEquals(NanoScheduler.nextBatchSize(previousBatchSize, nMapped, elapsedNanos, maxBatchSize), expected);
+    }
+
     @DataProvider(name = "NanoSchedulerInputExceptionTest")
     public Object[][] createNanoSchedulerInputExceptionTest() {
         List<Object[]> tests = new ArrayList<Object[]>();
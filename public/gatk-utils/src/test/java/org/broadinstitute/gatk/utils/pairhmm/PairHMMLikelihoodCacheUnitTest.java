@@ -0,0 +1,134 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+
+package org.broadinstitute.gatk.utils.pairhmm;
+
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+
+/**
+ * Unit tests for {@link PairHMMLikelihoodCache}.
+ */
+public class PairHMMLikelihoodCacheUnitTest extends BaseTest {
+
+    private static PairHMMLikelihoodCache.ReadContent readContent(final String bases, final int qual) {
+        final byte[] quals = new byte[bases.length()];
+        Arrays.fill(quals, (byte) qual);
+        final byte[] gop = new byte[bases.length()];
+        Arrays.fill(gop, (byte) 45);
+        final byte[] gcp = new byte[bases.length()];
+        Arrays.fill(gcp, (byte) 10);
+        return new PairHMMLikelihoodCache.ReadContent(bases.getBytes(), quals, gop, gop.clone(), gcp);
+    }
+
+    private static PairHMMLikelihoodCache.HaplotypeContent[] haplotypeContents(final String ... haplotypes) {
+        final PairHMMLikelihoodCache.HaplotypeContent[] result = new PairHMMLikelihoodCache.HaplotypeContent[haplotypes.length];
+        for (int h = 0; h < haplotypes.length; h++)
+            result[h] = new PairHMMLikelihoodCache.HaplotypeContent(haplotypes[h].getBytes());
+        return result;
+    }
+
+    @Test
+    public void testHitsMatchOnContent() {
+        final PairHMMLikelihoodCache cache = new PairHMMLikelihoodCache(10);
+        final double[] values = { -1.5, -7.25 };
+        cache.put(readContent("ACGT", 30), haplotypeContents("AACGTT", "AAGGTT"), values);
+
+        final double[] dest = new double[2];
+        Assert.assertTrue(cache.get(readContent("ACGT", 30), haplotypeContents("AACGTT", "AAGGTT"), dest));
+        Assert.assertEquals(dest, values);
+        Assert.assertTrue(cache.get(readContent("ACGT", 30), haplotypeContents("AAGGTT"), dest));
+        Assert.assertEquals(dest[0], values[1]);
+
+        Assert.assertFalse(cache.get(readContent("ACGT", 20), haplotypeContents("AACGTT"), dest));
+        Assert.assertFalse(cache.get(readContent("ACCT", 30), haplotypeContents("AACGTT"), dest));
+        Assert.assertFalse(cache.get(readContent("ACGT", 30), haplotypeContents("AACGTT", "AATGTT"), dest));
+
+        Assert.assertEquals(cache.getHitCount(), 2);
+        Assert.assertEquals(cache.getMissCount(), 3);
+        Assert.assertEquals(cache.getHitRate(), 0.4, 1e-9);
+        Assert.assertEquals(cache.size(), 2);
+    }
+
+    @Test
+    public void testReadStartsArePartOfTheKey() {
+        final PairHMMLikelihoodCache cache = new PairHMMLikelihoodCache(10);
+        final double[] values = { -1.5, -7.25 };
+        cache.put(readContent("ACGT", 30), haplotypeContents("AACGTT", "AAGGTT"), new int[]{ 1, 2 }, values);
+
+        final double[] dest = new double[2];
+        Assert.assertTrue(cache.get(readContent("ACGT", 30), haplotypeContents("AACGTT", "AAGGTT"), new int[]{ 1, 2 }, dest));
+        Assert.assertEquals(dest, values);
+        Assert.assertTrue(cache.get(readContent("ACGT", 30), haplotypeContents("AAGGTT"), new int[]{ 2 }, dest));
+        Assert.assertEquals(dest[0], values[1]);
+
+        Assert.assertFalse(cache.get(readContent("ACGT", 30), haplotypeContents("AACGTT", "AAGGTT"), new int[]{ 1, 3 }, dest));
+        Assert.assertFalse(cache.get(readContent("ACGT", 30), haplotypeContents("AACGTT"), new int[]{ 0 }, dest));
+        Assert.assertFalse(cache.get(readContent("ACGT", 30), haplotypeContents("AACGTT"), dest));
+
+        cache.put(readContent("ACGT", 30), haplotypeContents("AACGTT"), new double[]{ -3 });
+        Assert.assertTrue(cache.get(readContent("ACGT", 30), haplotypeContents("AACGTT"), dest));
+        Assert.assertEquals(dest[0], -3.0);
+        Assert.assertTrue(cache.get(readContent("ACGT", 30), haplotypeContents("AACGTT"), new int[]{ 1 }, dest));
+        Assert.assertEquals(dest[0], -1.5);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testShortReadStartArray() {
+        new PairHMMLikelihoodCache(10).put(readContent("ACGT", 30), haplotypeContents("AACGTT", "AAGGTT"), new int[1], new double[2]);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        final PairHMMLikelihoodCache cache = new PairHMMLikelihoodCache(2);
+        final double[] dest = new double[1];
+        cache.put(readContent("AAAA", 30), haplotypeContents("CAAAAC"), new double[]{ -1 });
+        cache.put(readContent("CCCC", 30), haplotypeContents("ACCCCA"), new double[]{ -2 });
+
+        // touch the first entry so that the second becomes the eldest.
+        Assert.assertTrue(cache.get(readContent("AAAA", 30), haplotypeContents("CAAAAC"), dest));
+        cache.put(readContent("GGGG", 30), haplotypeContents("AGGGGA"), new double[]{ -3 });
+
+        Assert.assertEquals(cache.size(), 2);
+        Assert.assertTrue(cache.get(readContent("AAAA", 30), haplotypeContents("CAAAAC"), dest));
+        Assert.assertEquals(dest[0], -1.0);
+        Assert.assertFalse(cache.get(readContent("CCCC", 30), haplotypeContents("ACCCCA"), dest));
+        Assert.assertTrue(cache.get(readContent("GGGG", 30), haplotypeContents("AGGGGA"), dest));
+        Assert.assertEquals(dest[0], -3.0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNonPositiveSize() {
+        new PairHMMLikelihoodCache(0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testShortValueArray() {
+        new PairHMMLikelihoodCache(10).put(readContent("ACGT", 30), haplotypeContents("AACGTT", "AAGGTT"), new double[1]);
+    }
+}
@@ -28,6 +28,7 @@ package org.broadinstitute.gatk.utils.pileup;
 import htsjdk.samtools.CigarElement;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMReadGroupRecord;
+import org.broadinstitute.gatk.utils.BaseUtils;
 import org.broadinstitute.gatk.utils.GenomeLoc;
 import org.broadinstitute.gatk.utils.GenomeLocParser;
 import org.broadinstitute.gatk.utils.Utils;
@@ -325,4 +326,182 @@ public class ReadBackedPileupUnitTest {
 
         Assert.assertEquals(pileup.getMappingQuals()[0], 200);
     }
-}
\ No newline at end of file
+
+    /**
+     * Make a single sample pileup of reads from several samples, with a mix of strands, deletions and qualities
+     *
+     * Some reads have no read group, and some come from a read group without a sample.
+     */
+    private ReadBackedPileupImpl makeMixedPileup(final int nReads) {
+        final SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(1, 1, 1000);
+        final List<SAMReadGroupRecord> readGroups = new ArrayList<SAMReadGroupRecord>();
+        for ( int i = 0; i < 3; i++ ) {
+            final SAMReadGroupRecord readGroup = new SAMReadGroupRecord("rg" + i);
+            readGroup.setSample("sample" + i);
+            header.addReadGroup(readGroup);
+            readGroups.add(readGroup);
+        }
+        final SAMReadGroupRecord noSampleReadGroup = new SAMReadGroupRecord("rgNoSample");
+        header.addReadGroup(noSampleReadGroup);
+        readGroups.add(noSampleReadGroup);
+
+        final Random random = new Random(42);
+        final List<PileupElement> elts = new ArrayList<PileupElement>();
+        for ( int i = 0; i < nReads; i++ ) {
+            final GATKSAMRecord read = ArtificialSAMUtils.createArtificialRead(header, "read" + i, 0, 1, 3);
+            read.setReadBases(new byte[]{'A', "ACGT".getBytes()[random.nextInt(4)], 'A'});
+            read.setBaseQualities(new byte[]{30, (byte) random.nextInt(40), 30});
+            read.setMappingQuality(random.nextInt(4) * 20);
+            read.setReadNegativeStrandFlag(random.nextBoolean());
+            if ( random.nextInt(5) > 0 )
+                read.setAttribute("RG", readGroups.get(random.nextInt(readGroups.size())).getId());
+
+            final boolean isDeletion = random.nextInt(10) == 0;
+            read.setCigarString(isDeletion ? "1M1D2M" : "3M");
+            elts.add(isDeletion
+                    ? new PileupElement(read, 0, read.getCigar().getCigarElement(1), 1, 0)
+                    : new PileupElement(read, 1, read.getCigar().getCigarElement(0), 0, 1));
+        }
+
+        return new ReadBackedPileupImpl(loc, elts);
+    }
+
+    private List<PileupElement> elements(final ReadBackedPileup pileup) {
+        final List<PileupElement> elts = new ArrayList<PileupElement>();
+        if ( pileup != null )
+            for ( final PileupElement p : pileup )
+                elts.add(p);
+        return elts;
+    }
+
+    private List<PileupElement> filter(final ReadBackedPileup pileup, final PileupElementFilter filter) {
+        final List<PileupElement> elts = new ArrayList<PileupElement>();
+        for ( final PileupElement p : pileup )
+            if ( filter.allow(p) )
+                elts.add(p);
+        return elts;
+    }
+
+    private void assertColumnsMatchElements(final ReadBackedPileup pileup) {
+        final List<PileupElement> elts = elements(pileup);
+        Assert.assertEquals(pileup.getNumberOfElements(), elts.size());
+
+        final byte[] bases = pileup.getBases();
+        final byte[] quals = pileup.getQuals();
+        final int[] mappingQuals = pileup.getMappingQuals();
+        final List<Integer> offsets = pileup.getOffsets();
+        final int[] baseCounts = new int[4];
+        int nDeletions = 0, nMQ0 = 0;
+        for ( int i = 0; i < elts.size(); i++ ) {
+            final PileupElement p = elts.get(i);
+            Assert.assertEquals(bases[i], p.getBase());
+            Assert.assertEquals(quals[i], p.getQual());
+            Assert.assertEquals(mappingQuals[i], p.getMappingQual());
+            Assert.assertEquals((int) offsets.get(i), p.getOffset());
+            if ( p.isDeletion() ) nDeletions++;
+            else baseCounts[BaseUtils.simpleBaseToBaseIndex(p.getBase())]++;
+            if ( p.getMappingQual() == 0 ) nMQ0++;
+        }
+
+        Assert.assertEquals(pileup.getBaseCounts(), baseCounts);
+        Assert.assertEquals(pileup.getNumberOfDeletions(), nDeletions);
+        Assert.assertEquals(pileup.getNumberOfMappingQualityZeroReads(), nMQ0);
+    }
+
+    @Test
+    public void testColumnarFiltersMatchElementFilters() {
+        final ReadBackedPileupImpl pileup = makeMixedPileup(200);
+        assertColumnsMatchElements(pileup);
+
+        final ReadBackedPileup noDeletions = pileup.getPileupWithoutDeletions();
+        Assert.assertEquals(elements(noDeletions), filter(pileup, new PileupElementFilter() {
+            public boolean allow(final PileupElement p) { return ! p.isDeletion(); }
+        }));
+        assertColumnsMatchElements(noDeletions);
+
+        final ReadBackedPileup noMQ0 = pileup.getPileupWithoutMappingQualityZeroReads();
+        Assert.assertEquals(elements(noMQ0), filter(pileup, new PileupElementFilter() {
+            public boolean allow(final PileupElement p) { return p.getMappingQual() > 0; }
+        }));
+
+        final ReadBackedPileup positive = pileup.getPositiveStrandPileup();
+        final ReadBackedPileup negative = pileup.getNegativeStrandPileup();
+        Assert.assertEquals(positive.getNumberOfElements() + negative.getNumberOfElements(), pileup.getNumberOfElements());
+        for ( final PileupElement p : positive ) Assert.assertFalse(p.getRead().getReadNegativeStrandFlag());
+        for ( final PileupElement p : negative ) Assert.assertTrue(p.getRead().getReadNegativeStrandFlag());
+
+        final ReadBackedPileup baseAndMapping = pileup.getBaseAndMappingFilteredPileup(20, 20);
+        Assert.assertEquals(elements(baseAndMapping), filter(pileup, new PileupElementFilter() {
+            public boolean allow(final PileupElement p) { return p.getMappingQual() >= 20 && (p.isDeletion() || p.getQual() >= 20); }
+        }));
+        assertColumnsMatchElements(baseAndMapping);
+
+        // views of views share the original columns
+        final ReadBackedPileup chained = positive.getBaseFilteredPileup(10).getPileupForSample("sample1");
+        Assert.assertEquals(elements(chained), filter(pileup, new PileupElementFilter() {
+            public boolean allow(final PileupElement p) {
+                return ! p.getRead().getReadNegativeStrandFlag()
+                        && (p.isDeletion() || p.getQual() >= 10)
+                        && p.getRead().getReadGroup() != null && "sample1".equals(p.getRead().getReadGroup().getSample());
+            }
+        }));
+        assertColumnsMatchElements(chained);
+    }
+
+    @Test
+    public void testColumnarSampleViews() {
+        final ReadBackedPileupImpl pileup = makeMixedPileup(200);
+
+        Assert.assertEquals(new HashSet<String>(pileup.getSamples()), new HashSet<String>(Arrays.asList("sample0", "sample1", "sample2", null)));
+        Assert.assertEquals(new HashSet<String>(pileup.getPositiveStrandPileup().getSamples()),
+                new HashSet<String>(Arrays.asList("sample0", "sample1", "sample2", null)));
+
+        int total = 0;
+        for ( final String sample : Arrays.asList("sample0", "sample1", "sample2") ) {
+            final ReadBackedPileup samplePileup = pileup.getPileupForSample(sample);
+            Assert.assertEquals(samplePileup.getSamples(), Collections.singleton(sample));
+            Assert.assertEquals(elements(samplePileup), filter(pileup, new PileupElementFilter() {
+                public boolean allow(final PileupElement p) { return p.getRead().getReadGroup() != null && sample.equals(p.getRead().getReadGroup().getSample()); }
+            }));
+            Assert.assertEquals(elements(pileup.getPileupForSamples(Collections.singleton(sample))), elements(samplePileup));
+            total += samplePileup.getNumberOfElements();
+        }
+
+        // asking for the null sample on its own also selects reads without any read group...
+        final List<PileupElement> withoutSample = filter(pileup, new PileupElementFilter() {
+            public boolean allow(final PileupElement p) { return p.getRead().getReadGroup() == null || p.getRead().getReadGroup().getSample() == null; }
+        });
+        Assert.assertEquals(elements(pileup.getPileupForSample(null)), withoutSample);
+        Assert.assertEquals(elements(pileup.getPileupForSamples(null)), withoutSample);
+        total += withoutSample.size();
+        Assert.assertEquals(total, pileup.getNumberOfElements());
+
+        // ...but a null name among sample names only selects reads whose read group has no sample
+        final List<PileupElement> readGroupWithoutSample = filter(pileup, new PileupElementFilter() {
+            public boolean allow(final PileupElement p) { return p.getRead().getReadGroup() != null && p.getRead().getReadGroup().getSample() == null; }
+        });
+        Assert.assertTrue(readGroupWithoutSample.size() > 0 && readGroupWithoutSample.size() < withoutSample.size());
+        Assert.assertEquals(elements(pileup.getPileupForSamples(Collections.<String>singleton(null))), readGroupWithoutSample);
+        Assert.assertEquals(elements(pileup.getPileupForSamples(Arrays.asList("sample1", null))), filter(pileup, new PileupElementFilter() {
+            public boolean allow(final PileupElement p) { return p.getRead().getReadGroup() != null && (p.getRead().getReadGroup().getSample() == null || "sample1".equals(p.getRead().getReadGroup().getSample())); }
+        }));
+        Assert.assertEquals(elements(pileup.getPileupsForSamples(Collections.<String>singleton(null)).get(null)), readGroupWithoutSample);
+
+        final Map<String, ReadBackedPileup> bySample = pileup.getPileupsForSamples(Arrays.asList("sample0", "sample2", "missing"));
+        Assert.assertEquals(bySample.keySet(), new HashSet<String>(Arrays.asList("sample0", "sample2", "missing")));
+        Assert.assertEquals(elements(bySample.get("sample0")), elements(pileup.getPileupForSample("sample0")));
+        Assert.assertEquals(elements(bySample.get("sample2")), elements(pileup.getPileupForSample("sample2")));
+        Assert.assertTrue(bySample.get("missing").isEmpty());
+        Assert.assertNull(pileup.getPileupForSample("missing"));
+
+        final List<PileupElement> all = elements(pileup);
+        final List<PileupElement> downsampled = elements(pileup.getDownsampledPileup(50));
+        Assert.assertEquals(downsampled.size(), 50);
+        int lastIndex = -1;
+        for ( final PileupElement p : downsampled ) {
+            final int index = all.indexOf(p);
+            Assert.assertTrue(index > lastIndex, "Downsampled pileup should preserve the original order");
+            lastIndex = index;
+        }
+    }
+}
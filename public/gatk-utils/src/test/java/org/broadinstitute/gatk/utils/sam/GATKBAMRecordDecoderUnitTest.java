@@ -0,0 +1,109 @@
+/*
+* Copyright (c) 2012 The Broad Institute
+* 
+* Permission is hereby granted, free of charge, to any person
+* obtaining a copy of this software and associated documentation
+* files (the "Software"), to deal in the Software without
+* restriction, including without limitation the rights to use,
+* copy, modify, merge, publish, distribute, sublicense, and/or sell
+* copies of the Software, and to permit persons to whom the
+* Software is furnished to do so, subject to the following
+* conditions:
+* 
+* The above copyright notice and this permission notice shall be
+* included in all copies or substantial portions of the Software.
+* 
+* THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+* EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES
+* OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+* NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+* HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY,
+* WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+* FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR
+* THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+*/
+package org.broadinstitute.gatk.utils.sam;
+
+import htsjdk.samtools.BAMRecordCodec;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import org.broadinstitute.gatk.utils.BaseTest;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class GATKBAMRecordDecoderUnitTest extends BaseTest {
+    private final static SAMFileHeader header = ArtificialSAMUtils.createArtificialSamHeader(2, 1, 1000);
+
+    @DataProvider(name = "DecoderTest")
+    public Object[][] makeDecoderTest() {
+        final List<Object[]> tests = new ArrayList<>();
+
+        final GATKSAMRecord simple = ArtificialSAMUtils.createArtificialRead(header, "simple", 0, 10, 7);
+        tests.add(new Object[]{Arrays.asList(simple)});
+
+        final GATKSAMRecord complex = ArtificialSAMUtils.createArtificialRead(header, "complex", 1, 100, "ACGTNACGT".getBytes(), new byte[]{10, 20, 30, 2, 40, 5, 6, 7, 8}, "2S3M1I2M1D1M");
+        complex.setMappingQuality(37);
+        complex.setReadPairedFlag(true);
+        complex.setReadNegativeStrandFlag(true);
+        complex.setMateReferenceIndex(0);
+        complex.setMateAlignmentStart(50);
+        complex.setInferredInsertSize(-62);
+        complex.setAttribute("NM", 2);
+        complex.setAttribute("XS", "a string");
+        complex.setAttribute("XC", 'c');
+        complex.setAttribute("XF", 1.5f);
+        complex.setAttribute("XB", new byte[]{1, -2, 3});
+        complex.setAttribute("XI", new int[]{-100000, 100000});
+        complex.setUnsignedArrayAttribute("XU", new short[]{1, 2, 3});
+        tests.add(new Object[]{Arrays.asList(complex)});
+
+        final GATKSAMRecord unmapped = ArtificialSAMUtils.createArtificialRead(header, "unmapped", SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX, SAMRecord.NO_ALIGNMENT_START, 4);
+        unmapped.setReadUnmappedFlag(true);
+        unmapped.setBaseQualities(SAMRecord.NULL_QUALS);
+        tests.add(new Object[]{Arrays.asList(unmapped)});
+
+        final GATKSAMRecord noBases = ArtificialSAMUtils.createArtificialRead(header, "noBases", 0, 20, 1);
+        noBases.setReadBases(SAMRecord.NULL_SEQUENCE);
+        noBases.setBaseQualities(SAMRecord.NULL_QUALS);
+        noBases.setCigarString("*");
+        tests.add(new Object[]{Arrays.asList(noBases)});
+
+        tests.add(new Object[]{Arrays.asList(simple, complex, unmapped, noBases)});
+        tests.add(new Object[]{new ArrayList<GATKSAMRecord>()});
+
+        return tests.toArray(new Object[][]{});
+    }
+
+    @Test(dataProvider = "DecoderTest")
+    public void testDecoder(final List<GATKSAMRecord> reads) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final BAMRecordCodec codec = new BAMRecordCodec(header);
+        codec.setOutputStream(out);
+        for ( final GATKSAMRecord read : reads )
+            codec.encode(read);
+
+        final GATKBAMRecordDecoder decoder = new GATKBAMRecordDecoder(header, new ByteArrayInputStream(out.toByteArray()));
+        for ( final GATKSAMRecord read : reads ) {
+            final GATKSAMRecord decoded = decoder.decode();
+            Assert.assertNotNull(decoded, "Ran out of records before " + read.getReadName());
+            Assert.assertEquals(decoded.getSAMString(), read.getSAMString());
+            Assert.assertEquals(decoded.getReadBases(), read.getReadBases());
+            Assert.assertEquals(decoded.getBaseQualities(), read.getBaseQualities());
+            Assert.assertEquals(decoded.getAttributes().size(), read.getAttributes().size());
+            for ( final SAMRecord.SAMTagAndValue attribute : read.getAttributes() ) {
+                final Object value = decoded.getAttribute(attribute.tag);
+                Assert.assertNotNull(value, "Missing attribute " + attribute.tag);
+                Assert.assertEquals(value.getClass(), attribute.value.getClass(), "Wrong type for attribute " + attribute.tag);
+                Assert.assertEquals(decoded.isUnsignedArrayAttribute(attribute.tag), read.isUnsignedArrayAttribute(attribute.tag), "Wrong signedness for attribute " + attribute.tag);
+            }
+        }
+        Assert.assertNull(decoder.decode());
+    }
+}